@@ -66,6 +66,12 @@ import java.lang.reflect.Method;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -89,6 +95,10 @@ import java.util.zip.GZIPOutputStream;
  * -x number <br/>
  * The number of folds for the cross-validation (default: 10). <p/>
  *
+ * -cv-slots number <br/>
+ * The number of folds of the cross-validation run at the same time
+ * (default: 1, 0 for one per processor). <p/>
+ *
  * -no-cv <br/>
  * No cross validation.  If no test file is provided, no evaluation
  * is done. <p/>
@@ -481,6 +491,157 @@ public class Evaluation
     m_NumFolds = numFolds;
   }
 
+  /**
+   * Performs a (stratified if class is nominal) cross-validation 
+   * for a classifier on a set of instances, running several folds at
+   * the same time. The folds are drawn as in the sequential
+   * cross-validation. Each fold builds its own copy of the classifier
+   * and evaluates it with its own Evaluation object; the predictions of
+   * the folds are then added to this evaluation in the order of the
+   * folds, so that the statistics and the printed predictions are the
+   * same as with the sequential cross-validation.
+   *
+   * @param classifier the classifier with any options set.
+   * @param data the data on which the cross-validation is to be 
+   * performed 
+   * @param numFolds the number of folds for the cross-validation
+   * @param numSlots the number of folds to run at the same time,
+   * 0 for one per processor
+   * @param random random number generator for randomization 
+   * @param forPredictionsPrinting varargs parameter that, if supplied, is
+   * expected to hold a StringBuffer to print predictions to, 
+   * a Range of attributes to output and a Boolean (true if the distribution
+   * is to be printed)
+   * @throws Exception if a classifier could not be generated 
+   * successfully or the class is not defined
+   */
+  public void crossValidateModel(Classifier classifier,
+                                 Instances data, int numFolds, int numSlots,
+                                 Random random, Object... forPredictionsPrinting) 
+  throws Exception {
+
+    if (numSlots < 1)
+      numSlots = Runtime.getRuntime().availableProcessors();
+    if (numSlots > numFolds)
+      numSlots = numFolds;
+    if (numSlots <= 1) {
+      crossValidateModel(classifier, data, numFolds, random, 
+                         forPredictionsPrinting);
+      return;
+    }
+
+    // Make a copy of the data we can reorder
+    data = new Instances(data);
+    data.randomize(random);
+    if (data.classAttribute().isNominal()) {
+      data.stratify(numFolds);
+    }
+
+    StringBuffer buff = null;
+    Range attsToOutput = null;
+    Boolean printDist = null;
+    if (forPredictionsPrinting.length > 0) {
+      // print the header first
+      buff = (StringBuffer)forPredictionsPrinting[0];
+      attsToOutput = (Range)forPredictionsPrinting[1];
+      printDist = (Boolean)forPredictionsPrinting[2];
+      printClassificationsHeader(data, attsToOutput, 
+                                 printDist.booleanValue(), buff);
+    }
+
+    ExecutorService executor = 
+      Executors.newFixedThreadPool(numSlots, new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "Evaluation");
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    Instances[] trains = new Instances[numFolds];
+    Instances[] tests = new Instances[numFolds];
+    Future[] folds = new Future[numFolds];
+    try {
+      // at most numSlots folds are drawn but not yet added
+      int next = 0;
+      for (int i = 0; i < numFolds; i++) {
+        if (i - next == numSlots) {
+          addFold(trains[next], tests[next], folds[next], buff);
+          trains[next] = tests[next] = null;
+          folds[next++] = null;
+        }
+        trains[i] = data.trainCV(numFolds, i, random);
+        tests[i] = data.testCV(numFolds, i);
+        final Classifier copiedClassifier = Classifier.makeCopy(classifier);
+        final Instances train = trains[i];
+        final Instances test = tests[i];
+        final StringBuffer foldBuff = (buff == null) ? null : new StringBuffer();
+        final Object[] foldPrinting = (buff == null) 
+          ? new Object[0] : new Object[]{foldBuff, attsToOutput, printDist};
+        folds[i] = executor.submit(new Callable() {
+          public Object call() throws Exception {
+            copiedClassifier.buildClassifier(train);
+            Evaluation foldEval = new Evaluation(train);
+            double[] predictions = 
+              foldEval.evaluateModel(copiedClassifier, test, foldPrinting);
+            return new Object[]{foldEval, predictions, foldBuff};
+          }
+        });
+      }
+      while (next < numFolds) {
+        addFold(trains[next], tests[next], folds[next], buff);
+        trains[next] = tests[next] = null;
+        folds[next++] = null;
+      }
+    }
+    finally {
+      executor.shutdownNow();
+    }
+    m_NumFolds = numFolds;
+  }
+
+  /**
+   * Waits for a fold of a parallel cross-validation and adds its
+   * predictions to this evaluation, as evaluating the classifier of the
+   * fold on its test set would have.
+   *
+   * @param train the training set of the fold
+   * @param test the test set of the fold
+   * @param fold the task evaluating the fold
+   * @param buff the buffer to print the predictions to, null if they
+   * are not printed
+   * @throws Exception if the fold failed
+   */
+  protected void addFold(Instances train, Instances test, Future fold,
+                         StringBuffer buff) throws Exception {
+
+    Object[] result;
+    try {
+      result = (Object[])fold.get();
+    }
+    catch (ExecutionException e) {
+      if (e.getCause() instanceof Exception)
+        throw (Exception)e.getCause();
+      throw e;
+    }
+    Evaluation foldEval = (Evaluation)result[0];
+    double[] predictions = (double[])result[1];
+
+    setPriors(train);
+    for (int i = 0; i < test.numInstances(); i++) {
+      double[] dist;
+      if (m_ClassIsNominal) {
+        dist = ((NominalPrediction)foldEval.predictions().elementAt(i))
+          .distribution();
+      } else {
+        dist = new double[]{predictions[i]};
+      }
+      evaluateModelOnceAndRecordPrediction(dist, test.instance(i));
+    }
+    if (buff != null) {
+      buff.append((StringBuffer)result[2]);
+    }
+  }
+
   /**
    * Performs a (stratified if class is nominal) cross-validation 
    * for a classifier on a set of instances.
@@ -523,6 +684,10 @@ public class Evaluation
    * -x number <br/>
    * The number of folds for the cross-validation (default: 10). <p/>
    *
+   * -cv-slots number <br/>
+   * The number of folds of the cross-validation run at the same time
+   * (default: 1, 0 for one per processor). <p/>
+   *
    * -no-cv <br/>
    * No cross validation.  If no test file is provided, no evaluation
    * is done. <p/>
@@ -652,6 +817,10 @@ public class Evaluation
    * -x number of folds <br/>
    * The number of folds for the cross-validation (default: 10). <p/>
    *
+   * -cv-slots number <br/>
+   * The number of folds of the cross-validation run at the same time
+   * (default: 1, 0 for one per processor). <p/>
+   *
    * -no-cv <br/>
    * No cross validation.  If no test file is provided, no evaluation
    * is done. <p/>
@@ -719,7 +888,7 @@ public class Evaluation
       String [] options) throws Exception {
 
     Instances train = null, tempTrain, test = null, template = null;
-    int seed = 1, folds = 10, classIndex = -1;
+    int seed = 1, folds = 10, cvSlots = 1, classIndex = -1;
     boolean noCrossValidation = false;
     String trainFileName, testFileName, sourceClass, 
     classIndexString, seedString, foldsString, objectInputFileName, 
@@ -820,6 +989,10 @@ public class Evaluation
       if (foldsString.length() != 0) {
 	folds = Integer.parseInt(foldsString);
       }
+      String cvSlotsString = Utils.getOption("cv-slots", options);
+      if (cvSlotsString.length() != 0) {
+	cvSlots = Integer.parseInt(cvSlotsString);
+      }
       seedString = Utils.getOption('s', options);
       if (seedString.length() != 0) {
 	seed = Integer.parseInt(seedString);
@@ -1256,7 +1429,7 @@ public class Evaluation
         if (!printClassifications) {
           testingEvaluation.crossValidateModel(classifier, 
                                                trainSource.getDataSet(actualClassIndex), 
-                                               folds, random);
+                                               folds, cvSlots, random);
           if (template.classAttribute().isNumeric()) {
             text.append("\n\n\n" + testingEvaluation.
                         toSummaryString("=== Cross-validation ===\n",
@@ -1272,7 +1445,8 @@ public class Evaluation
           predsBuff.append("\n=== Predictions under cross-validation ===\n\n");
           testingEvaluation.crossValidateModel(classifier,
                                                trainSource.getDataSet(actualClassIndex),
-                                               folds, random, predsBuff, attributesToOutput, 
+                                               folds, cvSlots, random, predsBuff, 
+                                               attributesToOutput, 
                                                new Boolean(printDistribution));
 /*          if (template.classAttribute().isNumeric()) {
             text.append("\n\n\n" + testingEvaluation.
@@ -3291,6 +3465,9 @@ public class Evaluation
     optionsText.append("\tSets index of class attribute (default: last).\n");
     optionsText.append("-x <number of folds>\n");
     optionsText.append("\tSets number of folds for cross-validation (default: 10).\n");
+    optionsText.append("-cv-slots <number of folds in parallel>\n");
+    optionsText.append("\tSets number of folds of the cross-validation that are run at the\n");
+    optionsText.append("\tsame time (default: 1, 0 = one per processor).\n");
     optionsText.append("-no-cv\n");
     optionsText.append("\tDo not perform any cross validation.\n");
     optionsText.append("-split-percentage <percentage>\n");
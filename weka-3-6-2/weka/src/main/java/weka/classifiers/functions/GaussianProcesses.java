@@ -109,6 +109,16 @@ import java.util.Vector;
  *  -1 to turn it off.
  *  (default: 250007)</pre>
  * 
+ * <pre> -M &lt;num&gt;
+ *  The memory budget of the kernel row cache in MB, 0 to turn it
+ *  off. If used, it replaces the cache above.
+ *  (default: 0)</pre>
+ * 
+ * <pre> -T &lt;num&gt;
+ *  The number of threads used for computing kernel rows,
+ *  0 for one per available processor.
+ *  (default: 1)</pre>
+ * 
  * <pre> -G &lt;num&gt;
  *  The Gamma parameter.
  *  (default: 0.01)</pre>
@@ -607,6 +617,16 @@ public class GaussianProcesses
    *  -1 to turn it off.
    *  (default: 250007)</pre>
    * 
+   * <pre> -M &lt;num&gt;
+   *  The memory budget of the kernel row cache in MB, 0 to turn it
+   *  off. If used, it replaces the cache above.
+   *  (default: 0)</pre>
+   * 
+   * <pre> -T &lt;num&gt;
+   *  The number of threads used for computing kernel rows,
+   *  0 for one per available processor.
+   *  (default: 1)</pre>
+   * 
    * <pre> -G &lt;num&gt;
    *  The Gamma parameter.
    *  (default: 0.01)</pre>
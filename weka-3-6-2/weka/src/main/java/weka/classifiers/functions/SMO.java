@@ -51,6 +51,7 @@ import weka.filters.unsupervised.attribute.ReplaceMissingValues;
 import weka.filters.unsupervised.attribute.Standardize;
 
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.Random;
 import java.util.Vector;
@@ -148,6 +149,9 @@ import java.util.Vector;
  * <pre> -M
  *  Fit logistic models to SVM outputs. </pre>
  * 
+ * <pre> -shrinking
+ *  Use shrinking heuristics.</pre>
+ * 
  * <pre> -V &lt;double&gt;
  *  The number of folds for the internal
  *  cross-validation. (default -1, use training data)</pre>
@@ -176,6 +180,16 @@ import java.util.Vector;
  *  -1 to turn it off.
  *  (default: 250007)</pre>
  * 
+ * <pre> -M &lt;num&gt;
+ *  The memory budget of the kernel row cache in MB, 0 to turn it
+ *  off. If used, it replaces the cache above.
+ *  (default: 0)</pre>
+ * 
+ * <pre> -T &lt;num&gt;
+ *  The number of threads used for computing kernel rows,
+ *  0 for one per available processor.
+ *  (default: 1)</pre>
+ * 
  * <pre> -E &lt;num&gt;
  *  The Exponent to use.
  *  (default: 1.0)</pre>
@@ -529,14 +543,38 @@ public class SMO
 	}
       }
       
+      // Counts for how many consecutive passes over all examples an
+      // example at a bound has clearly satisfied the optimality conditions
+      int[] satisfied = null;
+      if (m_useShrinking) {
+	satisfied = new int[m_alpha.length];
+      }
+
       // Loop to find all the support vectors
       int numChanged = 0;
+      int numSkipped = 0;
       boolean examineAll = true;
       while ((numChanged > 0) || examineAll) {
 	numChanged = 0;
+	numSkipped = 0;
 	if (examineAll) {
 	  for (int i = 0; i < m_alpha.length; i++) {
-	    if (examineExample(i)) {
+	    if (satisfied != null) {
+	      
+	      // Leave out examples that have been shrunk
+	      if ((satisfied[i] >= SHRINKING_PASSES) && !m_I0.contains(i)) {
+		numSkipped++;
+		continue;
+	      }
+	      if (examineExample(i)) {
+		numChanged++;
+	      }
+	      if (canBeShrunk(i)) {
+		satisfied[i]++;
+	      } else {
+		satisfied[i] = 0;
+	      }
+	    } else if (examineExample(i)) {
 	      numChanged++;
 	    }
 	  }
@@ -568,6 +606,12 @@ public class SMO
 	
 	if (examineAll) {
 	  examineAll = false;
+	  
+	  // Before stopping, check the examples that have been shrunk
+	  if ((numChanged == 0) && (numSkipped > 0)) {
+	    Arrays.fill(satisfied, 0);
+	    examineAll = true;
+	  }
 	} else if (numChanged == 0) {
 	  examineAll = true;
 	}
@@ -842,6 +886,27 @@ public class SMO
       return takeStep(i1, i2, F2);
     }
 
+    /**
+     * Checks whether an example that has just been examined can be left
+     * out of the following passes over all examples (shrinking). This is
+     * the case if its multiplier is at a bound and its error lies beyond
+     * the threshold of the opposite side, so that it is unlikely to
+     * violate the optimality conditions again.
+     *
+     * @param i index of the example
+     * @return true if the example can be shrunk
+     */
+    protected boolean canBeShrunk(int i) {
+
+      if (m_I0.contains(i) || (i == m_iUp) || (i == m_iLow)) {
+	return false;
+      }
+      if (m_I1.contains(i) || m_I2.contains(i)) {
+	return m_errors[i] > m_bLow;
+      }
+      return m_errors[i] < m_bUp;
+    }
+
     /**
      * Method solving for the Lagrange multipliers for
      * two instances.
@@ -1186,6 +1251,13 @@ public class SMO
   /** Whether logistic models are to be fit */
   protected boolean m_fitLogisticModels = false;
 
+  /** Whether to use shrinking heuristics */
+  protected boolean m_useShrinking = false;
+
+  /** The number of passes over all examples for which an example must
+      satisfy the optimality conditions before it is shrunk */
+  protected static final int SHRINKING_PASSES = 2;
+
   /** The number of folds for the internal cross-validation */
   protected int m_numFolds = -1;
 
@@ -1614,6 +1686,10 @@ public class SMO
 	"\tFit logistic models to SVM outputs. ",
 	"M", 0, "-M"));
     
+    result.addElement(new Option(
+	"\tUse shrinking heuristics.",
+	"shrinking", 0, "-shrinking"));
+    
     result.addElement(new Option(
 	"\tThe number of folds for the internal\n" +
 	"\tcross-validation. " +
@@ -1676,6 +1752,9 @@ public class SMO
    * <pre> -M
    *  Fit logistic models to SVM outputs. </pre>
    * 
+   * <pre> -shrinking
+   *  Use shrinking heuristics.</pre>
+   * 
    * <pre> -V &lt;double&gt;
    *  The number of folds for the internal
    *  cross-validation. (default -1, use training data)</pre>
@@ -1704,6 +1783,16 @@ public class SMO
    *  -1 to turn it off.
    *  (default: 250007)</pre>
    * 
+   * <pre> -M &lt;num&gt;
+   *  The memory budget of the kernel row cache in MB, 0 to turn it
+   *  off. If used, it replaces the cache above.
+   *  (default: 0)</pre>
+   * 
+   * <pre> -T &lt;num&gt;
+   *  The number of threads used for computing kernel rows,
+   *  0 for one per available processor.
+   *  (default: 1)</pre>
+   * 
    * <pre> -E &lt;num&gt;
    *  The Exponent to use.
    *  (default: 1.0)</pre>
@@ -1749,6 +1838,8 @@ public class SMO
     
     setBuildLogisticModels(Utils.getFlag('M', options));
     
+    setUseShrinking(Utils.getFlag("shrinking", options));
+    
     tmpStr = Utils.getOption('V', options);
     if (tmpStr.length() != 0)
       setNumFolds(Integer.parseInt(tmpStr));
@@ -1805,6 +1896,9 @@ public class SMO
     if (getBuildLogisticModels())
       result.add("-M");
     
+    if (getUseShrinking())
+      result.add("-shrinking");
+    
     result.add("-V");
     result.add("" + getNumFolds());
     
@@ -2023,6 +2117,37 @@ public class SMO
     m_fitLogisticModels = newbuildLogisticModels;
   }
      
+  /**
+   * Returns the tip text for this property
+   * @return tip text for this property suitable for
+   * displaying in the explorer/experimenter gui
+   */
+  public String useShrinkingTipText() {
+    return "Whether to use shrinking heuristics, i.e., to leave examples "
+      + "that are unlikely to change out of the optimization (can speed up "
+      + "training on large datasets).";
+  }
+
+  /**
+   * Get the value of useShrinking.
+   *
+   * @return Value of useShrinking.
+   */
+  public boolean getUseShrinking() {
+    
+    return m_useShrinking;
+  }
+  
+  /**
+   * Set the value of useShrinking.
+   *
+   * @param value Value to assign to useShrinking.
+   */
+  public void setUseShrinking(boolean value) {
+    
+    m_useShrinking = value;
+  }
+     
   /**
    * Returns the tip text for this property
    * @return tip text for this property suitable for
@@ -145,6 +145,16 @@ import java.util.Vector;
  *  -1 to turn it off.
  *  (default: 250007)</pre>
  * 
+ * <pre> -M &lt;num&gt;
+ *  The memory budget of the kernel row cache in MB, 0 to turn it
+ *  off. If used, it replaces the cache above.
+ *  (default: 0)</pre>
+ * 
+ * <pre> -T &lt;num&gt;
+ *  The number of threads used for computing kernel rows,
+ *  0 for one per available processor.
+ *  (default: 1)</pre>
+ * 
  * <pre> -E &lt;num&gt;
  *  The Exponent to use.
  *  (default: 1.0)</pre>
@@ -368,6 +378,16 @@ public class SMOreg
    *  -1 to turn it off.
    *  (default: 250007)</pre>
    * 
+   * <pre> -M &lt;num&gt;
+   *  The memory budget of the kernel row cache in MB, 0 to turn it
+   *  off. If used, it replaces the cache above.
+   *  (default: 0)</pre>
+   * 
+   * <pre> -T &lt;num&gt;
+   *  The number of threads used for computing kernel rows,
+   *  0 for one per available processor.
+   *  (default: 1)</pre>
+   * 
    * <pre> -E &lt;num&gt;
    *  The Exponent to use.
    *  (default: 1.0)</pre>
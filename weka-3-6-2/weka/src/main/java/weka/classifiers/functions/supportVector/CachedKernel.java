@@ -27,13 +27,27 @@ import weka.core.Instances;
 import weka.core.Option;
 import weka.core.Utils;
 
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Base class for RBFKernel and PolyKernel that implements a simple LRU.
  * (least-recently-used) cache if the cache size is set to a value > 0.
- * Otherwise it uses a full cache.
+ * Otherwise it uses a full cache. <p/>
+ * 
+ * Alternatively, if a memory budget for the row cache is given, whole rows
+ * of the kernel matrix are computed at once (optionally with several
+ * threads) and kept in an LRU cache of rows, as done by LibSVM. Since SMO
+ * mostly needs all kernel values of the instance it is currently working
+ * on, this avoids most of the repeated kernel evaluations on large
+ * datasets, where the per-value cache is far too small.
  * 
  * @author Eibe Frank (eibe@cs.waikato.ac.nz)
  * @author Shane Legg (shane@intelligenesis.net) (sparse vector code)
@@ -71,6 +85,42 @@ public abstract class CachedKernel
   /** number of cache slots in an entry */
   protected int m_cacheSlots = 4;
 
+  /** The memory budget of the row cache in MB, 0 to turn it off */
+  protected int m_rowCacheSize = 0;
+
+  /** The number of threads used for computing a kernel row */
+  protected int m_numThreads = 1;
+
+  /** The minimum number of kernel values computed by a single thread */
+  protected int m_minBlockSize = 1000;
+
+  /** The cached kernel rows, one per slot */
+  protected double[][] m_rows;
+
+  /** The slot of the row of each instance, -1 if the row is not cached */
+  protected int[] m_rowSlots;
+
+  /** The instance whose row is stored in each slot */
+  protected int[] m_slotRows;
+
+  /** The slots in LRU order, as a doubly linked list */
+  protected int[] m_slotPrev;
+  protected int[] m_slotNext;
+
+  /** The most and least recently used slots */
+  protected int m_firstSlot;
+  protected int m_lastSlot;
+
+  /** The number of slots in use */
+  protected int m_numSlotsUsed;
+
+  /** The diagonal of the kernel matrix (NaN if not computed yet), used
+   * with the row cache */
+  protected double[] m_diagonal;
+
+  /** The threads computing kernel rows */
+  protected transient ExecutorService m_executor;
+
   /**
    * default constructor - does nothing.
    */
@@ -115,6 +165,18 @@ public abstract class CachedKernel
 	+ "\t(default: 250007)",
 	"C", 1, "-C <num>"));
 
+    result.addElement(new Option(
+	"\tThe memory budget of the kernel row cache in MB, 0 to turn it\n"
+	+ "\toff. If used, it replaces the cache above.\n"
+	+ "\t(default: 0)",
+	"M", 1, "-M <num>"));
+
+    result.addElement(new Option(
+	"\tThe number of threads used for computing kernel rows,\n"
+	+ "\t0 for one per available processor.\n"
+	+ "\t(default: 1)",
+	"T", 1, "-T <num>"));
+
     return result.elements();
   }
 
@@ -133,6 +195,18 @@ public abstract class CachedKernel
     else
       setCacheSize(250007);
     
+    tmpStr = Utils.getOption('M', options);
+    if (tmpStr.length() != 0)
+      setRowCacheSize(Integer.parseInt(tmpStr));
+    else
+      setRowCacheSize(0);
+    
+    tmpStr = Utils.getOption('T', options);
+    if (tmpStr.length() != 0)
+      setNumThreads(Integer.parseInt(tmpStr));
+    else
+      setNumThreads(1);
+    
     super.setOptions(options);
   }
 
@@ -154,6 +228,12 @@ public abstract class CachedKernel
     result.add("-C");
     result.add("" + getCacheSize());
 
+    result.add("-M");
+    result.add("" + getRowCacheSize());
+
+    result.add("-T");
+    result.add("" + getNumThreads());
+
     return (String[]) result.toArray(new String[result.size()]);	  
   }
 
@@ -185,6 +265,11 @@ public abstract class CachedKernel
     long key = -1;
     int location = -1;
 
+    // Use row cache?
+    if ( (id1 >= 0) && (m_rows != null) ) {
+      return rowCacheEval(id1, id2);
+    }
+
     // we can only cache if we know the indexes and caching is not 
     // disbled (m_cacheSize == -1)
     if ( (id1 >= 0) && (m_cacheSize != -1) ) {
@@ -254,6 +339,152 @@ public abstract class CachedKernel
     return result;
   }
 
+  /**
+   * Looks up a kernel value in the row cache. If neither the row of id1
+   * nor the row of id2 is cached, the row of id1 is computed, replacing
+   * the least recently used row. The diagonal is cached separately, since
+   * SMO needs it for all the instances it looks at.
+   *
+   * @param id1 	the index of the first instance in the dataset
+   * @param id2 	the index of the second instance in the dataset
+   * @return 		the result of the kernel function
+   * @throws Exception 	if something goes wrong
+   */
+  protected double rowCacheEval(int id1, int id2) throws Exception {
+
+    if (id1 == id2) {
+      if (Double.isNaN(m_diagonal[id1])) {
+	m_kernelEvals++;
+	m_diagonal[id1] = evaluate(id1, id1, m_data.instance(id1));
+      } else {
+	m_cacheHits++;
+      }
+      return m_diagonal[id1];
+    }
+
+    int slot = m_rowSlots[id1];
+    if (slot != -1) {
+      m_cacheHits++;
+      moveToFront(slot);
+      return m_rows[slot][id2];
+    }
+    slot = m_rowSlots[id2];
+    if (slot != -1) {
+      m_cacheHits++;
+      moveToFront(slot);
+      return m_rows[slot][id1];
+    }
+
+    // take a new slot or evict the least recently used row
+    if (m_numSlotsUsed < m_rows.length) {
+      slot = m_numSlotsUsed++;
+      m_rows[slot] = new double[m_numInsts];
+      m_slotPrev[slot] = -1;
+      m_slotNext[slot] = m_firstSlot;
+      if (m_firstSlot != -1)
+	m_slotPrev[m_firstSlot] = slot;
+      else
+	m_lastSlot = slot;
+      m_firstSlot = slot;
+    } else {
+      slot = m_lastSlot;
+      m_rowSlots[m_slotRows[slot]] = -1;
+      moveToFront(slot);
+    }
+    m_slotRows[slot] = id1;
+    m_rowSlots[id1] = slot;
+    computeRow(id1, m_rows[slot]);
+    m_diagonal[id1] = m_rows[slot][id1];
+
+    return m_rows[slot][id2];
+  }
+
+  /**
+   * Makes a slot of the row cache the most recently used one.
+   *
+   * @param slot	the slot
+   */
+  protected void moveToFront(int slot) {
+
+    if (slot == m_firstSlot)
+      return;
+
+    int prev = m_slotPrev[slot];
+    int next = m_slotNext[slot];
+    m_slotNext[prev] = next;
+    if (next != -1)
+      m_slotPrev[next] = prev;
+    else
+      m_lastSlot = prev;
+
+    m_slotPrev[slot] = -1;
+    m_slotNext[slot] = m_firstSlot;
+    m_slotPrev[m_firstSlot] = slot;
+    m_firstSlot = slot;
+  }
+
+  /**
+   * Computes a whole row of the kernel matrix. The row is split into
+   * blocks that are computed by separate threads, if more than one thread
+   * is to be used.
+   *
+   * @param id		the index of the instance
+   * @param row		the array to store the row in
+   * @throws Exception	if something goes wrong
+   */
+  protected void computeRow(final int id, final double[] row) 
+    throws Exception {
+
+    final Instance inst = m_data.instance(id);
+    int numThreads = m_numThreads;
+    if (numThreads < 1)
+      numThreads = Runtime.getRuntime().availableProcessors();
+    if (numThreads > m_numInsts / m_minBlockSize)
+      numThreads = m_numInsts / m_minBlockSize;
+
+    if (numThreads <= 1) {
+      for (int j = 0; j < m_numInsts; j++)
+	row[j] = evaluate(id, j, inst);
+    } 
+    else {
+      if (m_executor == null)
+	m_executor = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+	  public Thread newThread(Runnable r) {
+	    Thread t = new Thread(r, "CachedKernel");
+	    t.setDaemon(true);
+	    return t;
+	  }
+	});
+
+      Future[] blocks = new Future[numThreads];
+      int start = 0;
+      for (int i = 0; i < numThreads; i++) {
+	final int from = start;
+	final int to = (int) ((long) m_numInsts * (i + 1) / numThreads);
+	blocks[i] = m_executor.submit(new Callable() {
+	  public Object call() throws Exception {
+	    for (int j = from; j < to; j++)
+	      row[j] = evaluate(id, j, inst);
+	    return null;
+	  }
+	});
+	start = to;
+      }
+      for (int i = 0; i < numThreads; i++) {
+	try {
+	  blocks[i].get();
+	}
+	catch (ExecutionException e) {
+	  if (e.getCause() instanceof Exception)
+	    throw (Exception) e.getCause();
+	  throw e;
+	}
+      }
+    }
+
+    m_kernelEvals += m_numInsts;
+  }
+
   /**
    * Returns the number of time Eval has been called.
    * 
@@ -279,6 +510,16 @@ public abstract class CachedKernel
     m_storage = null;
     m_keys = null;
     m_kernelMatrix = null;
+    m_rows = null;
+    m_rowSlots = null;
+    m_slotRows = null;
+    m_slotPrev = null;
+    m_slotNext = null;
+    m_diagonal = null;
+    if (m_executor != null) {
+      m_executor.shutdown();
+      m_executor = null;
+    }
   }
 
   /**
@@ -351,6 +592,81 @@ public abstract class CachedKernel
     return "The size of the cache (a prime number), 0 for full cache and -1 to turn it off.";
   }
 
+  /**
+   * Sets the memory budget of the kernel row cache in MB. If greater than
+   * 0, the row cache is used instead of the cache of single values.
+   * 
+   * @param value	the memory budget in MB
+   */
+  public void setRowCacheSize(int value) {
+    if (value >= 0) {
+      m_rowCacheSize = value;
+      clean();
+    }
+    else {
+      System.out.println(
+	  "Row cache size cannot be smaller than 0 (provided: " + value + ")!");
+    }
+  }
+  
+  /**
+   * Gets the memory budget of the kernel row cache in MB.
+   * 
+   * @return 		the memory budget in MB
+   */
+  public int getRowCacheSize() {
+    return m_rowCacheSize;
+  }
+
+  /**
+   * Returns the tip text for this property
+   * 
+   * @return 		tip text for this property suitable for
+   * 			displaying in the explorer/experimenter gui
+   */
+  public String rowCacheSizeTipText() {
+    return 
+        "The memory budget of the kernel row cache in MB, 0 to turn it off; "
+      + "if used, it replaces the cache of single kernel values.";
+  }
+
+  /**
+   * Sets the number of threads used for computing kernel rows.
+   * 
+   * @param value	the number of threads, 0 for one per processor
+   */
+  public void setNumThreads(int value) {
+    if (value >= 0) {
+      m_numThreads = value;
+      clean();
+    }
+    else {
+      System.out.println(
+	  "Number of threads cannot be smaller than 0 (provided: " + value + ")!");
+    }
+  }
+  
+  /**
+   * Gets the number of threads used for computing kernel rows.
+   * 
+   * @return 		the number of threads
+   */
+  public int getNumThreads() {
+    return m_numThreads;
+  }
+
+  /**
+   * Returns the tip text for this property
+   * 
+   * @return 		tip text for this property suitable for
+   * 			displaying in the explorer/experimenter gui
+   */
+  public String numThreadsTipText() {
+    return 
+        "The number of threads used for computing rows of the kernel "
+      + "matrix (only used by the row cache), 0 for one per processor.";
+  }
+
   /**
    * initializes variables etc.
    * 
@@ -363,7 +679,25 @@ public abstract class CachedKernel
     m_cacheHits   = 0;
     m_numInsts    = m_data.numInstances();
 
-    if (getCacheSize() > 0) {
+    clean();
+    if (getRowCacheSize() > 0) {
+      // Use row cache
+      long numRows = ((long) getRowCacheSize() << 20) 
+        / (8L * Math.max(m_numInsts, 1));
+      numRows = Math.min(m_numInsts, Math.max(2, numRows));
+      m_rows     = new double[(int) numRows][];
+      m_slotRows = new int[m_rows.length];
+      m_slotPrev = new int[m_rows.length];
+      m_slotNext = new int[m_rows.length];
+      m_rowSlots = new int[m_numInsts];
+      m_diagonal = new double[m_numInsts];
+      Arrays.fill(m_rowSlots, -1);
+      Arrays.fill(m_diagonal, Double.NaN);
+      m_firstSlot    = -1;
+      m_lastSlot     = -1;
+      m_numSlotsUsed = 0;
+    }
+    else if (getCacheSize() > 0) {
       // Use LRU cache
       m_storage = new double[m_cacheSize * m_cacheSlots];
       m_keys    = new long[m_cacheSize * m_cacheSlots];
@@ -49,6 +49,16 @@ import weka.core.RevisionUtils;
  *  -1 to turn it off.
  *  (default: 250007)</pre>
  * 
+ * <pre> -M &lt;num&gt;
+ *  The memory budget of the kernel row cache in MB, 0 to turn it
+ *  off. If used, it replaces the cache above.
+ *  (default: 0)</pre>
+ * 
+ * <pre> -T &lt;num&gt;
+ *  The number of threads used for computing kernel rows,
+ *  0 for one per available processor.
+ *  (default: 1)</pre>
+ * 
  * <pre> -E &lt;num&gt;
  *  The Exponent to use.
  *  (default: 1.0)</pre>
@@ -118,7 +128,7 @@ public class NormalizedPolyKernel
   public double eval(int id1, int id2, Instance inst1) 
     throws Exception {
 
-    double div = Math.sqrt(super.eval(id1, id1, inst1) * ((m_keys != null)
+    double div = Math.sqrt(super.eval(id1, id1, inst1) * ((m_keys != null) || (m_rows != null)
                            ? super.eval(id2, id2, m_data.instance(id2))
                            : super.eval(-1, -1, m_data.instance(id2))));
 
@@ -36,9 +36,16 @@ import weka.core.WeightedInstancesHandler;
 import weka.core.TechnicalInformation.Field;
 import weka.core.TechnicalInformation.Type;
 
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.Random;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
  <!-- globalinfo-start -->
@@ -76,6 +83,10 @@ import java.util.Vector;
  * <pre> -O
  *  Calculate the out of bag error.</pre>
  * 
+ * <pre> -num-slots &lt;num&gt;
+ *  Number of execution slots.
+ *  (default 1 - i.e. no parallelism, 0 - one per processor)</pre>
+ * 
  * <pre> -S &lt;num&gt;
  *  Random number seed.
  *  (default 1)</pre>
@@ -140,6 +151,12 @@ public class Bagging
 
   /** The out of bag error that has been calculated */
   protected double m_OutOfBagError;  
+
+  /** The number of iterations built at the same time, 0 for one per processor */
+  protected int m_NumExecutionSlots = 1;
+
+  /** The number of out of bag predictions that are collected at a time */
+  protected static final int OOB_CHUNK_SIZE = 1 << 20;
     
   /**
    * Constructor.
@@ -210,6 +227,10 @@ public class Bagging
     newVector.addElement(new Option(
               "\tCalculate the out of bag error.",
               "O", 0, "-O"));
+    newVector.addElement(new Option(
+              "\tNumber of execution slots.\n"
+              + "\t(default 1 - i.e. no parallelism, 0 - one per processor)",
+              "num-slots", 1, "-num-slots <num>"));
 
     Enumeration enu = super.listOptions();
     while (enu.hasMoreElements()) {
@@ -232,6 +253,10 @@ public class Bagging
    * <pre> -O
    *  Calculate the out of bag error.</pre>
    * 
+   * <pre> -num-slots &lt;num&gt;
+   *  Number of execution slots.
+   *  (default 1 - i.e. no parallelism, 0 - one per processor)</pre>
+   * 
    * <pre> -S &lt;num&gt;
    *  Random number seed.
    *  (default 1)</pre>
@@ -289,6 +314,13 @@ public class Bagging
 
     setCalcOutOfBag(Utils.getFlag('O', options));
 
+    String numSlots = Utils.getOption("num-slots", options);
+    if (numSlots.length() != 0) {
+      setNumExecutionSlots(Integer.parseInt(numSlots));
+    } else {
+      setNumExecutionSlots(1);
+    }
+
     super.setOptions(options);
   }
 
@@ -301,7 +333,7 @@ public class Bagging
 
 
     String [] superOptions = super.getOptions();
-    String [] options = new String [superOptions.length + 3];
+    String [] options = new String [superOptions.length + 5];
 
     int current = 0;
     options[current++] = "-P"; 
@@ -311,6 +343,11 @@ public class Bagging
       options[current++] = "-O";
     }
 
+    if (getNumExecutionSlots() != 1) {
+      options[current++] = "-num-slots"; 
+      options[current++] = "" + getNumExecutionSlots();
+    }
+
     System.arraycopy(superOptions, 0, options, current, 
 		     superOptions.length);
 
@@ -379,6 +416,38 @@ public class Bagging
     return m_CalcOutOfBag;
   }
 
+  /**
+   * Returns the tip text for this property
+   * @return tip text for this property suitable for
+   * displaying in the explorer/experimenter gui
+   */
+  public String numExecutionSlotsTipText() {
+    return "The number of iterations to build at the same time "
+      + "(1 = no parallelism, 0 = one per processor).";
+  }
+
+  /**
+   * Sets the number of iterations built at the same time.
+   *
+   * @param numSlots the number of execution slots, 0 for one per processor
+   */
+  public void setNumExecutionSlots(int numSlots) {
+
+    if (numSlots >= 0) {
+      m_NumExecutionSlots = numSlots;
+    }
+  }
+
+  /**
+   * Gets the number of iterations built at the same time.
+   *
+   * @return the number of execution slots, 0 for one per processor
+   */
+  public int getNumExecutionSlots() {
+
+    return m_NumExecutionSlots;
+  }
+
   /**
    * Gets the out of bag error that was calculated as the classifier
    * was built.
@@ -498,59 +567,181 @@ public class Bagging
 					 "out-of-bag error is to be calculated!");
     }
 
-    int bagSize = data.numInstances() * m_BagSizePercent / 100;
+    final Instances trainData = data;
+    final int bagSize = data.numInstances() * m_BagSizePercent / 100;
     Random random = new Random(m_Seed);
+
+    // every bag is drawn from its own generator and every base classifier
+    // gets its seed beforehand, so the ensemble does not depend on the
+    // order in which the iterations are built
+    final long[] bagSeeds = new long[m_Classifiers.length];
+    for (int j = 0; j < m_Classifiers.length; j++) {
+      bagSeeds[j] = random.nextLong();
+      if (m_Classifier instanceof Randomizable) {
+	((Randomizable) m_Classifiers[j]).setSeed(random.nextInt());
+      }
+    }
     
-    boolean[][] inBag = null;
+    final boolean[][] inBag;
     if (m_CalcOutOfBag)
       inBag = new boolean[m_Classifiers.length][];
-    
-    for (int j = 0; j < m_Classifiers.length; j++) {
-      Instances bagData = null;
+    else
+      inBag = null;
+
+    int numSlots = m_NumExecutionSlots;
+    if (numSlots < 1)
+      numSlots = Runtime.getRuntime().availableProcessors();
+    if (numSlots > m_Classifiers.length)
+      numSlots = m_Classifiers.length;
+
+    ExecutorService executor = null;
+    if (numSlots > 1)
+      executor = Executors.newFixedThreadPool(numSlots, new ThreadFactory() {
+	public Thread newThread(Runnable r) {
+	  Thread t = new Thread(r, "Bagging");
+	  t.setDaemon(true);
+	  return t;
+	}
+      });
 
-      // create the in-bag dataset
-      if (m_CalcOutOfBag) {
-	inBag[j] = new boolean[data.numInstances()];
-	bagData = resampleWithWeights(data, random, inBag[j]);
-      } else {
-	bagData = data.resampleWithWeights(random);
-	if (bagSize < data.numInstances()) {
-	  bagData.randomize(random);
-	  Instances newBagData = new Instances(bagData, 0, bagSize);
-	  bagData = newBagData;
+    try {
+      if (executor == null) {
+	for (int j = 0; j < m_Classifiers.length; j++)
+	  buildIteration(trainData, j, bagSeeds[j], bagSize, inBag);
+      }
+      else {
+	Future[] iterations = new Future[m_Classifiers.length];
+	for (int j = 0; j < m_Classifiers.length; j++) {
+	  final int iteration = j;
+	  iterations[j] = executor.submit(new Callable() {
+	    public Object call() throws Exception {
+	      buildIteration(trainData, iteration, bagSeeds[iteration], bagSize, inBag);
+	      return null;
+	    }
+	  });
 	}
+	waitFor(iterations);
       }
-      
-      if (m_Classifier instanceof Randomizable) {
-	((Randomizable) m_Classifiers[j]).setSeed(random.nextInt());
+
+      // calc OOB error?
+      if (getCalcOutOfBag())
+	m_OutOfBagError = outOfBagError(trainData, inBag, executor, numSlots);
+      else
+	m_OutOfBagError = 0;
+    }
+    finally {
+      if (executor != null)
+	executor.shutdown();
+    }
+  }
+
+  /**
+   * Draws the bag of one iteration and builds its classifier.
+   *
+   * @param data the training data
+   * @param iteration the index of the iteration
+   * @param seed the seed of the bag
+   * @param bagSize the number of instances in the bag
+   * @param inBag the instances in each bag, null if the out of bag
+   * error is not calculated
+   * @throws Exception if the classifier could not be built successfully
+   */
+  protected void buildIteration(Instances data, int iteration, long seed,
+				int bagSize, boolean[][] inBag) throws Exception {
+
+    Random random = new Random(seed);
+    Instances bagData = null;
+
+    // create the in-bag dataset
+    if (inBag != null) {
+      inBag[iteration] = new boolean[data.numInstances()];
+      bagData = resampleWithWeights(data, random, inBag[iteration]);
+    } else {
+      bagData = data.resampleWithWeights(random);
+      if (bagSize < data.numInstances()) {
+	bagData.randomize(random);
+	Instances newBagData = new Instances(bagData, 0, bagSize);
+	bagData = newBagData;
       }
-      
-      // build the classifier
-      m_Classifiers[j].buildClassifier(bagData);
     }
-    
-    // calc OOB error?
-    if (getCalcOutOfBag()) {
-      double outOfBagCount = 0.0;
-      double errorSum = 0.0;
-      boolean numeric = data.classAttribute().isNumeric();
-      
-      for (int i = 0; i < data.numInstances(); i++) {
+
+    // build the classifier
+    m_Classifiers[iteration].buildClassifier(bagData);
+  }
+
+  /**
+   * Calculates the out of bag error. With an executor the classifiers
+   * are split into as many blocks as there are slots, so that each
+   * classifier is only used by one thread. The instances are processed
+   * in chunks whose predictions are kept, and the votes are then counted
+   * in the same order as in a sequential run.
+   *
+   * @param data the training data
+   * @param inBag the instances in each bag
+   * @param executor the executor to use, null to compute sequentially
+   * @param numSlots the number of execution slots
+   * @return the out of bag error
+   * @throws Exception if an instance could not be classified
+   */
+  protected double outOfBagError(final Instances data, final boolean[][] inBag,
+				 ExecutorService executor, int numSlots) 
+    throws Exception {
+
+    final int numClassifiers = m_Classifiers.length;
+    final int chunkSize = 
+      Math.max(1, Math.min(data.numInstances(), OOB_CHUNK_SIZE / numClassifiers));
+    final double[] preds = new double[chunkSize * numClassifiers];
+    final int[] chunk = new int[2];
+    int numBlocks = (executor == null) ? 1 : numSlots;
+    Callable[] tasks = new Callable[numBlocks];
+    Future[] blocks = new Future[numBlocks];
+    int start = 0;
+    for (int b = 0; b < numBlocks; b++) {
+      final int from = start;
+      final int to = (int) ((long) numClassifiers * (b + 1) / numBlocks);
+      tasks[b] = new Callable() {
+	public Object call() throws Exception {
+	  for (int i = chunk[0]; i < chunk[1]; i++) {
+	    int offset = (i - chunk[0]) * numClassifiers;
+	    for (int j = from; j < to; j++) {
+	      if (!inBag[j][i])
+		preds[offset + j] = m_Classifiers[j].classifyInstance(data.instance(i));
+	    }
+	  }
+	  return null;
+	}
+      };
+      start = to;
+    }
+
+    double outOfBagCount = 0.0;
+    double errorSum = 0.0;
+    boolean numeric = data.classAttribute().isNumeric();
+    double[] votes = new double[numeric ? 1 : data.numClasses()];
+    for (chunk[0] = 0; chunk[0] < data.numInstances(); chunk[0] = chunk[1]) {
+      chunk[1] = Math.min(chunk[0] + chunkSize, data.numInstances());
+      if (executor == null) {
+	tasks[0].call();
+      }
+      else {
+	for (int b = 0; b < numBlocks; b++)
+	  blocks[b] = executor.submit(tasks[b]);
+	waitFor(blocks);
+      }
+
+      for (int i = chunk[0]; i < chunk[1]; i++) {
 	double vote;
-	double[] votes;
-	if (numeric)
-	  votes = new double[1];
-	else
-	  votes = new double[data.numClasses()];
+	int offset = (i - chunk[0]) * numClassifiers;
+	Arrays.fill(votes, 0);
 	
 	// determine predictions for instance
 	int voteCount = 0;
-	for (int j = 0; j < m_Classifiers.length; j++) {
+	for (int j = 0; j < numClassifiers; j++) {
 	  if (inBag[j][i])
 	    continue;
 	  
 	  voteCount++;
-	  double pred = m_Classifiers[j].classifyInstance(data.instance(i));
+	  double pred = preds[offset + j];
 	  if (numeric)
 	    votes[0] += pred;
 	  else
@@ -560,29 +751,49 @@ public class Bagging
 	// "vote"
 	if (numeric) {
 	  vote = votes[0];
-          if (voteCount > 0) {
-            vote  /= voteCount;    // average
-          }
-        } else {
+	  if (voteCount > 0) {
+	    vote  /= voteCount;    // average
+	  }
+	} else {
 	  vote = Utils.maxIndex(votes);   // majority vote
-        }
+	}
 	
 	// error for instance
 	outOfBagCount += data.instance(i).weight();
 	if (numeric) {
 	  errorSum += StrictMath.abs(vote - data.instance(i).classValue()) 
-	  * data.instance(i).weight();
+	    * data.instance(i).weight();
 	}
 	else {
 	  if (vote != data.instance(i).classValue())
 	    errorSum += data.instance(i).weight();
 	}
       }
-      
-      m_OutOfBagError = errorSum / outOfBagCount;
     }
-    else {
-      m_OutOfBagError = 0;
+    
+    return errorSum / outOfBagCount;
+  }
+
+  /**
+   * Waits for the given tasks to finish, rethrowing the exception of
+   * the first one that failed.
+   *
+   * @param tasks the tasks to wait for
+   * @throws Exception if a task failed
+   */
+  protected void waitFor(Future[] tasks) throws Exception {
+
+    for (int i = 0; i < tasks.length; i++) {
+      try {
+	tasks[i].get();
+      }
+      catch (ExecutionException e) {
+	for (int j = i + 1; j < tasks.length; j++)
+	  tasks[j].cancel(true);
+	if (e.getCause() instanceof Exception)
+	  throw (Exception) e.getCause();
+	throw e;
+      }
     }
   }
 
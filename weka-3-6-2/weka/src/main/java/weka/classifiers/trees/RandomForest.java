@@ -85,6 +85,10 @@ import java.util.Vector;
  *  The maximum depth of the trees, 0 for unlimited.
  *  (default 0)</pre>
  * 
+ * <pre> -num-slots &lt;num&gt;
+ *  Number of execution slots.
+ *  (default 1 - i.e. no parallelism, 0 - one per processor)</pre>
+ * 
  * <pre> -D
  *  If set, classifier is run in debug mode and
  *  may output additional info to the console</pre>
@@ -121,6 +125,9 @@ public class RandomForest
   /** The maximum depth of the trees (0 = unlimited) */
   protected int m_MaxDepth = 0;
 
+  /** The number of trees built at the same time, 0 for one per processor */
+  protected int m_numExecutionSlots = 1;
+
   /**
    * Returns a string describing classifier
    * @return a description suitable for
@@ -271,6 +278,36 @@ public class RandomForest
     m_MaxDepth = value;
   }
 
+  /**
+   * Returns the tip text for this property
+   * 
+   * @return 		tip text for this property suitable for
+   * 			displaying in the explorer/experimenter gui
+   */
+  public String numExecutionSlotsTipText() {
+    return "The number of trees to build at the same time "
+      + "(1 = no parallelism, 0 = one per processor).";
+  }
+
+  /**
+   * Get the number of trees built at the same time.
+   *
+   * @return 		the number of execution slots, 0 for one per processor.
+   */
+  public int getNumExecutionSlots() {
+    return m_numExecutionSlots;
+  }
+  
+  /**
+   * Set the number of trees built at the same time.
+   *
+   * @param value 	the number of execution slots, 0 for one per processor.
+   */
+  public void setNumExecutionSlots(int value) {
+    if (value >= 0)
+      m_numExecutionSlots = value;
+  }
+
   /**
    * Gets the out of bag error that was calculated as the classifier was built.
    *
@@ -339,6 +376,11 @@ public class RandomForest
 	+ "\t(default 0)",
 	"depth", 1, "-depth <num>"));
 
+    newVector.addElement(new Option(
+	"\tNumber of execution slots.\n"
+	+ "\t(default 1 - i.e. no parallelism, 0 - one per processor)",
+	"num-slots", 1, "-num-slots <num>"));
+
     Enumeration enu = super.listOptions();
     while (enu.hasMoreElements()) {
       newVector.addElement(enu.nextElement());
@@ -372,6 +414,11 @@ public class RandomForest
       result.add("-depth");
       result.add("" + getMaxDepth());
     }
+
+    if (getNumExecutionSlots() != 1) {
+      result.add("-num-slots");
+      result.add("" + getNumExecutionSlots());
+    }
     
     options = super.getOptions();
     for (i = 0; i < options.length; i++)
@@ -400,6 +447,10 @@ public class RandomForest
    *  The maximum depth of the trees, 0 for unlimited.
    *  (default 0)</pre>
    * 
+   * <pre> -num-slots &lt;num&gt;
+   *  Number of execution slots.
+   *  (default 1 - i.e. no parallelism, 0 - one per processor)</pre>
+   * 
    * <pre> -D
    *  If set, classifier is run in debug mode and
    *  may output additional info to the console</pre>
@@ -439,6 +490,13 @@ public class RandomForest
     } else {
       setMaxDepth(0);
     }
+
+    tmpStr = Utils.getOption("num-slots", options);
+    if (tmpStr.length() != 0) {
+      setNumExecutionSlots(Integer.parseInt(tmpStr));
+    } else {
+      setNumExecutionSlots(1);
+    }
     
     super.setOptions(options);
     
@@ -483,6 +541,7 @@ public class RandomForest
     m_bagger.setSeed(m_randomSeed);
     m_bagger.setNumIterations(m_numTrees);
     m_bagger.setCalcOutOfBag(true);
+    m_bagger.setNumExecutionSlots(m_numExecutionSlots);
     m_bagger.buildClassifier(data);
   }
 
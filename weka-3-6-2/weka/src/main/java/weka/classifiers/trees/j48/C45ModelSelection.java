@@ -73,6 +73,17 @@ public class C45ModelSelection
    */
   public final ClassifierSplitModel selectModel(Instances data){
 
+    return selectModel(data, (SortedIndices) null);
+  }
+
+  /**
+   * Selects C4.5-type split for the given dataset, using the given
+   * sorted indices for numeric attributes (sorts the instances if
+   * there are none).
+   */
+  public final ClassifierSplitModel selectModel(Instances data,
+						SortedIndices sorted){
+
     double minResult;
     double currentResult;
     C45Split [] currentModel;
@@ -123,7 +134,7 @@ public class C45ModelSelection
 	  
 	  // Get models for current attribute.
 	  currentModel[i] = new C45Split(i,m_minNoObj,sumOfWeights);
-	  currentModel[i].buildClassifier(data);
+	  currentModel[i].buildClassifier(data, sorted);
 	  
 	  // Check if useful split for current attribute
 	  // exists and check for enumerated attributes with 
@@ -119,7 +119,7 @@ public class C45PruneableClassifierTree
     data = new Instances(data);
     data.deleteWithMissingClass();
     
-   buildTree(data, m_subtreeRaising);
+   buildTree(data, new SortedIndices(data), m_subtreeRaising);
    collapse();
    if (m_pruneTheTree) {
      prune();
@@ -233,6 +233,26 @@ public class C45PruneableClassifierTree
 
     return newTree;
   }
+  /**
+   * Returns a newly created tree, grown using the given sorted indices.
+   *
+   * @param data the data to work with
+   * @param sorted the sorted indices of the data
+   * @return the new tree
+   * @throws Exception if something goes wrong
+   */
+  protected ClassifierTree getNewTree(Instances data, SortedIndices sorted)
+       throws Exception {
+    
+    C45PruneableClassifierTree newTree = 
+      new C45PruneableClassifierTree(m_toSelectModel, m_pruneTheTree, m_CF,
+				     m_subtreeRaising, m_cleanup);
+
+    newTree.buildTree(data, sorted, m_subtreeRaising);
+
+    return newTree;
+  }
+
 
   /**
    * Computes estimated errors for tree.
@@ -142,8 +142,26 @@ public class ClassifierTree
    * @throws Exception if something goes wrong
    */
   public void buildTree(Instances data, boolean keepData) throws Exception {
+
+    buildTree(data, (SortedIndices) null, keepData);
+  }
+
+  /**
+   * Builds the tree structure, passing the given sorted indices on to
+   * the model selection and, split alongside the data, to the subtrees
+   * so that the instances are sorted only once.
+   *
+   * @param data the data for which the tree structure is to be
+   * generated.
+   * @param sorted the sorted indices of the data (may be null)
+   * @param keepData is training data to be kept?
+   * @throws Exception if something goes wrong
+   */
+  public void buildTree(Instances data, SortedIndices sorted, boolean keepData)
+       throws Exception {
     
     Instances [] localInstances;
+    SortedIndices [] localSorted = null;
 
     if (keepData) {
       m_train = data;
@@ -152,13 +170,23 @@ public class ClassifierTree
     m_isLeaf = false;
     m_isEmpty = false;
     m_sons = null;
-    m_localModel = m_toSelectModel.selectModel(data);
+    if (sorted != null)
+      m_localModel = m_toSelectModel.selectModel(data, sorted);
+    else
+      m_localModel = m_toSelectModel.selectModel(data);
     if (m_localModel.numSubsets() > 1) {
       localInstances = m_localModel.split(data);
+      if (sorted != null)
+	localSorted = sorted.split(data, m_localModel);
       data = null;
+      sorted = null;
       m_sons = new ClassifierTree [m_localModel.numSubsets()];
       for (int i = 0; i < m_sons.length; i++) {
-	m_sons[i] = getNewTree(localInstances[i]);
+	if (localSorted != null) {
+	  m_sons[i] = getNewTree(localInstances[i], localSorted[i]);
+	  localSorted[i] = null;
+	} else
+	  m_sons[i] = getNewTree(localInstances[i]);
 	localInstances[i] = null;
       }
     }else{
@@ -500,6 +528,23 @@ public class ClassifierTree
     return newTree;
   }
 
+  /**
+   * Returns a newly created tree, grown using the given sorted indices.
+   *
+   * @param data the training data
+   * @param sorted the sorted indices of the training data
+   * @return the generated tree
+   * @throws Exception if something goes wrong
+   */
+  protected ClassifierTree getNewTree(Instances data, SortedIndices sorted)
+       throws Exception {
+	 
+    ClassifierTree newTree = new ClassifierTree(m_toSelectModel);
+    newTree.buildTree(data, sorted, false);
+    
+    return newTree;
+  }
+
   /**
    * Returns a newly created tree.
    *
@@ -338,7 +338,32 @@ public class Distribution
     int i;
 
     for (i = startIndex; i < lastPlusOne; i++) {
-      instance = (Instance) source.instance(i);
+      instance = source.instance(i);
+      classIndex = (int)instance.classValue();
+      sumOfWeights = sumOfWeights+instance.weight();
+      m_perClassPerBag[bagIndex][classIndex] += instance.weight();
+      m_perClass[classIndex] += instance.weight();
+    }
+    m_perBag[bagIndex] += sumOfWeights;
+    totaL += sumOfWeights;
+  }
+
+  /**
+   * Adds all instances in given range of the given order to given bag.
+   *
+   * @exception Exception if something goes wrong
+   */
+  public final void addRange(int bagIndex,Instances source,int [] order,
+			     int startIndex, int lastPlusOne)
+       throws Exception {
+
+    double sumOfWeights = 0;
+    int classIndex;
+    Instance instance;
+    int i;
+
+    for (i = startIndex; i < lastPlusOne; i++) {
+      instance = source.instance(order[i]);
       classIndex = (int)instance.classValue();
       sumOfWeights = sumOfWeights+instance.weight();
       m_perClassPerBag[bagIndex][classIndex] += instance.weight();
@@ -443,7 +468,7 @@ public class Distribution
     int i;
 
     for (i = startIndex; i < lastPlusOne; i++) {
-      instance = (Instance) source.instance(i);
+      instance = source.instance(i);
       classIndex = (int)instance.classValue();
       sumOfWeights = sumOfWeights+instance.weight();
       m_perClassPerBag[bagIndex][classIndex] -= instance.weight();
@@ -729,7 +754,33 @@ public class Distribution
     int i;
 
     for (i = startIndex; i < lastPlusOne; i++) {
-      instance = (Instance) source.instance(i);
+      instance = source.instance(i);
+      classIndex = (int)instance.classValue();
+      weight = instance.weight();
+      m_perClassPerBag[from][classIndex] -= weight;
+      m_perClassPerBag[to][classIndex] += weight;
+      m_perBag[from] -= weight;
+      m_perBag[to] += weight;
+    }
+  }
+
+  /**
+   * Shifts all instances in given range of the given order from one bag
+   * to another one.
+   *
+   * @exception Exception if something goes wrong
+   */
+  public final void shiftRange(int from,int to,Instances source,int [] order,
+			       int startIndex,int lastPlusOne) 
+       throws Exception {
+    
+    int classIndex;
+    double weight;
+    Instance instance;
+    int i;
+
+    for (i = startIndex; i < lastPlusOne; i++) {
+      instance = source.instance(order[i]);
       classIndex = (int)instance.classValue();
       weight = instance.weight();
       m_perClassPerBag[from][classIndex] -= weight;
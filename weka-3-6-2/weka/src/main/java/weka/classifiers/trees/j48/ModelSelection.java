@@ -46,6 +46,19 @@ public abstract class ModelSelection
    */
   public abstract ClassifierSplitModel selectModel(Instances data) throws Exception;
 
+  /**
+   * Selects a model for the given dataset, whose instances are in the
+   * given order for each numeric attribute. By default the order is
+   * not used.
+   *
+   * @exception Exception if model can't be selected
+   */
+  public ClassifierSplitModel selectModel(Instances data, SortedIndices sorted)
+       throws Exception {
+
+    return selectModel(data);
+  }
+
   /**
    * Selects a model for the given train data using the given test data
    *
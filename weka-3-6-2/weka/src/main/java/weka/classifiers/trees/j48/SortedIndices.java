@@ -0,0 +1,178 @@
+/*
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+/*
+ *    SortedIndices.java
+ *    The instances of a tree node in sorted order for each numeric attribute
+ *
+ */
+
+package weka.classifiers.trees.j48;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.RevisionHandler;
+import weka.core.RevisionUtils;
+import weka.core.Utils;
+
+/**
+ * Class holding the indices of the instances at a node of a tree in
+ * ascending order of each numeric attribute, with the instances that
+ * have a missing value last. The instances are sorted once for the
+ * training data; split() passes the order on to the subsets a split
+ * model creates, so that numeric splits need not sort the instances
+ * at every node.
+ *
+ * @version $Revision: 1.1 $
+ */
+public class SortedIndices
+  implements RevisionHandler {
+
+  /** The sorted indices for each attribute (null for non-numeric ones). */
+  private int [][] m_sorted;
+
+  /**
+   * Sorts the given instances on all numeric attributes apart from
+   * the class.
+   *
+   * @param data the instances
+   */
+  public SortedIndices(Instances data) {
+
+    m_sorted = new int [data.numAttributes()][];
+    double [] vals = new double [data.numInstances()];
+    int [] known = new int [data.numInstances()];
+    for (int j = 0; j < data.numAttributes(); j++) {
+      if ((j == data.classIndex()) || !data.attribute(j).isNumeric())
+	continue;
+
+      // Sort the known values, put the missing ones at the end.
+      int numKnown = 0;
+      for (int i = 0; i < data.numInstances(); i++) {
+	Instance instance = data.instance(i);
+	if (!instance.isMissing(j)) {
+	  vals[numKnown] = instance.value(j);
+	  known[numKnown++] = i;
+	}
+      }
+      double [] knownVals = new double [numKnown];
+      System.arraycopy(vals, 0, knownVals, 0, numKnown);
+      int [] order = Utils.sort(knownVals);
+      m_sorted[j] = new int [data.numInstances()];
+      for (int i = 0; i < numKnown; i++)
+	m_sorted[j][i] = known[order[i]];
+      for (int i = 0; i < data.numInstances(); i++)
+	if (data.instance(i).isMissing(j))
+	  m_sorted[j][numKnown++] = i;
+    }
+  }
+
+  /**
+   * Creates indices from the given arrays.
+   */
+  private SortedIndices(int [][] sorted) {
+
+    m_sorted = sorted;
+  }
+
+  /**
+   * Returns the indices of the instances in ascending order of the given
+   * numeric attribute, instances with missing values last.
+   *
+   * @param attIndex the index of the attribute
+   * @return the indices, null if the attribute is not numeric
+   */
+  public final int [] sorted(int attIndex) {
+
+    return m_sorted[attIndex];
+  }
+
+  /**
+   * Splits the indices the way ClassifierSplitModel.split() splits the
+   * instances: each subset gets the indices its instances have in the
+   * subset created by split(), in the order of the given indices.
+   *
+   * @param data the instances these indices belong to
+   * @param model the split model
+   * @return the indices for every subset
+   * @exception Exception if something goes wrong
+   */
+  public final SortedIndices [] split(Instances data,
+				      ClassifierSplitModel model)
+       throws Exception {
+
+    int numSubsets = model.numSubsets();
+    int numInstances = data.numInstances();
+    int [] subsetSizes = new int [numSubsets];
+
+    // Find the subset and the index in the subset of each instance;
+    // instances assigned to more than one subset get an array of indices.
+    int [] subsetOf = new int [numInstances];
+    int [] indexIn = new int [numInstances];
+    int [][] indicesIn = new int [numInstances][];
+    for (int i = 0; i < numInstances; i++) {
+      Instance instance = data.instance(i);
+      double [] weights = model.weights(instance);
+      int subset = model.whichSubset(instance);
+      subsetOf[i] = subset;
+      if (subset > -1)
+	indexIn[i] = subsetSizes[subset]++;
+      else {
+	indicesIn[i] = new int [numSubsets];
+	for (int j = 0; j < numSubsets; j++)
+	  if (Utils.gr(weights[j],0))
+	    indicesIn[i][j] = subsetSizes[j]++;
+	  else
+	    indicesIn[i][j] = -1;
+      }
+    }
+
+    // Pass the order of each attribute on to the subsets.
+    int [][][] subsetSorted = new int [numSubsets][m_sorted.length][];
+    int [] filled = new int [numSubsets];
+    for (int a = 0; a < m_sorted.length; a++) {
+      if (m_sorted[a] == null)
+	continue;
+      for (int j = 0; j < numSubsets; j++) {
+	subsetSorted[j][a] = new int [subsetSizes[j]];
+	filled[j] = 0;
+      }
+      for (int k = 0; k < m_sorted[a].length; k++) {
+	int i = m_sorted[a][k];
+	if (subsetOf[i] > -1)
+	  subsetSorted[subsetOf[i]][a][filled[subsetOf[i]]++] = indexIn[i];
+	else
+	  for (int j = 0; j < numSubsets; j++)
+	    if (indicesIn[i][j] > -1)
+	      subsetSorted[j][a][filled[j]++] = indicesIn[i][j];
+      }
+    }
+
+    SortedIndices [] subsets = new SortedIndices [numSubsets];
+    for (int j = 0; j < numSubsets; j++)
+      subsets[j] = new SortedIndices(subsetSorted[j]);
+    return subsets;
+  }
+
+  /**
+   * Returns the revision string.
+   *
+   * @return		the revision
+   */
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision: 1.1 $");
+  }
+}
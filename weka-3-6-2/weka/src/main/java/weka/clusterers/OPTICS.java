@@ -768,7 +768,9 @@ public class OPTICS
      * displaying in the explorer/experimenter gui
      */
     public String database_TypeTipText() {
-        return "used database";
+        return "used database; SequentialDatabase scans all the instances for each range query, "
+                + "KDTreeDatabase, BallTreeDatabase, CoverTreeDatabase and GridDatabase (for few "
+                + "numeric attributes) only look at the candidates found by a spatial index";
     }
 
     /**
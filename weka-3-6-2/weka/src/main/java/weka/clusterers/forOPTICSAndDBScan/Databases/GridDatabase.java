@@ -0,0 +1,224 @@
+/*
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+/*
+ *    GridDatabase.java
+ *    Database that answers range queries from a uniform grid
+ *
+ */
+
+package weka.clusterers.forOPTICSAndDBScan.Databases;
+
+import weka.core.Instances;
+import weka.core.RevisionUtils;
+
+import java.util.HashMap;
+
+/**
+ * <p>
+ * Database that looks up the candidates of a range query in a uniform
+ * grid with cells as wide as epsilon, spanning up to three of the
+ * normalized numeric attributes, so that a query only visits the cells
+ * next to the one of the query-object. Suited to low-dimensional data
+ * such as geographic coordinates; further attributes are only checked
+ * by the distance of the dataObjects. The grid is rebuilt when a query
+ * uses a different epsilon.
+ * </p>
+ *
+ * @version $Revision: 1.1 $
+ */
+public class GridDatabase
+    extends SpatialIndexDatabase {
+
+    /** for serialization */
+    private static final long serialVersionUID = 3591520440925587418L;
+
+    /**
+     * The maximum number of attributes the grid spans
+     */
+    protected static final int MAX_GRID_DIMENSIONS = 3;
+
+    /**
+     * The maximum number of cells the grid can have
+     */
+    protected static final long MAX_CELLS = 1L << 62;
+
+    /**
+     * Holds the epsilon the grid was built for
+     */
+    protected transient double gridEpsilon;
+
+    /**
+     * Holds the width of the cells
+     */
+    protected transient double cellWidth;
+
+    /**
+     * Holds the number of cells along each attribute the grid spans
+     */
+    protected transient long[] numCells;
+
+    /**
+     * Holds the positions of the dataObjects in each non-empty cell (int[]), by cell number (Long)
+     */
+    protected transient HashMap cells;
+
+    // *****************************************************************************************************************
+    // constructors
+    // *****************************************************************************************************************
+
+    /**
+     * Constructs a new grid database and holds the original instances
+     * @param instances
+     */
+    public GridDatabase(Instances instances) {
+        super(instances);
+    }
+
+    // *****************************************************************************************************************
+    // methods
+    // *****************************************************************************************************************
+
+    /**
+     * Tests if the grid was built for the given epsilon
+     * @param epsilon The range of the query
+     * @return true, if the grid can be used for epsilon
+     */
+    protected boolean indexFits(double epsilon) {
+        return epsilon == gridEpsilon;
+    }
+
+    /**
+     * Returns the cell along an attribute of the grid that holds a value
+     * @param value The normalized value
+     * @return cell
+     */
+    protected long cell(double value) {
+        return (long) Math.floor(value / cellWidth);
+    }
+
+    /**
+     * Builds the grid over the dataObjects
+     * @param epsilon The range of the queries
+     */
+    protected void buildIndex(double epsilon) {
+        gridEpsilon = epsilon;
+        cellWidth = epsilon * (1 + SLACK);
+
+        // Normalized values lie in [0, 1]
+        int dimensions = 0;
+        long totalCells = 1;
+        long[] cellCounts = new long[Math.min(MAX_GRID_DIMENSIONS, indexAttributes.length)];
+        while (dimensions < cellCounts.length && 1 / cellWidth < MAX_CELLS) {
+            long count = cell(1) + 1;
+            if (totalCells > MAX_CELLS / count) break;
+            totalCells *= count;
+            cellCounts[dimensions++] = count;
+        }
+        numCells = new long[dimensions];
+        System.arraycopy(cellCounts, 0, numCells, 0, dimensions);
+
+        // Count the dataObjects in each cell, then fill the cells
+        long[] cellNumbers = new long[dataObjects.length];
+        HashMap counts = new HashMap();
+        for (int i = 0; i < dataObjects.length; i++) {
+            double[] values = normalizedValues(dataObjects[i].getInstance());
+            long cellNumber = 0;
+            for (int j = 0; j < numCells.length; j++) {
+                long c = Math.max(0, Math.min(numCells[j] - 1, cell(values[j])));
+                cellNumber = cellNumber * numCells[j] + c;
+            }
+            cellNumbers[i] = cellNumber;
+            Long key = new Long(cellNumber);
+            int[] count = (int[]) counts.get(key);
+            if (count == null) {
+                count = new int[1];
+                counts.put(key, count);
+            }
+            count[0]++;
+        }
+        cells = new HashMap();
+        for (int i = 0; i < dataObjects.length; i++) {
+            Long key = new Long(cellNumbers[i]);
+            int[] cell = (int[]) cells.get(key);
+            int[] count = (int[]) counts.get(key);
+            if (cell == null) {
+                cell = new int[count[0]];
+                cells.put(key, cell);
+            }
+            cell[cell.length - count[0]--] = i;
+        }
+    }
+
+    /**
+     * Returns the positions of the dataObjects in the cells within radius
+     * of the given normalized values
+     * @param values The normalized values of the query-object
+     * @param radius The range of the query
+     * @return positions of the candidates
+     */
+    protected int[] candidates(double[] values, double radius) {
+        long[] low = new long[numCells.length];
+        long[] high = new long[numCells.length];
+        for (int j = 0; j < numCells.length; j++) {
+            low[j] = Math.max(0, cell(values[j] - radius));
+            high[j] = Math.min(numCells[j] - 1, cell(values[j] + radius));
+            if (low[j] > high[j]) return new int[0];
+        }
+
+        int[] positions = new int[16];
+        int count = 0;
+        long[] current = low.clone();
+        while (true) {
+            long cellNumber = 0;
+            for (int j = 0; j < numCells.length; j++) {
+                cellNumber = cellNumber * numCells[j] + current[j];
+            }
+            int[] cell = (int[]) cells.get(new Long(cellNumber));
+            if (cell != null) {
+                if (count + cell.length > positions.length) {
+                    int[] copy = new int[Math.max(2 * positions.length, count + cell.length)];
+                    System.arraycopy(positions, 0, copy, 0, count);
+                    positions = copy;
+                }
+                System.arraycopy(cell, 0, positions, count, cell.length);
+                count += cell.length;
+            }
+
+            // Next cell
+            int j = numCells.length - 1;
+            while (j >= 0 && current[j] == high[j]) {
+                current[j] = low[j];
+                j--;
+            }
+            if (j < 0) break;
+            current[j]++;
+        }
+
+        int[] result = new int[count];
+        System.arraycopy(positions, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * Returns the revision string.
+     *
+     * @return		the revision
+     */
+    public String getRevision() {
+      return RevisionUtils.extract("$Revision: 1.1 $");
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+/*
+ *    KDTreeDatabase.java
+ *    Database that answers range queries with a KD-tree
+ *
+ */
+
+package weka.clusterers.forOPTICSAndDBScan.Databases;
+
+import weka.core.Instances;
+import weka.core.RevisionUtils;
+import weka.core.neighboursearch.KDTree;
+import weka.core.neighboursearch.NearestNeighbourSearch;
+
+/**
+ * <p>
+ * Database that looks up the candidates of a range query with a KDTree
+ * over the normalized numeric attributes. Suited to
+ * few attributes.
+ * </p>
+ *
+ * @version $Revision: 1.1 $
+ */
+public class KDTreeDatabase
+    extends NeighbourSearchDatabase {
+
+    /** for serialization */
+    private static final long serialVersionUID = -5271947391562118603L;
+
+    // *****************************************************************************************************************
+    // constructors
+    // *****************************************************************************************************************
+
+    /**
+     * Constructs a new database and holds the original instances
+     * @param instances
+     */
+    public KDTreeDatabase(Instances instances) {
+        super(instances);
+    }
+
+    // *****************************************************************************************************************
+    // methods
+    // *****************************************************************************************************************
+
+    /**
+     * Returns a new KDTree
+     * @return search
+     */
+    protected NearestNeighbourSearch newSearch() {
+        return new KDTree();
+    }
+
+    /**
+     * Returns the revision string.
+     *
+     * @return		the revision
+     */
+    public String getRevision() {
+      return RevisionUtils.extract("$Revision: 1.1 $");
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+/*
+ *    NeighbourSearchDatabase.java
+ *    Database that answers range queries with a nearest neighbour search
+ *
+ */
+
+package weka.clusterers.forOPTICSAndDBScan.Databases;
+
+import weka.core.Attribute;
+import weka.core.EuclideanDistance;
+import weka.core.FastVector;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.RevisionUtils;
+import weka.core.neighboursearch.NearestNeighbourSearch;
+
+/**
+ * <p>
+ * Database that looks up the candidates of a range query with one of the
+ * nearest neighbour searches of weka.core.neighboursearch, built over
+ * the normalized numeric attributes. A range query asks for the k
+ * nearest neighbours, doubling k until the farthest of them is out of
+ * range.
+ * </p>
+ *
+ * @version $Revision: 1.1 $
+ */
+public abstract class NeighbourSearchDatabase
+    extends SpatialIndexDatabase {
+
+    /** for serialization */
+    private static final long serialVersionUID = 6120356004457183629L;
+
+    /**
+     * The number of neighbours asked for first
+     */
+    protected static final int INITIAL_K = 16;
+
+    /**
+     * Holds the nearest neighbour search over the normalized values
+     */
+    protected transient NearestNeighbourSearch search;
+
+    /**
+     * Holds the normalized values of the dataObjects; the weight of each
+     * instance is its position in dataObjects
+     */
+    protected transient Instances indexInstances;
+
+    /**
+     * Holds the distance on the normalized values
+     */
+    protected transient EuclideanDistance indexDistance;
+
+    // *****************************************************************************************************************
+    // constructors
+    // *****************************************************************************************************************
+
+    /**
+     * Constructs a new database and holds the original instances
+     * @param instances
+     */
+    public NeighbourSearchDatabase(Instances instances) {
+        super(instances);
+    }
+
+    // *****************************************************************************************************************
+    // methods
+    // *****************************************************************************************************************
+
+    /**
+     * Returns a new nearest neighbour search
+     * @return search
+     */
+    protected abstract NearestNeighbourSearch newSearch();
+
+    /**
+     * Returns an instance with the given normalized values
+     * @param values The normalized values
+     * @param weight The weight of the instance
+     * @return instance
+     */
+    protected Instance indexInstance(double[] values, double weight) {
+        Instance instance = new Instance(weight, values);
+        instance.setDataset(indexInstances);
+        return instance;
+    }
+
+    /**
+     * Builds the nearest neighbour search over the dataObjects
+     * @param epsilon The range of the queries
+     * @throws Exception If the search can not be built
+     */
+    protected void buildIndex(double epsilon) throws Exception {
+        search = null;
+        indexInstances = null;
+        if (indexAttributes.length == 0) return;
+
+        FastVector attributes = new FastVector(indexAttributes.length);
+        for (int i = 0; i < indexAttributes.length; i++) {
+            attributes.addElement(new Attribute(getInstances().attribute(indexAttributes[i]).name()));
+        }
+        indexInstances = new Instances(getInstances().relationName(), attributes, dataObjects.length);
+        for (int i = 0; i < dataObjects.length; i++) {
+            indexInstances.add(indexInstance(normalizedValues(dataObjects[i].getInstance()), i));
+        }
+
+        indexDistance = new EuclideanDistance();
+        indexDistance.setDontNormalize(true);
+        search = newSearch();
+        search.setDistanceFunction(indexDistance);
+        search.setInstances(indexInstances);
+    }
+
+    /**
+     * Returns the positions of the dataObjects whose normalized values
+     * are at most radius from the given ones
+     * @param values The normalized values of the query-object
+     * @param radius The range of the query
+     * @return positions of the candidates
+     * @throws Exception If the search fails
+     */
+    protected int[] candidates(double[] values, double radius) throws Exception {
+        Instance target = indexInstance(values, 1);
+        int k = Math.min(INITIAL_K, indexInstances.numInstances());
+        Instances neighbours;
+        while (true) {
+            neighbours = search.kNearestNeighbours(target, k);
+            if (k >= indexInstances.numInstances()) break;
+
+            double farthest = 0;
+            for (int i = 0; i < neighbours.numInstances(); i++) {
+                farthest = Math.max(farthest, indexDistance.distance(target, neighbours.instance(i)));
+            }
+            if (farthest > radius) break;
+            k = Math.min(2 * k, indexInstances.numInstances());
+        }
+
+        int[] positions = new int[neighbours.numInstances()];
+        int count = 0;
+        for (int i = 0; i < neighbours.numInstances(); i++) {
+            if (indexDistance.distance(target, neighbours.instance(i)) <= radius) {
+                positions[count++] = (int) neighbours.instance(i).weight();
+            }
+        }
+        int[] result = new int[count];
+        System.arraycopy(positions, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * Returns the revision string.
+     *
+     * @return		the revision
+     */
+    public String getRevision() {
+      return RevisionUtils.extract("$Revision: 1.1 $");
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+/*
+ *    SpatialIndexDatabase.java
+ *    Database that answers range queries from a spatial index
+ *
+ */
+
+package weka.clusterers.forOPTICSAndDBScan.Databases;
+
+import weka.clusterers.forOPTICSAndDBScan.DataObjects.DataObject;
+import weka.clusterers.forOPTICSAndDBScan.Utils.EpsilonRange_ListElement;
+import weka.clusterers.forOPTICSAndDBScan.Utils.PriorityQueue;
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.RevisionUtils;
+import weka.core.Utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * <p>
+ * Base class for databases that look up the candidates of a range query
+ * in a spatial index instead of scanning all the dataObjects. The index
+ * is built over the numeric attributes, normalized the way the
+ * dataObjects normalize them, and its Euclidean distance must never
+ * exceed the distance of the dataObjects; this holds for the Euclidian
+ * and the Manhattan dataObjects. The candidates are checked with the
+ * distance of the dataObjects and returned in the order of the keys,
+ * so that the results are the same as with the SequentialDatabase.
+ * The only difference is that the list of next neighbours only
+ * contains neighbours within epsilon; the coreDistance is the same.
+ * </p>
+ * <p>
+ * The index is built with the first query after the minimum and
+ * maximum values have been set, and rebuilt after further inserts.
+ * </p>
+ *
+ * @version $Revision: 1.1 $
+ */
+public abstract class SpatialIndexDatabase
+    extends SequentialDatabase {
+
+    /** for serialization */
+    private static final long serialVersionUID = -2398512907712645102L;
+
+    /**
+     * Relative slack of the index queries, so that rounding can not
+     * lose a dataObject within epsilon
+     */
+    protected static final double SLACK = 1e-9;
+
+    /**
+     * Holds the dataObjects in the order of their keys (null until the index is built)
+     */
+    protected transient DataObject[] dataObjects;
+
+    /**
+     * Holds the indices of the numeric attributes the index is built on
+     */
+    protected transient int[] indexAttributes;
+
+    // *****************************************************************************************************************
+    // constructors
+    // *****************************************************************************************************************
+
+    /**
+     * Constructs a new spatial database and holds the original instances
+     * @param instances
+     */
+    public SpatialIndexDatabase(Instances instances) {
+        super(instances);
+    }
+
+    // *****************************************************************************************************************
+    // methods
+    // *****************************************************************************************************************
+
+    /**
+     * Builds the index over the dataObjects (in the order of their keys)
+     * for range queries with the given epsilon
+     * @param epsilon The range of the queries
+     * @throws Exception If the index can not be built
+     */
+    protected abstract void buildIndex(double epsilon) throws Exception;
+
+    /**
+     * Tests if the index can answer range queries with the given epsilon
+     * @param epsilon The range of the query
+     * @return true, if the index can be used for epsilon
+     */
+    protected boolean indexFits(double epsilon) {
+        return true;
+    }
+
+    /**
+     * Returns the positions (in dataObjects) of all the dataObjects whose
+     * index distance from the normalized values is at most radius, and
+     * possibly of others
+     * @param values The normalized values of the query-object
+     * @param radius The range of the query
+     * @return positions of the candidates, in any order
+     * @throws Exception If the index can not be queried
+     */
+    protected abstract int[] candidates(double[] values, double radius) throws Exception;
+
+    /**
+     * Returns the values of the index attributes of an instance,
+     * normalized the way the dataObjects normalize them
+     * @param instance The instance
+     * @return normalized values
+     */
+    protected double[] normalizedValues(Instance instance) {
+        double[] values = new double[indexAttributes.length];
+        for (int i = 0; i < indexAttributes.length; i++) {
+            int index = indexAttributes[i];
+            values[i] = (instance.value(index) - getAttributeMinValues()[index]) /
+                    (getAttributeMaxValues()[index] - getAttributeMinValues()[index]);
+        }
+        return values;
+    }
+
+    /**
+     * Collects the dataObjects and the numeric attributes (that are not constant)
+     * and builds the index, if this has not been done for epsilon yet
+     * @param epsilon The range of the query
+     */
+    protected void ensureIndex(double epsilon) {
+        if (dataObjects != null && indexFits(epsilon)) return;
+
+        dataObjects = new DataObject[size()];
+        Iterator iterator = dataObjectIterator();
+        for (int i = 0; i < dataObjects.length; i++) {
+            dataObjects[i] = (DataObject) iterator.next();
+        }
+
+        if (getAttributeMinValues() == null) setMinMaxValues();
+        ArrayList attributes = new ArrayList();
+        for (int i = 0; i < getInstances().numAttributes(); i++) {
+            if (getInstances().attribute(i).type() == Attribute.NUMERIC
+                    && !Double.isNaN(getAttributeMinValues()[i])
+                    && !Utils.eq(getAttributeMaxValues()[i], getAttributeMinValues()[i])) {
+                attributes.add(new Integer(i));
+            }
+        }
+        indexAttributes = new int[attributes.size()];
+        for (int i = 0; i < indexAttributes.length; i++) {
+            indexAttributes[i] = ((Integer) attributes.get(i)).intValue();
+        }
+
+        try {
+            buildIndex(epsilon);
+        } catch (Exception e) {
+            dataObjects = null;
+            throw new IllegalStateException("Could not build the index: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the candidates of a range query in the order of their keys
+     * @param epsilon Specifies the range for the query
+     * @param queryDataObject The query-object
+     * @return the candidates
+     */
+    protected DataObject[] sortedCandidates(double epsilon, DataObject queryDataObject) {
+        ensureIndex(epsilon);
+        int[] positions;
+        if (indexAttributes.length == 0) {
+            positions = new int[dataObjects.length];
+            for (int i = 0; i < positions.length; i++) positions[i] = i;
+        } else {
+            try {
+                positions = candidates(normalizedValues(queryDataObject.getInstance()),
+                        epsilon * (1 + SLACK));
+            } catch (Exception e) {
+                throw new IllegalStateException("Could not query the index: " + e.getMessage());
+            }
+            Arrays.sort(positions);
+        }
+
+        DataObject[] candidates = new DataObject[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            candidates[i] = dataObjects[positions[i]];
+        }
+        return candidates;
+    }
+
+    /**
+     * Sets the minimum and maximum values for each attribute in different arrays
+     * by walking through every DataObject of the database
+     */
+    public void setMinMaxValues() {
+        super.setMinMaxValues();
+        dataObjects = null;
+    }
+
+    /**
+     * Inserts a new dataObject into the database
+     * @param dataObject
+     */
+    public void insert(DataObject dataObject) {
+        super.insert(dataObject);
+        dataObjects = null;
+    }
+
+    /**
+     * Performs an epsilon range query for this dataObject
+     * @param epsilon Specifies the range for the query
+     * @param queryDataObject The dataObject that is used as query-object for epsilon range query
+     * @return List with all the DataObjects that are within the specified range
+     */
+    public List epsilonRangeQuery(double epsilon, DataObject queryDataObject) {
+        ArrayList epsilonRange_List = new ArrayList();
+        DataObject[] candidates = sortedCandidates(epsilon, queryDataObject);
+        for (int i = 0; i < candidates.length; i++) {
+            double distance = queryDataObject.distance(candidates[i]);
+            if (distance < epsilon) {
+                epsilonRange_List.add(candidates[i]);
+            }
+        }
+
+        return epsilonRange_List;
+    }
+
+    /**
+     * Emits the k next-neighbours within epsilon and performs an epsilon-range-query at the parallel.
+     * The returned list contains two elements:
+     * At index=0 --> list with the k next-neighbours within epsilon;
+     * At index=1 --> list with all dataObjects within epsilon;
+     * @param k number of next neighbours
+     * @param epsilon Specifies the range for the query
+     * @param dataObject the start object
+     * @return list with the k-next neighbours (PriorityQueueElements) and a list
+     *         with candidates from the epsilon-range-query (EpsilonRange_ListElements)
+     */
+    public List k_nextNeighbourQuery(int k, double epsilon, DataObject dataObject) {
+        List return_List = new ArrayList();
+        List nextNeighbours_List = new ArrayList();
+        List epsilonRange_List = new ArrayList();
+
+        PriorityQueue priorityQueue = new PriorityQueue();
+
+        DataObject[] candidates = sortedCandidates(epsilon, dataObject);
+        for (int i = 0; i < candidates.length; i++) {
+            double dist = dataObject.distance(candidates[i]);
+            if (!(dist <= epsilon)) continue;
+
+            epsilonRange_List.add(new EpsilonRange_ListElement(dist, candidates[i]));
+
+            if (priorityQueue.size() < k) {
+                priorityQueue.add(dist, candidates[i]);
+            } else {
+                if (dist < priorityQueue.getPriority(0)) {
+                    priorityQueue.next(); //removes the highest distance
+                    priorityQueue.add(dist, candidates[i]);
+                }
+            }
+        }
+
+        while (priorityQueue.hasNext()) {
+            nextNeighbours_List.add(0, priorityQueue.next());
+        }
+
+        return_List.add(nextNeighbours_List);
+        return_List.add(epsilonRange_List);
+        return return_List;
+    }
+
+    /**
+     * Returns the revision string.
+     *
+     * @return		the revision
+     */
+    public String getRevision() {
+      return RevisionUtils.extract("$Revision: 1.1 $");
+    }
+}
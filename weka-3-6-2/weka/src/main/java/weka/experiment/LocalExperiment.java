@@ -0,0 +1,650 @@
+/*
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+/*
+ *    LocalExperiment.java
+ *    Runs an experiment on several threads of the local machine
+ *
+ */
+
+package weka.experiment;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Option;
+import weka.core.OptionHandler;
+import weka.core.RevisionUtils;
+import weka.core.SerializedObject;
+import weka.core.Utils;
+import weka.core.converters.ConverterUtils.DataSource;
+import weka.core.xml.XMLOptions;
+
+import java.io.File;
+import java.lang.reflect.Array;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.swing.DefaultListModel;
+
+/**
+ * An experiment whose iterations are run at the same time on several
+ * threads of the local machine. Like the sub experiments of a
+ * RemoteExperiment, every task is a copy of the experiment, and hence of
+ * its result producer and split evaluator, restricted to one run of one
+ * data set with one value of the custom property. All tasks send their
+ * results to the result listener of this experiment, one call at a time,
+ * so any listener can be used. <p>
+ *
+ * Results the listener already holds (eg those in the table of a
+ * DatabaseResultListener) are not computed again. The ARFF file an
+ * InstancesResultListener wrote in an earlier run can be given as a
+ * resume file: its results are passed on to the listener and are not
+ * computed again either. <p>
+ *
+ * nextIteration() waits for the tasks in the order the iterations of a
+ * sequential experiment would be run, so an experiment can be run from
+ * the command line or the Experimenter as usual. The results, however,
+ * reach the listener in the order the tasks produce them. <p>
+ *
+ * Valid options are the options of Experiment and: <p/>
+ *
+ * <pre> -num-slots &lt;num&gt;
+ *  The number of tasks run at the same time.
+ *  (default 0 = one per processor)</pre>
+ *
+ * <pre> -resume &lt;file&gt;
+ *  The results of an earlier run of the experiment.
+ *  (default none)</pre>
+ *
+ * @version $Revision: 1.1 $
+ */
+public class LocalExperiment
+  extends Experiment {
+
+  /** for serialization */
+  static final long serialVersionUID = 2914750219436519738L;
+
+  /** The number of tasks run at the same time, 0 for one per processor */
+  protected int m_NumExecutionSlots = 0;
+
+  /** The results of an earlier run of the experiment, null for none */
+  protected File m_ResumeFile = null;
+
+  /** The listener the tasks send their results to */
+  protected transient TaskResultListener m_TaskListener;
+
+  /** The tasks, each one as {property number, data set number, run} */
+  protected transient int[][] m_Tasks;
+
+  /** The outcome of every task */
+  protected transient Future[] m_TaskResults;
+
+  /** The task nextIteration() waits for */
+  protected transient int m_TaskNumber;
+
+  /** The threads running the tasks */
+  protected transient ExecutorService m_Executor;
+
+  /**
+   * Passes the results of all tasks on to the result listener of the
+   * experiment, one call at a time and as if they came from the result
+   * producer of the experiment, which the listener was prepared for.
+   */
+  protected static class TaskResultListener
+    implements ResultListener {
+
+    /** for serialization */
+    static final long serialVersionUID = -5286603518624032873L;
+
+    /** The listener receiving the results, null once closed */
+    protected transient ResultListener m_Listener;
+
+    /** The result producer the listener was prepared for */
+    protected transient ResultProducer m_ResultProducer;
+
+    /** The additional measures of the result producer */
+    protected transient String [] m_AdditionalMeasures = new String [0];
+
+    /** The keys of the results read from a resume file */
+    protected transient HashSet m_ResumedKeys = new HashSet();
+
+    /**
+     * Creates a listener for the tasks.
+     *
+     * @param listener the listener receiving the results
+     * @param rp the result producer the listener is prepared for
+     */
+    public TaskResultListener(ResultListener listener, ResultProducer rp) {
+      m_Listener = listener;
+      m_ResultProducer = rp;
+    }
+
+    /**
+     * Sets the additional measures every task has to produce, so that all
+     * results have the columns of the experiment's result producer.
+     *
+     * @param measures the additional measures
+     */
+    public void setAdditionalMeasures(String [] measures) {
+      m_AdditionalMeasures = measures;
+    }
+
+    /**
+     * Returns the additional measures of the experiment's result producer.
+     *
+     * @param rp the result producer of a task
+     * @return the additional measures
+     */
+    public String [] determineColumnConstraints(ResultProducer rp) {
+      return m_AdditionalMeasures;
+    }
+
+    /**
+     * Does nothing, the listener is prepared by the experiment.
+     *
+     * @param rp the result producer of a task
+     */
+    public void preProcess(ResultProducer rp) {
+    }
+
+    /**
+     * Does nothing, the listener is finished by the experiment.
+     *
+     * @param rp the result producer of a task
+     */
+    public void postProcess(ResultProducer rp) {
+    }
+
+    /**
+     * Passes a result on to the listener.
+     *
+     * @param rp the result producer of a task
+     * @param key the key of the result
+     * @param result the result
+     * @throws Exception if the listener could not accept the result
+     */
+    public synchronized void acceptResult(ResultProducer rp, Object [] key,
+					  Object [] result) throws Exception {
+      if (m_Listener != null) {
+	m_Listener.acceptResult(m_ResultProducer, key, result);
+      }
+    }
+
+    /**
+     * Determines whether a result is required: it is not if it was read
+     * from the resume file or the listener does not need it.
+     *
+     * @param rp the result producer of a task
+     * @param key the key of the result
+     * @return true if the result should be generated
+     * @throws Exception if the listener could not tell
+     */
+    public synchronized boolean isResultRequired(ResultProducer rp,
+						 Object [] key)
+      throws Exception {
+      if (m_Listener == null || m_ResumedKeys.contains(keyString(key))) {
+	return false;
+      }
+      return m_Listener.isResultRequired(m_ResultProducer, key);
+    }
+
+    /**
+     * Passes the results of an earlier run on to the listener, unless it
+     * already holds them, and remembers their keys. The columns of the
+     * results are matched to the keys and results of the experiment's
+     * result producer by name.
+     *
+     * @param results the results, as written by an InstancesResultListener
+     * @throws Exception if the listener could not accept a result
+     */
+    public synchronized void resume(Instances results) throws Exception {
+      String [] keyNames = m_ResultProducer.getKeyNames();
+      Object [] keyTypes = m_ResultProducer.getKeyTypes();
+      String [] resultNames = m_ResultProducer.getResultNames();
+      Object [] resultTypes = m_ResultProducer.getResultTypes();
+      int [] keyColumns = new int [keyNames.length];
+      for (int i = 0; i < keyNames.length; i++) {
+	Attribute att = results.attribute("Key_" + keyNames[i]);
+	keyColumns[i] = (att == null) ? -1 : att.index();
+      }
+      int [] resultColumns = new int [resultNames.length];
+      for (int i = 0; i < resultNames.length; i++) {
+	Attribute att = results.attribute(resultNames[i]);
+	resultColumns[i] = (att == null) ? -1 : att.index();
+      }
+
+      for (int i = 0; i < results.numInstances(); i++) {
+	Instance row = results.instance(i);
+	Object [] key = new Object [keyNames.length];
+	for (int j = 0; j < key.length; j++) {
+	  key[j] = value(row, keyColumns[j], keyTypes[j]);
+	}
+	Object [] result = new Object [resultNames.length];
+	for (int j = 0; j < result.length; j++) {
+	  result[j] = value(row, resultColumns[j], resultTypes[j]);
+	}
+	if (m_ResumedKeys.add(keyString(key))
+	    && m_Listener.isResultRequired(m_ResultProducer, key)) {
+	  m_Listener.acceptResult(m_ResultProducer, key, result);
+	}
+      }
+    }
+
+    /**
+     * Stops passing results on to the listener; tasks still running
+     * are told that no more results are required.
+     */
+    public synchronized void close() {
+      m_Listener = null;
+    }
+
+    /**
+     * Returns a value of a row read from a resume file as the type of
+     * object a result producer uses for it.
+     *
+     * @param row the row
+     * @param column the column of the value, -1 if there is none
+     * @param type a String or Double
+     * @return the value, null if it is missing
+     */
+    protected static Object value(Instance row, int column, Object type) {
+      if (column < 0 || row.isMissing(column)) {
+	return null;
+      }
+      Attribute att = row.attribute(column);
+      if (type instanceof Double) {
+	return att.isNumeric()
+	  ? new Double(row.value(column))
+	  : new Double(row.stringValue(column));
+      }
+      if (!att.isNumeric()) {
+	return row.stringValue(column);
+      }
+      // eg run numbers saved as numbers
+      double number = row.value(column);
+      return (number == Math.rint(number))
+	? "" + (long) number
+	: "" + number;
+    }
+
+    /**
+     * Returns a key as a string that can be looked up.
+     *
+     * @param key the key
+     * @return the string
+     */
+    protected static String keyString(Object [] key) {
+      StringBuffer text = new StringBuffer();
+      for (int i = 0; i < key.length; i++) {
+	text.append(key[i]).append('\0');
+      }
+      return text.toString();
+    }
+  }
+
+  /**
+   * Constructs an empty LocalExperiment.
+   */
+  public LocalExperiment() {
+  }
+
+  /**
+   * Constructs a LocalExperiment with the settings of an experiment.
+   *
+   * @param base the experiment to run
+   */
+  public LocalExperiment(Experiment base) {
+    setRunLower(base.getRunLower());
+    setRunUpper(base.getRunUpper());
+    setResultListener(base.getResultListener());
+    setResultProducer(base.getResultProducer());
+    setDatasets(base.getDatasets());
+    setUsePropertyIterator(base.getUsePropertyIterator());
+    setPropertyPath(base.getPropertyPath());
+    setPropertyArray(base.getPropertyArray());
+    setNotes(base.getNotes());
+    m_ClassFirst = base.m_ClassFirst;
+    m_AdvanceDataSetFirst = base.m_AdvanceDataSetFirst;
+  }
+
+  /**
+   * Sets the number of tasks run at the same time.
+   *
+   * @param slots the number of tasks, 0 for one per processor
+   */
+  public void setNumExecutionSlots(int slots) {
+    m_NumExecutionSlots = slots;
+  }
+
+  /**
+   * Gets the number of tasks run at the same time.
+   *
+   * @return the number of tasks, 0 for one per processor
+   */
+  public int getNumExecutionSlots() {
+    return m_NumExecutionSlots;
+  }
+
+  /**
+   * Sets the results of an earlier run of the experiment, which are not
+   * computed again.
+   *
+   * @param file the results, as written by an InstancesResultListener,
+   * null for none
+   */
+  public void setResumeFile(File file) {
+    m_ResumeFile = file;
+  }
+
+  /**
+   * Gets the results of an earlier run of the experiment.
+   *
+   * @return the results file, null for none
+   */
+  public File getResumeFile() {
+    return m_ResumeFile;
+  }
+
+  /**
+   * Prepares the result listener, reads the resume file and starts the
+   * tasks.
+   *
+   * @throws Exception if an error occurs
+   */
+  public void initialize() throws Exception {
+
+    // the listener may overwrite the resume file when it is prepared
+    Instances resumed = null;
+    if (m_ResumeFile != null && m_ResumeFile.exists()) {
+      resumed = DataSource.read(m_ResumeFile.getPath());
+    }
+
+    // copy the settings before the result producer refers to the listener
+    m_TaskListener = new TaskResultListener(m_ResultListener, m_ResultProducer);
+    if (m_ResultProducer != null) {
+      m_ResultProducer.setResultListener(m_TaskListener);
+    }
+    Experiment template = new Experiment();
+    template.setResultListener(m_TaskListener);
+    template.setResultProducer(m_ResultProducer);
+    template.setUsePropertyIterator(m_UsePropertyIterator);
+    template.setPropertyPath(m_PropertyPath);
+    template.m_ClassFirst = m_ClassFirst;
+    SerializedObject templateCopy = new SerializedObject(template);
+    SerializedObject [] propertyCopies = null;
+    if (m_UsePropertyIterator && (m_PropertyArray != null)) {
+      propertyCopies = new SerializedObject [Array.getLength(m_PropertyArray)];
+      for (int i = 0; i < propertyCopies.length; i++) {
+	propertyCopies[i] = new SerializedObject(Array.get(m_PropertyArray, i));
+      }
+    }
+
+    super.initialize();
+    String [] measures = m_ResultListener.
+      determineColumnConstraints(m_ResultProducer);
+    if (measures == null) {
+      measures = (m_AdditionalMeasures == null)
+	? new String [0]
+	: m_AdditionalMeasures;
+    }
+    m_TaskListener.setAdditionalMeasures(measures);
+    if (resumed != null) {
+      m_TaskListener.resume(resumed);
+    }
+
+    // the tasks in the order of the iterations of Experiment
+    int numProperties = (propertyCopies == null) ? 1 : propertyCopies.length;
+    int numDatasets = getDatasets().size();
+    int numRuns = getRunUpper() - getRunLower() + 1;
+    m_Tasks = new int [numProperties * numDatasets * numRuns][];
+    int current = 0;
+    for (int i = 0; i < numProperties * numDatasets; i++) {
+      int property = m_AdvanceDataSetFirst
+	? i / numDatasets
+	: i % numProperties;
+      int dataset = m_AdvanceDataSetFirst
+	? i % numDatasets
+	: i / numProperties;
+      for (int run = getRunLower(); run <= getRunUpper(); run++) {
+	m_Tasks[current++] = new int [] {property, dataset, run};
+      }
+    }
+
+    int numSlots = (m_NumExecutionSlots < 1)
+      ? Runtime.getRuntime().availableProcessors()
+      : m_NumExecutionSlots;
+    m_Executor = Executors.newFixedThreadPool(numSlots, new ThreadFactory() {
+	public Thread newThread(Runnable r) {
+	  Thread t = new Thread(r, "LocalExperiment");
+	  t.setDaemon(true);
+	  return t;
+	}
+      });
+    final TaskResultListener listener = m_TaskListener;
+    final SerializedObject copy = templateCopy;
+    final SerializedObject [] values = propertyCopies;
+    final Class valueClass = (values == null)
+      ? null
+      : m_PropertyArray.getClass().getComponentType();
+    m_TaskResults = new Future [m_Tasks.length];
+    for (int i = 0; i < m_Tasks.length; i++) {
+      final int [] task = m_Tasks[i];
+      final File dataset = (File) getDatasets().elementAt(task[1]);
+      m_TaskResults[i] = m_Executor.submit(new Callable() {
+	  public Object call() throws Exception {
+	    Experiment exp = (Experiment) copy.getObject();
+	    DefaultListModel datasets = new DefaultListModel();
+	    datasets.addElement(dataset);
+	    exp.setDatasets(datasets);
+	    exp.setRunLower(task[2]);
+	    exp.setRunUpper(task[2]);
+	    if (values != null) {
+	      Object array = Array.newInstance(valueClass, 1);
+	      Array.set(array, 0, values[task[0]].getObject());
+	      exp.setPropertyArray(array);
+	    }
+	    exp.setResultListener(listener);
+	    exp.initialize();
+	    // like RemoteExperimentSubTask, stop at the first exception
+	    while (exp.hasMoreIterations()) {
+	      exp.nextIteration();
+	    }
+	    exp.postProcess();
+	    return null;
+	  }
+	});
+    }
+    m_TaskNumber = 0;
+    updateCounters();
+  }
+
+  /**
+   * Sets the current property, data set and run to those of the task
+   * nextIteration() waits for.
+   */
+  protected void updateCounters() {
+    m_Finished = (m_TaskNumber >= m_Tasks.length);
+    if (!m_Finished) {
+      m_PropertyNumber = m_Tasks[m_TaskNumber][0];
+      m_DatasetNumber = m_Tasks[m_TaskNumber][1];
+      m_RunNumber = m_Tasks[m_TaskNumber][2];
+    }
+  }
+
+  /**
+   * Waits for the next task to finish.
+   *
+   * @throws Exception if the task failed
+   */
+  public void nextIteration() throws Exception {
+    try {
+      m_TaskResults[m_TaskNumber].get();
+    } catch (ExecutionException ex) {
+      if (ex.getCause() instanceof Exception) {
+	throw (Exception) ex.getCause();
+      }
+      throw ex;
+    }
+    advanceCounters();
+  }
+
+  /**
+   * Moves on to the next task.
+   */
+  public void advanceCounters() {
+    m_TaskNumber++;
+    updateCounters();
+  }
+
+  /**
+   * Stops any tasks still running and finishes the result listener.
+   *
+   * @throws Exception if an error occurs
+   */
+  public void postProcess() throws Exception {
+    if (m_Executor != null) {
+      m_Executor.shutdownNow();
+      m_Executor = null;
+    }
+    if (m_TaskListener != null) {
+      m_TaskListener.close();
+    }
+    super.postProcess();
+  }
+
+  /**
+   * Gets a string representation of the experiment configuration.
+   *
+   * @return a description of the experiment
+   */
+  public String toString() {
+    String result = super.toString();
+    result += "\nExecution slots: "
+      + ((m_NumExecutionSlots < 1) ? "one per processor" : "" + m_NumExecutionSlots)
+      + '\n';
+    if (m_ResumeFile != null) {
+      result += "Resume from: " + m_ResumeFile + '\n';
+    }
+    return result;
+  }
+
+  /**
+   * Returns the revision string.
+   *
+   * @return		the revision
+   */
+  public String getRevision() {
+    return RevisionUtils.extract("$Revision: 1.1 $");
+  }
+
+  /**
+   * Configures/Runs the LocalExperiment from the command line.
+   *
+   * @param args command line arguments to the LocalExperiment.
+   */
+  public static void main(String[] args) {
+
+    try {
+      LocalExperiment exp = null;
+
+      // get options from XML?
+      String xmlOption = Utils.getOption("xml", args);
+      if (!xmlOption.equals(""))
+	args = new XMLOptions(xmlOption).toArray();
+
+      String expFile = Utils.getOption('l', args);
+      String saveFile = Utils.getOption('s', args);
+      boolean runExp = Utils.getFlag('r', args);
+      String slots = Utils.getOption("num-slots", args);
+      String resumeFile = Utils.getOption("resume", args);
+      if (expFile.length() == 0) {
+	Experiment base = new Experiment();
+	try {
+	  base.setOptions(args);
+	  Utils.checkForRemainingOptions(args);
+	} catch (Exception ex) {
+	  ex.printStackTrace();
+	  String result = "Usage:\n\n"
+	    + "-l <exp|xml file>\n"
+	    + "\tLoad experiment from file (default use cli options).\n"
+	    + "\tThe type is determined, based on the extension ("
+	    + FILE_EXTENSION + " or .xml)\n"
+	    + "-s <exp|xml file>\n"
+	    + "\tSave experiment to file after setting other options.\n"
+	    + "\tThe type is determined, based on the extension ("
+	    + FILE_EXTENSION + " or .xml)\n"
+	    + "\t(default don't save)\n"
+	    + "-r\n"
+	    + "\tRun experiment (default don't run)\n"
+	    + "-num-slots <num>\n"
+	    + "\tNumber of tasks run at the same time\n"
+	    + "\t(default 0 = one per processor)\n"
+	    + "-resume <file>\n"
+	    + "\tResults of an earlier run that are not computed again\n"
+	    + "\t(default none)\n"
+	    + "-xml <filename | xml-string>\n"
+	    + "\tget options from XML-Data instead from parameters\n"
+	    + "\n";
+	  Enumeration enm = ((OptionHandler)base).listOptions();
+	  while (enm.hasMoreElements()) {
+	    Option option = (Option) enm.nextElement();
+	    result += option.synopsis() + "\n";
+	    result += option.description() + "\n";
+	  }
+	  throw new Exception(result + "\n" + ex.getMessage());
+	}
+	exp = new LocalExperiment(base);
+      } else {
+	Experiment base = read(expFile);
+	if (base instanceof LocalExperiment) {
+	  exp = (LocalExperiment) base;
+	} else {
+	  exp = new LocalExperiment(base);
+	}
+      }
+      if (slots.length() != 0) {
+	exp.setNumExecutionSlots(Integer.parseInt(slots));
+      }
+      if (resumeFile.length() != 0) {
+	exp.setResumeFile(new File(resumeFile));
+      }
+      System.err.println("Experiment:\n" + exp.toString());
+
+      if (saveFile.length() != 0)
+	write(saveFile, exp);
+
+      if (runExp) {
+	System.err.println("Initializing...");
+	exp.initialize();
+	System.err.println("Iterating...");
+	exp.runExperiment();
+	System.err.println("Postprocessing...");
+	exp.postProcess();
+      }
+
+    } catch (Exception ex) {
+      ex.printStackTrace();
+      System.err.println(ex.getMessage());
+    }
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+/*
+ * Copyright (C) 2010 University of Waikato
+ */
+
+package weka.classifiers;
+
+import weka.classifiers.trees.J48;
+import weka.classifiers.trees.REPTree;
+import weka.core.Attribute;
+import weka.core.Instances;
+import weka.core.Range;
+import weka.core.TestInstances;
+
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Tests Evaluation. Run from the command line with:<p/>
+ * java weka.classifiers.EvaluationTest
+ *
+ * @version $Revision: 1.1 $
+ */
+public class EvaluationTest
+  extends TestCase {
+
+  /** the number of folds of the cross-validations */
+  protected static final int NUM_FOLDS = 10;
+
+  /** the seed of the cross-validations */
+  protected static final int SEED = 42;
+
+  /**
+   * Constructs the <code>EvaluationTest</code>.
+   *
+   * @param name the name of the test class
+   */
+  public EvaluationTest(String name) {
+    super(name);
+  }
+
+  /**
+   * generates a dataset with the given class type
+   *
+   * @param classType the type of the class attribute
+   * @return the generated data
+   * @throws Exception if the data can't be generated
+   */
+  protected Instances getData(int classType) throws Exception {
+    TestInstances test = new TestInstances();
+    test.setSeed(SEED);
+    test.setNumInstances(200);
+    test.setNumNominal(3);
+    test.setNumNumeric(3);
+    test.setClassType(classType);
+    test.setNumClasses(3);
+    return test.generate();
+  }
+
+  /**
+   * cross-validates the classifier with the given number of slots and
+   * returns the evaluation
+   *
+   * @param classifier the classifier to cross-validate
+   * @param data the data to cross-validate on
+   * @param numSlots the number of folds to run at the same time
+   * @param predictions the buffer to print the predictions to
+   * @return the evaluation
+   * @throws Exception if the cross-validation fails
+   */
+  protected Evaluation crossValidate(Classifier classifier, Instances data,
+      int numSlots, StringBuffer predictions) throws Exception {
+
+    Evaluation eval = new Evaluation(data);
+    eval.crossValidateModel(classifier, data, NUM_FOLDS, numSlots,
+	new Random(SEED), predictions, new Range("first-last"),
+	new Boolean(true));
+    return eval;
+  }
+
+  /**
+   * checks that running the folds at the same time gives the same
+   * results as running them one after the other
+   *
+   * @param classifier the classifier to cross-validate
+   * @param data the data to cross-validate on
+   * @throws Exception if the cross-validation fails
+   */
+  protected void checkSlots(Classifier classifier, Instances data)
+    throws Exception {
+
+    StringBuffer sequentialPredictions = new StringBuffer();
+    Evaluation sequential =
+      crossValidate(classifier, data, 1, sequentialPredictions);
+
+    int[] numSlots = new int[]{2, 3, NUM_FOLDS};
+    for (int i = 0; i < numSlots.length; i++) {
+      StringBuffer parallelPredictions = new StringBuffer();
+      Evaluation parallel =
+	crossValidate(classifier, data, numSlots[i], parallelPredictions);
+      String msg = numSlots[i] + " slots: ";
+
+      assertEquals(msg + "summary differs",
+	  sequential.toSummaryString(true), parallel.toSummaryString(true));
+      if (data.classAttribute().isNominal()) {
+	assertEquals(msg + "class details differ",
+	    sequential.toClassDetailsString(),
+	    parallel.toClassDetailsString());
+	assertEquals(msg + "confusion matrix differs",
+	    sequential.toMatrixString(), parallel.toMatrixString());
+      }
+      assertEquals(msg + "predictions differ",
+	  sequentialPredictions.toString(), parallelPredictions.toString());
+    }
+  }
+
+  /**
+   * tests the cross-validation with several slots on a nominal class
+   *
+   * @throws Exception if the test fails
+   */
+  public void testCrossValidationSlotsNominalClass() throws Exception {
+    checkSlots(new J48(), getData(Attribute.NOMINAL));
+  }
+
+  /**
+   * tests the cross-validation with several slots on a numeric class
+   *
+   * @throws Exception if the test fails
+   */
+  public void testCrossValidationSlotsNumericClass() throws Exception {
+    checkSlots(new REPTree(), getData(Attribute.NUMERIC));
+  }
+
+  public static Test suite() {
+    return new TestSuite(EvaluationTest.class);
+  }
+
+  public static void main(String[] args){
+    junit.textui.TestRunner.run(suite());
+  }
+}
@@ -22,6 +22,11 @@ package weka.classifiers.functions.supportVector;
 
 import weka.classifiers.functions.supportVector.AbstractKernelTest;
 import weka.classifiers.functions.supportVector.Kernel;
+import weka.core.Attribute;
+import weka.core.Instances;
+import weka.core.TestInstances;
+
+import java.util.Random;
 
 import junit.framework.Test;
 import junit.framework.TestSuite;
@@ -45,6 +50,52 @@ public class RBFKernelTest
     return new RBFKernel();
   }
 
+  /**
+   * tests whether the row cache returns the same values as the kernel
+   * without any cache, also if rows have to be replaced and are computed
+   * by several threads
+   */
+  public void testRowCache() throws Exception {
+    TestInstances	test;
+    Instances		data;
+    RBFKernel		plain;
+    RBFKernel		cached;
+    Random		rand;
+    int			i;
+    int			j;
+    int			n;
+    
+    test = new TestInstances();
+    test.setNumNominal(0);
+    test.setNumNumeric(5);
+    test.setNumInstances(1000);
+    test.setClassType(Attribute.NOMINAL);
+    data = test.generate();
+    
+    plain = new RBFKernel();
+    plain.setCacheSize(-1);
+    plain.buildKernel(data);
+    
+    // 1MB only holds 131 rows
+    cached = new RBFKernel();
+    cached.setRowCacheSize(1);
+    cached.setNumThreads(4);
+    cached.m_minBlockSize = 100;
+    cached.buildKernel(data);
+
+    rand = new Random(1);
+    for (n = 0; n < 5000; n++) {
+      i = rand.nextInt(data.numInstances());
+      j = rand.nextInt(data.numInstances());
+      assertEquals(
+	  "K(" + i + "," + j + ")",
+	  plain.eval(i, j, data.instance(i)), 
+	  cached.eval(i, j, data.instance(i)), 1e-12);
+    }
+    assertTrue("rows are reused", cached.numCacheHits() > 0);
+    cached.clean();
+  }
+
   public static Test suite() {
     return new TestSuite(RBFKernelTest.class);
   }
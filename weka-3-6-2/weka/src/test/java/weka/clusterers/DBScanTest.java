@@ -22,6 +22,8 @@ package weka.clusterers;
 
 import weka.clusterers.AbstractClustererTest;
 import weka.clusterers.Clusterer;
+import weka.core.Instances;
+import weka.core.TestInstances;
 
 import junit.framework.Test;
 import junit.framework.TestSuite;
@@ -45,6 +47,78 @@ public class DBScanTest
     return new DBScan();
   }
 
+  /**
+   * returns the cluster of every instance, -1 for noise
+   *
+   * @param data the data to cluster
+   * @param databaseType the database to use
+   * @param distanceType the data objects to use
+   * @param epsilon the radius of the neighbourhoods
+   * @return the cluster assignments
+   * @throws Exception if clustering fails
+   */
+  protected int[] getAssignments(Instances data, String databaseType,
+      String distanceType, double epsilon) throws Exception {
+    DBScan dbscan = new DBScan();
+    dbscan.setDatabase_Type(databaseType);
+    dbscan.setDatabase_distanceType(distanceType);
+    dbscan.setEpsilon(epsilon);
+    dbscan.setMinPoints(4);
+    dbscan.buildClusterer(data);
+
+    int[] result = new int[data.numInstances()];
+    for (int i = 0; i < data.numInstances(); i++) {
+      try {
+        result[i] = dbscan.clusterInstance(data.instance(i));
+      }
+      catch (Exception e) {
+        result[i] = -1;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * tests whether the spatial index databases give the same clusters
+   * as the SequentialDatabase
+   *
+   * @throws Exception if the test fails
+   */
+  public void testDatabases() throws Exception {
+    TestInstances test = new TestInstances();
+    test.setNoClass(true);
+    test.setNumInstances(300);
+    test.setNumNominal(1);
+    test.setNumNumeric(4);
+    Instances data = test.generate();
+
+    String databases = "weka.clusterers.forOPTICSAndDBScan.Databases.";
+    String[] databaseTypes = new String[]{"GridDatabase", "KDTreeDatabase",
+      "BallTreeDatabase", "CoverTreeDatabase"};
+    String dataObjects = "weka.clusterers.forOPTICSAndDBScan.DataObjects.";
+    String[] distanceTypes = new String[]{"EuclidianDataObject",
+      "ManhattanDataObject"};
+    double[] epsilons = new double[]{0.1, 0.2, 0.4};
+
+    for (int d = 0; d < distanceTypes.length; d++) {
+      for (int e = 0; e < epsilons.length; e++) {
+        int[] expected = getAssignments(data,
+            databases + "SequentialDatabase", dataObjects + distanceTypes[d],
+            epsilons[e]);
+        for (int t = 0; t < databaseTypes.length; t++) {
+          int[] actual = getAssignments(data,
+              databases + databaseTypes[t], dataObjects + distanceTypes[d],
+              epsilons[e]);
+          for (int i = 0; i < expected.length; i++) {
+            assertEquals(databaseTypes[t] + ", " + distanceTypes[d]
+                + ", epsilon " + epsilons[e] + ": instance " + i,
+                expected[i], actual[i]);
+          }
+        }
+      }
+    }
+  }
+
   public static Test suite() {
     return new TestSuite(DBScanTest.class);
   }
@@ -22,6 +22,10 @@ package weka.clusterers;
 
 import weka.clusterers.AbstractClustererTest;
 import weka.clusterers.Clusterer;
+import weka.clusterers.forOPTICSAndDBScan.DataObjects.DataObject;
+import weka.core.FastVector;
+import weka.core.Instances;
+import weka.core.TestInstances;
 
 import junit.framework.Test;
 import junit.framework.TestSuite;
@@ -47,6 +51,79 @@ public class OPTICSTest
     return ops;
   }
 
+  /**
+   * returns the cluster-ordered data objects
+   *
+   * @param data the data to order
+   * @param databaseType the database to use
+   * @param distanceType the data objects to use
+   * @param epsilon the radius of the neighbourhoods
+   * @return the ordering
+   * @throws Exception if clustering fails
+   */
+  protected FastVector getOrdering(Instances data, String databaseType,
+      String distanceType, double epsilon) throws Exception {
+    OPTICS optics = new OPTICS();
+    optics.setShowGUI(false);
+    optics.setDatabase_Type(databaseType);
+    optics.setDatabase_distanceType(distanceType);
+    optics.setEpsilon(epsilon);
+    optics.setMinPoints(4);
+    optics.buildClusterer(data);
+    return optics.getResultVector();
+  }
+
+  /**
+   * tests whether the spatial index databases give the same ordering,
+   * core distances and reachability distances as the SequentialDatabase
+   *
+   * @throws Exception if the test fails
+   */
+  public void testDatabases() throws Exception {
+    TestInstances test = new TestInstances();
+    test.setNoClass(true);
+    test.setNumInstances(300);
+    test.setNumNominal(1);
+    test.setNumNumeric(4);
+    Instances data = test.generate();
+
+    String databases = "weka.clusterers.forOPTICSAndDBScan.Databases.";
+    String[] databaseTypes = new String[]{"GridDatabase", "KDTreeDatabase",
+      "BallTreeDatabase", "CoverTreeDatabase"};
+    String dataObjects = "weka.clusterers.forOPTICSAndDBScan.DataObjects.";
+    String[] distanceTypes = new String[]{"EuclidianDataObject",
+      "ManhattanDataObject"};
+    double[] epsilons = new double[]{0.1, 0.2, 0.4};
+
+    for (int d = 0; d < distanceTypes.length; d++) {
+      for (int e = 0; e < epsilons.length; e++) {
+        FastVector expected = getOrdering(data,
+            databases + "SequentialDatabase", dataObjects + distanceTypes[d],
+            epsilons[e]);
+        for (int t = 0; t < databaseTypes.length; t++) {
+          FastVector actual = getOrdering(data,
+              databases + databaseTypes[t], dataObjects + distanceTypes[d],
+              epsilons[e]);
+          String msg = databaseTypes[t] + ", " + distanceTypes[d]
+            + ", epsilon " + epsilons[e];
+          assertEquals(msg + ": size", expected.size(), actual.size());
+          for (int i = 0; i < expected.size(); i++) {
+            DataObject expectedObject = (DataObject) expected.elementAt(i);
+            DataObject actualObject = (DataObject) actual.elementAt(i);
+            assertEquals(msg + ": position " + i,
+                expectedObject.getKey(), actualObject.getKey());
+            assertEquals(msg + ": core distance at " + i,
+                expectedObject.getCoreDistance(),
+                actualObject.getCoreDistance(), 0);
+            assertEquals(msg + ": reachability distance at " + i,
+                expectedObject.getReachabilityDistance(),
+                actualObject.getReachabilityDistance(), 0);
+          }
+        }
+      }
+    }
+  }
+
   public static Test suite() {
     return new TestSuite(OPTICSTest.class);
   }
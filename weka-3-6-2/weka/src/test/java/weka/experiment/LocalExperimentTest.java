@@ -0,0 +1,323 @@
+/*
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+/*
+ * Copyright (C) 2010 University of Waikato
+ */
+
+package weka.experiment;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.bayes.NaiveBayes;
+import weka.classifiers.trees.J48;
+import weka.core.Attribute;
+import weka.core.Instances;
+import weka.core.TestInstances;
+import weka.core.converters.ConverterUtils.DataSource;
+
+import java.beans.PropertyDescriptor;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Arrays;
+import java.util.Vector;
+
+import javax.swing.DefaultListModel;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Tests LocalExperiment. Run from the command line with:<p/>
+ * java weka.experiment.LocalExperimentTest
+ *
+ * @version $Revision: 1.1 $
+ */
+public class LocalExperimentTest
+  extends TestCase {
+
+  /** the key column of the run number */
+  protected static final String RUN = "Key_Run";
+
+  /** the result column overwritten in the partial results */
+  protected static final String MARKED = "Number_of_training_instances";
+
+  /** the data sets of the experiment */
+  protected DefaultListModel m_Datasets;
+
+  /** the temporary files */
+  protected Vector m_Files;
+
+  /**
+   * Constructs the <code>LocalExperimentTest</code>.
+   *
+   * @param name the name of the test class
+   */
+  public LocalExperimentTest(String name) {
+    super(name);
+  }
+
+  /**
+   * Called by JUnit before each test method: writes two generated data
+   * sets to temporary files.
+   *
+   * @throws Exception if an error occurs
+   */
+  protected void setUp() throws Exception {
+    super.setUp();
+
+    m_Files = new Vector();
+    m_Datasets = new DefaultListModel();
+    for (int i = 0; i < 2; i++) {
+      TestInstances test = new TestInstances();
+      // the relation name is the dataset key of the results
+      test.setRelation("Testdata" + (i + 1));
+      test.setSeed(i + 1);
+      test.setNumInstances(60);
+      test.setNumNominal(2);
+      test.setNumNumeric(2);
+      test.setClassType(Attribute.NOMINAL);
+      test.setNumClasses(2);
+      m_Datasets.addElement(write(test.generate()));
+    }
+  }
+
+  /**
+   * Called by JUnit after each test method: deletes the temporary files.
+   *
+   * @throws Exception if an error occurs
+   */
+  protected void tearDown() throws Exception {
+    for (int i = 0; i < m_Files.size(); i++) {
+      ((File) m_Files.elementAt(i)).delete();
+    }
+    m_Files = null;
+    m_Datasets = null;
+
+    super.tearDown();
+  }
+
+  /**
+   * returns a new temporary ARFF file
+   *
+   * @return the file
+   * @throws Exception if the file can't be created
+   */
+  protected File newFile() throws Exception {
+    File file = File.createTempFile("LocalExperimentTest", ".arff");
+    file.deleteOnExit();
+    m_Files.addElement(file);
+    return file;
+  }
+
+  /**
+   * writes the data to a new temporary ARFF file
+   *
+   * @param data the data to write
+   * @return the file
+   * @throws Exception if the data can't be written
+   */
+  protected File write(Instances data) throws Exception {
+    File file = newFile();
+    BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+    writer.write(data.toString());
+    writer.newLine();
+    writer.close();
+    return file;
+  }
+
+  /**
+   * returns an experiment that cross-validates J48 and NaiveBayes on the
+   * data sets for three runs and writes the results to a file
+   *
+   * @param output the file to write the results to
+   * @return the experiment
+   * @throws Exception if the experiment can't be set up
+   */
+  protected Experiment getExperiment(File output) throws Exception {
+    ClassifierSplitEvaluator se = new ClassifierSplitEvaluator();
+    se.setClassifier(new J48());
+    CrossValidationResultProducer cvrp = new CrossValidationResultProducer();
+    cvrp.setNumFolds(3);
+    cvrp.setSplitEvaluator(se);
+    PropertyNode[] propertyPath = new PropertyNode[]{
+      new PropertyNode(se,
+	  new PropertyDescriptor("splitEvaluator",
+	      CrossValidationResultProducer.class),
+	  CrossValidationResultProducer.class),
+      new PropertyNode(new J48(),
+	  new PropertyDescriptor("classifier", ClassifierSplitEvaluator.class),
+	  ClassifierSplitEvaluator.class)};
+
+    InstancesResultListener irl = new InstancesResultListener();
+    irl.setOutputFile(output);
+
+    Experiment exp = new Experiment();
+    exp.setRunLower(1);
+    exp.setRunUpper(3);
+    exp.setResultProducer(cvrp);
+    exp.setPropertyPath(propertyPath);
+    exp.setPropertyArray(new Classifier[]{new J48(), new NaiveBayes()});
+    exp.setUsePropertyIterator(true);
+    exp.setDatasets(m_Datasets);
+    exp.setResultListener(irl);
+    return exp;
+  }
+
+  /**
+   * runs the experiment and returns its results
+   *
+   * @param exp the experiment to run
+   * @param output the file the experiment writes its results to
+   * @return the results
+   * @throws Exception if the experiment fails
+   */
+  protected Instances run(Experiment exp, File output) throws Exception {
+    exp.initialize();
+    exp.runExperiment();
+    exp.postProcess();
+    return DataSource.read(output.getPath());
+  }
+
+  /**
+   * returns the rows of the results without the columns that depend on
+   * timing, sorted, so that the order in which the tasks finished does
+   * not matter
+   *
+   * @param results the results of an experiment
+   * @return the rows
+   */
+  protected String[] rows(Instances results) {
+    StringBuffer[] rows = new StringBuffer[results.numInstances()];
+    for (int i = 0; i < rows.length; i++) {
+      rows[i] = new StringBuffer();
+    }
+    for (int j = 0; j < results.numAttributes(); j++) {
+      Attribute att = results.attribute(j);
+      if (att.name().indexOf("Time") >= 0
+	  || att.name().equals(CrossValidationResultProducer.TIMESTAMP_FIELD_NAME)) {
+	continue;
+      }
+      for (int i = 0; i < rows.length; i++) {
+	rows[i].append(att.name()).append('=');
+	if (results.instance(i).isMissing(j)) {
+	  rows[i].append('?');
+	} else if (att.isNumeric()) {
+	  rows[i].append(results.instance(i).value(j));
+	} else {
+	  rows[i].append(results.instance(i).stringValue(j));
+	}
+	rows[i].append(',');
+      }
+    }
+    String[] result = new String[rows.length];
+    for (int i = 0; i < rows.length; i++) {
+      result[i] = rows[i].toString();
+    }
+    Arrays.sort(result);
+    return result;
+  }
+
+  /**
+   * checks that two result sets have the same rows
+   *
+   * @param msg the message for failures
+   * @param expected the expected results
+   * @param actual the actual results
+   */
+  protected void assertSameRows(String msg, Instances expected,
+      Instances actual) {
+    String[] expectedRows = rows(expected);
+    String[] actualRows = rows(actual);
+    assertEquals(msg + ": number of results",
+	expectedRows.length, actualRows.length);
+    for (int i = 0; i < expectedRows.length; i++) {
+      assertEquals(msg + ": result " + i, expectedRows[i], actualRows[i]);
+    }
+  }
+
+  /**
+   * runs the experiment as a LocalExperiment
+   *
+   * @param numSlots the number of tasks run at the same time
+   * @param resume the results of an earlier run, null for none
+   * @return the results
+   * @throws Exception if the experiment fails
+   */
+  protected Instances runLocal(int numSlots, File resume) throws Exception {
+    File output = newFile();
+    LocalExperiment exp = new LocalExperiment(getExperiment(output));
+    exp.setNumExecutionSlots(numSlots);
+    exp.setResumeFile(resume);
+    return run(exp, output);
+  }
+
+  /**
+   * tests that a LocalExperiment gives the same results as the
+   * sequential Experiment, with one and with several slots
+   *
+   * @throws Exception if the test fails
+   */
+  public void testSlots() throws Exception {
+    File output = newFile();
+    Instances expected = run(getExperiment(output), output);
+    assertEquals("number of results", 2 * 2 * 3 * 3, expected.numInstances());
+
+    assertSameRows("1 slot", expected, runLocal(1, null));
+    assertSameRows("4 slots", expected, runLocal(4, null));
+  }
+
+  /**
+   * tests that a LocalExperiment resumed from partial results passes
+   * those results on rather than computing them again, and computes the
+   * others as the sequential Experiment does
+   *
+   * @throws Exception if the test fails
+   */
+  public void testResume() throws Exception {
+    File output = newFile();
+    Instances expected = run(getExperiment(output), output);
+
+    // keep the results of the first run and mark them
+    Instances partial = new Instances(expected, 0);
+    int run = partial.attribute(RUN).index();
+    int marked = partial.attribute(MARKED).index();
+    for (int i = 0; i < expected.numInstances(); i++) {
+      if (expected.instance(i).stringValue(run).equals("1")) {
+	partial.add(expected.instance(i));
+	partial.lastInstance().setValue(marked, -1);
+	expected.instance(i).setValue(marked, -1);
+      }
+    }
+    assertTrue("partial results", partial.numInstances() > 0);
+    assertTrue("partial results",
+	partial.numInstances() < expected.numInstances());
+
+    assertSameRows("resumed with 1 slot", expected,
+	runLocal(1, write(partial)));
+    assertSameRows("resumed with 4 slots", expected,
+	runLocal(4, write(partial)));
+  }
+
+  public static Test suite() {
+    return new TestSuite(LocalExperimentTest.class);
+  }
+
+  public static void main(String[] args){
+    junit.textui.TestRunner.run(suite());
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+/*
+ *    KernelCacheBenchmark.java
+ *    Copyright (C) 2010 University of Waikato, Hamilton, New Zealand
+ *
+ */
+
+package wekaexamples.classifiers;
+
+import weka.classifiers.functions.SMO;
+import weka.classifiers.functions.supportVector.RBFKernel;
+import weka.core.Instances;
+import weka.core.converters.ConverterUtils.DataSource;
+import weka.core.Utils;
+
+/**
+ * Compares the training times of SMO with an RBF kernel using the cache
+ * of single kernel values, the kernel row cache, and the kernel row cache
+ * together with shrinking. For every setup, the accuracy on the training
+ * data and the number of training predictions that differ from the
+ * first setup are output as well.
+ *
+ * Command-line parameters:
+ * <ul>
+ *    <li>-G double - the gamma of the RBF kernel (default 0.01)</li>
+ *    <li>-M int - the memory budget of the row cache in MB (default 40)</li>
+ *    <li>-T int - the number of threads computing kernel rows (default 1)</li>
+ *    <li>-r int - the number of times each setup is run (default 3)</li>
+ *    <li>the datasets to use, with the class as the last attribute</li>
+ * </ul>
+ *
+ * Example command-line:
+ * <pre>
+ * java wekaexamples.classifiers.KernelCacheBenchmark -M 40 -T 2 segment-challenge.arff soybean.arff
+ * </pre>
+ *
+ * @version $Revision$
+ */
+public class KernelCacheBenchmark {
+
+  /**
+   * Runs the benchmark. See Javadoc of class for information on
+   * command-line parameters.
+   *
+   * @param args	the command-line parameters
+   * @throws Exception	if something goes wrong
+   */
+  public static void main(String[] args) throws Exception {
+    String tmpStr;
+
+    tmpStr = Utils.getOption("G", args);
+    double gamma = (tmpStr.length() == 0) ? 0.01 : Double.parseDouble(tmpStr);
+    tmpStr = Utils.getOption("M", args);
+    int rowCacheSize = (tmpStr.length() == 0) ? 40 : Integer.parseInt(tmpStr);
+    tmpStr = Utils.getOption("T", args);
+    int numThreads = (tmpStr.length() == 0) ? 1 : Integer.parseInt(tmpStr);
+    tmpStr = Utils.getOption("r", args);
+    int runs = (tmpStr.length() == 0) ? 3 : Integer.parseInt(tmpStr);
+
+    String[] setups = new String[]{"value cache", "row cache", "row cache + shrinking"};
+
+    System.out.println(
+	"dataset\tinstances\tsetup\tmsec\taccuracy\tdifferent predictions");
+    for (int n = 0; n < args.length; n++) {
+      if (args[n].length() == 0)
+	continue;
+      Instances data = DataSource.read(args[n]);
+      data.setClassIndex(data.numAttributes() - 1);
+
+      double[] reference = null;
+      for (int s = 0; s < setups.length; s++) {
+	RBFKernel kernel = new RBFKernel();
+	kernel.setGamma(gamma);
+	if (s > 0) {
+	  kernel.setRowCacheSize(rowCacheSize);
+	  kernel.setNumThreads(numThreads);
+	}
+	SMO smo = new SMO();
+	smo.setKernel(kernel);
+	smo.setUseShrinking(s == 2);
+
+	// the fastest of several runs
+	long best = Long.MAX_VALUE;
+	for (int r = 0; r < runs; r++) {
+	  long start = System.currentTimeMillis();
+	  smo.buildClassifier(data);
+	  best = Math.min(best, System.currentTimeMillis() - start);
+	}
+
+	double[] predictions = new double[data.numInstances()];
+	int correct = 0;
+	int different = 0;
+	for (int i = 0; i < data.numInstances(); i++) {
+	  predictions[i] = smo.classifyInstance(data.instance(i));
+	  if (predictions[i] == data.instance(i).classValue())
+	    correct++;
+	  if ((reference != null) && (predictions[i] != reference[i]))
+	    different++;
+	}
+	if (reference == null)
+	  reference = predictions;
+
+	System.out.println(
+	    data.relationName() + "\t" + data.numInstances() + "\t" + setups[s]
+	    + "\t" + best
+	    + "\t" + Utils.doubleToString(100.0 * correct / data.numInstances(), 2)
+	    + "\t" + different);
+      }
+    }
+  }
+}
@@ -69,7 +69,11 @@ import weka.core.metrics.*;
  * minimize mean-squared error. (default mean absolute error) <p>
  *
  * -M metric-name <br>
- * Specify the distance metric to be used; WeightedDotP by default.
+ * Specify the distance metric to be used; WeightedDotP by default. <p>
+ *
+ * -L <br>
+ * Always find neighbors by a linear scan. By default a vantage-point
+ * tree is used when the metric satisfies the triangle inequality. <p>
  *
  * @author Stuart Inglis (singlis@cs.waikato.ac.nz)
  * @author Len Trigg (trigg@cs.waikato.ac.nz)
@@ -311,6 +315,12 @@ public class IBkMetric extends DistributionClassifier
     /** Whether to select k by cross validation */
     protected boolean m_CrossValidate;
 
+    /** Whether neighbors may be found with a VPTree when the metric allows it */
+    protected boolean m_UseIndex = true;
+
+    /** The index over the training instances, or null for a linear scan */
+    protected VPTree m_Index = null;
+
     /**
      * Whether to minimise mean squared error rather than mean absolute
      * error when cross-validating on numeric prediction tasks
@@ -576,6 +586,35 @@ public class IBkMetric extends DistributionClassifier
 
 	// Train the distance metric
 	m_metric.buildMetric(instances);
+
+	// Index the training instances if the metric is a true metric
+	buildIndex();
+    }
+
+    /**
+     * Builds the VPTree over the training instances, unless the index is
+     * turned off or the metric does not satisfy the triangle inequality,
+     * in which case neighbors are found by a linear scan.
+     */
+    protected void buildIndex() throws Exception {
+
+	m_Index = null;
+	if (m_UseIndex && m_metric.isDistanceBased()
+	    && m_metric.satisfiesTriangleInequality()) {
+	    m_Index = new VPTree(m_metric);
+	    m_Index.build(m_Train);
+	}
+    }
+
+    /**
+     * Removes the oldest training instance
+     */
+    protected void deleteOldest() throws Exception {
+
+	if (m_Index != null) {
+	    m_Index.remove(m_Train.instance(0));
+	}
+	m_Train.delete(0);
     }
 
     /**
@@ -595,10 +634,13 @@ public class IBkMetric extends DistributionClassifier
 	}
 
 	m_Train.add(instance);
+	if (m_Index != null) {
+	    m_Index.insert(m_Train.lastInstance());
+	}
 	m_kNNValid = false;
 	if ((m_WindowSize > 0) && (m_Train.numInstances() > m_WindowSize)) {
 	    while (m_Train.numInstances() > m_WindowSize) {
-		m_Train.delete(0);
+		deleteOldest();
 	    }
 	}
     }
@@ -619,7 +661,7 @@ public class IBkMetric extends DistributionClassifier
 	if ((m_WindowSize > 0) && (m_Train.numInstances() > m_WindowSize)) {
 	    m_kNNValid = false;
 	    while (m_Train.numInstances() > m_WindowSize) {
-		m_Train.delete(0);
+		deleteOldest();
 	    }
 	}
 
@@ -677,6 +719,29 @@ public class IBkMetric extends DistributionClassifier
 	return m_MetricName;
     }
  
+    /**
+     * Gets whether neighbors may be found with a vantage-point tree
+     *
+     * @return true if a tree is used whenever the metric allows it
+     */
+    public boolean getUseIndex() {
+
+	return m_UseIndex;
+    }
+
+    /**
+     * Sets whether neighbors may be found with a vantage-point tree.
+     * The tree is only used with metrics that satisfy the triangle
+     * inequality; all other measures, such as KL, always use a linear
+     * scan. Takes effect when the classifier is built.
+     *
+     * @param newUseIndex true if a tree should be used when possible
+     */
+    public void setUseIndex(boolean newUseIndex) {
+
+	m_UseIndex = newUseIndex;
+    }
+
     /**
      * Returns an enumeration describing the available options.
      *
@@ -684,7 +749,7 @@ public class IBkMetric extends DistributionClassifier
      */
     public Enumeration listOptions() {
 
-	Vector newVector = new Vector(8);
+	Vector newVector = new Vector(9);
 
 	newVector.addElement(new Option(
 					"\tWeight neighbours by the inverse of their distance\n"
@@ -714,6 +779,11 @@ public class IBkMetric extends DistributionClassifier
 	newVector.addElement(new Option(
 					"\tUse a specific distance metric. (Default=WeightedDotP)\n",
 					"M", 1, "-M"));
+	newVector.addElement(new Option(
+					"\tAlways find neighbors by a linear scan instead of a\n"
+					+"\tvantage-point tree (the tree is only used with metrics\n"
+					+"\tthat satisfy the triangle inequality)",
+					"L", 0, "-L"));
 	return newVector.elements();
     }
 
@@ -746,6 +816,9 @@ public class IBkMetric extends DistributionClassifier
      * When k is selected by cross-validation for numeric class attributes,
      * minimize mean-squared error. (default mean absolute error) <p>
      *
+     * -L <br>
+     * Always find neighbors by a linear scan. <p>
+     *
      * @param options the list of options as an array of strings
      * @exception Exception if an option is not supported
      */
@@ -772,6 +845,7 @@ public class IBkMetric extends DistributionClassifier
 	}
 	setCrossValidate(Utils.getFlag('X', options));
 	setMeanSquared(Utils.getFlag('S', options));
+	setUseIndex(!Utils.getFlag('L', options));
 
 	String metricString = Utils.getOption('M', options);
 	if (metricString.length() != 0) {
@@ -814,6 +888,9 @@ public class IBkMetric extends DistributionClassifier
     if (getMeanSquared()) {
       options[current++] = "-S";
     }
+    if (!getUseIndex()) {
+      options[current++] = "-L";
+    }
     if (m_DistanceWeighting == WEIGHT_INVERSE) {
       options[current++] = "-D";
     } else if (m_DistanceWeighting == WEIGHT_SIMILARITY) {
@@ -893,6 +970,17 @@ public class IBkMetric extends DistributionClassifier
 
 	double distance;
 	NeighborList neighborlist = new NeighborList(m_kNN);
+
+	// the tree returns the neighbors in training order, so inserting
+	// them gives the same list as the linear scan
+	if (m_Index != null) {
+	    VPTree.Neighbors neighbors = m_Index.kNearestNeighbors(instance, m_kNN, instance);
+	    for (int j = 0; j < neighbors.size(); j++) {
+		neighborlist.insertSorted(neighbors.distances[j], neighbors.instances[j]);
+	    }
+	    return neighborlist;
+	}
+
 	Enumeration enum = m_Train.enumerateInstances();
 	int i = 0;
 
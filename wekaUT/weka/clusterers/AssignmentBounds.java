@@ -0,0 +1,313 @@
+/*
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+/*
+ *    AssignmentBounds.java
+ *    Triangle-inequality bounds for accelerating the K-Means E-step
+ *
+ */
+
+package weka.clusterers;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import weka.core.*;
+import weka.core.metrics.*;
+
+/**
+ * Keeps Hamerly-style bounds for the E-step of K-Means variants: for
+ * every point an upper bound on the distance to its closest centroid
+ * and a lower bound on the distance to every other centroid, along
+ * with the drift of every centroid between iterations.  A point whose
+ * upper bound is below both its lower bound and half the distance
+ * from its centroid to the nearest other centroid provably keeps its
+ * closest centroid, so the remaining distances need not be computed.
+ *
+ * The bounds are only valid for metrics that satisfy the triangle
+ * inequality and stay fixed between calls to beginPass(); a learned
+ * metric must call invalidateIfMetricChanged() after every update.
+ * Different points may be processed concurrently.
+ */
+public class AssignmentBounds implements Serializable {
+  /** Relative slack that guards the bounds against rounding errors */
+  protected static final double EPSILON = 1e-10;
+
+  /** The metric the bounds are computed with */
+  protected Metric m_metric;
+
+  /** Upper bound on the distance from each point to its closest centroid */
+  protected double[] m_upper;
+
+  /** Lower bound on the distance from each point to all other centroids */
+  protected double[] m_lower;
+
+  /** Closest centroid of each point, -1 if the bounds of the point are invalid */
+  protected int[] m_closest;
+
+  /** Number of distance calls made for each point in the current pass, -1 if not queried */
+  protected int[] m_passCalls;
+
+  /** Centroids of the previous pass, used to compute the drift */
+  protected Instance[] m_centroids = null;
+
+  /** Projections of the centroids if the metric is WeightedMahalanobis */
+  protected double[][] m_projectedCentroids = null;
+
+  /** Half the distance from each centroid to its nearest other centroid */
+  protected double[] m_halfMinCentroidDist = null;
+
+  /** Snapshot of the metric parameters the bounds were computed with */
+  protected double[] m_metricWeights = null;
+  protected double[][] m_metricMatrix = null;
+
+  /** Statistics */
+  protected long m_numDistanceCalls = 0;
+  protected long m_numDistanceCallsSaved = 0;
+
+  /**
+   * Create bounds for a dataset
+   * @param metric a metric satisfying the triangle inequality
+   * @param numInstances the number of points that will be assigned
+   */
+  public AssignmentBounds(Metric metric, int numInstances) {
+    m_metric = metric;
+    m_upper = new double[numInstances];
+    m_lower = new double[numInstances];
+    m_closest = new int[numInstances];
+    m_passCalls = new int[numInstances];
+    Arrays.fill(m_passCalls, -1);
+    snapshotMetric();
+    invalidate();
+  }
+
+  /** Can bounds be maintained for a given metric?
+   * @param metric the metric used by the clusterer
+   * @return true if the metric is a true distance with penalty = distance^2
+   */
+  public static boolean supportsMetric(Metric metric) {
+    if (metric instanceof WeightedEuclidean) {
+      // an external pair classifier does not obey the triangle inequality
+      WeightedEuclidean we = (WeightedEuclidean) metric;
+      return !(we.getTrainable() && we.getExternal());
+    }
+    return (metric instanceof WeightedMahalanobis || metric instanceof Euclidean);
+  }
+
+  /** Forget all bounds; every point will be scanned in the next pass */
+  public void invalidate() {
+    Arrays.fill(m_closest, -1);
+    m_centroids = null;
+    m_projectedCentroids = null;
+    m_halfMinCentroidDist = null;
+  }
+
+  /** Invalidate the bounds if the parameters of the metric have changed
+   * since the last call; should be called after every metric update
+   */
+  public void invalidateIfMetricChanged() {
+    boolean changed = true;
+    if (m_metric instanceof Euclidean) {
+      changed = false;
+    } else if (m_metric instanceof WeightedEuclidean) {
+      changed = !Arrays.equals(m_metricWeights, ((LearnableMetric) m_metric).getWeights());
+    } else if (m_metric instanceof WeightedMahalanobis) {
+      double[][] matrix = ((WeightedMahalanobis) m_metric).getWeightsMatrix().getArray();
+      changed = (m_metricMatrix == null || m_metricMatrix.length != matrix.length);
+      for (int i = 0; !changed && i < matrix.length; i++) {
+	changed = !Arrays.equals(m_metricMatrix[i], matrix[i]);
+      }
+    }
+    if (changed) {
+      snapshotMetric();
+      invalidate();
+    }
+  }
+
+  /** Store the current metric parameters */
+  protected void snapshotMetric() {
+    if (m_metric instanceof WeightedMahalanobis) {
+      m_metricMatrix = ((WeightedMahalanobis) m_metric).getWeightsMatrix().getArrayCopy();
+    } else if (m_metric instanceof LearnableMetric) {
+      double[] weights = ((LearnableMetric) m_metric).getWeights();
+      m_metricWeights = (weights == null) ? null : (double[]) weights.clone();
+    }
+  }
+
+  /**
+   * Start a new E-step: shift the bounds by the drift of the centroids
+   * since the previous pass
+   * @param centroids the current cluster centroids
+   */
+  public void beginPass(Instances centroids) throws Exception {
+    int numClusters = centroids.numInstances();
+    Instance[] newCentroids = new Instance[numClusters];
+    double[][] newProjectedCentroids = null;
+    for (int i = 0; i < numClusters; i++) {
+      newCentroids[i] = centroids.instance(i);
+    }
+    if (m_metric instanceof WeightedMahalanobis) {
+      newProjectedCentroids = new double[numClusters][];
+      for (int i = 0; i < numClusters; i++) {
+	newProjectedCentroids[i] = ((WeightedMahalanobis) m_metric).projectValues(newCentroids[i]);
+      }
+    }
+
+    if (m_centroids != null && m_centroids.length == numClusters) {
+      double[] drift = new double[numClusters];
+      double maxDrift = 0;
+      for (int i = 0; i < numClusters; i++) {
+	if (m_centroids[i] == newCentroids[i]) {
+	  drift[i] = 0;
+	} else if (m_projectedCentroids != null && m_projectedCentroids[i] != null
+		   && newProjectedCentroids[i] != null) {
+	  drift[i] = ((WeightedMahalanobis) m_metric).distance(m_projectedCentroids[i],
+							      newProjectedCentroids[i]);
+	} else {
+	  drift[i] = m_metric.distance(m_centroids[i], newCentroids[i]);
+	}
+	if (drift[i] > maxDrift) {
+	  maxDrift = drift[i];
+	}
+      }
+      for (int i = 0; i < m_closest.length; i++) {
+	if (m_closest[i] >= 0) {
+	  m_upper[i] += drift[m_closest[i]];
+	  m_lower[i] -= maxDrift;
+	}
+      }
+    } else {
+      Arrays.fill(m_closest, -1);
+    }
+    m_centroids = newCentroids;
+    m_projectedCentroids = newProjectedCentroids;
+
+    // half the distance to the nearest other centroid
+    m_halfMinCentroidDist = new double[numClusters];
+    Arrays.fill(m_halfMinCentroidDist, Double.POSITIVE_INFINITY);
+    for (int i = 0; i < numClusters; i++) {
+      for (int j = i+1; j < numClusters; j++) {
+	double halfDist = (newProjectedCentroids != null && newProjectedCentroids[i] != null
+			   && newProjectedCentroids[j] != null)
+	  ? 0.5 * ((WeightedMahalanobis) m_metric).distance(newProjectedCentroids[i],
+							    newProjectedCentroids[j])
+	  : 0.5 * m_metric.distance(newCentroids[i], newCentroids[j]);
+	if (halfDist < m_halfMinCentroidDist[i]) {
+	  m_halfMinCentroidDist[i] = halfDist;
+	}
+	if (halfDist < m_halfMinCentroidDist[j]) {
+	  m_halfMinCentroidDist[j] = halfDist;
+	}
+      }
+    }
+    Arrays.fill(m_passCalls, -1);
+  }
+
+  /** Finish the E-step and update the distance call statistics */
+  public void endPass() {
+    int numClusters = m_centroids.length;
+    for (int i = 0; i < m_passCalls.length; i++) {
+      if (m_passCalls[i] >= 0) {
+	m_numDistanceCalls += m_passCalls[i];
+	m_numDistanceCallsSaved += numClusters - m_passCalls[i];
+	m_passCalls[i] = -1;
+      }
+    }
+  }
+
+  /**
+   * Check whether the recorded closest centroid of a point provably
+   * is still the closest one.
+   * @param instIdx index of the point
+   * @param instance the point
+   * @param tighten if true, the upper bound is always replaced by the
+   * exact distance to the closest centroid, so that getUpperBound()
+   * returns it when the check succeeds
+   * @return true if getClosest() is the closest centroid
+   */
+  public boolean isStable(int instIdx, Instance instance, boolean tighten) throws Exception {
+    int closest = m_closest[instIdx];
+    if (closest < 0) {
+      return false;
+    }
+    double bound = Math.max(m_halfMinCentroidDist[closest], m_lower[instIdx]);
+    if (!tighten && m_upper[instIdx] * (1 + EPSILON) < bound) {
+      m_passCalls[instIdx] = 0;
+      return true;
+    }
+    m_upper[instIdx] = centroidDistance(instIdx, instance, closest);
+    m_passCalls[instIdx] = 1;
+    return (m_upper[instIdx] * (1 + EPSILON) < bound);
+  }
+
+  /**
+   * Compute the distances from a point to all centroids and reset its bounds
+   * @param instIdx index of the point
+   * @param instance the point
+   * @param distances array that receives the distance to every centroid
+   */
+  public void scan(int instIdx, Instance instance, double[] distances) throws Exception {
+    int closest = 0;
+    double best = Double.POSITIVE_INFINITY;
+    double secondBest = Double.POSITIVE_INFINITY;
+    for (int i = 0; i < m_centroids.length; i++) {
+      distances[i] = centroidDistance(instIdx, instance, i);
+      if (distances[i] < best) {
+	secondBest = best;
+	best = distances[i];
+	closest = i;
+      } else if (distances[i] < secondBest) {
+	secondBest = distances[i];
+      }
+    }
+    m_closest[instIdx] = closest;
+    m_upper[instIdx] = best;
+    m_lower[instIdx] = secondBest;
+    m_passCalls[instIdx] = (m_passCalls[instIdx] > 0 ? m_passCalls[instIdx] : 0) + m_centroids.length;
+  }
+
+  /** Distance from a point to a centroid; uses the cached projection
+   * of the point if the metric is WeightedMahalanobis */
+  protected double centroidDistance(int instIdx, Instance instance, int centroidIdx) throws Exception {
+    if (m_projectedCentroids != null && m_projectedCentroids[centroidIdx] != null) {
+      WeightedMahalanobis metric = (WeightedMahalanobis) m_metric;
+      double[] projValues = metric.getCachedProjection(instance, instIdx);
+      if (projValues != null) {
+	return metric.distance(projValues, m_projectedCentroids[centroidIdx]);
+      }
+    }
+    return m_metric.distance(instance, m_centroids[centroidIdx]);
+  }
+
+  /** Get the closest centroid recorded for a point, -1 if unknown */
+  public int getClosest(int instIdx) {
+    return m_closest[instIdx];
+  }
+
+  /** Get the upper bound on the distance from a point to its closest centroid */
+  public double getUpperBound(int instIdx) {
+    return m_upper[instIdx];
+  }
+
+  /** Get the total number of distance calls made through the bounds */
+  public long getNumDistanceCalls() {
+    return m_numDistanceCalls;
+  }
+
+  /** Get the number of point-to-centroid distance calls that were skipped */
+  public long getNumDistanceCallsSaved() {
+    return m_numDistanceCallsSaved;
+  }
+}
@@ -0,0 +1,224 @@
+/*
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+/*
+ *    CentroidSums.java
+ *    Running per-cluster sums for the K-Means M-step
+ *
+ */
+
+package weka.clusterers;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import weka.core.*;
+
+/**
+ * Keeps the weighted sum of the instances of every cluster, so that
+ * the M-step of K-Means variants only has to account for the points
+ * that moved since the previous M-step instead of regrouping all the
+ * instances.  The assignments the sums reflect are kept as well;
+ * update() compares them with the current assignments, so any code
+ * may change the assignments in between.
+ *
+ * The centroids are computed as Instances.meanOrMode() would compute
+ * them from the instances of each cluster: the weighted mean of the
+ * non-missing values of numeric attributes, the most frequent value
+ * of nominal attributes and 0 for other attributes.  In fast mode all
+ * values are averaged as numbers over the total weight of the cluster,
+ * which is what the fast meanOrMode() of sparse instances does.
+ */
+public class CentroidSums implements Serializable {
+  /** The instances being clustered */
+  protected Instances m_instances;
+
+  /** Average all values as numbers */
+  protected boolean m_fast;
+
+  /** The cluster of each instance that the sums reflect, -1 for none */
+  protected int[] m_assignments;
+
+  /** Weighted sums of the non-missing values of every cluster */
+  protected double[][] m_sums;
+
+  /** Total weight of every cluster */
+  protected double[] m_weights;
+
+  /** Number of instances in every cluster */
+  protected int[] m_counts;
+
+  /** Weight of the missing values of every attribute in every cluster,
+   * null until a missing value is seen */
+  protected double[][] m_missingWeights = null;
+
+  /** Weights of the nominal values of every cluster, indexed by
+   * cluster and attribute (null for other attributes); value 0 is
+   * not counted since sparse instances do not store it */
+  protected double[][][] m_nominalWeights = null;
+
+  /**
+   * Creates empty sums; every instance is added by the first update().
+   *
+   * @param instances the instances being clustered
+   * @param numClusters the number of clusters
+   * @param fast whether all values are averaged as numbers
+   */
+  public CentroidSums(Instances instances, int numClusters, boolean fast) {
+    m_instances = instances;
+    m_fast = fast;
+    int numAttributes = instances.numAttributes();
+    m_assignments = new int[instances.numInstances()];
+    Arrays.fill(m_assignments, -1);
+    m_sums = new double[numClusters][numAttributes];
+    m_weights = new double[numClusters];
+    m_counts = new int[numClusters];
+    if (!fast) {
+      for (int j = 0; j < numAttributes; j++) {
+	if (instances.attribute(j).isNominal()) {
+	  if (m_nominalWeights == null) {
+	    m_nominalWeights = new double[numClusters][numAttributes][];
+	  }
+	  for (int i = 0; i < numClusters; i++) {
+	    m_nominalWeights[i][j] = new double[instances.attribute(j).numValues()];
+	  }
+	}
+      }
+    }
+  }
+
+  /**
+   * Checks whether the sums can be kept up to date for a clustering.
+   *
+   * @param instances the instances being clustered
+   * @param numClusters the number of clusters
+   * @param fast whether all values are averaged as numbers
+   * @return true if the sums were created for the same instances, as
+   * many clusters and the same mode
+   */
+  public boolean isFor(Instances instances, int numClusters, boolean fast) {
+    return instances == m_instances && instances.numInstances() == m_assignments.length
+      && numClusters == m_sums.length && fast == m_fast;
+  }
+
+  /** The number of instances in a cluster */
+  public int getCount(int cluster) {
+    return m_counts[cluster];
+  }
+
+  /**
+   * Brings the sums up to date with the given assignments, moving only
+   * the instances whose cluster changed since the last update.
+   *
+   * @param assignments the current cluster of every instance, -1 for none
+   * @return the number of instances that changed cluster
+   */
+  public int update(int[] assignments) {
+    int moved = 0;
+    for (int i = 0; i < m_assignments.length; i++) {
+      if (assignments[i] != m_assignments[i]) {
+	if (m_assignments[i] >= 0) {
+	  addInstance(i, m_assignments[i], -1);
+	}
+	if (assignments[i] >= 0) {
+	  addInstance(i, assignments[i], 1);
+	}
+	m_assignments[i] = assignments[i];
+	moved++;
+      }
+    }
+    return moved;
+  }
+
+  /** Adds (sign 1) or removes (sign -1) an instance to or from a cluster */
+  protected void addInstance(int instIdx, int cluster, int sign) {
+    Instance instance = m_instances.instance(instIdx);
+    double weight = sign * instance.weight();
+    double[] sums = m_sums[cluster];
+    for (int l = 0; l < instance.numValues(); l++) {
+      int j = instance.index(l);
+      double value = instance.valueSparse(l);
+      if (Instance.isMissingValue(value)) {
+	if (m_missingWeights == null) {
+	  m_missingWeights = new double[m_sums.length][sums.length];
+	}
+	m_missingWeights[cluster][j] += weight;
+      } else if (m_nominalWeights != null && m_nominalWeights[cluster][j] != null) {
+	if (value != 0) {
+	  m_nominalWeights[cluster][j][(int) value] += weight;
+	}
+      } else {
+	sums[j] += weight * value;
+      }
+    }
+    m_weights[cluster] += weight;
+    m_counts[cluster] += sign;
+    if (m_counts[cluster] == 0) {
+      // start an emptied cluster afresh rather than from rounding errors
+      Arrays.fill(sums, 0);
+      m_weights[cluster] = 0;
+      if (m_missingWeights != null) {
+	Arrays.fill(m_missingWeights[cluster], 0);
+      }
+      if (m_nominalWeights != null) {
+	for (int j = 0; j < sums.length; j++) {
+	  if (m_nominalWeights[cluster][j] != null) {
+	    Arrays.fill(m_nominalWeights[cluster][j], 0);
+	  }
+	}
+      }
+    }
+  }
+
+  /**
+   * Computes the centroid of a cluster from its sums.
+   *
+   * @param cluster the cluster
+   * @return the values of the centroid
+   */
+  public double[] meanOrMode(int cluster) {
+    double[] sums = m_sums[cluster];
+    double[] values = new double[sums.length];
+    double weight = m_weights[cluster];
+    for (int j = 0; j < values.length; j++) {
+      double missingWeight = (m_missingWeights == null) ? 0 : m_missingWeights[cluster][j];
+      if (m_fast) {
+	if (missingWeight != 0) {
+	  values[j] = Instance.missingValue();
+	} else if (!Utils.eq(weight, 0)) {
+	  values[j] = sums[j] / weight;
+	}
+      } else if (m_nominalWeights != null && m_nominalWeights[cluster][j] != null) {
+	double[] nominalWeights = m_nominalWeights[cluster][j];
+	int mode = 0;
+	double modeWeight = weight - missingWeight;
+	for (int v = 1; v < nominalWeights.length; v++) {
+	  modeWeight -= nominalWeights[v];
+	}
+	for (int v = 1; v < nominalWeights.length; v++) {
+	  if (nominalWeights[v] > modeWeight) {
+	    mode = v;
+	    modeWeight = nominalWeights[v];
+	  }
+	}
+	values[j] = mode;
+      } else if (m_instances.attribute(j).isNumeric()) {
+	double found = weight - missingWeight;
+	values[j] = (found != 0) ? sums[j] / found : sums[j];
+      }
+    }
+    return values;
+  }
+}
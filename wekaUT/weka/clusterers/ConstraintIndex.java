@@ -0,0 +1,159 @@
+/*
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+/*
+ *    ConstraintIndex.java
+ *    Compressed adjacency lists of pairwise constraints
+ *
+ */
+
+package weka.clusterers;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Read-only adjacency structure for pairwise constraints, stored in
+ * compressed sparse row form: the constraints of instance i occupy
+ * positions getStart(i) to getEnd(i)-1 of a neighbor array and a
+ * link type array.  Iterating over the constraints of an instance
+ * neither allocates nor boxes, unlike probing the ([instanceIdx] ->
+ * [ArrayList of InstancePairs]) hash that the index is built from:
+ *
+ * <code><pre>
+ * for (int pos = index.getStart(i); pos < index.getEnd(i); pos++) {
+ *   int neighbor = index.getNeighbor(pos);
+ *   int linkType = index.getLinkType(pos);
+ *   ...
+ * }
+ * </pre></code>
+ *
+ * The constraints of every instance keep the order of its list in
+ * the hash, so sums over them are identical to those over the lists.
+ * The index has to be rebuilt whenever the hash changes.
+ */
+public class ConstraintIndex implements Serializable {
+  /** Position of the first constraint of each instance; numInstances+1 entries */
+  protected int[] m_offsets;
+
+  /** The other instance of each constraint */
+  protected int[] m_neighbors;
+
+  /** InstancePair.MUST_LINK or InstancePair.CANNOT_LINK for each constraint */
+  protected byte[] m_linkTypes;
+
+  /**
+   * Build the index from a hash of constraint lists
+   * @param instanceConstraintHash ([instanceIdx] -> [ArrayList of
+   * InstancePairs]) mapping, may be null
+   * @param numInstances the number of instances
+   */
+  public ConstraintIndex(HashMap instanceConstraintHash, int numInstances) {
+    int numRows = numInstances;
+    int numEntries = 0;
+    if (instanceConstraintHash != null) {
+      Iterator iter = instanceConstraintHash.entrySet().iterator();
+      while (iter.hasNext()) {
+	Map.Entry entry = (Map.Entry) iter.next();
+	int instIdx = ((Integer) entry.getKey()).intValue();
+	if (instIdx >= numRows) {
+	  numRows = instIdx + 1;
+	}
+	numEntries += ((ArrayList) entry.getValue()).size();
+      }
+    }
+
+    m_offsets = new int[numRows + 1];
+    m_neighbors = new int[numEntries];
+    m_linkTypes = new byte[numEntries];
+    if (instanceConstraintHash == null) {
+      return;
+    }
+
+    // count the constraints of every instance, then fill the rows
+    Iterator iter = instanceConstraintHash.entrySet().iterator();
+    while (iter.hasNext()) {
+      Map.Entry entry = (Map.Entry) iter.next();
+      int instIdx = ((Integer) entry.getKey()).intValue();
+      m_offsets[instIdx + 1] = ((ArrayList) entry.getValue()).size();
+    }
+    for (int i = 0; i < numRows; i++) {
+      m_offsets[i + 1] += m_offsets[i];
+    }
+
+    iter = instanceConstraintHash.entrySet().iterator();
+    while (iter.hasNext()) {
+      Map.Entry entry = (Map.Entry) iter.next();
+      int instIdx = ((Integer) entry.getKey()).intValue();
+      ArrayList constraintList = (ArrayList) entry.getValue();
+      int pos = m_offsets[instIdx];
+      for (int i = 0; i < constraintList.size(); i++, pos++) {
+	InstancePair pair = (InstancePair) constraintList.get(i);
+	m_neighbors[pos] = (pair.first == instIdx) ? pair.second : pair.first;
+	m_linkTypes[pos] = (byte) pair.linkType;
+      }
+    }
+  }
+
+  /** Get the number of instances covered by the index */
+  public int numInstances() {
+    return m_offsets.length - 1;
+  }
+
+  /** Get the total number of entries; every constraint is stored twice */
+  public int numEntries() {
+    return m_neighbors.length;
+  }
+
+  /** Get the number of constraints an instance is involved in */
+  public int numConstraints(int instIdx) {
+    if (instIdx >= m_offsets.length - 1) {
+      return 0;
+    }
+    return m_offsets[instIdx + 1] - m_offsets[instIdx];
+  }
+
+  /** Is an instance involved in any constraints? */
+  public boolean hasConstraints(int instIdx) {
+    return numConstraints(instIdx) > 0;
+  }
+
+  /** Get the position of the first constraint of an instance */
+  public int getStart(int instIdx) {
+    if (instIdx >= m_offsets.length - 1) {
+      return 0;
+    }
+    return m_offsets[instIdx];
+  }
+
+  /** Get the position after the last constraint of an instance */
+  public int getEnd(int instIdx) {
+    if (instIdx >= m_offsets.length - 1) {
+      return 0;
+    }
+    return m_offsets[instIdx + 1];
+  }
+
+  /** Get the other instance of the constraint at a position */
+  public int getNeighbor(int pos) {
+    return m_neighbors[pos];
+  }
+
+  /** Get the link type of the constraint at a position */
+  public int getLinkType(int pos) {
+    return m_linkTypes[pos];
+  }
+}
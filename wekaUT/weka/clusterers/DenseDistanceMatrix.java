@@ -0,0 +1,73 @@
+/*
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+/*
+ *    DenseDistanceMatrix.java
+ *    Distances between all pairs of objects
+ *
+ */
+
+package weka.clusterers;
+
+import java.util.Arrays;
+
+/**
+ * Stores the distance of every pair of objects.  Only the upper
+ * triangle is kept: row i holds the distances to objects i+1..n-1,
+ * which takes half the memory of a square double[n][n].
+ */
+public class DenseDistanceMatrix extends DistanceMatrix {
+  /** m_rows[i][j-i-1] is the distance between i and j for i < j */
+  protected double[][] m_rows;
+
+  /** Create a matrix with all distances set to 0 */
+  public DenseDistanceMatrix(int size) {
+    this(size, 0);
+  }
+
+  /** Create a matrix with all distances set to an initial value */
+  public DenseDistanceMatrix(int size, double initialValue) {
+    super(size);
+    m_rows = new double[size][];
+    for (int i = 0; i < size; i++) {
+      m_rows[i] = new double[size - i - 1];
+      if (initialValue != 0) {
+	Arrays.fill(m_rows[i], initialValue);
+      }
+    }
+  }
+
+  public double get(int i, int j) {
+    if (i < j) {
+      return m_rows[i][j - i - 1];
+    } else if (i > j) {
+      return m_rows[j][i - j - 1];
+    }
+    return 0;
+  }
+
+  public void set(int i, int j, double distance) {
+    if (i < j) {
+      m_rows[i][j - i - 1] = distance;
+    } else if (i > j) {
+      m_rows[j][i - j - 1] = distance;
+    }
+  }
+
+  public long numStored() {
+    return ((long) m_size) * (m_size - 1) / 2;
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+/*
+ *    DistanceMatrix.java
+ *    Symmetric storage for pairwise distances
+ *
+ */
+
+package weka.clusterers;
+
+import java.io.Serializable;
+
+/**
+ * Symmetric storage of the distances between n objects indexed
+ * 0..n-1, as used by agglomerative clusterers.  get(i, j) and
+ * get(j, i) always return the same value, and the distance of an
+ * object to itself is 0.  Implementations differ in which pairs are
+ * actually stored: a dense matrix keeps all of them, a sparse one
+ * only the pairs that were set to something other than its default.
+ */
+public abstract class DistanceMatrix implements Serializable {
+  /** The number of objects */
+  protected int m_size;
+
+  /** Create storage for a number of objects */
+  public DistanceMatrix(int size) {
+    m_size = size;
+  }
+
+  /** Get the number of objects */
+  public int size() {
+    return m_size;
+  }
+
+  /** Get the distance between two objects */
+  public abstract double get(int i, int j);
+
+  /** Set the distance between two objects */
+  public abstract void set(int i, int j, double distance);
+
+  /** Get the number of distances actually stored */
+  public abstract long numStored();
+}
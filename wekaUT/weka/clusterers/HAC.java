@@ -79,7 +79,24 @@ public class HAC extends Clusterer implements SemiSupClusterer, OptionHandler{
   protected int [] m_clusterAssignments;
   
   /** distance matrix */
-    protected double[][] m_distanceMatrix = null;
+  protected DistanceMatrix m_distanceMatrix = null;
+
+  /** Store only the distances below the merge threshold? */
+  protected boolean m_sparseDistances = false;
+
+  /** Agglomeration state, indexed by the representative (first
+   * instance) of every cluster: the cluster, the position in the list
+   * of active representatives, and the nearest other cluster */
+  protected Cluster [] m_repClusters = null;
+  protected int [] m_activeReps = null;
+  protected int [] m_activePositions = null;
+  protected int m_numActive = 0;
+  protected int [] m_nearestNeighbors = null;
+  protected double [] m_nearestDistances = null;
+
+  /** The stored pairs of a sparse distance matrix, closest first; used
+   * instead of the nearest neighbors when distances are sparse */
+  protected PairHeap m_mergeHeap = null;
 
   /** cluster similarity type */
   public final static int SINGLE_LINK = 0;
@@ -184,6 +201,27 @@ public class HAC extends Clusterer implements SemiSupClusterer, OptionHandler{
     return m_mergeThreshold;
   }
 
+  /** Turn sparse distance storage on/off.  If on, only distances below
+   * the merge threshold are stored and all others are treated as
+   * beyond the threshold.  Merges below the threshold are unaffected
+   * for single and complete link, but the one merge beyond the
+   * threshold that is otherwise made does not happen, and group-average
+   * distances that involve an unstored pair are beyond the threshold
+   * as well.  Merges are picked from a heap of the stored pairs, and
+   * for metrics that satisfy the triangle inequality the pairs below
+   * the threshold are found with a vantage-point tree instead of
+   * computing all distances.
+   * @param sparse if true, only distances below the threshold are stored
+   */
+  public void setSparseDistances(boolean sparse) {
+    m_sparseDistances = sparse;
+  }
+
+  /** Is sparse distance storage on? */
+  public boolean getSparseDistances() {
+    return m_sparseDistances;
+  }
+
 
   /**
    * Set the distance metric
@@ -466,7 +504,7 @@ public class HAC extends Clusterer implements SemiSupClusterer, OptionHandler{
     
     for (Enumeration enum = data.enumerateInstances(); enum.hasMoreElements();) {
       Instance instance = (Instance) enum.nextElement();
-      if (!m_instancesHash.containsValue(instance)) {
+      if (!m_reverseInstancesHash.containsKey(instance)) {
 	Integer idx = new Integer(next_value);
 	next_value++;
 	m_instancesHash.put(idx, instance);
@@ -527,15 +565,46 @@ public class HAC extends Clusterer implements SemiSupClusterer, OptionHandler{
    */
   protected void createDistanceMatrix () throws Exception {
     int n = m_instancesHash.size();
-    double sim;
-	
-    m_distanceMatrix = new double[n][n];
+    Instance [] instances = new Instance[n];
+    for (int i = 0; i < n; i++) {
+      instances[i] = (Instance) m_instancesHash.get(new Integer(i));
+    }
+
+    if (m_sparseDistances) {
+      // pairs at or beyond the merge threshold are never merged; they are
+      // left out, and infinite distances remain for constraints
+      m_distanceMatrix = new SparseDistanceMatrix(n, Double.MAX_VALUE);
+      if (n > 1 && m_metric.isDistanceBased() && m_metric.satisfiesTriangleInequality()) {
+	// look up only the pairs within the threshold
+	VPTree tree = new VPTree(m_metric);
+	tree.build(instances);
+	for (int i = 0; i < n; i++) {
+	  VPTree.Neighbors neighbors = tree.rangeSearch(instances[i], m_mergeThreshold, instances[i]);
+	  for (int k = 0; k < neighbors.size(); k++) {
+	    int j = neighbors.ids[k];
+	    if (j > i && neighbors.distances[k] < m_mergeThreshold) {
+	      m_distanceMatrix.set(i, j, neighbors.distances[k]);
+	    }
+	  }
+	}
+	return;
+      }
+    } else {
+      m_distanceMatrix = new DenseDistanceMatrix(n);
+    }
 
+    // each row of the matrix is computed by the metric in one batch
+    InstanceBlock block = new InstanceBlock(instances, m_instances.numAttributes(),
+					    m_instances.classIndex(),
+					    n > 0 && instances[0] instanceof SparseInstance);
+    double[] distances = new double[n];
     for (int i = 0; i < n; i++) {
+      m_metric.distance(instances[i], block, i+1, n, distances);
       for (int j = i+1; j < n; j++) {
-	m_distanceMatrix[i][j] = m_distanceMatrix[j][i] =
-	  m_metric.distance((Instance) m_instancesHash.get(new Integer(i)),
-			    (Instance) m_instancesHash.get(new Integer(j)));
+	double distance = distances[j-i-1];
+	if (!m_sparseDistances || distance < m_mergeThreshold) {
+	  m_distanceMatrix.set(i, j, distance);
+	}
       }
     }
   }
@@ -569,14 +638,31 @@ public class HAC extends Clusterer implements SemiSupClusterer, OptionHandler{
    * POSITIVE_INFINITY
    */
   protected void initConstraints() {
+    if (m_distanceMatrix instanceof SparseDistanceMatrix) {
+      // only pairs of seeded instances are visited
+      int [] seeded = new int[m_instances.numInstances()];
+      int numSeeded = 0;
+      for (int i = 0; i < m_instances.numInstances(); i++) {
+	if (m_clusterAssignments[i] < m_numSeededClusters) {
+	  seeded[numSeeded++] = i;
+	}
+      }
+      for (int k = 0; k < numSeeded; k++) {
+	for (int l = k+1; l < numSeeded; l++) {
+	  if (m_clusterAssignments[seeded[k]] != m_clusterAssignments[seeded[l]]) {
+	    m_distanceMatrix.set(seeded[k], seeded[l], Double.POSITIVE_INFINITY);
+	  }
+	}
+      }
+      return;
+    }
     for (int i = 0; i < m_instances.numInstances(); i++) {
       if (m_clusterAssignments[i] < m_numSeededClusters) {
 	// make distances to elements from other seeded clusters POSITIVE_INFINITY
 	for (int j = i+1; j < m_instances.numInstances(); j++) {
 	  if (m_clusterAssignments[j] < m_numSeededClusters &&
 	      m_clusterAssignments[j] != m_clusterAssignments[i]) {
-	    m_distanceMatrix[i][j] =
-	      m_distanceMatrix[j][i] = Double.POSITIVE_INFINITY;
+	    m_distanceMatrix.set(i, j, Double.POSITIVE_INFINITY);
 	  }
 	}
       }
@@ -658,71 +744,146 @@ public class HAC extends Clusterer implements SemiSupClusterer, OptionHandler{
 
     
     // merge clusters until desired number of clusters is reached
-    double mergeDistance = 0; 
-    while (m_numCurrentClusters >  m_numClusters && mergeDistance < m_mergeThreshold) {
-      mergeDistance = mergeStep();
-      if (m_verbose) {
-	System.out.println("Merged with " + (m_numCurrentClusters) + " clusters left; distance=" + mergeDistance);
-      }
-    }
+    agglomerate();
     System.out.println("Done clustering with " + m_clusters.size() + " clusters");
     for (int i = 0; i < m_clusters.size(); i++) System.out.print(((Cluster)m_clusters.get(i)).size() + "\t");
     initClusterAssignments();
   }
 
   /**
-   * Internal method that finds two most similar clusters and merges them
+   * Internal method that merges the closest clusters until the desired
+   * number of clusters is reached or a merge was made at a distance
+   * beyond the merge threshold.  Every cluster is represented by its
+   * first instance and remembers its nearest neighbor, so the closest
+   * pair is found by a scan over the clusters rather than over all
+   * pairs.  A merge only changes the distances to the merged cluster,
+   * so only the merged cluster and the clusters whose nearest
+   * neighbor was one of the merged ones rescan the other clusters.
+   * With a sparse distance matrix, the stored pairs are kept in a heap
+   * instead, and a merge only updates and queues the stored pairs of
+   * the merged clusters.
+   * Ties between equally close pairs are broken randomly.
    */
-  protected double mergeStep() throws Exception{
-    double bestDistance = Double.MAX_VALUE;
-    double thisDistance;
-    Cluster thisCluster, nextCluster;
-    ArrayList mergeCandidatesList = new ArrayList();
-    int cluster1_index, cluster2_index;
-
-    if (m_verbose) { 
-      System.out.println("\nBefore merge step there are " + m_clusters.size() +
-			 " clusters; m_numCurrentClusters=" + m_numCurrentClusters);
-    }
-    // find two most similar clusters 
-    for (int i = 0; i < m_clusters.size()-1; i++){
-      thisCluster = (Cluster)m_clusters.get(i);
-      for (int j = i+1; j < m_clusters.size(); j++) {
-	thisDistance = clusterDistance(thisCluster, (Cluster) m_clusters.get(j));
-	if (m_verbose) {
-	  //	  System.out.println("Distance between " + i + " and " + j + " is " + thisDistance);
-	}
-	// If there is a tie, add to the list of top distances
-	if (thisDistance == bestDistance) {
-	  mergeCandidatesList.add(new Integer(i));
-	  mergeCandidatesList.add(new Integer(j));
-	} else if (thisDistance < bestDistance) {  // this is the best distance seen this far
-	  mergeCandidatesList.clear();
-	  mergeCandidatesList.add(new Integer(i));
-	  mergeCandidatesList.add(new Integer(j));
-	  bestDistance = thisDistance;
+  protected void agglomerate() throws Exception {
+    int n = m_instances.numInstances();
+    m_repClusters = new Cluster[n];
+    m_activeReps = new int[m_clusters.size()];
+    m_activePositions = new int[n];
+    m_numActive = 0;
+    m_nearestNeighbors = new int[n];
+    m_nearestDistances = new double[n];
+    int [] creationOrder = new int[n];
+    int numCreated = 0;
+
+    for (int i = 0; i < m_clusters.size(); i++) {
+      Cluster cluster = (Cluster) m_clusters.get(i);
+      int rep = ((Integer) cluster.get(0)).intValue();
+      m_repClusters[rep] = cluster;
+      m_activePositions[rep] = m_numActive;
+      m_activeReps[m_numActive++] = rep;
+      creationOrder[rep] = numCreated++;
+    }
+    boolean sparse = m_distanceMatrix instanceof SparseDistanceMatrix;
+    if (sparse) {
+      SparseDistanceMatrix matrix = (SparseDistanceMatrix) m_distanceMatrix;
+      m_mergeHeap = new PairHeap(m_randomGen, (int) Math.min(matrix.numStored(), Integer.MAX_VALUE));
+      for (int i = 0; i < n; i++) {
+	for (int k = 0; k < matrix.numNeighbors(i); k++) {
+	  int j = matrix.neighbor(i, k);
+	  double distance = matrix.get(i, j);
+	  if (j > i && distance < matrix.getDefaultValue()) {
+	    m_mergeHeap.offer(distance, i, j);
+	  }
 	}
       }
+    } else {
+      for (int i = 0; i < m_numActive; i++) {
+	findNearestNeighbor(m_activeReps[i]);
+      }
     }
 
-    // randomly pick a most similar pair from the list of candidates
-    int i1 = (int) (mergeCandidatesList.size() * m_randomGen.nextFloat());
-    int i2 = (i1 % 2 > 0) ? (i1 - 1) : (i1 + 1);
-    int cluster1Idx = ((Integer) mergeCandidatesList.get(i1)).intValue();
-    int cluster2Idx = ((Integer) mergeCandidatesList.get(i2)).intValue();
+    double mergeDistance = 0; 
+    while (m_numCurrentClusters > m_numClusters && mergeDistance < m_mergeThreshold) {
+      // find the closest pair, picking randomly among ties
+      int bestRep = -1;
+      int otherRep = -1;
+      if (sparse) {
+	// skip the entries of merged clusters and of changed distances
+	while (bestRep < 0 && !m_mergeHeap.isEmpty()) {
+	  int rep1 = m_mergeHeap.minFirst();
+	  int rep2 = m_mergeHeap.minSecond();
+	  double distance = m_mergeHeap.minScore();
+	  m_mergeHeap.removeMin();
+	  if (m_repClusters[rep1] != null && m_repClusters[rep2] != null
+	      && m_distanceMatrix.get(rep1, rep2) == distance) {
+	    bestRep = rep1;
+	    otherRep = rep2;
+	    mergeDistance = distance;
+	  }
+	}
+      } else {
+	int numTies = 0;
+	mergeDistance = Double.POSITIVE_INFINITY;
+	for (int i = 0; i < m_numActive; i++) {
+	  int rep = m_activeReps[i];
+	  if (m_nearestNeighbors[rep] < 0) {
+	    continue;
+	  }
+	  if (m_nearestDistances[rep] < mergeDistance) {
+	    mergeDistance = m_nearestDistances[rep];
+	    bestRep = rep;
+	    numTies = 1;
+	  } else if (m_nearestDistances[rep] == mergeDistance && m_randomGen.nextInt(++numTies) == 0) {
+	    bestRep = rep;
+	  }
+	}
+	if (bestRep >= 0) {
+	  otherRep = m_nearestNeighbors[bestRep];
+	}
+      }
+      // all remaining distances are infinite, or no stored pair is left
+      if (bestRep < 0) {
+	break;
+      }
 
-    if (m_verbose) {
-      System.out.println("\nMerging clusters " + cluster1Idx + " and " + cluster2Idx + ";  distance=" + bestDistance);
+      if (m_verbose) {
+	System.out.println("Merging clusters " + bestRep + " and " + otherRep + ";  distance=" + mergeDistance);
+      }
+      Cluster newCluster = mergeClusters(bestRep, otherRep);
+      checkGroups(newCluster);
+      creationOrder[bestRep] = numCreated++;
+      m_numCurrentClusters--;
+      if (m_verbose) {
+	System.out.println("Merged with " + (m_numCurrentClusters) + " clusters left; distance=" + mergeDistance);
+      }
     }
-    System.out.print("Best distance=" + ((float)bestDistance) + "; Merging:\n");
-    printCluster(cluster1Idx);
-    System.out.print("AND\n");
-    printCluster(cluster2Idx);
-    System.out.print("\n");
 
-    Cluster newCluster = mergeClusters(cluster1Idx, cluster2Idx);
+    // list the remaining clusters in the order they were created
+    long [] keys = new long[m_numActive];
+    for (int i = 0; i < m_numActive; i++) {
+      keys[i] = ((long) creationOrder[m_activeReps[i]] << 32) | m_activeReps[i];
+    }
+    Arrays.sort(keys);
+    m_clusters = new ArrayList();
+    for (int i = 0; i < keys.length; i++) {
+      m_clusters.add(m_repClusters[(int) (keys[i] & 0xffffffffL)]);
+    }
+    m_repClusters = null;
+    m_activeReps = null;
+    m_activePositions = null;
+    m_nearestNeighbors = null;
+    m_nearestDistances = null;
+    m_mergeHeap = null;
+  }
 
-    // check if the new cluster is sufficiently large and "good"
+  /** Check if a merged cluster is sufficiently large and "good", i.e.
+   * if most of its members share a group of the description attributes
+   * @param newCluster the merged cluster
+   */
+  protected void checkGroups(Cluster newCluster) {
+    if (m_descrInstances == null) {
+      return;
+    }
     HashMap groupCountMap = new HashMap(); 
     for (int i = 0; i < newCluster.size(); i++) {
       int idx = ((Integer)newCluster.get(i)).intValue();
@@ -758,21 +919,55 @@ public class HAC extends Clusterer implements SemiSupClusterer, OptionHandler{
     if ((largestGroupCount + 0.0)/(newCluster.size() + 0.0) > 0.6 && newCluster.size() > 2) {
       System.out.println("HAPPY JOY JOY!  LOOK HERE!"); 
     } 
-    
-    
-    // have to remove in order because we're using index, argh
-    if (cluster1Idx > cluster2Idx) {
-      m_clusters.remove(cluster1Idx);
-      m_clusters.remove(cluster2Idx);
-    } else {
-      m_clusters.remove(cluster2Idx);
-      m_clusters.remove(cluster1Idx);
+  }
+
+  /** Find the closest other cluster of a cluster, picking randomly among ties
+   * @param rep the representative of the cluster
+   */
+  protected void findNearestNeighbor(int rep) {
+    int bestRep = -1;
+    int numTies = 0;
+    double bestDistance = Double.POSITIVE_INFINITY;
+    for (int i = 0; i < m_numActive; i++) {
+      int otherRep = m_activeReps[i];
+      if (otherRep == rep) {
+	continue;
+      }
+      double distance = m_distanceMatrix.get(rep, otherRep);
+      if (distance < bestDistance) {
+	bestDistance = distance;
+	bestRep = otherRep;
+	numTies = 1;
+      } else if (distance == bestDistance && bestRep >= 0 && m_randomGen.nextInt(++numTies) == 0) {
+	bestRep = otherRep;
+      }
     }
-    m_clusters.add(newCluster);
-    m_numCurrentClusters--;
-    return bestDistance;
+    m_nearestNeighbors[rep] = bestRep;
+    m_nearestDistances[rep] = bestDistance;
+  }
+
+  /** The Lance-Williams update for the linkage type: the distance
+   * from the union of clusters 1 and 2 to a third cluster
+   * @param distance1 the distance from cluster 1 to the third cluster
+   * @param distance2 the distance from cluster 2 to the third cluster
+   * @param size1 the size of cluster 1
+   * @param size2 the size of cluster 2
+   */
+  protected double linkageDistance(double distance1, double distance2, int size1, int size2) {
+    switch (m_linkingType) {
+    case SINGLE_LINK:
+      // infinite distances stand for constraints and are kept
+      if (distance1 == Double.POSITIVE_INFINITY || distance2 == Double.POSITIVE_INFINITY) {
+	return Double.POSITIVE_INFINITY;
+      }
+      return Math.min(distance1, distance2);
+    case COMPLETE_LINK:
+      return Math.max(distance1, distance2);
+    case GROUP_AVERAGE:
+      return (distance1 * size1 + distance2 * size2) / (size1 + size2);
+    }
+    return distance1;
   }
-    
 
   /**
    * Computes the clusters from the cluster assignments
@@ -857,92 +1052,40 @@ public class HAC extends Clusterer implements SemiSupClusterer, OptionHandler{
 	
     int i1 = ((Integer) cluster1.get(0)).intValue();
     int i2 = ((Integer) cluster2.get(0)).intValue();
-    return m_distanceMatrix[i1][i2];
+    return m_distanceMatrix.get(i1, i2);
   }
 
   protected void checkClusters() {
   }
   
 
-  /** Internal method to merge two clusters and update distances
+  /** Internal method to merge two clusters and update distances; the
+   * merged cluster is represented by the representative of the first one
+   * @param rep1 the representative of the first cluster
+   * @param rep2 the representative of the second cluster
+   * @return the merged cluster
    */
-  protected Cluster mergeClusters (int cluster1Idx, int cluster2Idx) throws Exception {
+  protected Cluster mergeClusters (int rep1, int rep2) throws Exception {
     Cluster newCluster = new Cluster(m_clusterID++);
-    Cluster cluster1 = (Cluster) m_clusters.get(cluster1Idx);
-    Cluster cluster2 = (Cluster) m_clusters.get(cluster2Idx);
-    int cluster1FirstIdx =((Integer) cluster1.get(0)).intValue();
-    int cluster2FirstIdx =((Integer) cluster2.get(0)).intValue(); 
+    Cluster cluster1 = m_repClusters[rep1];
+    Cluster cluster2 = m_repClusters[rep2];
     newCluster.copyElements(cluster1);
     newCluster.copyElements(cluster2);
     checkClusters();
-    
-    // Update the distance matrix depending on the linkage type
-    switch (m_linkingType) {
-    case SINGLE_LINK:
-      // go through all clusters and update the distance from first element
-      // to the first element of the new cluster
-      for (int i = 0; i < m_clusters.size(); i++){
-	if (i != cluster1Idx && i != cluster2Idx) { // skip these clusters themselves
-	  Cluster currentCluster = (Cluster) m_clusters.get(i);
-	  int currClusterFirstIdx = ((Integer) currentCluster.get(0)).intValue();
-	  if (m_distanceMatrix[cluster1FirstIdx][currClusterFirstIdx] <
-	      m_distanceMatrix[cluster2FirstIdx][currClusterFirstIdx]) {
-	    // first cluster is closer, no need to update
-	  } else {
-	    // second cluster is closer, must update distance between the first representative
-	    m_distanceMatrix[cluster1FirstIdx][currClusterFirstIdx] =
-	      m_distanceMatrix[currClusterFirstIdx][cluster1FirstIdx] =
-	      m_distanceMatrix[cluster2FirstIdx][currClusterFirstIdx];
-	  }
-	  // check for infinity links
-	  if (m_distanceMatrix[cluster2FirstIdx][currClusterFirstIdx] == Double.POSITIVE_INFINITY) {
-	    m_distanceMatrix[cluster1FirstIdx][currClusterFirstIdx] =
-	      m_distanceMatrix[currClusterFirstIdx][cluster1FirstIdx] = Double.POSITIVE_INFINITY;
-	  }
-	  if (m_distanceMatrix[cluster1FirstIdx][currClusterFirstIdx] == Double.POSITIVE_INFINITY) {
-	    m_distanceMatrix[cluster2FirstIdx][currClusterFirstIdx] =
-	      m_distanceMatrix[currClusterFirstIdx][cluster2FirstIdx] = Double.POSITIVE_INFINITY;
-	  }
-	}
-      }
-      break;
-    case COMPLETE_LINK:
-      // go through all clusters and update the distance from first element
-      // to the first element of the new cluster
-      for (int i = 0; i < m_clusters.size(); i++){
-	if (i != cluster1Idx && i != cluster2Idx) { // skip these clusters themselves
-	  Cluster currentCluster = (Cluster) m_clusters.get(i);
-	  int currClusterFirstIdx = ((Integer) currentCluster.get(0)).intValue();
-	  if (m_distanceMatrix[cluster1FirstIdx][currClusterFirstIdx] >
-	      m_distanceMatrix[cluster2FirstIdx][currClusterFirstIdx]) {
-	    // first cluster is closer, no need to update
-	  } else {
-	    // second cluster is closer, must update distance between the first representative
-	    m_distanceMatrix[cluster1FirstIdx][currClusterFirstIdx] =
-	      m_distanceMatrix[currClusterFirstIdx][cluster1FirstIdx] =
-	      m_distanceMatrix[cluster2FirstIdx][currClusterFirstIdx];
-	  }
-	}
-      }
-      break;
-    case GROUP_AVERAGE:
-      // go through all clusters and update the distance from first element
-      // to the first element of the new cluster
-      for (int i = 0; i < m_clusters.size(); i++){
-	if (i != cluster1Idx && i != cluster2Idx) { // skip these clusters themselves
-	  Cluster currentCluster = (Cluster) m_clusters.get(i);
-	  int currClusterFirstIdx = ((Integer) currentCluster.get(0)).intValue();
-	  int cluster1Size = cluster1.size();
-	  int cluster2Size = cluster2.size();
-	  // must update distance between the first representative
-	    m_distanceMatrix[cluster1FirstIdx][currClusterFirstIdx] =
-	      m_distanceMatrix[currClusterFirstIdx][cluster1FirstIdx] =
-	      (m_distanceMatrix[cluster1FirstIdx][currClusterFirstIdx] * cluster1Size +
-	       m_distanceMatrix[cluster2FirstIdx][currClusterFirstIdx] * cluster2Size) /
-	      (cluster1Size + cluster2Size);
-	}
-      }
-    } 
+
+    // the second cluster is no longer active
+    int lastRep = m_activeReps[--m_numActive];
+    m_activeReps[m_activePositions[rep2]] = lastRep;
+    m_activePositions[lastRep] = m_activePositions[rep2];
+    m_repClusters[rep1] = newCluster;
+    m_repClusters[rep2] = null;
+
+    if (m_distanceMatrix instanceof SparseDistanceMatrix) {
+      updateStoredDistances(rep1, rep2, cluster1.size(), cluster2.size());
+    } else {
+      updateDistances(rep1, rep2, cluster1.size(), cluster2.size());
+    }
+
     String labelString = "";
     for (int i = 0; i < newCluster.size(); i++){    
       Instance inst = m_instances.instance(((Integer) (newCluster.get(i))).intValue());
@@ -956,6 +1099,91 @@ public class HAC extends Clusterer implements SemiSupClusterer, OptionHandler{
     return newCluster;
   }
 
+  /** Update the distances from the first representative to all other
+   * clusters after a merge, and the nearest neighbors that may have
+   * changed
+   * @param rep1 the representative of the merged cluster
+   * @param rep2 the representative of the cluster merged into it
+   * @param size1 the size of the first cluster before the merge
+   * @param size2 the size of the second cluster
+   */
+  protected void updateDistances(int rep1, int rep2, int size1, int size2) {
+    for (int i = 0; i < m_numActive; i++) {
+      int rep = m_activeReps[i];
+      if (rep != rep1) {
+	m_distanceMatrix.set(rep1, rep, linkageDistance(m_distanceMatrix.get(rep1, rep),
+							m_distanceMatrix.get(rep2, rep),
+							size1, size2));
+      }
+    }
+
+    // update the nearest neighbors that may have changed
+    for (int i = 0; i < m_numActive; i++) {
+      int rep = m_activeReps[i];
+      if (rep == rep1) {
+	continue;
+      }
+      if (m_nearestNeighbors[rep] == rep1 || m_nearestNeighbors[rep] == rep2) {
+	findNearestNeighbor(rep);
+      } else {
+	double distance = m_distanceMatrix.get(rep1, rep);
+	if (distance < m_nearestDistances[rep]) {
+	  m_nearestNeighbors[rep] = rep1;
+	  m_nearestDistances[rep] = distance;
+	}
+      }
+    }
+    findNearestNeighbor(rep1);
+  }
+
+  /** Update the stored distances from the first representative after a
+   * merge and queue the changed ones; only clusters with a stored
+   * distance to one of the merged clusters can change
+   * @param rep1 the representative of the merged cluster
+   * @param rep2 the representative of the cluster merged into it
+   * @param size1 the size of the first cluster before the merge
+   * @param size2 the size of the second cluster
+   */
+  protected void updateStoredDistances(int rep1, int rep2, int size1, int size2) {
+    SparseDistanceMatrix matrix = (SparseDistanceMatrix) m_distanceMatrix;
+    for (int k = 0; k < matrix.numNeighbors(rep1); k++) {
+      int rep = matrix.neighbor(rep1, k);
+      if (m_repClusters[rep] != null) {
+	updateStoredDistance(matrix, rep1, rep2, rep, size1, size2);
+      }
+    }
+    // clusters with a stored distance to the second cluster only
+    for (int k = 0; k < matrix.numNeighbors(rep2); k++) {
+      int rep = matrix.neighbor(rep2, k);
+      if (m_repClusters[rep] != null && rep != rep1 && !matrix.isStored(rep1, rep)) {
+	updateStoredDistance(matrix, rep1, rep2, rep, size1, size2);
+      }
+    }
+  }
+
+  /** Update the stored distance from the merged cluster to another
+   * cluster, and queue it if it changed */
+  protected void updateStoredDistance(SparseDistanceMatrix matrix, int rep1, int rep2, int rep,
+				      int size1, int size2) {
+    double defaultValue = matrix.getDefaultValue();
+    double oldDistance = matrix.get(rep1, rep);
+    double otherDistance = matrix.get(rep2, rep);
+    double distance;
+    if (m_linkingType == GROUP_AVERAGE && (oldDistance == defaultValue || otherDistance == defaultValue)) {
+      // the average needs both distances
+      distance = (oldDistance == Double.POSITIVE_INFINITY || otherDistance == Double.POSITIVE_INFINITY) ?
+	Double.POSITIVE_INFINITY : defaultValue;
+    } else {
+      distance = linkageDistance(oldDistance, otherDistance, size1, size2);
+    }
+    if (distance != oldDistance) {
+      matrix.set(rep1, rep, distance);
+      if (distance < defaultValue) {
+	m_mergeHeap.offer(distance, rep1, rep);
+      }
+    }
+  }
+
   /** Print an instance for the dot file */
   String printInstance(Instance instance) {
     String stringToPrint;
@@ -968,7 +1196,7 @@ public class HAC extends Clusterer implements SemiSupClusterer, OptionHandler{
     }
 
     DecimalFormat fmt = new DecimalFormat("0.000");
-    for (int i = 0; i < 5; i++) { 
+    for (int i = 0; i < 5 && i < m_instances.numAttributes(); i++) { 
       Attribute attrib = m_instances.attribute(ascendingSortIndicesOfAttributes[m_instances.numAttributes()-i-1]);
       if (instance.value(attrib) > 0) { 
 	stringToPrint = stringToPrint + attrib.name() + ": " + fmt.format(instance.value(attrib)) + "\t";
@@ -1203,6 +1431,8 @@ public class HAC extends Clusterer implements SemiSupClusterer, OptionHandler{
 				    +"\t(default=MAX_DOUBLE)", "T", 1,"-T <0-MAX_DOUBLE>"));
     newVector.addElement(new Option("\tNumber of clusters.\n"
 				    +"a\t(default=-1)", "N", 1,"-N <-1-MAX_INT100%>"));
+    newVector.addElement(new Option("\tStore only the distances below the merge threshold.",
+				    "B", 0,"-B"));
     return newVector.elements();
   }
 
@@ -1228,6 +1458,8 @@ public class HAC extends Clusterer implements SemiSupClusterer, OptionHandler{
     if (optionString.length() != 0) {
       setNumClusters(Integer.parseInt(optionString));
     }
+
+    setSparseDistances(Utils.getFlag('B', options));
     
   }
 
@@ -1256,6 +1488,10 @@ public class HAC extends Clusterer implements SemiSupClusterer, OptionHandler{
       options[current++] = "-S";
     }
 
+    if (m_sparseDistances) {
+      options[current++] = "-B";
+    }
+
     options[current++] = "-M";
     options[current++] = m_metric.getClass().getName();
     if (m_metric instanceof OptionHandler) {
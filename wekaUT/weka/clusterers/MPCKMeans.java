@@ -88,6 +88,19 @@ public class MPCKMeans extends Clusterer implements OptionHandler,SemiSupCluster
 
   public void setInstanceConstraintsHash(HashMap instanceConstraintHash) {
     m_instanceConstraintHash = instanceConstraintHash;
+    m_constraintIndex = null;
+  }
+
+  /** compressed copy of m_instanceConstraintHash that is used in the
+      E-step and by the metric learners; rebuilt whenever the hash is
+      replaced */
+  protected ConstraintIndex m_constraintIndex = null;
+  public ConstraintIndex getConstraintIndex() {
+    if (m_constraintIndex == null) {
+      m_constraintIndex = new ConstraintIndex(m_instanceConstraintHash,
+					      (m_Instances == null) ? 0 : m_Instances.numInstances());
+    }
+    return m_constraintIndex;
   }
   
   /** holds the points involved in the constraints */
@@ -137,6 +150,19 @@ public class MPCKMeans extends Clusterer implements OptionHandler,SemiSupCluster
   protected LearnableMetric [] m_metrics = null;
   protected MPCKMeansMetricLearner [] m_metricLearners = null;
 
+  /** Use triangle-inequality bounds to skip distance computations in the E-step? */
+  protected boolean m_useBounds = false;
+  protected AssignmentBounds m_bounds = null;
+
+  /** Running sums of the clusters for the M-step */
+  protected CentroidSums m_centroidSums = null;
+
+  /** Centroids projected by WeightedMahalanobis metrics in the current E-step */
+  protected double[][] m_projectedCentroids = null;
+
+  /** Log tables of the centroids of KL metrics in the current E-step */
+  protected KL.CentroidTable[] m_centroidTables = null;
+
   /** Relative importance of the log-term for the weights in the objective function */
   protected double m_logTermWeight = 0.01;
 
@@ -217,6 +243,18 @@ public class MPCKMeans extends Clusterer implements OptionHandler,SemiSupCluster
   protected double m_objMustLinksCurrPointBest;
   protected double m_objNormalizerCurrPointBest;
 
+  /** Positions of the objective components in the arrays filled by
+   * penaltyForInstance(int, int, double[]) */
+  public static final int OBJ_VARIANCE = 0;
+  public static final int OBJ_CANNOT_LINKS = 1;
+  public static final int OBJ_MUST_LINKS = 2;
+  public static final int OBJ_NORMALIZER = 3;
+  public static final int NUM_OBJ_COMPONENTS = 4;
+
+  /** Scratch component arrays for the sequential assignment path */
+  protected double[] m_currPointComponents = new double[NUM_OBJ_COMPONENTS];
+  protected double[] m_bestPointComponents = new double[NUM_OBJ_COMPONENTS];
+
   /** returns objective function */
   public double objectiveFunction() {
     return m_Objective;
@@ -391,6 +429,7 @@ public class MPCKMeans extends Clusterer implements OptionHandler,SemiSupCluster
       m_SeedHash = new HashSet((int) (unlabeledData.numInstances()/0.75 + 10)) ;
       m_ConstraintsHash = new HashMap();
       m_instanceConstraintHash = new HashMap();
+      m_constraintIndex = null;
 
       for (int i = 0; i < labeledPairs.size(); i++) {
 	InstancePair pair = (InstancePair) labeledPairs.get(i);	
@@ -607,6 +646,7 @@ public class MPCKMeans extends Clusterer implements OptionHandler,SemiSupCluster
     m_SeedHash = null;
     m_ConstraintsHash = null;
     m_instanceConstraintHash = null;
+    m_constraintIndex = null;
   }
 
 
@@ -699,7 +739,14 @@ public class MPCKMeans extends Clusterer implements OptionHandler,SemiSupCluster
     if (m_isOfflineMetric) {
       moved = assignAllInstancesToClusters();
     } else {
+      projectCentroids();
+      if (m_bounds != null) {
+	m_bounds.beginPass(m_ClusterCentroids);
+      }
       moved = assignPoints();
+      if (m_bounds != null) {
+	m_bounds.endPass();
+      }
     }
     if (m_verbose) { 
       System.out.println("  " + moved + " points moved in this E-step");
@@ -764,28 +811,19 @@ public class MPCKMeans extends Clusterer implements OptionHandler,SemiSupCluster
    * successfully 
    */
   public int assignInstanceToClusterWithConstraints(int instIdx) throws Exception {
-    int bestCluster = 0;
-    double lowestPenalty = Double.MAX_VALUE;
     int moved = 0;
-
-    // try each cluster and find one with lowest penalty
-    for (int i = 0; i < m_NumClusters; i++) {
-      double penalty = penaltyForInstance(instIdx, i);
-
-      if (penalty < lowestPenalty) {
-	lowestPenalty = penalty;
-	bestCluster = i;
-	m_objVarianceCurrPointBest = m_objVarianceCurrPoint;
-	m_objNormalizerCurrPointBest = m_objNormalizerCurrPoint;
-	m_objMustLinksCurrPointBest = m_objMustLinksCurrPoint;
-	m_objCannotLinksCurrPointBest = m_objCannotLinksCurrPoint;
-      }
-    }
-    
-    m_objVariance += m_objVarianceCurrPointBest;
-    m_objNormalizer += m_objNormalizerCurrPointBest;
-    m_objMustLinks += m_objMustLinksCurrPointBest;
-    m_objCannotLinks += m_objCannotLinksCurrPointBest;
+    int bestCluster = findBestClusterForInstance(instIdx, m_bestPointComponents,
+						 m_currPointComponents);
+    double lowestPenalty = m_bestPointComponents[OBJ_VARIANCE]
+      + m_bestPointComponents[OBJ_CANNOT_LINKS]
+      + m_bestPointComponents[OBJ_MUST_LINKS]
+      + m_bestPointComponents[OBJ_NORMALIZER];
+
+    m_objVarianceCurrPointBest = m_bestPointComponents[OBJ_VARIANCE];
+    m_objNormalizerCurrPointBest = m_bestPointComponents[OBJ_NORMALIZER];
+    m_objMustLinksCurrPointBest = m_bestPointComponents[OBJ_MUST_LINKS];
+    m_objCannotLinksCurrPointBest = m_bestPointComponents[OBJ_CANNOT_LINKS];
+    accumulateObjective(m_bestPointComponents);
 
     if (m_ClusterAssignments[instIdx] != bestCluster) {
       if (m_ClusterAssignments[instIdx] >= 0 && m_ClusterAssignments[instIdx] < m_NumClusters) {
@@ -807,24 +845,134 @@ public class MPCKMeans extends Clusterer implements OptionHandler,SemiSupCluster
     return moved;
   }
 
+  /**
+   * Finds the cluster with the lowest penalty for an instance.  Only
+   * reads the state of the clusterer, so different instances can be
+   * processed concurrently as long as the assignments of their
+   * constraint neighbors do not change in the meantime.
+   *
+   * @param instIdx index of the instance
+   * @param bestComponents array of length NUM_OBJ_COMPONENTS that
+   * receives the objective components for the best cluster
+   * @param currComponents scratch array of length NUM_OBJ_COMPONENTS
+   * @return the index of the cluster with the lowest penalty
+   */
+  public int findBestClusterForInstance(int instIdx, double[] bestComponents,
+					double[] currComponents) throws Exception {
+    if (m_bounds != null && !hasConstraints(instIdx)) {
+      return findBestClusterWithBounds(instIdx, bestComponents);
+    }
+
+    int bestCluster = 0;
+    double lowestPenalty = Double.MAX_VALUE;
+
+    // try each cluster and find one with lowest penalty
+    for (int i = 0; i < m_NumClusters; i++) {
+      double penalty = penaltyForInstance(instIdx, i, currComponents);
+
+      if (penalty < lowestPenalty) {
+	lowestPenalty = penalty;
+	bestCluster = i;
+	System.arraycopy(currComponents, 0, bestComponents, 0, NUM_OBJ_COMPONENTS);
+      }
+    }
+    return bestCluster;
+  }
+
+  /**
+   * Finds the cluster with the lowest penalty for an unconstrained
+   * instance using the triangle-inequality bounds.  The penalty of an
+   * unconstrained instance is its squared distance plus a normalizer
+   * shared by all clusters, so the bounds decide the closest cluster
+   * directly; the distance to it is always recomputed so that the
+   * objective function stays exact.
+   *
+   * @param instIdx index of the instance
+   * @param bestComponents array of length NUM_OBJ_COMPONENTS that
+   * receives the objective components for the best cluster
+   * @return the index of the cluster with the lowest penalty
+   */
+  protected int findBestClusterWithBounds(int instIdx, double[] bestComponents) throws Exception {
+    Instance instance = m_Instances.instance(instIdx);
+    int bestCluster = 0;
+    double variance = 0;
+
+    if (m_bounds.isStable(instIdx, instance, true)) {
+      bestCluster = m_bounds.getClosest(instIdx);
+      double distance = m_bounds.getUpperBound(instIdx);
+      variance = distance * distance;
+    } else {
+      double[] distances = new double[m_NumClusters];
+      m_bounds.scan(instIdx, instance, distances);
+      double lowestPenalty = Double.MAX_VALUE;
+      for (int i = 0; i < m_NumClusters; i++) {
+	double penalty = distances[i] * distances[i];
+	if (m_Trainable == TRAINING_INTERNAL) {
+	  penalty += -m_logTerms[i];
+	}
+	if (penalty < lowestPenalty) {
+	  lowestPenalty = penalty;
+	  bestCluster = i;
+	  variance = distances[i] * distances[i];
+	}
+      }
+    }
+
+    bestComponents[OBJ_VARIANCE] = variance;
+    bestComponents[OBJ_CANNOT_LINKS] = 0;
+    bestComponents[OBJ_MUST_LINKS] = 0;
+    bestComponents[OBJ_NORMALIZER] = (m_Trainable == TRAINING_INTERNAL) ? -m_logTerms[bestCluster] : 0;
+    return bestCluster;
+  }
+
+  /** Is the instance involved in any constraints that affect its penalty? */
+  protected boolean hasConstraints(int instIdx) {
+    return m_Seedable && getConstraintIndex().hasConstraints(instIdx);
+  }
+
+  /** Add the contribution of a point to the components of the objective function
+   * @param components objective components as filled by penaltyForInstance(int, int, double[])
+   */
+  public void accumulateObjective(double[] components) {
+    m_objVariance += components[OBJ_VARIANCE];
+    m_objNormalizer += components[OBJ_NORMALIZER];
+    m_objMustLinks += components[OBJ_MUST_LINKS];
+    m_objCannotLinks += components[OBJ_CANNOT_LINKS];
+  }
+
   /** Delegate the distance calculation to the method appropriate for the current metric
    */
   public double penaltyForInstance(int instIdx, int centroidIdx) throws Exception {
-    m_objVarianceCurrPoint = 0;
-    m_objCannotLinksCurrPoint = 0;
-    m_objMustLinksCurrPoint = 0;
-    m_objNormalizerCurrPoint = 0;
+    double total = penaltyForInstance(instIdx, centroidIdx, m_currPointComponents);
+    m_objVarianceCurrPoint = m_currPointComponents[OBJ_VARIANCE];
+    m_objCannotLinksCurrPoint = m_currPointComponents[OBJ_CANNOT_LINKS];
+    m_objMustLinksCurrPoint = m_currPointComponents[OBJ_MUST_LINKS];
+    m_objNormalizerCurrPoint = m_currPointComponents[OBJ_NORMALIZER];
+    return total;
+  }
+
+  /** Compute the penalty for assigning an instance to a cluster,
+   * storing the individual objective components in the supplied array
+   * instead of the clusterer's fields
+   * @param instIdx index of the instance
+   * @param centroidIdx index of the cluster
+   * @param components array of length NUM_OBJ_COMPONENTS that receives the components
+   * @return the total penalty
+   */
+  public double penaltyForInstance(int instIdx, int centroidIdx,
+				   double[] components) throws Exception {
+    double variance = 0;
+    double cannotLinks = 0;
+    double mustLinks = 0;
+    double normalizer = 0;
     int violatedConstraints = 0; 
 
     // variance contribution
-    Instance instance = m_Instances.instance(instIdx);
-    Instance centroid =  m_ClusterCentroids.instance(centroidIdx);
-
-    m_objVarianceCurrPoint = m_metrics[centroidIdx].penalty(instance, centroid);
+    variance = centroidPenalty(instIdx, centroidIdx);
 
     // regularizer and normalizer contribution
     if (m_Trainable == TRAINING_INTERNAL) {
-      m_objNormalizerCurrPoint = -m_logTerms[centroidIdx]; 
+      normalizer = -m_logTerms[centroidIdx]; 
     }
 
     // only add the constraints if seedable or constrained
@@ -833,50 +981,50 @@ public class MPCKMeans extends Clusterer implements OptionHandler,SemiSupCluster
     // Sugato: replacing, in order to be able to run MKMeans (no
     // constraint violation, only metric learning)
     if (m_Seedable) {
-      Object list =  m_instanceConstraintHash.get(new Integer(instIdx));
-      if (list != null) {   // there are constraints associated with this instance
-	ArrayList constraintList = (ArrayList) list;
-	for (int i = 0; i < constraintList.size(); i++) {
-	  InstancePair pair = (InstancePair) constraintList.get(i);
-	  int firstIdx = pair.first;
-	  int secondIdx = pair.second;
-
-	  Instance instance1 = m_Instances.instance(firstIdx);
-	  Instance instance2 = m_Instances.instance(secondIdx);
-	  int otherIdx = (firstIdx == instIdx) ? 
-	    m_ClusterAssignments[secondIdx] : m_ClusterAssignments[firstIdx];
-	  
-	  // check whether the constraint is violated
-	  if (otherIdx != -1 && otherIdx < m_NumClusters) { 
-	    if (otherIdx != centroidIdx && 
-		pair.linkType == InstancePair.MUST_LINK) {
-	      violatedConstraints++; 
-	      // split penalty in half between the two involved clusters
-	      if (m_useMultipleMetrics) {  
-		double penalty1 = m_metrics[otherIdx].penaltySymmetric(instance1, instance2);
-		double penalty2 = m_metrics[centroidIdx].penaltySymmetric(instance1, instance2);
-		m_objMustLinksCurrPoint += 0.5 * m_MLweight * (penalty1 + penalty2);
-	      } else {
-		double penalty = m_metric.penaltySymmetric(instance1, instance2);
-		m_objMustLinksCurrPoint += m_MLweight * penalty;
-	      }
-	    } else if (otherIdx == centroidIdx &&
-		       pair.linkType == InstancePair.CANNOT_LINK) {
-	      violatedConstraints++; 
-	      double penalty = m_metrics[centroidIdx].penaltySymmetric(instance1, instance2);
-	      m_objCannotLinksCurrPoint +=  m_CLweight *
-		(m_maxCLPenalties[centroidIdx] - penalty);
-	      if (m_maxCLPenalties[centroidIdx] - penalty < 0) {
-		System.out.println("***NEGATIVE*** penalty: " + penalty + " for CL constraint"); 
-	      }
+      ConstraintIndex constraintIndex = getConstraintIndex();
+      int end = constraintIndex.getEnd(instIdx);
+      for (int pos = constraintIndex.getStart(instIdx); pos < end; pos++) {
+	int neighborIdx = constraintIndex.getNeighbor(pos);
+	int linkType = constraintIndex.getLinkType(pos);
+	int otherIdx = m_ClusterAssignments[neighborIdx];
+
+	// check whether the constraint is violated
+	if (otherIdx != -1 && otherIdx < m_NumClusters) { 
+	  // constraints are stored with the smaller index first
+	  int firstIdx = Math.min(instIdx, neighborIdx);
+	  int secondIdx = Math.max(instIdx, neighborIdx);
+	  if (otherIdx != centroidIdx && 
+	      linkType == InstancePair.MUST_LINK) {
+	    violatedConstraints++; 
+	    // split penalty in half between the two involved clusters
+	    if (m_useMultipleMetrics) {  
+	      double penalty1 = pairPenalty(m_metrics[otherIdx], firstIdx, secondIdx);
+	      double penalty2 = pairPenalty(m_metrics[centroidIdx], firstIdx, secondIdx);
+	      mustLinks += 0.5 * m_MLweight * (penalty1 + penalty2);
+	    } else {
+	      double penalty = pairPenalty(m_metric, firstIdx, secondIdx);
+	      mustLinks += m_MLweight * penalty;
+	    }
+	  } else if (otherIdx == centroidIdx &&
+		     linkType == InstancePair.CANNOT_LINK) {
+	    violatedConstraints++; 
+	    double penalty = pairPenalty(m_metrics[centroidIdx], firstIdx, secondIdx);
+	    cannotLinks +=  m_CLweight *
+	      (m_maxCLPenalties[centroidIdx] - penalty);
+	    if (m_maxCLPenalties[centroidIdx] - penalty < 0) {
+	      System.out.println("***NEGATIVE*** penalty: " + penalty + " for CL constraint"); 
 	    }
 	  }
 	}
       }
     }
 
-    double total = m_objVarianceCurrPoint  + m_objCannotLinksCurrPoint 
-      + m_objMustLinksCurrPoint + m_objNormalizerCurrPoint;
+    components[OBJ_VARIANCE] = variance;
+    components[OBJ_CANNOT_LINKS] = cannotLinks;
+    components[OBJ_MUST_LINKS] = mustLinks;
+    components[OBJ_NORMALIZER] = normalizer;
+
+    double total = variance + cannotLinks + mustLinks + normalizer;
     if(m_verbose) {
       System.out.println("Final penalty for instance " + instIdx + " and centroid "
 			 + centroidIdx + " is: " + total);
@@ -885,34 +1033,90 @@ public class MPCKMeans extends Clusterer implements OptionHandler,SemiSupCluster
   }
   
 
+  /** The variance penalty of assigning an instance to a cluster;
+   * uses the cached projections if the metric is WeightedMahalanobis,
+   * and the cached instances and centroid log tables if it is KL
+   */
+  protected double centroidPenalty(int instIdx, int centroidIdx) throws Exception {
+    Instance instance = m_Instances.instance(instIdx);
+    if (m_centroidTables != null && m_centroidTables[centroidIdx] != null
+	&& m_centroidTables[centroidIdx].getCentroid() == m_ClusterCentroids.instance(centroidIdx)) {
+      return ((KL) m_metrics[centroidIdx]).distance(instance, instIdx, m_centroidTables[centroidIdx]);
+    }
+    if (m_projectedCentroids != null && m_projectedCentroids[centroidIdx] != null) {
+      WeightedMahalanobis metric = (WeightedMahalanobis) m_metrics[centroidIdx];
+      double[] projValues = metric.getCachedProjection(instance, instIdx);
+      if (projValues != null) {
+	double distance = metric.distance(projValues, m_projectedCentroids[centroidIdx]);
+	return distance * distance;
+      }
+    }
+    return m_metrics[centroidIdx].penalty(instance, m_ClusterCentroids.instance(centroidIdx));
+  }
+
+  /** The symmetric penalty between two instances of the dataset;
+   * uses the cached projections if the metric is WeightedMahalanobis,
+   * and the cached instances if it is KL
+   */
+  protected double pairPenalty(LearnableMetric metric, int firstIdx, int secondIdx) throws Exception {
+    Instance instance1 = m_Instances.instance(firstIdx);
+    Instance instance2 = m_Instances.instance(secondIdx);
+    if (metric instanceof WeightedMahalanobis) {
+      WeightedMahalanobis mahalanobis = (WeightedMahalanobis) metric;
+      double[] projValues1 = mahalanobis.getCachedProjection(instance1, firstIdx);
+      double[] projValues2 = mahalanobis.getCachedProjection(instance2, secondIdx);
+      if (projValues1 != null && projValues2 != null) {
+	double distance = mahalanobis.distance(projValues1, projValues2);
+	return distance * distance;
+      }
+    } else if (metric instanceof KL) {
+      return ((KL) metric).distanceJS(instance1, firstIdx, instance2, secondIdx);
+    }
+    return metric.penaltySymmetric(instance1, instance2);
+  }
+
+  /** Project the centroids once before the E-step when WeightedMahalanobis
+   * metrics are used, so that the distances to them are computed from
+   * the cached projections of the instances; for KL metrics, build the
+   * log tables of the centroids instead
+   */
+  protected void projectCentroids() {
+    m_projectedCentroids = null;
+    m_centroidTables = null;
+    if (m_metric instanceof WeightedMahalanobis) {
+      m_projectedCentroids = new double[m_NumClusters][];
+      for (int i = 0; i < m_NumClusters; i++) {
+	m_projectedCentroids[i] =
+	  ((WeightedMahalanobis) m_metrics[i]).projectValues(m_ClusterCentroids.instance(i));
+      }
+    } else if (m_metric instanceof KL) {
+      m_centroidTables = new KL.CentroidTable[m_NumClusters];
+      for (int i = 0; i < m_NumClusters; i++) {
+	m_centroidTables[i] =
+	  ((KL) m_metrics[i]).createCentroidTable(m_ClusterCentroids.instance(i));
+      }
+    }
+  }
+
   /** M-step of the KMeans clustering algorithm -- updates cluster centroids
    */
   protected void updateClusterCentroids() throws Exception {
-    Instances [] tempI = new Instances[m_NumClusters];
-    Instances tempCentroids = m_ClusterCentroids;
-    Instances tempNewCentroids = new Instances(m_Instances, m_NumClusters); 
     m_ClusterCentroids = new Instances(m_Instances, m_NumClusters);
 
-    // tempI[i] stores the cluster instances for cluster i
-    for (int i = 0; i < m_NumClusters; i++) {
-      tempI[i] = new Instances(m_Instances, 0); 
-    }
-    for (int i = 0; i < m_Instances.numInstances(); i++) {
-      tempI[m_ClusterAssignments[i]].add(m_Instances.instance(i));
+    // the running sums only need to account for the points moved in the E-step
+    if (m_centroidSums == null || !m_centroidSums.isFor(m_Instances, m_NumClusters, m_isSparseInstance)) {
+      m_centroidSums = new CentroidSums(m_Instances, m_NumClusters, m_isSparseInstance);
     }
+    m_centroidSums.update(m_ClusterAssignments);
 
     // Calculates cluster centroids
     for (int i = 0; i < m_NumClusters; i++) {
-      double [] values = new double[m_Instances.numAttributes()];
+      double [] values = m_centroidSums.meanOrMode(i);
       Instance centroid = null;
       
-      if (m_isSparseInstance) { // uses fast meanOrMode
-	values = ClusterUtils.meanOrMode(tempI[i]);
+      if (m_isSparseInstance) { // same values as the fast meanOrMode
 	centroid = new SparseInstance(1.0, values);
-      } else { // non-sparse, go through each attribute
-	for (int j = 0; j < m_Instances.numAttributes(); j++) {
-	  values[j] = tempI[i].meanOrMode(j); // uses usual meanOrMode
-	}
+      } else { // same values as the usual meanOrMode
 	centroid = new Instance(1.0, values);
       }
       
@@ -987,9 +1191,6 @@ public class MPCKMeans extends Clusterer implements OptionHandler,SemiSupCluster
     if (m_metric instanceof SmoothingMetric &&
 	((SmoothingMetric) m_metric).getUseSmoothing())
       updateSmoothingMetrics();       
-    
-    for (int i = 0; i < m_NumClusters; i++)
-      tempI[i] = null; // free memory
   }
 
 
@@ -1006,6 +1207,9 @@ public class MPCKMeans extends Clusterer implements OptionHandler,SemiSupCluster
       m_metricLearner.trainMetric(-1);
     } 
     InitNormalizerRegularizer();
+    if (m_bounds != null) {
+      m_bounds.invalidateIfMetricChanged();
+    }
   }
  
 
@@ -1114,6 +1318,22 @@ public class MPCKMeans extends Clusterer implements OptionHandler,SemiSupCluster
   }
 
   
+  /** Let the metrics that support it prepare m_Instances in advance:
+   * WeightedMahalanobis projects them once for every weight update, KL
+   * stores their p log p terms
+   */
+  protected void cacheInstances() {
+    if (m_metric instanceof WeightedMahalanobis) {
+      for (int i = 0; i < m_metrics.length; i++) {
+	((WeightedMahalanobis) m_metrics[i]).setCachedInstances(m_Instances);
+      }
+    } else if (m_metric instanceof KL) {
+      for (int i = 0; i < m_metrics.length; i++) {
+	((KL) m_metrics[i]).setCachedInstances(m_Instances);
+      }
+    }
+  }
+
   /** Actual KMeans function */
   protected void runKMeans() throws Exception {
     boolean converged = false;
@@ -1131,12 +1351,28 @@ public class MPCKMeans extends Clusterer implements OptionHandler,SemiSupCluster
 	m_metric.resetMetric();
 	m_metricLearner.resetLearner();
       }
+
+      cacheInstances();
+
       // initialize max CL penalties
       if (m_ConstraintsHash.size() > 0) {
 	m_maxCLPenalties = calculateMaxCLPenalties();
       }
     }
 
+    // the constraints are final once the initializer has run
+    m_constraintIndex = null;
+    getConstraintIndex();
+
+    // bounds are kept only for a single metric that is a true distance
+    m_bounds = null;
+    if (m_useBounds && !m_useMultipleMetrics && !m_isOfflineMetric
+	&& AssignmentBounds.supportsMetric(m_metric)) {
+      m_bounds = new AssignmentBounds(m_metric, m_Instances.numInstances());
+    }
+
+    m_centroidSums = null;
+
     // initialize m_ClusterAssignments
     for (int i=0; i<m_NumClusters; i++) {
       m_ClusterAssignments[i] = -1;
@@ -1874,7 +2110,50 @@ public class MPCKMeans extends Clusterer implements OptionHandler,SemiSupCluster
 
 
   public Enumeration listOptions () {
-    return null;
+    Vector newVector = new Vector(20);
+
+    newVector.addElement(new Option("\tperform no seeding (default false)"
+				    , "X", 0, "-X"));
+    newVector.addElement(new Option("\tmetric training type (default 4 = internal)"
+				    , "T", 1, "-T <num> (1 = none, 2 = external, 4 = internal)"));
+    newVector.addElement(new Option("\tmetric (default WeightedEuclidean)"
+				    , "M", 1, "-M <string> (metric class name and options)"));
+    newVector.addElement(new Option("\tmetric learner (default WEuclideanLearner)"
+				    , "L", 1, "-L <string> (metric learner class name and options)"));
+    newVector.addElement(new Option("\tmetric regularizer"
+				    , "G", 1, "-G <string> (regularizer class name and options)"));
+    newVector.addElement(new Option("\tassigner (default SimpleAssigner)"
+				    , "A", 1, "-A <string> (assigner class name and options)"));
+    newVector.addElement(new Option("\tinitializer (default WeightedFFNeighborhoodInit)"
+				    , "I", 1, "-I <string> (initializer class name and options)"));
+    newVector.addElement(new Option("\tuse a separate metric for every cluster (default false)"
+				    , "U", 0, "-U"));
+    newVector.addElement(new Option("\tuse triangle-inequality bounds in the E-step (default false)"
+				    , "E", 0, "-E"));
+    newVector.addElement(new Option("\tnumber of clusters (default = number of classes)"
+				    , "N", 1, "-N <num>"));
+    newVector.addElement(new Option("\trandom number seed (default 42)"
+				    , "R", 1, "-R <num>"));
+    newVector.addElement(new Option("\tlog term weight (default 0.01)"
+				    , "l", 1, "-l <double>"));
+    newVector.addElement(new Option("\tregularizer term weight (default 0.001)"
+				    , "r", 1, "-r <double>"));
+    newVector.addElement(new Option("\tmust link weight (default 1)"
+				    , "m", 1, "-m <double>"));
+    newVector.addElement(new Option("\tcannot link weight (default 1)"
+				    , "c", 1, "-c <double>"));
+    newVector.addElement(new Option("\tmaximum number of iterations (default unlimited)"
+				    , "i", 1, "-i <num>"));
+    newVector.addElement(new Option("\tmaximum number of iterations without moved points (default 20)"
+				    , "B", 1, "-B <num>"));
+    newVector.addElement(new Option("\tfile to write the cluster assignments to"
+				    , "O", 1, "-O <string>"));
+    newVector.addElement(new Option("\tfile to write the constraint incoherence to"
+				    , "H", 1, "-H <string>"));
+    newVector.addElement(new Option("\tdo not use transitive constraints (default false)"
+				    , "V", 0, "-V"));
+
+    return  newVector.elements();
   }
 
   public String [] getOptions () {
@@ -1945,6 +2224,10 @@ public class MPCKMeans extends Clusterer implements OptionHandler,SemiSupCluster
       options[current++] = "-U";
     }
 
+    if (m_useBounds) {
+      options[current++] = "-E";
+    }
+
     options[current++] = "-N";
     options[current++] = "" + getNumClusters();
     options[current++] = "-R";
@@ -2051,6 +2334,10 @@ public class MPCKMeans extends Clusterer implements OptionHandler,SemiSupCluster
       System.out.println("Setting multiple metrics to: true");
     }
 
+    if (Utils.getFlag('E', options)) {
+      setUseBounds(true);
+    }
+
     optionString = Utils.getOption('N', options);
     if (optionString.length() != 0) {
       setNumClusters(Integer.parseInt(optionString));
@@ -2173,6 +2460,28 @@ public class MPCKMeans extends Clusterer implements OptionHandler,SemiSupCluster
     return m_useMultipleMetrics;
   }
 
+  /**
+   * Turn on/off triangle-inequality bounds in the E-step; they are
+   * only used with a single WeightedEuclidean or WeightedMahalanobis metric
+   * @param useBounds if true, distances to far-away centroids are skipped
+   */
+  public void setUseBounds (boolean useBounds) {
+    m_useBounds = useBounds;
+  }
+
+  /**
+   * See if triangle-inequality bounds are used in the E-step
+   * @return true if bounds are used
+   */
+  public boolean getUseBounds () {
+    return m_useBounds;
+  }
+
+  /** Get the number of point-to-centroid distance computations skipped by the bounds */
+  public long getNumDistanceCallsSaved () {
+    return (m_bounds == null) ? 0 : m_bounds.getNumDistanceCallsSaved();
+  }
+
 
   /**
    * Turn on/off the use of regularization of weights
@@ -0,0 +1,650 @@
+/*
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+/*
+ *    MiniBatchMPCKMeans.java
+ *    Mini-batch MPCKMeans over data read incrementally from a loader
+ *
+ */
+
+package weka.clusterers;
+
+import java.io.*;
+import java.util.*;
+import weka.core.*;
+import weka.core.metrics.*;
+import weka.core.converters.AbstractLoader;
+import weka.core.converters.ArffLoader;
+import weka.core.converters.IncrementalLoader;
+
+/**
+ * Mini-batch version of MPCKMeans for datasets that do not fit in
+ * memory.  The data is read through an incremental loader: one pass
+ * keeps the instances involved in constraints and a random sample of
+ * the others, and regular MPCKMeans on them gives the initial clusters
+ * and metric.  Every following step clusters a batch made of the
+ * endpoints of a sample of the constraints and the next instances of
+ * the stream, which restarts at its end.  Every centroid moves towards
+ * the instances assigned to it with a learning rate of 1/(number of
+ * instances it has received), and the attribute weights learned by the
+ * metric learner on the batch (e.g. by WEuclideanLearner) are blended
+ * into the current ones with a decreasing learning rate.<p>
+ *
+ * Constraints refer to the positions of the instances in the stream.
+ * After clustering, the assignments are those of the last batch;
+ * clusterInstance() assigns any instance to the cluster with the
+ * lowest penalty.
+ */
+public class MiniBatchMPCKMeans extends MPCKMeans {
+
+  /** The number of instances read from the stream for every batch */
+  protected int m_batchSize = 1000;
+
+  /** The number of constraints sampled for every batch */
+  protected int m_numBatchConstraints = 100;
+
+  /** The number of mini-batch steps */
+  protected int m_numSteps = 100;
+
+  /** The number of unconstrained instances sampled for the initial clustering */
+  protected int m_sampleSize = 1000;
+
+  /** The initial learning rate of the attribute weights; the rate of
+   * step t is this value divided by t+1 */
+  protected double m_weightLearningRate = 1.0;
+
+  /** The current step, -1 during the initial clustering */
+  protected int m_step = -1;
+
+  /** The instances involved in constraints, in the order of the stream */
+  protected Instances m_constrainedInstances = null;
+
+  /** The constraints between the instances of m_constrainedInstances */
+  protected ArrayList m_constrainedPairs = null;
+
+  /** The positions of the constrained instances in the stream, sorted */
+  protected int[] m_constrainedPositions = null;
+
+  /** The number of instances every centroid has received */
+  protected double[] m_centroidCounts = null;
+
+  /** The centroids as m_centroidScales[i] * m_centroidValues[i], so
+   * that moving a centroid towards a sparse instance only touches the
+   * non-zero values of the instance */
+  protected double[][] m_centroidValues = null;
+  protected double[] m_centroidScales = null;
+
+  /** For every centroid, the number of instances it has received with
+   * a missing value of each attribute, and the attributes where that
+   * number is not zero; the values of these attributes are averaged
+   * over the instances where they are present */
+  protected double[][] m_missingCounts = null;
+  protected int[][] m_missingAttributes = null;
+  protected int[] m_numMissingAttributes = null;
+
+  /** The stream of instances */
+  protected transient AbstractLoader m_loader = null;
+  protected transient File m_source = null;
+
+  /** The position of the next instance of the stream */
+  protected int m_streamPosition = 0;
+
+  /** The header of the instances being clustered */
+  protected Instances m_header = null;
+
+  public MiniBatchMPCKMeans() {
+    super();
+  }
+
+  public MiniBatchMPCKMeans(LearnableMetric metric) {
+    super(metric);
+  }
+
+  /**
+   * Clusters the instances of a stream.
+   *
+   * @param labeledPairs constraints between the positions of instances in the stream
+   * @param loader a loader that can read the stream incrementally
+   * @param source the file the loader reads, set again for every pass
+   * @param numClusters the number of clusters
+   * @exception Exception if something goes wrong
+   */
+  public void buildClusterer(ArrayList labeledPairs, AbstractLoader loader,
+			     File source, int numClusters) throws Exception {
+    if (!(loader instanceof IncrementalLoader)) {
+      throw new Exception("Loader " + loader.getClass().getName()
+			  + " cannot read instances incrementally");
+    }
+    m_loader = loader;
+    m_source = source;
+    m_step = -1;
+    m_RandomNumberGenerator = new Random(m_RandomSeed);
+    if (labeledPairs == null) {
+      labeledPairs = new ArrayList(0);
+    }
+
+    // the positions of the instances involved in constraints
+    TreeSet positions = new TreeSet();
+    for (int i = 0; i < labeledPairs.size(); i++) {
+      InstancePair pair = (InstancePair) labeledPairs.get(i);
+      positions.add(new Integer(pair.first));
+      positions.add(new Integer(pair.second));
+    }
+    m_constrainedPositions = new int[positions.size()];
+    HashMap localIndices = new HashMap();
+    Iterator iterator = positions.iterator();
+    for (int i = 0; i < m_constrainedPositions.length; i++) {
+      Integer position = (Integer) iterator.next();
+      m_constrainedPositions[i] = position.intValue();
+      localIndices.put(position, new Integer(i));
+    }
+
+    // one pass keeps the constrained instances and a sample of the others
+    Instances structure = startPass();
+    Instances constrained = new Instances(structure, m_constrainedPositions.length);
+    Instance[] sample = new Instance[m_sampleSize];
+    int numUnconstrained = 0;
+    Instance instance;
+    while ((instance = m_loader.getNextInstance()) != null) {
+      if (isConstrained(m_streamPosition)) {
+	constrained.add(instance);
+      } else {
+	if (numUnconstrained < sample.length) {
+	  sample[numUnconstrained] = instance;
+	} else {
+	  int k = m_RandomNumberGenerator.nextInt(numUnconstrained + 1);
+	  if (k < sample.length) {
+	    sample[k] = instance;
+	  }
+	}
+	numUnconstrained++;
+      }
+      m_streamPosition++;
+    }
+    if (constrained.numInstances() != m_constrainedPositions.length) {
+      throw new Exception("Constraints refer to instances beyond the end of the stream");
+    }
+
+    // cluster the constrained instances followed by the sample
+    Instances initial = new Instances(constrained);
+    for (int i = 0; i < Math.min(numUnconstrained, sample.length); i++) {
+      initial.add(sample[i]);
+    }
+    m_constrainedPairs = new ArrayList(labeledPairs.size());
+    for (int i = 0; i < labeledPairs.size(); i++) {
+      InstancePair pair = (InstancePair) labeledPairs.get(i);
+      int first = ((Integer) localIndices.get(new Integer(pair.first))).intValue();
+      int second = ((Integer) localIndices.get(new Integer(pair.second))).intValue();
+      m_constrainedPairs.add(new InstancePair(first, second, pair.linkType));
+    }
+    super.buildClusterer(new ArrayList(m_constrainedPairs), initial, initial,
+			 numClusters, -1);
+
+    // the metric may have converted the instances
+    m_header = new Instances(m_Instances, 0);
+    m_constrainedInstances = new Instances(m_Instances, 0, m_constrainedPositions.length);
+
+    initCentroids();
+    for (m_step = 0; m_step < m_numSteps; m_step++) {
+      System.out.println("\nStep " + m_step + ". Objective function on the last batch: "
+			 + ((float) m_Objective));
+      Instances batch = nextBatch();
+      if (batch.numInstances() == 0) {
+	break;
+      }
+
+      // E-step on the batch
+      cacheInstances();
+      findBestAssignments();
+
+      // M-step: centroids, then metric
+      moveCentroids();
+      if (m_Trainable == TRAINING_INTERNAL && !m_isOfflineMetric) {
+	updateMetricWeights();
+	if (m_ConstraintsHash.size() > 0) {
+	  m_maxCLPenalties = calculateMaxCLPenalties();
+	}
+      }
+      m_Iterations++;
+    }
+    System.err.print("Steps\t" + m_step + "\t");
+  }
+
+  /** Start a pass over the stream
+   * @return the structure of the stream
+   */
+  protected Instances startPass() throws Exception {
+    m_loader.setSource(m_source);
+    m_streamPosition = 0;
+    return m_loader.getStructure();
+  }
+
+  /** Is the instance at a position of the stream involved in constraints? */
+  protected boolean isConstrained(int position) {
+    return Arrays.binarySearch(m_constrainedPositions, position) >= 0;
+  }
+
+  /** Take the centroids of the initial clustering and count the
+   * instances assigned to them */
+  protected void initCentroids() {
+    int numAttributes = m_ClusterCentroids.numAttributes();
+    m_centroidCounts = new double[m_NumClusters];
+    m_centroidValues = new double[m_NumClusters][];
+    m_centroidScales = new double[m_NumClusters];
+    m_missingCounts = new double[m_NumClusters][numAttributes];
+    m_missingAttributes = new int[m_NumClusters][];
+    m_numMissingAttributes = new int[m_NumClusters];
+    for (int i = 0; i < m_NumClusters; i++) {
+      m_centroidValues[i] = m_ClusterCentroids.instance(i).toDoubleArray();
+      m_centroidScales[i] = 1;
+      m_missingAttributes[i] = new int[4];
+    }
+    for (int i = 0; i < m_ClusterAssignments.length; i++) {
+      int cluster = m_ClusterAssignments[i];
+      if (cluster >= 0 && cluster < m_NumClusters) {
+	m_centroidCounts[cluster]++;
+	Instance instance = m_Instances.instance(i);
+	for (int j = 0; j < instance.numValues(); j++) {
+	  if (Instance.isMissingValue(instance.valueSparse(j))) {
+	    addMissingValue(cluster, instance.index(j));
+	  }
+	}
+      }
+    }
+  }
+
+  /** Count a missing value of an attribute among the instances of a centroid */
+  protected void addMissingValue(int cluster, int attrIdx) {
+    if (m_missingCounts[cluster][attrIdx]++ == 0) {
+      int[] attributes = m_missingAttributes[cluster];
+      if (m_numMissingAttributes[cluster] == attributes.length) {
+	attributes = new int[2 * attributes.length];
+	System.arraycopy(m_missingAttributes[cluster], 0, attributes, 0, m_numMissingAttributes[cluster]);
+	m_missingAttributes[cluster] = attributes;
+      }
+      attributes[m_numMissingAttributes[cluster]++] = attrIdx;
+    }
+  }
+
+  /**
+   * Make the next batch the current instances: the endpoints of a
+   * sample of the constraints followed by the next instances of the
+   * stream, with the sampled constraints between them.
+   *
+   * @return the batch
+   */
+  protected Instances nextBatch() throws Exception {
+    Instances batch = new Instances(m_header, m_batchSize + 2 * m_numBatchConstraints);
+    HashMap batchIndices = new HashMap();
+    ArrayList batchPairs = new ArrayList();
+
+    int numPairs = Math.min(m_numBatchConstraints, m_constrainedPairs.size());
+    for (int i = 0; i < numPairs; i++) {
+      InstancePair pair = (InstancePair)
+	m_constrainedPairs.get(m_RandomNumberGenerator.nextInt(m_constrainedPairs.size()));
+      int first = batchIndex(pair.first, batch, batchIndices);
+      int second = batchIndex(pair.second, batch, batchIndices);
+      batchPairs.add(new InstancePair(Math.min(first, second), Math.max(first, second),
+				      pair.linkType));
+    }
+
+    // the stream restarts at its end
+    boolean restarted = false;
+    int numRead = 0;
+    while (numRead < m_batchSize) {
+      Instance instance = m_loader.getNextInstance();
+      if (instance == null) {
+	if (restarted) {  // nothing but constrained instances
+	  break;
+	}
+	startPass();
+	restarted = true;
+	continue;
+      }
+      if (!isConstrained(m_streamPosition)) {
+	batch.add(convertInstance(instance));
+	numRead++;
+	restarted = false;
+      }
+      m_streamPosition++;
+    }
+
+    // the batch takes the place of the dataset
+    m_Instances = batch;
+    m_ClusterAssignments = new int[batch.numInstances()];
+    Arrays.fill(m_ClusterAssignments, -1);
+    m_ConstraintsHash = new HashMap();
+    m_instanceConstraintHash = new HashMap();
+    for (int i = 0; i < batchPairs.size(); i++) {
+      InstancePair pair = (InstancePair) batchPairs.get(i);
+      m_ConstraintsHash.put(new InstancePair(pair.first, pair.second, InstancePair.DONT_CARE_LINK),
+			    new Integer(pair.linkType));
+      addInstanceConstraint(pair.first, pair);
+      addInstanceConstraint(pair.second, pair);
+    }
+    m_constraintIndex = null;
+    getConstraintIndex();
+    m_bounds = null;
+    return batch;
+  }
+
+  /** Get the index of a constrained instance in the batch, adding it if necessary */
+  protected int batchIndex(int constrainedIdx, Instances batch, HashMap batchIndices) {
+    Integer key = new Integer(constrainedIdx);
+    Integer index = (Integer) batchIndices.get(key);
+    if (index == null) {
+      index = new Integer(batch.numInstances());
+      batch.add(m_constrainedInstances.instance(constrainedIdx));
+      batchIndices.put(key, index);
+    }
+    return index.intValue();
+  }
+
+  /** Add a constraint to the list of an instance of the batch */
+  protected void addInstanceConstraint(int instIdx, InstancePair pair) {
+    Integer key = new Integer(instIdx);
+    ArrayList constraintList = (ArrayList) m_instanceConstraintHash.get(key);
+    if (constraintList == null) {
+      constraintList = new ArrayList();
+      m_instanceConstraintHash.put(key, constraintList);
+    }
+    constraintList.add(pair);
+  }
+
+  /** Prepare an instance of the stream the way the metric prepared the
+   * instances of the initial clustering */
+  protected Instance convertInstance(Instance instance) throws Exception {
+    if (m_metric instanceof InstanceConverter) {
+      instance = ((InstanceConverter) m_metric).convertInstance(instance);
+    }
+    if (m_metric.doesNormalizeData()) {
+      m_metric.normalizeInstanceWeighted(instance);
+    }
+    return instance;
+  }
+
+  /** Move every centroid towards the instances of the batch assigned to
+   * it, each with a learning rate of 1/(number of instances the centroid
+   * has received).  Missing values are skipped: an attribute that has
+   * been missing in some instances of a centroid is moved with a
+   * learning rate of 1/(number of instances where it was present). */
+  protected void moveCentroids() throws Exception {
+    for (int i = 0; i < m_Instances.numInstances(); i++) {
+      int cluster = m_ClusterAssignments[i];
+      if (cluster < 0 || cluster >= m_NumClusters) {
+	continue;
+      }
+      Instance instance = m_Instances.instance(i);
+      double[] values = m_centroidValues[cluster];
+      double[] missingCounts = m_missingCounts[cluster];
+      double oldScale = m_centroidScales[cluster];
+      m_centroidCounts[cluster]++;
+      double rate = 1.0 / m_centroidCounts[cluster];
+      if (rate >= 1) {  // the first instance of the centroid
+	Arrays.fill(values, 0);
+	m_centroidScales[cluster] = 1;
+      } else {
+	m_centroidScales[cluster] *= 1 - rate;
+      }
+      double scale = m_centroidScales[cluster];
+      for (int j = 0; j < instance.numValues(); j++) {
+	if (Instance.isMissingValue(instance.valueSparse(j))) {
+	  addMissingValue(cluster, instance.index(j));
+	}
+      }
+
+      // attributes with missing values have their own number of instances
+      for (int k = 0; k < m_numMissingAttributes[cluster]; k++) {
+	int attrIdx = m_missingAttributes[cluster][k];
+	double mean = values[attrIdx] * oldScale;
+	double value = instance.value(attrIdx);
+	if (!Instance.isMissingValue(value)) {
+	  mean += (value - mean) / (m_centroidCounts[cluster] - missingCounts[attrIdx]);
+	}
+	values[attrIdx] = mean / scale;
+      }
+      for (int j = 0; j < instance.numValues(); j++) {
+	int attrIdx = instance.index(j);
+	if (missingCounts[attrIdx] == 0) {
+	  values[attrIdx] += rate * instance.valueSparse(j) / scale;
+	}
+      }
+      if (scale < 1e-100) {  // fold the scale into the values
+	for (int j = 0; j < values.length; j++) {
+	  values[j] *= scale;
+	}
+	m_centroidScales[cluster] = 1;
+      }
+    }
+
+    m_ClusterCentroids = new Instances(m_Instances, m_NumClusters);
+    for (int i = 0; i < m_NumClusters; i++) {
+      double[] values = new double[m_centroidValues[i].length];
+      for (int j = 0; j < values.length; j++) {
+	values[j] = m_centroidScales[i] * m_centroidValues[i][j];
+      }
+      Instance centroid = m_isSparseInstance ? new SparseInstance(1.0, values)
+	: new Instance(1.0, values);
+
+      // if we are using a smoothing metric, smooth the centroids
+      if (m_metric instanceof SmoothingMetric &&
+	  ((SmoothingMetric) m_metric).getUseSmoothing()) {
+	centroid = ((SmoothingMetric) m_metric).smoothInstance(centroid);
+      }
+      m_ClusterCentroids.add(centroid);
+
+      // in SPKMeans, cluster centroids need to be normalized
+      if (m_metric.doesNormalizeData()) {
+	m_metric.normalizeInstanceWeighted(m_ClusterCentroids.instance(i));
+      }
+    }
+    if (m_metric instanceof SmoothingMetric &&
+	((SmoothingMetric) m_metric).getUseSmoothing()) {
+      updateSmoothingMetrics();
+    }
+  }
+
+  /** M-step for the metric weights.  The metric learners fit the
+   * weights to the current batch; during the mini-batch steps these
+   * weights are blended into the previous ones with a learning rate of
+   * m_weightLearningRate/(step+1).  Metrics without a weight vector
+   * take the weights fitted to the batch.
+   */
+  protected void updateMetricWeights() throws Exception {
+    if (m_step < 0) {
+      super.updateMetricWeights();
+      return;
+    }
+    int numMetrics = m_useMultipleMetrics ? m_metrics.length : 1;
+    double[][] oldWeights = new double[numMetrics][];
+    for (int i = 0; i < numMetrics; i++) {
+      double[] weights = m_metrics[i].getWeights();
+      if (weights != null) {
+	oldWeights[i] = weights.clone();
+      }
+    }
+    super.updateMetricWeights();
+
+    double rate = Math.min(1, m_weightLearningRate / (m_step + 1));
+    for (int i = 0; i < numMetrics; i++) {
+      double[] weights = m_metrics[i].getWeights();
+      if (oldWeights[i] != null && weights != null && weights.length == oldWeights[i].length) {
+	double[] newWeights = new double[weights.length];
+	for (int j = 0; j < weights.length; j++) {
+	  newWeights[j] = oldWeights[i][j] + rate * (weights[j] - oldWeights[i][j]);
+	}
+	m_metrics[i].setWeights(newWeights);
+      }
+    }
+    InitNormalizerRegularizer();
+  }
+
+  /**
+   * Assigns an instance to the cluster with the lowest penalty,
+   * ignoring constraints
+   *
+   * @param instance the instance to be assigned to a cluster
+   * @return the number of the assigned cluster
+   * @exception Exception if instance could not be classified
+   */
+  public int clusterInstance(Instance instance) throws Exception {
+    instance = convertInstance((Instance) instance.copy());
+    int bestCluster = 0;
+    double lowestPenalty = Double.MAX_VALUE;
+    for (int i = 0; i < m_NumClusters; i++) {
+      double penalty = m_metrics[i].penalty(instance, m_ClusterCentroids.instance(i));
+      if (m_Trainable == TRAINING_INTERNAL && m_logTerms != null) {
+	penalty -= m_logTerms[i];
+      }
+      if (penalty < lowestPenalty) {
+	lowestPenalty = penalty;
+	bestCluster = i;
+      }
+    }
+    return bestCluster;
+  }
+
+  /** Set the number of instances read from the stream for every batch */
+  public void setBatchSize(int batchSize) {
+    m_batchSize = batchSize;
+  }
+
+  /** Get the number of instances read from the stream for every batch */
+  public int getBatchSize() {
+    return m_batchSize;
+  }
+
+  /** Set the number of constraints sampled for every batch */
+  public void setNumBatchConstraints(int numBatchConstraints) {
+    m_numBatchConstraints = numBatchConstraints;
+  }
+
+  /** Get the number of constraints sampled for every batch */
+  public int getNumBatchConstraints() {
+    return m_numBatchConstraints;
+  }
+
+  /** Set the number of mini-batch steps */
+  public void setNumSteps(int numSteps) {
+    m_numSteps = numSteps;
+  }
+
+  /** Get the number of mini-batch steps */
+  public int getNumSteps() {
+    return m_numSteps;
+  }
+
+  /** Set the number of unconstrained instances sampled for the initial clustering */
+  public void setSampleSize(int sampleSize) {
+    m_sampleSize = sampleSize;
+  }
+
+  /** Get the number of unconstrained instances sampled for the initial clustering */
+  public int getSampleSize() {
+    return m_sampleSize;
+  }
+
+  /** Set the initial learning rate of the attribute weights */
+  public void setWeightLearningRate(double weightLearningRate) {
+    m_weightLearningRate = weightLearningRate;
+  }
+
+  /** Get the initial learning rate of the attribute weights */
+  public double getWeightLearningRate() {
+    return m_weightLearningRate;
+  }
+
+  public String [] getOptions () {
+    String[] superOptions = super.getOptions();
+    String[] options = new String[superOptions.length + 10];
+    int current = 0;
+
+    options[current++] = "-b";
+    options[current++] = "" + m_batchSize;
+    options[current++] = "-P";
+    options[current++] = "" + m_numBatchConstraints;
+    options[current++] = "-s";
+    options[current++] = "" + m_numSteps;
+    options[current++] = "-S";
+    options[current++] = "" + m_sampleSize;
+    options[current++] = "-w";
+    options[current++] = "" + m_weightLearningRate;
+
+    System.arraycopy(superOptions, 0, options, current, superOptions.length);
+    return options;
+  }
+
+  /**
+   * Parses a given list of options.
+   * @param options the list of options as an array of strings
+   * @exception Exception if an option is not supported
+   *
+   **/
+  public void setOptions (String[] options) throws Exception {
+    String optionString = Utils.getOption('b', options);
+    if (optionString.length() != 0) {
+      setBatchSize(Integer.parseInt(optionString));
+    }
+
+    optionString = Utils.getOption('P', options);
+    if (optionString.length() != 0) {
+      setNumBatchConstraints(Integer.parseInt(optionString));
+    }
+
+    optionString = Utils.getOption('s', options);
+    if (optionString.length() != 0) {
+      setNumSteps(Integer.parseInt(optionString));
+    }
+
+    optionString = Utils.getOption('S', options);
+    if (optionString.length() != 0) {
+      setSampleSize(Integer.parseInt(optionString));
+    }
+
+    optionString = Utils.getOption('w', options);
+    if (optionString.length() != 0) {
+      setWeightLearningRate(Double.parseDouble(optionString));
+    }
+
+    super.setOptions(options);
+  }
+
+  /**
+   * Clusters an ARFF file read incrementally: -D the file, which holds
+   * only the attributes to cluster on, -C the constraints file, -N the
+   * number of clusters, and the options of MiniBatchMPCKMeans.
+   */
+  public static void main (String[] args) {
+    MiniBatchMPCKMeans mpckmeans = new MiniBatchMPCKMeans();
+    try {
+      File source = new File(Utils.getOption('D', args));
+      ArrayList labeledPairs = new ArrayList(0);
+      String optionString = Utils.getOption('C', args);
+      if (optionString.length() != 0) {
+	labeledPairs = mpckmeans.readConstraints(optionString);
+	System.out.println("Reading constraints from: " + optionString);
+      }
+      mpckmeans.setOptions(args);
+      mpckmeans.buildClusterer(labeledPairs, new ArffLoader(), source,
+			       mpckmeans.getNumClusters());
+      for (int i = 0; i < mpckmeans.getNumClusters(); i++) {
+	System.out.println("Centroid " + i + ": " + mpckmeans.getClusterCentroids().instance(i));
+      }
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+}
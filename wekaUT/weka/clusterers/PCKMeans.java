@@ -76,6 +76,10 @@ public class PCKMeans extends Clusterer implements OptionHandler,SemiSupClustere
   */
   protected HashMap m_instanceConstraintHash = null; 
 
+  /** compressed copy of m_instanceConstraintHash used in the E-step,
+      built once the constraints are final */
+  protected ConstraintIndex m_constraintIndex = null;
+
   /** adjacency list for neighborhoods */
   protected HashSet[] m_AdjacencyList;
 
@@ -245,6 +249,13 @@ public class PCKMeans extends Clusterer implements OptionHandler,SemiSupClustere
   /** Move points in assignment step till stabilization? */
   protected boolean m_MovePointsTillAssignmentStabilizes = false;
 
+  /** Use triangle-inequality bounds to skip distance computations in the E-step? */
+  protected boolean m_useBounds = false;
+  protected AssignmentBounds m_bounds = null;
+
+  /** Running sums of the clusters for the M-step */
+  protected CentroidSums m_centroidSums = null;
+
   /** neighbor list for active learning: points in each cluster neighborhood */
   protected HashSet[] m_NeighborSets;
 
@@ -444,6 +455,7 @@ public class PCKMeans extends Clusterer implements OptionHandler,SemiSupClustere
     m_SeedHash = null;
     m_ConstraintsHash = null;
     m_instanceConstraintHash = null;
+    m_constraintIndex = null;
   }
 
 
@@ -1657,6 +1669,10 @@ public class PCKMeans extends Clusterer implements OptionHandler,SemiSupClustere
     for (int i=0; i<numInstances; i++) {
       indices[i] = i; // initialize
     }
+
+    if (m_bounds != null) {
+      m_bounds.beginPass(m_ClusterCentroids);
+    }
     
     if (m_InstanceOrdering == ORDERING_DEFAULT) {
       for (int i=0; i<numInstances; i++) {
@@ -1771,6 +1787,10 @@ public class PCKMeans extends Clusterer implements OptionHandler,SemiSupClustere
     } else {
       throw new Exception ("Unknown instance ordering!!");
     }
+
+    if (m_bounds != null) {
+      m_bounds.endPass();
+    }
     
     System.out.println("\t" + moved + " points moved in this E-step");
   }
@@ -1790,20 +1810,24 @@ public class PCKMeans extends Clusterer implements OptionHandler,SemiSupClustere
     double bestSimilarity = Integer.MIN_VALUE;
     int moved = 0;
     
-    for (int i = 0; i < m_NumClusters; i++) {
-      double squareDistance = 0, similarity = 0;
-      if (!m_objFunDecreasing) {
-	similarity = similarityInPottsModel(instIdx, i);
-	//	System.out.println("Sim between instance " + instIdx + " and cluster " + i + " = " + similarity);
-	if (similarity > bestSimilarity) {
-	  bestSimilarity = similarity;
-	  bestCluster = i;
-	}
-      } else {
-	squareDistance = squareDistanceInPottsModel(instIdx, i);
-	if (squareDistance < bestSquareDistance) {
-	  bestSquareDistance = squareDistance;
-	  bestCluster = i;
+    if (m_bounds != null && !m_constraintIndex.hasConstraints(instIdx)) {
+      bestCluster = findBestClusterWithBounds(instIdx);
+    } else {
+      for (int i = 0; i < m_NumClusters; i++) {
+	double squareDistance = 0, similarity = 0;
+	if (!m_objFunDecreasing) {
+	  similarity = similarityInPottsModel(instIdx, i);
+	  //	System.out.println("Sim between instance " + instIdx + " and cluster " + i + " = " + similarity);
+	  if (similarity > bestSimilarity) {
+	    bestSimilarity = similarity;
+	    bestCluster = i;
+	  }
+	} else {
+	  squareDistance = squareDistanceInPottsModel(instIdx, i);
+	  if (squareDistance < bestSquareDistance) {
+	    bestSquareDistance = squareDistance;
+	    bestCluster = i;
+	  }
 	}
       }
     }
@@ -1833,29 +1857,53 @@ public class PCKMeans extends Clusterer implements OptionHandler,SemiSupClustere
     return moved;
   }
 
+  /**
+   * Finds the closest centroid of an unconstrained instance using the
+   * triangle-inequality bounds; the squared distances are compared in
+   * the same way as in squareDistanceInPottsModel
+   *
+   * @param instIdx index of the instance
+   * @return the index of the closest cluster
+   */
+  protected int findBestClusterWithBounds(int instIdx) throws Exception {
+    Instance instance = m_Instances.instance(instIdx);
+    if (m_bounds.isStable(instIdx, instance, false)) {
+      double upper = m_bounds.getUpperBound(instIdx);
+      if (upper * upper < Integer.MAX_VALUE) {
+	return m_bounds.getClosest(instIdx);
+      }
+    }
+
+    double[] distances = new double[m_NumClusters];
+    m_bounds.scan(instIdx, instance, distances);
+    int bestCluster = 0;
+    double bestSquareDistance = Integer.MAX_VALUE;
+    for (int i = 0; i < m_NumClusters; i++) {
+      double squareDistance = distances[i] * distances[i];
+      if (squareDistance < bestSquareDistance) {
+	bestSquareDistance = squareDistance;
+	bestCluster = i;
+      }
+    }
+    return bestCluster;
+  }
+
   /** finds similarity between instance and centroid in Potts Model
    */
   double similarityInPottsModel(int instIdx, int centroidIdx) throws Exception{
     double sim = m_metric.similarity(m_Instances.instance(instIdx), m_ClusterCentroids.instance(centroidIdx));
 
-    Object list =  m_instanceConstraintHash.get(new Integer(instIdx));
-    if (list != null) {   // there are constraints associated with this instance
-      ArrayList constraintList = (ArrayList) list;
-      for (int i = 0; i < constraintList.size(); i++) {
-	InstancePair pair = (InstancePair) constraintList.get(i);
-	int firstIdx = pair.first;
-	int secondIdx = pair.second;
-	Instance instance1 = m_Instances.instance(firstIdx);
-	Instance instance2 = m_Instances.instance(secondIdx);
-	int otherIdx = (firstIdx == instIdx) ? m_ClusterAssignments[secondIdx] : m_ClusterAssignments[firstIdx];
-	
-	// check whether the constraint is violated
-	if (otherIdx != -1) { 
-	  if (otherIdx != centroidIdx && pair.linkType == InstancePair.MUST_LINK) { 
-	    sim -= m_MustLinkWeight;
-	  } else if (otherIdx == centroidIdx && pair.linkType == InstancePair.CANNOT_LINK) { 
-	    sim -= m_CannotLinkWeight;
-	  }
+    int end = m_constraintIndex.getEnd(instIdx);
+    for (int pos = m_constraintIndex.getStart(instIdx); pos < end; pos++) {
+      int linkType = m_constraintIndex.getLinkType(pos);
+      int otherIdx = m_ClusterAssignments[m_constraintIndex.getNeighbor(pos)];
+
+      // check whether the constraint is violated
+      if (otherIdx != -1) { 
+	if (otherIdx != centroidIdx && linkType == InstancePair.MUST_LINK) { 
+	  sim -= m_MustLinkWeight;
+	} else if (otherIdx == centroidIdx && linkType == InstancePair.CANNOT_LINK) { 
+	  sim -= m_CannotLinkWeight;
 	}
       }
     }
@@ -1875,24 +1923,17 @@ public class PCKMeans extends Clusterer implements OptionHandler,SemiSupClustere
       System.out.println("Unconstrained distance between instance " + instIdx + " and centroid " + centroidIdx + " is: " + dist);
     }
 
-    Object list =  m_instanceConstraintHash.get(new Integer(instIdx));
-    if (list != null) {   // there are constraints associated with this instance
-      ArrayList constraintList = (ArrayList) list;
-      for (int i = 0; i < constraintList.size(); i++) {
-	InstancePair pair = (InstancePair) constraintList.get(i);
-	int firstIdx = pair.first;
-	int secondIdx = pair.second;
-	Instance instance1 = m_Instances.instance(firstIdx);
-	Instance instance2 = m_Instances.instance(secondIdx);
-	int otherIdx = (firstIdx == instIdx) ? m_ClusterAssignments[secondIdx] : m_ClusterAssignments[firstIdx];
-	
-	// check whether the constraint is violated
-	if (otherIdx != -1) { 
-	  if (otherIdx != centroidIdx && pair.linkType == InstancePair.MUST_LINK) { 
-	    dist += m_MustLinkWeight;
-	  } else if (otherIdx == centroidIdx && pair.linkType == InstancePair.CANNOT_LINK) { 
-	    dist += m_CannotLinkWeight;
-	  }
+    int end = m_constraintIndex.getEnd(instIdx);
+    for (int pos = m_constraintIndex.getStart(instIdx); pos < end; pos++) {
+      int linkType = m_constraintIndex.getLinkType(pos);
+      int otherIdx = m_ClusterAssignments[m_constraintIndex.getNeighbor(pos)];
+
+      // check whether the constraint is violated
+      if (otherIdx != -1) { 
+	if (otherIdx != centroidIdx && linkType == InstancePair.MUST_LINK) { 
+	  dist += m_MustLinkWeight;
+	} else if (otherIdx == centroidIdx && linkType == InstancePair.CANNOT_LINK) { 
+	  dist += m_CannotLinkWeight;
 	}
       }
     }
@@ -1907,27 +1948,18 @@ public class PCKMeans extends Clusterer implements OptionHandler,SemiSupClustere
    */
   protected void updateClusterCentroids() throws Exception {
     // M-step: update cluster centroids
-    Instances [] tempI = new Instances[m_NumClusters];
     m_ClusterCentroids = new Instances(m_Instances, m_NumClusters);
-    
-    for (int i = 0; i < m_NumClusters; i++) {
-      tempI[i] = new Instances(m_Instances, 0); // tempI[i] stores the cluster instances for cluster i
-    }
-    for (int i = 0; i < m_Instances.numInstances(); i++) {
-      tempI[m_ClusterAssignments[i]].add(m_Instances.instance(i));
+
+    // the running sums only need to account for the points moved in the E-step
+    if (m_centroidSums == null || !m_centroidSums.isFor(m_Instances, m_NumClusters, m_isSparseInstance)) {
+      m_centroidSums = new CentroidSums(m_Instances, m_NumClusters, m_isSparseInstance);
     }
+    m_centroidSums.update(m_ClusterAssignments);
     
     // Calculates cluster centroids
     for (int i = 0; i < m_NumClusters; i++) {
-      double [] values = new double[m_Instances.numAttributes()];
-      if (m_isSparseInstance) {
-	values = meanOrMode(tempI[i]); // uses fast meanOrMode
-      }
-      else {
-	for (int j = 0; j < m_Instances.numAttributes(); j++) {
-	  values[j] = tempI[i].meanOrMode(j); // uses usual meanOrMode
-	}
-      }
+      // fast meanOrMode for sparse instances, usual meanOrMode otherwise
+      double [] values = m_centroidSums.meanOrMode(i);
       
       // cluster centroids are dense in SPKMeans
       m_ClusterCentroids.add(new Instance(1.0, values));
@@ -1940,9 +1972,6 @@ public class PCKMeans extends Clusterer implements OptionHandler,SemiSupClustere
 	}
       }
     }
-    for (int i = 0; i < m_NumClusters; i++) {
-      tempI[i] = null; // free memory for garbage collector to pick up
-    }
   }
   
   /** calculates objective function */
@@ -1987,6 +2016,17 @@ public class PCKMeans extends Clusterer implements OptionHandler,SemiSupClustere
 
     double oldObjective = m_objFunDecreasing ? Double.POSITIVE_INFINITY : Double.NEGATIVE_INFINITY;
 
+    // the constraints are final once the clusterer has been initialized
+    m_constraintIndex = new ConstraintIndex(m_instanceConstraintHash, m_Instances.numInstances());
+
+    m_centroidSums = null;
+
+    // bounds are kept only for a metric that is a true distance
+    m_bounds = null;
+    if (m_useBounds && m_objFunDecreasing && AssignmentBounds.supportsMetric(m_metric)) {
+      m_bounds = new AssignmentBounds(m_metric, m_Instances.numInstances());
+    }
+
     while (!converged) {
       // E-step: updates m_Objective
       if (m_verbose) {
@@ -2209,6 +2249,25 @@ public class PCKMeans extends Clusterer implements OptionHandler,SemiSupClustere
     return  m_MovePointsTillAssignmentStabilizes;
   }
 
+  /**
+   * Turn on/off triangle-inequality bounds in the E-step; they are
+   * only used with a WeightedEuclidean or WeightedMahalanobis metric
+   * @param useBounds if true, distances to far-away centroids are skipped
+   */
+  public void setUseBounds (boolean useBounds) {
+    m_useBounds = useBounds;
+  }
+
+  /** Return m_useBounds */
+  public boolean getUseBounds () {
+    return m_useBounds;
+  }
+
+  /** Get the number of point-to-centroid distance computations skipped by the bounds */
+  public long getNumDistanceCallsSaved () {
+    return (m_bounds == null) ? 0 : m_bounds.getNumDistanceCallsSaved();
+  }
+
 
   /**
    * Set the minimum value of the objective function difference required for convergence
@@ -2456,6 +2515,8 @@ public class PCKMeans extends Clusterer implements OptionHandler,SemiSupClustere
 				     , "CL", 1, "-CL <double>"));
      newVector.addElement(new Option("\talgorithm type (default Simple)"
 				     , "A", 1, "-A <string> (Simple => Simple-KMeans, Spherical => Spherical-KMeans)"));
+     newVector.addElement(new Option("\tuse triangle-inequality bounds in the E-step (default false)"
+				     , "B", 0, "-B"));
 
      return  newVector.elements();
 
@@ -2472,6 +2533,10 @@ public class PCKMeans extends Clusterer implements OptionHandler,SemiSupClustere
     if (m_MovePointsTillAssignmentStabilizes) {
       options[current++] = "-Stable";
     }
+
+    if (m_useBounds) {
+      options[current++] = "-B";
+    }
     
     options[current++] = "-IO";
     options[current++] = "" + getInstanceOrdering().getSelectedTag().getID();
@@ -2541,6 +2606,10 @@ public class PCKMeans extends Clusterer implements OptionHandler,SemiSupClustere
       metricSpec[0] = "";
       setMetric((LearnableMetric)LearnableMetric.forName(metricName, metricSpec));
     }
+
+    if (Utils.getFlag('B', options)) {
+      setUseBounds(true);
+    }
   }
 
   /**   
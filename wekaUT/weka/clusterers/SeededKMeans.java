@@ -92,6 +92,13 @@ public class SeededKMeans extends Clusterer implements OptionHandler,SemiSupClus
   /** Index of the current element in the E-step */
   protected int m_currIdx = 0;
 
+  /** Use triangle-inequality bounds to skip distance computations in the E-step? */
+  protected boolean m_useBounds = false;
+  protected AssignmentBounds m_bounds = null;
+
+  /** Running sums of the clusters for the M-step */
+  protected CentroidSums m_centroidSums = null;
+
   /** keep track of the number of iterations completed before convergence
    */
   protected int m_Iterations = 0;
@@ -456,10 +463,15 @@ public class SeededKMeans extends Clusterer implements OptionHandler,SemiSupClus
     m_Objective = 0;
     int moved=0;
 
+    if (m_bounds != null) {
+      m_bounds.beginPass(m_ClusterCentroids);
+    }
+
     for (int i = 0; i < m_Instances.numInstances(); i++) {
       m_currIdx = i;
       Instance inst = m_Instances.instance(i);
       boolean assigned = false;
+      boolean bounded = false;
 
       // Constrained KMeans algorithm
       if(m_SeedingMethod == SEEDING_CONSTRAINED) {
@@ -477,7 +489,13 @@ public class SeededKMeans extends Clusterer implements OptionHandler,SemiSupClus
 
       try {
 	if (!assigned) { // Unseeded instances
-	  int newAssignment = assignClusterToInstance(inst);
+	  int newAssignment;
+	  if (m_bounds != null) {
+	    newAssignment = assignClusterWithBounds(i, inst);
+	    bounded = true;
+	  } else {
+	    newAssignment = assignClusterToInstance(inst);
+	  }
 	  if (newAssignment != m_ClusterAssignments[i]) {
 	    moved++;
 	    if (m_Verbose) {
@@ -493,7 +511,8 @@ public class SeededKMeans extends Clusterer implements OptionHandler,SemiSupClus
 	  m_Objective += newSimilarity;
 	} 
 	else { // objective function decreases monotonically
-	  double newDistance = m_metric.distance(inst, m_ClusterCentroids.instance(m_ClusterAssignments[i]));
+	  double newDistance = bounded ? m_bounds.getUpperBound(i)
+	    : m_metric.distance(inst, m_ClusterCentroids.instance(m_ClusterAssignments[i]));
 	  m_Objective += newDistance * newDistance;
 	}
       } 
@@ -502,6 +521,10 @@ public class SeededKMeans extends Clusterer implements OptionHandler,SemiSupClus
 	e.printStackTrace();
       }
     }
+
+    if (m_bounds != null) {
+      m_bounds.endPass();
+    }
     
     if(m_Verbose) {
       System.out.println("\nAfter iteration " + m_Iterations + ":\n");
@@ -518,30 +541,25 @@ public class SeededKMeans extends Clusterer implements OptionHandler,SemiSupClus
    */
   protected void updateClusterCentroids() {
     // M-step: update cluster centroids
-    Instances [] tempI = new Instances[m_NumClusters];
     m_ClusterCentroids = new Instances(m_Instances, m_NumClusters);
     
-    for (int i = 0; i < m_NumClusters; i++) {
-      tempI[i] = new Instances(m_Instances, 0); // tempI[i] stores the cluster instances for cluster i
-    }
-    for (int i = 0; i < m_Instances.numInstances(); i++) {
-      tempI[m_ClusterAssignments[i]].add(m_Instances.instance(i));
-      if (m_Verbose) {
+    if (m_Verbose) {
+      for (int i = 0; i < m_Instances.numInstances(); i++) {
 	System.out.println("Instance " + i + " added to cluster " + m_ClusterAssignments[i]);
       }
     }
+
+    // the running sums only need to account for the points moved in the E-step
+    boolean fast = m_FastMode && isSparseInstance;
+    if (m_centroidSums == null || !m_centroidSums.isFor(m_Instances, m_NumClusters, fast)) {
+      m_centroidSums = new CentroidSums(m_Instances, m_NumClusters, fast);
+    }
+    m_centroidSums.update(m_ClusterAssignments);
     
     // Calculates cluster centroids
     for (int i = 0; i < m_NumClusters; i++) {
-      double [] values = new double[m_Instances.numAttributes()];
-      if (m_FastMode && isSparseInstance) {
-	values = meanOrMode(tempI[i]); // uses fast meanOrMode
-      }
-      else {
-	for (int j = 0; j < m_Instances.numAttributes(); j++) {
-	  values[j] = tempI[i].meanOrMode(j); // uses usual meanOrMode
-	}
-      }
+      // fast meanOrMode in fast mode for sparse instances, usual meanOrMode otherwise
+      double [] values = m_centroidSums.meanOrMode(i);
 
       // cluster centroids are dense in SPKMeans
       m_ClusterCentroids.add(new Instance(1.0, values));
@@ -613,6 +631,14 @@ public class SeededKMeans extends Clusterer implements OptionHandler,SemiSupClus
 
     double oldObjective = m_objFunDecreasing ? Double.POSITIVE_INFINITY : Double.NEGATIVE_INFINITY;
 
+    m_centroidSums = null;
+
+    // bounds are kept only for a metric that is a true distance
+    m_bounds = null;
+    if (m_useBounds && m_objFunDecreasing && AssignmentBounds.supportsMetric(m_metric)) {
+      m_bounds = new AssignmentBounds(m_metric, m_Instances.numInstances());
+    }
+
     while (!converged) {
       // E-step: updates m_Objective
       System.out.println("Doing E-step ...");
@@ -1218,6 +1244,23 @@ public class SeededKMeans extends Clusterer implements OptionHandler,SemiSupClus
   
 
 
+  /**
+   * Finds the closest centroid of an instance using the
+   * triangle-inequality bounds; afterwards the upper bound of the
+   * instance is the exact distance to the returned centroid
+   *
+   * @param instIdx index of the instance
+   * @param instance the instance
+   * @return the index of the closest cluster
+   */
+  protected int assignClusterWithBounds(int instIdx, Instance instance) throws Exception {
+    if (!m_bounds.isStable(instIdx, instance, true)) {
+      m_bounds.scan(instIdx, instance, new double[m_NumClusters]);
+    }
+    return m_bounds.getClosest(instIdx);
+  }
+
+
   /** Return the number of clusters */
   public int getNumClusters() {
     return m_NumClusters;
@@ -1332,6 +1375,28 @@ public class SeededKMeans extends Clusterer implements OptionHandler,SemiSupClus
     return m_metric;
   }
 
+  /**
+   * Turn on/off triangle-inequality bounds in the E-step; they are
+   * only used with a WeightedEuclidean or WeightedMahalanobis metric
+   * @param useBounds if true, distances to far-away centroids are skipped
+   */
+  public void setUseBounds (boolean useBounds) {
+    m_useBounds = useBounds;
+  }
+
+  /**
+   * See if triangle-inequality bounds are used in the E-step
+   * @return true if bounds are used
+   */
+  public boolean getUseBounds () {
+    return m_useBounds;
+  }
+
+  /** Get the number of point-to-centroid distance computations skipped by the bounds */
+  public long getNumDistanceCallsSaved () {
+    return (m_bounds == null) ? 0 : m_bounds.getNumDistanceCallsSaved();
+  }
+
   /**
    * Get the distance metric name
    *
@@ -1574,6 +1639,9 @@ public class SeededKMeans extends Clusterer implements OptionHandler,SemiSupClus
     }
     options[current++] = "-A";
     options[current++] = "" + getAlgorithm().getSelectedTag().getID();
+    if (m_useBounds) {
+      options[current++] = "-B";
+    }
 
     options[current++] = "-M";
     options[current++] = m_metric.getClass().getName();
@@ -1623,6 +1691,8 @@ public class SeededKMeans extends Clusterer implements OptionHandler,SemiSupClus
       setAlgorithm(new SelectedTag(Integer.parseInt(optionString), TAGS_ALGORITHM));
     }
 
+    setUseBounds(Utils.getFlag('B', options));
+
     optionString = Utils.getOption('M', options);
     if (optionString.length() != 0) {
       String[] metricSpec = Utils.splitOptions(optionString);
@@ -91,9 +91,9 @@ public class SemiSupClustererEvaluation extends ClusterEvaluation {
   protected boolean m_ClassIsNominal;
 
   /** If the class is not nominal, we do not need the confusion matrix but do pairs counts directly */
-  protected int m_totalPairs;
-  protected int m_goodPairs;
-  protected int m_trueGoodPairs;
+  protected long m_totalPairs;
+  protected long m_goodPairs;
+  protected long m_trueGoodPairs;
   
   /** The total cost of predictions (includes instance weights) */
   protected double m_TotalCost;
@@ -150,80 +150,157 @@ public class SemiSupClustererEvaluation extends ClusterEvaluation {
 	evaluateModelOnce(clusterer, unlabeledTest.instance(i), (int) (testInstances.instance(i)).classValue());
       }
     } else { // string-based class attributes
-      int numInstances = testInstances.numInstances();
+      // Instances of a label set are counted by the subsets of their
+      // labels: the number of instances sharing a label with an instance
+      // whose labels are S follows by inclusion-exclusion from the counts
+      // of the nonempty subsets of S, so pairs are never enumerated.
       Attribute classAttr = testInstances.classAttribute();
-      int [][] sharedClass = new int[numInstances][numInstances];
-      HashSet dontCareSet = new HashSet();
-      final int HAVE_SHARED_CLASS = 0;
-      final int NO_SHARED_CLASS = 1;
-      final int DONT_CARE = 2; 
+      HashMap labelIndices = new HashMap();
+      HashMap labelSets = new HashMap();
+      HashMap subsetIndices = new HashMap();
+      HashMap classCounts = new HashMap();
+      HashMap clusterCounts = new HashMap();
       m_totalPairs = 0;
       m_goodPairs = 0;
-
-      // calculate the number of true pairs
       m_trueGoodPairs = 0;
-      HashSet [] classSets = new HashSet[numInstances];
-      for (int i = 0; i < numInstances; i++) {
-	  System.out.println("Classattr: " + classAttr);
+
+      for (int i = 0; i < testInstances.numInstances(); i++) {
 	String classList = testInstances.instance(i).stringValue(classAttr);
-	if (classList.length() != 0) { // skip unassigned instances
-	  // parse the list of classes into a hashset
-	  HashSet classSet = new HashSet();
-	  StringTokenizer tokenizer = new StringTokenizer(classList, "_");
-	  while (tokenizer.hasMoreTokens()) {
-	    classSet.add(tokenizer.nextToken());
-	  }
-	  classSets[i] = classSet;
-	  for (int j = 0; j < i; j++) {
-	    if (classSets[j] != null) { // skip unassigned instances
-	      HashSet prevSet = (HashSet) classSets[j];
-	      Iterator iterator = prevSet.iterator();
-	      boolean shareClass = false;
-
-	      // go through previously assigned instance's classes and see if current class list contains any
-	      while (iterator.hasNext() && !shareClass) {
-		String classString = (String) iterator.next();
-		if (classSet.contains(classString)) {
-		  shareClass = true;
-		} 
-	      }
-	      if (shareClass) {
-		m_trueGoodPairs++;
-		sharedClass[i][j] = sharedClass[j][i] = HAVE_SHARED_CLASS;
-	      } else {
-		sharedClass[i][j] = sharedClass[j][i] = NO_SHARED_CLASS;
-	      } 
-	    }
-	  }
-	} else { // all pairs with this instance are don't care
-	  dontCareSet.add(new Integer(i));
-	  for (int j = 0; j < numInstances; j++) {
-	    sharedClass[i][j] = sharedClass[j][i] = DONT_CARE;
-	  } 
-	} 
+	if (classList.length() == 0) { // unassigned instances are don't care
+	  continue;
+	}
+	LabelSet labelSet = getLabelSet(classList, labelIndices, labelSets, subsetIndices);
+	m_trueGoodPairs += labelSet.numSharing(classCounts, 0);
+	labelSet.add(classCounts, 0);
+
+	// pairs of the same cluster, and those of them that share a class
+	int clusterIdx = clusterer.clusterInstance(unlabeledTest.instance(i));
+	m_totalPairs += LabelSet.getCount(clusterCounts, clusterIdx, -1)[0];
+	m_goodPairs += labelSet.numSharing(clusterCounts, clusterIdx);
+	labelSet.add(clusterCounts, clusterIdx);
       }
+    } 
+  }
 
-      // now cluster and evaluate precision
-      ArrayList[] classLists = new ArrayList[m_NumClasses];
-      for (int i = 0; i < classLists.length; i++) {
-	classLists[i] = new ArrayList();
-      } 
-      for (int i = 0; i < unlabeledTest.numInstances(); i++) {
-	if (!dontCareSet.contains(new Integer(i))) { 
-	  int clusterIdx = clusterer.clusterInstance(unlabeledTest.instance(i));
-
-	  // go through all instances previously assigned to the same cluster and check whether they have common classes
-	  for (int j = 0; j < classLists[clusterIdx].size(); j++) {
-	    int sameClusterInstanceIdx = ((Integer) classLists[clusterIdx].get(j)).intValue();
-	    if (sharedClass[j][sameClusterInstanceIdx] == HAVE_SHARED_CLASS) {
-	      m_goodPairs++;
-	    } 
-	    m_totalPairs++; 
-	  }
-	  classLists[clusterIdx].add(new Integer(i));
+  /**
+   * Finds the label set of a class string, which lists the labels of an
+   * instance separated by '_'
+   *
+   * @param classList the value of the class attribute
+   * @param labelIndices maps each label to its index
+   * @param labelSets maps each class string to its label set
+   * @param subsetIndices maps the signature of each subset of labels to its index
+   * @return the label set
+   */
+  protected LabelSet getLabelSet(String classList, HashMap labelIndices,
+				 HashMap labelSets, HashMap subsetIndices) {
+    LabelSet labelSet = (LabelSet) labelSets.get(classList);
+    if (labelSet != null) {
+      return labelSet;
+    }
+    TreeSet labels = new TreeSet();
+    StringTokenizer tokenizer = new StringTokenizer(classList, "_");
+    while (tokenizer.hasMoreTokens()) {
+      String label = tokenizer.nextToken();
+      Integer index = (Integer) labelIndices.get(label);
+      if (index == null) {
+	index = new Integer(labelIndices.size());
+	labelIndices.put(label, index);
+      }
+      labels.add(index);
+    }
+    int [] sortedLabels = new int[labels.size()];
+    Iterator iterator = labels.iterator();
+    for (int j = 0; j < sortedLabels.length; j++) {
+      sortedLabels[j] = ((Integer) iterator.next()).intValue();
+    }
+    if (sortedLabels.length > 30) {
+      throw new IllegalArgumentException("Too many labels for pairwise evaluation: "
+					 + classList);
+    }
+
+    // the signature of a subset lists its label indices in increasing order
+    int numSubsets = (1 << sortedLabels.length) - 1;
+    labelSet = new LabelSet(numSubsets);
+    for (int mask = 1; mask <= numSubsets; mask++) {
+      StringBuffer signature = new StringBuffer();
+      int size = 0;
+      for (int j = 0; j < sortedLabels.length; j++) {
+	if ((mask & (1 << j)) != 0) {
+	  signature.append(sortedLabels[j]).append(' ');
+	  size++;
 	}
       }
-    } 
+      String key = signature.toString();
+      Integer index = (Integer) subsetIndices.get(key);
+      if (index == null) {
+	index = new Integer(subsetIndices.size());
+	subsetIndices.put(key, index);
+      }
+      labelSet.m_subsets[mask - 1] = index.intValue();
+      labelSet.m_signs[mask - 1] = (size % 2 == 1) ? 1 : -1;
+    }
+    labelSets.put(classList, labelSet);
+    return labelSet;
+  }
+
+  /**
+   * The nonempty subsets of the labels of a distinct class string
+   */
+  protected static class LabelSet {
+    /** The indices of the subsets */
+    protected int [] m_subsets;
+
+    /** +1 for subsets with an odd number of labels, -1 otherwise */
+    protected int [] m_signs;
+
+    protected LabelSet(int numSubsets) {
+      m_subsets = new int[numSubsets];
+      m_signs = new int[numSubsets];
+    }
+
+    /**
+     * Counts the instances added to a group that share a label with an
+     * instance of this label set.
+     *
+     * @param counts the counters of the groups
+     * @param group the group
+     * @return the number of instances sharing a label
+     */
+    protected long numSharing(HashMap counts, int group) {
+      long shared = 0;
+      for (int k = 0; k < m_subsets.length; k++) {
+	shared += m_signs[k] * getCount(counts, group, m_subsets[k])[0];
+      }
+      return shared;
+    }
+
+    /**
+     * Adds an instance of this label set to a group.
+     *
+     * @param counts the counters of the groups
+     * @param group the group
+     */
+    protected void add(HashMap counts, int group) {
+      for (int k = 0; k < m_subsets.length; k++) {
+	getCount(counts, group, m_subsets[k])[0]++;
+      }
+      getCount(counts, group, -1)[0]++;
+    }
+
+    /**
+     * Gets the number of instances of a group whose labels include a
+     * subset, or of all instances of the group for subset -1.
+     */
+    protected static int [] getCount(HashMap counts, int group, int subset) {
+      Long key = new Long(((long) group << 32) | (subset & 0xffffffffL));
+      int [] count = (int []) counts.get(key);
+      if (count == null) {
+	count = new int[1];
+	counts.put(key, count);
+      }
+      return count;
+    }
   }
 
   /**
@@ -0,0 +1,188 @@
+/*
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+/*
+ *    SparseDistanceMatrix.java
+ *    Distances between selected pairs of objects
+ *
+ */
+
+package weka.clusterers;
+
+import java.util.Arrays;
+
+/**
+ * Stores only the distances that differ from a default value, e.g.
+ * those of the candidate pairs found by blocking.  Pairs are kept in
+ * an open-addressing hash table with primitive long keys and linear
+ * probing, so memory grows with the number of stored pairs rather
+ * than with the square of the number of objects, and no objects are
+ * created per pair.  Every object also keeps the list of the objects
+ * it has a stored pair with, so that agglomerative clusterers can visit
+ * the stored pairs of a cluster without looking at all other clusters.
+ */
+public class SparseDistanceMatrix extends DistanceMatrix {
+  /** Marks an empty slot of the table */
+  protected static final long EMPTY = -1L;
+
+  /** The largest fraction of slots that can be occupied */
+  protected static final double MAX_LOAD = 0.5;
+
+  /** The distance of pairs that are not stored */
+  protected double m_defaultValue;
+
+  /** Pair keys ((long) i << 32 | j with i < j) and their distances */
+  protected long[] m_keys;
+  protected double[] m_values;
+
+  /** The number of stored pairs */
+  protected int m_numStored = 0;
+
+  /** For every object, the objects it has a stored pair with, in the
+   * order the pairs were stored; rows are allocated on demand */
+  protected int[][] m_neighbors;
+  protected int[] m_numNeighbors;
+
+  /** Create a matrix where all distances equal a default value
+   * @param size the number of objects
+   * @param defaultValue the distance of the pairs that are not stored
+   */
+  public SparseDistanceMatrix(int size, double defaultValue) {
+    this(size, defaultValue, 16);
+  }
+
+  /** Create a matrix where all distances equal a default value
+   * @param size the number of objects
+   * @param defaultValue the distance of the pairs that are not stored
+   * @param expectedPairs the expected number of pairs to be stored
+   */
+  public SparseDistanceMatrix(int size, double defaultValue, int expectedPairs) {
+    super(size);
+    m_defaultValue = defaultValue;
+    int capacity = 16;
+    while (capacity * MAX_LOAD < expectedPairs) {
+      capacity *= 2;
+    }
+    m_keys = new long[capacity];
+    m_values = new double[capacity];
+    Arrays.fill(m_keys, EMPTY);
+    m_neighbors = new int[size][];
+    m_numNeighbors = new int[size];
+  }
+
+  /** Get the distance of the pairs that are not stored */
+  public double getDefaultValue() {
+    return m_defaultValue;
+  }
+
+  public double get(int i, int j) {
+    if (i == j) {
+      return 0;
+    }
+    int slot = findSlot(key(i, j));
+    return (m_keys[slot] == EMPTY) ? m_defaultValue : m_values[slot];
+  }
+
+  public void set(int i, int j, double distance) {
+    if (i == j) {
+      return;
+    }
+    long key = key(i, j);
+    int slot = findSlot(key);
+    if (m_keys[slot] == EMPTY) {
+      if (distance == m_defaultValue) {
+	return;
+      }
+      if (m_numStored + 1 > m_keys.length * MAX_LOAD) {
+	grow();
+	slot = findSlot(key);
+      }
+      m_keys[slot] = key;
+      m_numStored++;
+      addNeighbor(i, j);
+      addNeighbor(j, i);
+    }
+    m_values[slot] = distance;
+  }
+
+  public long numStored() {
+    return m_numStored;
+  }
+
+  /** Is the distance between two objects stored?  A stored distance
+   * stays stored even if it is later set to the default value. */
+  public boolean isStored(int i, int j) {
+    return i != j && m_keys[findSlot(key(i, j))] != EMPTY;
+  }
+
+  /** Get the number of objects an object has a stored pair with */
+  public int numNeighbors(int i) {
+    return m_numNeighbors[i];
+  }
+
+  /** Get the k-th object an object has a stored pair with
+   * @param i the object
+   * @param k the position in its list, 0..numNeighbors(i)-1
+   */
+  public int neighbor(int i, int k) {
+    return m_neighbors[i][k];
+  }
+
+  /** Append an object to the neighbor list of another */
+  protected void addNeighbor(int i, int j) {
+    int[] row = m_neighbors[i];
+    if (row == null) {
+      row = m_neighbors[i] = new int[4];
+    } else if (m_numNeighbors[i] == row.length) {
+      int[] newRow = new int[2 * row.length];
+      System.arraycopy(row, 0, newRow, 0, row.length);
+      row = m_neighbors[i] = newRow;
+    }
+    row[m_numNeighbors[i]++] = j;
+  }
+
+  /** The key of an unordered pair */
+  protected static long key(int i, int j) {
+    return (i < j) ? (((long) i) << 32 | j) : (((long) j) << 32 | i);
+  }
+
+  /** Find the slot holding a key, or the empty slot where it belongs */
+  protected int findSlot(long key) {
+    int mask = m_keys.length - 1;
+    long hash = key * 0x9E3779B97F4A7C15L;
+    int slot = (int) (hash ^ (hash >>> 32)) & mask;
+    while (m_keys[slot] != EMPTY && m_keys[slot] != key) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  /** Double the capacity of the table */
+  protected void grow() {
+    long[] oldKeys = m_keys;
+    double[] oldValues = m_values;
+    m_keys = new long[2 * oldKeys.length];
+    m_values = new double[2 * oldValues.length];
+    Arrays.fill(m_keys, EMPTY);
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != EMPTY) {
+	int slot = findSlot(oldKeys[i]);
+	m_keys[slot] = oldKeys[i];
+	m_values[slot] = oldValues[i];
+      }
+    }
+  }
+}
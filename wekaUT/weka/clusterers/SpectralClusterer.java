@@ -32,6 +32,8 @@ import cern.jet.math.*;
 
 import weka.*;
 import weka.core.*;
+import weka.core.metrics.Euclidean;
+import weka.core.metrics.VPTree;
 import weka.clusterers.*;
 
 import java.util.*;
@@ -86,7 +88,19 @@ import java.util.*;
  * -M <br>
  * Requires the use of sparse representation of similarity matrices.
  * </li>
+ * <li>
+ * -K &lt;0 or a positive number&gt; <br>
+ * Specifies the number of nearest neighbors of each point in the similarity
+ * graph. 0 uses the full similarity matrix.
+ * </li>
  * </ul>
+ * <p>With a positive number of neighbors <var>k</var> each point is only
+ * similar to its <var>k</var> nearest neighbors (and to the points it is one
+ * of the <var>k</var> nearest neighbors of), which are found with a
+ * vantage-point tree. The graph is stored by rows, and the eigenvector of each
+ * bisection is computed by the Lanczos method, which only needs products of the
+ * graph with a vector, so that memory and time grow with <var>n k</var> instead
+ * of <var>n</var>^2 and <var>n</var>^3.</p>
  * <p>This implementation relies on the COLT numeric package for Java written by
  * Wolfgang Hoschek. For other information about COLT see its home
  * page at
@@ -159,6 +173,32 @@ public class SpectralClusterer extends Clusterer implements OptionHandler {
    */
   protected boolean useSparseMatrix = false;
 
+  /**
+   * The number of nearest neighbors of each point in the similarity graph,
+   * 0 for the full similarity matrix
+   */
+  protected int numOfNeighbors = 0;
+
+  /**
+   * The index over the points of the dataset, with their positions, when
+   * the similarity graph is built from nearest neighbors
+   */
+  protected VPTree index = null;
+  protected IdentityHashMap positions = null;
+
+  /**
+   * The number of Lanczos vectors built before each restart
+   */
+  protected static final int LANCZOS_VECTORS = 30;
+  /**
+   * The maximum number of Lanczos restarts
+   */
+  protected static final int LANCZOS_RESTARTS = 100;
+  /**
+   * The relative residual at which an eigenvector is accepted
+   */
+  protected static final double LANCZOS_TOLERANCE = 1e-6;
+
   protected static Vector options = new Vector();
   /**
    * The static initializer sets up the options vector
@@ -168,6 +208,7 @@ public class SpectralClusterer extends Clusterer implements OptionHandler {
     options.addElement(new Option("\tSigma. (default = 1.0).", "S", 1, "-S <num>"));
     options.addElement(new Option("\tR. All points that are far away more than this value have a zero similarity. (default = -1).", "R", 1, "-R <num>"));
     options.addElement(new Option("\tUse sparse matrix representation. (default = false).", "M", 0, "-M"));
+    options.addElement(new Option("\tK. Number of nearest neighbors of each point in the similarity graph, 0 for all points. (default = 0).", "K", 1, "-K <num>"));
   }
 
   /**
@@ -399,6 +440,404 @@ public class SpectralClusterer extends Clusterer implements OptionHandler {
     }
   }
 
+  /**
+   * A symmetric weight matrix stored by rows: the columns and the weights
+   * of the non-zero elements of row <var>i</var> are in positions
+   * <tt>start[i]</tt> to <tt>start[i + 1] - 1</tt>.
+   */
+  protected static class SparseGraph {
+    protected int[] start;
+    protected int[] columns;
+    protected double[] weights;
+
+    protected int size() {
+      return start.length - 1;
+    }
+
+    /**
+     * Returns the subgraph induced by a set of points.
+     *
+     * @param points the points of the subgraph
+     * @return the subgraph, whose point i is points[i]
+     */
+    protected SparseGraph subgraph(int[] points) {
+      int[] map = new int[size()];
+      java.util.Arrays.fill(map, -1);
+      for(int i = 0; i < points.length; i++)
+        map[points[i]] = i;
+      SparseGraph g = new SparseGraph();
+      g.start = new int[points.length + 1];
+      for(int i = 0; i < points.length; i++) {
+        int count = 0;
+        for(int j = start[points[i]]; j < start[points[i] + 1]; j++)
+          if(map[columns[j]] != -1)
+            count++;
+        g.start[i + 1] = g.start[i] + count;
+      }
+      g.columns = new int[g.start[points.length]];
+      g.weights = new double[g.columns.length];
+      int current = 0;
+      for(int i = 0; i < points.length; i++)
+        for(int j = start[points[i]]; j < start[points[i] + 1]; j++)
+          if(map[columns[j]] != -1) {
+            g.columns[current] = map[columns[j]];
+            g.weights[current++] = weights[j];
+          }
+      return g;
+    }
+  }
+
+  /**
+   * Returns the normalized cut between a partition of a sparse graph and the
+   * remaining points.
+   *
+   * @param W the graph
+   * @param a the points of the partition
+   * @return the normalized cut
+   */
+  protected static double Ncut(SparseGraph W, int[] a) {
+    boolean[] inA = new boolean[W.size()];
+    for(int i = 0; i < a.length; i++)
+      inA[a[i]] = true;
+    double assoA = 0, assoB = 0, cut = 0;
+    for(int i = 0; i < inA.length; i++)
+      for(int j = W.start[i]; j < W.start[i + 1]; j++) {
+        if(inA[i] != inA[W.columns[j]])
+          cut += W.weights[j];
+        if(inA[i])
+          assoA += W.weights[j];
+        else
+          assoB += W.weights[j];
+      }
+    return cut / assoA + cut / assoB;
+  }
+
+  /**
+   * Computes the eigenvector of <tt>D^(-1/2) * W * D^(-1/2)</tt> associated
+   * with its second largest eigenvalue, that is the eigenvector z_2 of
+   * <tt>D^(-1/2) * (D - W) * D^(-1/2)</tt>, by the Lanczos method with full
+   * reorthogonalization and thick restarts: each restart keeps the Ritz
+   * vectors of the largest Ritz values, so that eigenvalues close to the
+   * wanted one, as those of well separated clusters, do not stall the
+   * convergence. The eigenvector of the largest eigenvalue,
+   * <tt>D^(1/2) * 1</tt>, is projected out of every vector, and the identity is
+   * added to the matrix so that the wanted eigenvalue is the largest one in
+   * absolute value.
+   *
+   * @param W the graph
+   * @param d_minus_1_2 the diagonal of D^(-1/2)
+   * @return the eigenvector z_2
+   */
+  protected static double[] lanczos(SparseGraph W, double[] d_minus_1_2) {
+    int n = W.size();
+    double[] z_1 = new double[n];
+    for(int i = 0; i < n; i++)
+      z_1[i] = 1 / d_minus_1_2[i];
+    scale(z_1, 1 / Math.sqrt(dot(z_1, z_1)));
+
+    int m = Math.min(LANCZOS_VECTORS, n - 1);
+    int keep = m / 3;
+    // q holds an orthonormal basis and T = q' * A * q
+    double[][] q = new double[m + 1][];
+    double[][] T = new double[m][m];
+    Random random = new Random(1);
+    double[] x = new double[n];
+    for(int i = 0; i < n; i++)
+      x[i] = random.nextDouble() - 0.5;
+    addMultiple(x, z_1, - dot(x, z_1));
+    scale(x, 1 / Math.sqrt(dot(x, x)));
+    q[0] = x;
+
+    int kept = 0;
+    for(int restart = 0; restart < LANCZOS_RESTARTS; restart++) {
+      int steps = m;
+      double beta = 0;
+      for(int j = kept; j < m; j++) {
+        // w = (D^(-1/2) * W * D^(-1/2) + I) * q_j
+        double[] w = new double[n];
+        double[] q_j = q[j];
+        for(int i = 0; i < n; i++) {
+          double sum = 0;
+          for(int l = W.start[i]; l < W.start[i + 1]; l++)
+            sum += W.weights[l] * d_minus_1_2[W.columns[l]] * q_j[W.columns[l]];
+          w[i] = sum * d_minus_1_2[i] + q_j[i];
+        }
+        // Full reorthogonalization, twice is enough
+        for(int pass = 0; pass < 2; pass++) {
+          addMultiple(w, z_1, - dot(w, z_1));
+          for(int i = 0; i <= j; i++) {
+            double h = dot(w, q[i]);
+            addMultiple(w, q[i], - h);
+            T[i][j] += h;
+          }
+        }
+        for(int i = 0; i < j; i++)
+          T[j][i] = T[i][j];
+        beta = Math.sqrt(dot(w, w));
+        if(beta <= 1e-12 * Math.abs(T[j][j])) {
+          // The vectors span an invariant subspace
+          steps = j + 1;
+          beta = 0;
+          break;
+        }
+        scale(w, 1 / beta);
+        q[j + 1] = w;
+      }
+
+      // The Ritz vectors come from the eigenvectors of T, largest first
+      DoubleMatrix2D t = DoubleFactory2D.dense.make(steps, steps);
+      for(int i = 0; i < steps; i++)
+        for(int j = 0; j < steps; j++)
+          t.set(i, j, T[i][j]);
+      EigenvalueDecomposition e = new EigenvalueDecomposition(t);
+      double[] theta = e.getRealEigenvalues().toArray();
+      DoubleMatrix2D S = e.getV();
+      int[] order = Utils.sort(theta);
+      int best = order[steps - 1];
+      double residual = Math.abs(beta * S.get(steps - 1, best));
+      if(beta == 0 || residual <= LANCZOS_TOLERANCE * Math.abs(theta[best])
+         || restart == LANCZOS_RESTARTS - 1) {
+        x = new double[n];
+        for(int j = 0; j < steps; j++)
+          addMultiple(x, q[j], S.get(j, best));
+        break;
+      }
+
+      // Restarts from the Ritz vectors of the largest Ritz values and the
+      // last Lanczos vector
+      kept = Math.min(keep, steps - 1);
+      double[][] y = new double[kept][];
+      for(int k = 0; k < kept; k++) {
+        int c = order[steps - 1 - k];
+        y[k] = new double[n];
+        for(int j = 0; j < steps; j++)
+          addMultiple(y[k], q[j], S.get(j, c));
+        java.util.Arrays.fill(T[k], 0);
+        T[k][k] = theta[c];
+      }
+      for(int k = kept; k < m; k++)
+        java.util.Arrays.fill(T[k], 0);
+      double[] last = q[steps];
+      for(int j = 0; j <= m; j++)
+        q[j] = null;
+      for(int k = 0; k < kept; k++)
+        q[k] = y[k];
+      q[kept] = last;
+    }
+    return x;
+  }
+
+  protected static double dot(double[] x, double[] y) {
+    double sum = 0;
+    for(int i = 0; i < x.length; i++)
+      sum += x[i] * y[i];
+    return sum;
+  }
+
+  /** x = x + c * y */
+  protected static void addMultiple(double[] x, double[] y, double c) {
+    for(int i = 0; i < x.length; i++)
+      x[i] += c * y[i];
+  }
+
+  protected static void scale(double[] x, double c) {
+    for(int i = 0; i < x.length; i++)
+      x[i] *= c;
+  }
+
+  /**
+   * Returns the best cut of a sparse graph, as bestCut(DoubleMatrix2D) does.
+   * The normalized cut of every splitting point is updated from the previous
+   * one, so the search is linear in the number of edges.
+   *
+   * @param W the graph
+   * @return an array of two elements, each of these contains the points of a
+   * partition
+   */
+  protected static int[][] bestCut(SparseGraph W) {
+    int n = W.size();
+    // Builds D and D^(-1/2) (represented as their diagonals)
+    double[] d = new double[n];
+    double[] d_minus_1_2 = new double[n];
+    double total = 0;
+    for(int i = 0; i < n; i++) {
+      for(int j = W.start[i]; j < W.start[i + 1]; j++)
+        d[i] += W.weights[j];
+      d_minus_1_2[i] = 1 / Math.sqrt(d[i]);
+      total += d[i];
+    }
+
+    // y_2 = D^(-1/2) * z_2
+    double[] y_2 = lanczos(W, d_minus_1_2);
+    for(int i = 0; i < n; i++)
+      y_2[i] *= d_minus_1_2[i];
+
+    // The array v contains all the elements of the graph ordered by their
+    // projection on vector y_2
+    int[] v = Utils.sort(y_2);
+    boolean[] inA = new boolean[n];
+    double assoA = 0, cut = 0;
+    double best_cut = Double.POSITIVE_INFINITY;
+    int best_i = 1;
+    // For each admissible splitting point i, moves the (i-1)-th element from
+    // the second partition to the first one
+    for(int i = 1; i < n; i++) {
+      int u = v[i - 1];
+      inA[u] = true;
+      assoA += d[u];
+      for(int j = W.start[u]; j < W.start[u + 1]; j++)
+        if(W.columns[j] != u)
+          cut += inA[W.columns[j]] ? - W.weights[j] : W.weights[j];
+      double ncut = cut / assoA + cut / (total - assoA);
+      if(ncut < best_cut) {
+        best_cut = ncut;
+        best_i = i;
+      }
+    }
+    int[][] partition = new int[2][];
+    partition[0] = new int[best_i];
+    partition[1] = new int[n - best_i];
+    System.arraycopy(v, 0, partition[0], 0, best_i);
+    System.arraycopy(v, best_i, partition[1], 0, n - best_i);
+    return partition;
+  }
+
+  /**
+   * Splits recursively the points of a sparse graph, as
+   * partition(DoubleMatrix2D, double) does.
+   *
+   * @param W the graph
+   * @param alpha_star the alpha star factor
+   * @return an array of sets of points (partitions)
+   */
+  protected static int[][] partition(SparseGraph W, double alpha_star) {
+    if(W.size() == 1) {
+      int[][] p = new int[1][1];
+      p[0][0] = 0;
+      return p;
+    }
+    int[][] cut = bestCut(W);
+    if(Ncut(W, cut[0]) < alpha_star) {
+      SparseGraph W0 = W.subgraph(cut[0]);
+      SparseGraph W1 = W.subgraph(cut[1]);
+      W = null;
+      int[][] p0 = partition(W0, alpha_star);
+      W0 = null;
+      int[][] p1 = partition(W1, alpha_star);
+      int[][] p = new int[p0.length + p1.length][];
+      for(int i = 0; i < p0.length; i++) {
+        p[i] = new int[p0[i].length];
+        for(int j = 0; j < p0[i].length; j++)
+          p[i][j] = cut[0][p0[i][j]];
+      }
+      for(int i = 0; i < p1.length; i++) {
+        p[i + p0.length] = new int[p1[i].length];
+        for(int j = 0; j < p1[i].length; j++)
+          p[i + p0.length][j] = cut[1][p1[i][j]];
+      }
+      return p;
+    } else {
+      int[][] p = new int[1][W.size()];
+      for(int i = 0; i < p[0].length; i++)
+        p[0][i] = i;
+      return p;
+    }
+  }
+
+  /**
+   * Builds the similarity graph in which each point is linked to its
+   * numOfNeighbors nearest neighbors and to itself, symmetrized so that
+   * two points are linked when either is a neighbor of the other.
+   *
+   * @param data the points
+   * @return the graph
+   * @exception Exception if the neighbors cannot be found
+   */
+  protected SparseGraph neighborGraph(Instances data) throws Exception {
+    int n = data.numInstances();
+    double sigma_sq = sigma * sigma;
+    Euclidean metric = new Euclidean();
+    metric.buildMetric(data.numAttributes());
+    index = new VPTree(metric);
+    index.build(data);
+    positions = new IdentityHashMap(n);
+    for(int i = 0; i < n; i++)
+      positions.put(data.instance(i), new Integer(i));
+
+    int[][] neighbors = new int[n][];
+    double[][] sims = new double[n][];
+    int[] count = new int[n];
+    for(int i = 0; i < n; i++) {
+      VPTree.Neighbors knn = index.kNearestNeighbors(data.instance(i), numOfNeighbors,
+                                                     data.instance(i));
+      int size = 0;
+      neighbors[i] = new int[knn.size()];
+      sims[i] = new double[knn.size()];
+      for(int j = 0; j < knn.size(); j++) {
+        double dist = knn.distances[j] * knn.distances[j];
+        if((r == -1) || (dist < r)) {
+          neighbors[i][size] = ((Integer) positions.get(knn.instances[j])).intValue();
+          sims[i][size++] = Math.exp(- (dist * dist) / (2 * sigma_sq));
+        }
+      }
+      if(size < neighbors[i].length) {
+        int[] n_i = new int[size];
+        double[] s_i = new double[size];
+        System.arraycopy(neighbors[i], 0, n_i, 0, size);
+        System.arraycopy(sims[i], 0, s_i, 0, size);
+        neighbors[i] = n_i;
+        sims[i] = s_i;
+      }
+      count[i] += size + 1;
+      for(int j = 0; j < size; j++)
+        count[neighbors[i][j]]++;
+    }
+
+    // Each row gets the self loop, the neighbors of the point and the points
+    // it is a neighbor of
+    SparseGraph W = new SparseGraph();
+    int[] start = new int[n + 1];
+    for(int i = 0; i < n; i++)
+      start[i + 1] = start[i] + count[i];
+    int[] columns = new int[start[n]];
+    double[] weights = new double[start[n]];
+    int[] next = new int[n];
+    System.arraycopy(start, 0, next, 0, n);
+    for(int i = 0; i < n; i++) {
+      columns[next[i]] = i;
+      weights[next[i]++] = 1;
+      for(int j = 0; j < neighbors[i].length; j++) {
+        int l = neighbors[i][j];
+        columns[next[i]] = l;
+        weights[next[i]++] = sims[i][j];
+        columns[next[l]] = i;
+        weights[next[l]++] = sims[i][j];
+      }
+      neighbors[i] = null;
+      sims[i] = null;
+    }
+
+    // Removes the links found from both ends
+    int[] last = new int[n];
+    java.util.Arrays.fill(last, -1);
+    W.start = new int[n + 1];
+    int current = 0;
+    for(int i = 0; i < n; i++) {
+      for(int j = start[i]; j < start[i + 1]; j++)
+        if(last[columns[j]] != i) {
+          last[columns[j]] = i;
+          columns[current] = columns[j];
+          weights[current++] = weights[j];
+        }
+      W.start[i + 1] = current;
+    }
+    W.columns = new int[current];
+    W.weights = new double[current];
+    System.arraycopy(columns, 0, W.columns, 0, current);
+    System.arraycopy(weights, 0, W.weights, 0, current);
+    return W;
+  }
+
   /**
    * Returns the number of clusters found.
    *
@@ -416,6 +855,10 @@ public class SpectralClusterer extends Clusterer implements OptionHandler {
    * @return the cluster that contains the nearest point to the instance
    */
   public int clusterInstance(Instance instance) throws java.lang.Exception {
+    if(index != null) {
+      VPTree.Neighbors nearest = index.kNearestNeighbors(instance, 1, null);
+      return cluster[((Integer) positions.get(nearest.instances[0])).intValue()];
+    }
     DoubleMatrix1D u = DoubleFactory1D.dense.make(instance.toDoubleArray());
     double min_dist = Double.POSITIVE_INFINITY;
     int c = -1;
@@ -438,6 +881,19 @@ public class SpectralClusterer extends Clusterer implements OptionHandler {
   public void buildClusterer(Instances data) throws java.lang.Exception {
     int n = data.numInstances();
     int k = data.numAttributes();
+    index = null;
+    positions = null;
+    if(numOfNeighbors > 0) {
+      data = new Instances(data);
+      v = null;
+      int[][] p = partition(neighborGraph(data), alpha_star);
+      numOfClusters = p.length;
+      cluster = new int[n];
+      for(int i = 0; i < p.length; i++)
+        for(int j = 0; j < p[i].length; j++)
+          cluster[p[i][j]] = i;
+      return;
+    }
     DoubleMatrix2D w;
     if(useSparseMatrix)
       w = DoubleFactory2D.sparse.make(n, n);
@@ -505,6 +961,9 @@ public class SpectralClusterer extends Clusterer implements OptionHandler {
     if(optionString.length() != 0)
       setR(Double.parseDouble(optionString));
     setUseSparseMatrix(Utils.getFlag('M', options));
+    optionString = Utils.getOption('K', options);
+    if(optionString.length() != 0)
+      setNumOfNeighbors(Integer.parseInt(optionString));
   }
 
   /**
@@ -513,7 +972,7 @@ public class SpectralClusterer extends Clusterer implements OptionHandler {
    * @return an array of strings suitable for passing to setOptions()
    */
   public String[] getOptions() {
-    String[] options = new String[7];
+    String[] options = new String[9];
     int current = 0;
     options[current++] = "-A";
     options[current++] = "" + Double.toString(getAlphaStar());
@@ -523,6 +982,8 @@ public class SpectralClusterer extends Clusterer implements OptionHandler {
     options[current++] = "" + Double.toString(getR());
     if(getUseSparseMatrix())
       options[current++] = "-M";
+    options[current++] = "-K";
+    options[current++] = "" + getNumOfNeighbors();
     while (current < options.length)
       options[current++] = "";
     return  options;
@@ -652,6 +1113,38 @@ public class SpectralClusterer extends Clusterer implements OptionHandler {
     return "use sparse representation for similarity matrix. It can improve the memory efficiency";
   }
 
+  /**
+   * Sets the number of nearest neighbors of each point in the similarity graph.
+   *
+   * @param numOfNeighbors the new value (numOfNeighbors &gt;= 0)
+   * @exception Exception if numOfNeighbors is negative
+   */
+  public void setNumOfNeighbors(int numOfNeighbors) throws Exception {
+    if(numOfNeighbors >= 0)
+      this.numOfNeighbors = numOfNeighbors;
+    else
+      throw new Exception("the number of neighbors must be 0 or a positive number");
+  }
+
+  /**
+   * Returns the number of nearest neighbors of each point in the similarity graph.
+   *
+   * @return the number of neighbors
+   */
+  public int getNumOfNeighbors() {
+    return numOfNeighbors;
+  }
+
+  /**
+   * Returns the tip text for this property.
+   *
+   * @return tip text for this property suitable for
+   * displaying in the explorer/experimenter gui
+   */
+  public String numOfNeighborsTipText() {
+    return "set the number of nearest neighbors each point is similar to, 0 for all points. With nearest neighbors the similarity graph is sparse and the cuts are found by the Lanczos method, which scales to much larger datasets.";
+  }
+
   /**
    * Constructor.
    **/
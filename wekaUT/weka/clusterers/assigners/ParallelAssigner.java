@@ -0,0 +1,303 @@
+/*
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+/*
+ *    ParallelAssigner.java
+ *    Multi-threaded in-order assignment for K-Means
+ *
+ */
+
+package weka.clusterers.assigners;
+
+import  java.io.*;
+import  java.util.*;
+import  weka.core.*;
+import  weka.core.metrics.*;
+import  weka.clusterers.*;
+
+/**
+ * Multi-threaded version of SimpleAssigner.  Points that are not
+ * involved in any constraints do not influence each other's
+ * assignment, so they are split into contiguous blocks that are
+ * assigned by worker threads, each with its own objective
+ * accumulators.  Constrained points are then assigned sequentially in
+ * index order, which yields exactly the same assignments as
+ * SimpleAssigner.
+ *
+ * Valid options are:<p>
+ *
+ * -T <number of threads> <br>
+ * Number of worker threads, 0 for one per available processor <p>
+ *
+ * -move <max times> <br>
+ * Move points until the assignment stabilizes <p>
+ */
+public class ParallelAssigner extends MPCKMeansAssigner {
+  /** Number of worker threads; 0 means one per available processor */
+  protected int m_numThreads = 0;
+
+  /** Minimum number of points given to a single worker */
+  protected int m_minBlockSize = 1000;
+
+  /** Move points in assignment step till stabilization? */
+  protected boolean m_MovePointsTillAssignmentStabilizes = false;
+
+  /** Number of times points are moved in assignment step till stabilization */
+  protected int m_MaxTimesPointsMoved = 100;
+
+  /** Default constructors */
+  public ParallelAssigner() {
+    super();
+  }
+
+  /** Initialize with a clusterer */
+  public ParallelAssigner (MPCKMeans clusterer) {
+    super(clusterer);
+  }
+
+  /** Points are still assigned greedily one at a time */
+  public boolean isSequential() {
+    return true;
+  }
+
+  /** The main method
+   *  @return the number of points that changed assignment
+   */
+  public int assign() throws Exception {
+    int numInstances = m_clusterer.getInstances().numInstances();
+
+    // split the points into unconstrained and constrained ones
+    ConstraintIndex constraintIndex = m_clusterer.getConstraintIndex();
+    int numConstrained = 0;
+    boolean [] isConstrained = new boolean[numInstances];
+    if (m_clusterer.getSeedable()) {
+      for (int i = 0; i < numInstances; i++) {
+	if (constraintIndex.hasConstraints(i)) {
+	  isConstrained[i] = true;
+	  numConstrained++;
+	}
+      }
+    }
+    int [] freeIdxs = new int[numInstances - numConstrained];
+    int [] constrainedIdxs = new int[numConstrained];
+    for (int i = 0, f = 0, c = 0; i < numInstances; i++) {
+      if (isConstrained[i]) {
+	constrainedIdxs[c++] = i;
+      } else {
+	freeIdxs[f++] = i;
+      }
+    }
+
+    int moved = assignPass(freeIdxs, constrainedIdxs);
+
+    if (m_MovePointsTillAssignmentStabilizes) {
+      int newMoved = -1;
+      for (int t=0; t<m_MaxTimesPointsMoved && newMoved != 0; t++) { // move points till assignment stabilizes
+	m_clusterer.resetObjective();
+	newMoved = assignPass(freeIdxs, constrainedIdxs);
+	if (newMoved > 0) {
+	  System.out.println(newMoved + " points moved in t=" + t);
+	} else {
+	  break; // go out of for loop
+	}
+      }
+    }
+
+    return moved;
+  }
+
+  /** Assign all points once: free points in parallel, then constrained points in order
+   * @param freeIdxs indices of points that are not involved in any constraints
+   * @param constrainedIdxs indices of constrained points in ascending order
+   * @return the number of points that changed assignment
+   */
+  protected int assignPass(int[] freeIdxs, int[] constrainedIdxs) throws Exception {
+    int moved = 0;
+    int numThreads = getEffectiveNumThreads(freeIdxs.length);
+
+    // create the workers over contiguous blocks of free points
+    AssignerThread [] workers = new AssignerThread[numThreads];
+    int blockSize = freeIdxs.length / numThreads;
+    int remainder = freeIdxs.length % numThreads;
+    int start = 0;
+    for (int i = 0; i < numThreads; i++) {
+      int end = start + blockSize + ((i < remainder) ? 1 : 0);
+      workers[i] = new AssignerThread(freeIdxs, start, end);
+      start = end;
+    }
+
+    // the first block is processed by the current thread
+    for (int i = 1; i < numThreads; i++) {
+      workers[i].start();
+    }
+    workers[0].run();
+    for (int i = 1; i < numThreads; i++) {
+      workers[i].join();
+    }
+
+    // reduce the per-thread accumulators in block order
+    for (int i = 0; i < numThreads; i++) {
+      if (workers[i].m_error != null) {
+	throw workers[i].m_error;
+      }
+      m_clusterer.accumulateObjective(workers[i].m_objective);
+      moved += workers[i].m_moved;
+    }
+
+    // constrained points depend on their neighbors' assignments
+    for (int i = 0; i < constrainedIdxs.length; i++) {
+      moved += m_clusterer.assignInstanceToClusterWithConstraints(constrainedIdxs[i]);
+    }
+    return moved;
+  }
+
+  /** Decide how many workers to use for a given number of free points */
+  protected int getEffectiveNumThreads(int numFree) {
+    int numThreads = m_numThreads;
+    if (numThreads <= 0) {
+      numThreads = Runtime.getRuntime().availableProcessors();
+    }
+
+    if (numThreads > numFree / m_minBlockSize) {
+      numThreads = numFree / m_minBlockSize;
+    }
+    if (numThreads < 1) {
+      numThreads = 1;
+    }
+    return numThreads;
+  }
+
+  /** A worker that assigns a block of unconstrained points */
+  protected class AssignerThread extends Thread {
+    /** indices of the points and the block boundaries */
+    protected int[] m_idxs;
+    protected int m_start;
+    protected int m_end;
+
+    /** per-thread results */
+    protected double[] m_objective = new double[MPCKMeans.NUM_OBJ_COMPONENTS];
+    protected int m_moved = 0;
+    protected Exception m_error = null;
+
+    public AssignerThread(int[] idxs, int start, int end) {
+      m_idxs = idxs;
+      m_start = start;
+      m_end = end;
+    }
+
+    public void run() {
+      int [] assignments = m_clusterer.getClusterAssignments();
+      double [] bestComponents = new double[MPCKMeans.NUM_OBJ_COMPONENTS];
+      double [] currComponents = new double[MPCKMeans.NUM_OBJ_COMPONENTS];
+      try {
+	for (int i = m_start; i < m_end; i++) {
+	  int instIdx = m_idxs[i];
+	  int bestCluster = m_clusterer.findBestClusterForInstance(instIdx, bestComponents,
+								   currComponents);
+	  for (int j = 0; j < m_objective.length; j++) {
+	    m_objective[j] += bestComponents[j];
+	  }
+	  if (assignments[instIdx] != bestCluster) {
+	    assignments[instIdx] = bestCluster;
+	    m_moved++;
+	  }
+	}
+      } catch (Exception e) {
+	m_error = e;
+      }
+    }
+  }
+
+  /** Get/set the number of worker threads; 0 uses one per processor */
+  public int getNumThreads() {
+    return m_numThreads;
+  }
+  public void setNumThreads(int numThreads) {
+    m_numThreads = numThreads;
+  }
+
+  /** Get/set the minimum number of points given to one worker */
+  public int getMinBlockSize() {
+    return m_minBlockSize;
+  }
+  public void setMinBlockSize(int minBlockSize) {
+    m_minBlockSize = minBlockSize;
+  }
+
+  /**
+   * Get/Set m_MovePointsTillAssignmentStabilizes
+   * @param b truth value
+   */
+  public void setMovePointsTillAssignmentStabilizes (boolean b) {
+    this.m_MovePointsTillAssignmentStabilizes = b;
+  }
+  public boolean getMovePointsTillAssignmentStabilizes () {
+    return  m_MovePointsTillAssignmentStabilizes;
+  }
+
+  /** Get/set the number of times points can be moved */
+  public int getMaxTimesPointsMoved() {
+    return m_MaxTimesPointsMoved;
+  }
+  public void setMaxTimesPointsMoved(int  v) {
+    this.m_MaxTimesPointsMoved = v;
+  }
+
+  public void setOptions (String[] options)
+    throws Exception {
+    String optionString = Utils.getOption('T', options);
+    if (optionString.length() != 0) {
+      setNumThreads(Integer.parseInt(optionString));
+    }
+
+    for (int i = 0; i < options.length - 1; i++) {
+      if (options[i].equals("-move")) {
+	setMovePointsTillAssignmentStabilizes(true);
+	setMaxTimesPointsMoved(Integer.parseInt(options[i+1]));
+	options[i] = "";
+	options[i+1] = "";
+      }
+    }
+  }
+
+  public Enumeration listOptions () {
+    Vector newVector = new Vector(2);
+    newVector.addElement(new Option("\tNumber of worker threads (default 0 = one per processor)",
+				    "T", 1, "-T <num>"));
+    newVector.addElement(new Option("\tMove points until the assignment stabilizes",
+				    "move", 1, "-move <max times>"));
+    return newVector.elements();
+  }
+
+  public String [] getOptions ()  {
+    String[] options = new String[20];
+    int current = 0;
+
+    options[current++] = "-T";
+    options[current++] = "" + getNumThreads();
+
+    if (m_MovePointsTillAssignmentStabilizes) {
+      options[current++] = "-move";
+      options[current++] = "" + getMaxTimesPointsMoved();
+    }
+
+    while (current < options.length) {
+      options[current++] = "";
+    }
+
+    return options;
+  }
+}
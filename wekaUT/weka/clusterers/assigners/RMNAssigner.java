@@ -380,28 +380,20 @@ public class RMNAssigner extends MPCKMeansAssigner {
 	  numDiff++;
 	  
 	  // count number of constraint violations for this point
-	  HashMap instanceConstraintHash = m_clusterer.getInstanceConstraintsHash();
+	  ConstraintIndex constraintIndex = m_clusterer.getConstraintIndex();
 	  int numViolated = 0;
-	  int numTotal = 0; 
-	  Object list =  instanceConstraintHash.get(new Integer(i));
-	  if (list != null) {   // there are constraints associated with this instance
-	    ArrayList constraintList = (ArrayList) list;
-	    numTotal = constraintList.size();
-	    for (int j = 0; j < constraintList.size(); j++) {
-	      InstancePair pair = (InstancePair) constraintList.get(j);
-	      int firstIdx = pair.first;
-	      int secondIdx = pair.second;
-	      
-	      int centroidIdx = (firstIdx == i) ? clusterAssignments[firstIdx] : clusterAssignments[secondIdx];
-	      int otherIdx = (firstIdx == i) ? clusterAssignments[secondIdx] : clusterAssignments[firstIdx];
-	      
-	      // check whether the constraint is violated
-	      if (otherIdx != -1 && otherIdx < numClusters) { 
-		if (otherIdx != centroidIdx && pair.linkType == InstancePair.MUST_LINK) { 
-		  numViolated++;
-		} else if (otherIdx == centroidIdx && pair.linkType == InstancePair.CANNOT_LINK) { 
-		  numViolated++;
-		}
+	  int numTotal = constraintIndex.numConstraints(i);
+	  for (int pos = constraintIndex.getStart(i); pos < constraintIndex.getEnd(i); pos++) {
+	    int linkType = constraintIndex.getLinkType(pos);
+	    int centroidIdx = clusterAssignments[i];
+	    int otherIdx = clusterAssignments[constraintIndex.getNeighbor(pos)];
+
+	    // check whether the constraint is violated
+	    if (otherIdx != -1 && otherIdx < numClusters) {
+	      if (otherIdx != centroidIdx && linkType == InstancePair.MUST_LINK) { 
+		numViolated++;
+	      } else if (otherIdx == centroidIdx && linkType == InstancePair.CANNOT_LINK) { 
+		numViolated++;
 	      }
 	    }
 	  }
@@ -193,10 +193,6 @@ public class WeightedFFNeighborhoodInit extends MPCKMeansInitializer {
 	System.out.println("Finished building BarHillel metric!!\n\n");
       } else if (m_metric instanceof XingMetric) {
 	((XingMetric) m_metric).buildAttributeMatrix(m_Instances, m_ConstraintsHash);
-      } else if (m_metric instanceof BarHillelMetricMatlab) {
-	System.out.println("Starting building BarHillelMatlab metric ...\n\n");
-	((BarHillelMetricMatlab) m_metric).buildAttributeMatrix(m_Instances, m_ClusterAssignments);
-	System.out.println("Finished building BarHillelMatlab metric!!\n\n");
       }
     }
     
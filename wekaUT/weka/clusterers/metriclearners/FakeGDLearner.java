@@ -14,15 +14,11 @@ public class FakeGDLearner extends GDMetricLearner {
     for (int instIdx = 0; instIdx < m_instances.numInstances(); instIdx++) {
       int assignment = m_clusterAssignments[instIdx];
       if (assignment == clusterIdx || clusterIdx == -1) {
-	Object list =  m_instanceConstraintMap.get(new Integer(instIdx));
-	if (list != null) {
-	  ArrayList constraintList = (ArrayList) list;
-	  for (int i = 0; i < constraintList.size(); i++) {
-	    InstancePair pair = (InstancePair) constraintList.get(i);
-	    int firstIdx = pair.first;
-	    int secondIdx = pair.second;
-	    int otherIdx = (firstIdx == instIdx) ?
-	      m_clusterAssignments[secondIdx] : m_clusterAssignments[firstIdx];
+	if (m_constraintIndex.hasConstraints(instIdx)) {
+	  int end = m_constraintIndex.getEnd(instIdx);
+	  for (int pos = m_constraintIndex.getStart(instIdx); pos < end; pos++) {
+	    int neighborIdx = m_constraintIndex.getNeighbor(pos);
+	    int otherIdx = m_clusterAssignments[neighborIdx];
 	    if (otherIdx != -1) violatedConstraints++;
 	  }
 	}
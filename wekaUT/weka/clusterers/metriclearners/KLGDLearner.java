@@ -86,23 +86,21 @@ public class KLGDLearner extends GDMetricLearner {
 	}
 
 	// go through violated constraints
-	Object list =  m_instanceConstraintMap.get(new Integer(instIdx));
-	if (list != null) {   // there are constraints associated with this instance
-	  ArrayList constraintList = (ArrayList) list;
-	  for (int i = 0; i < constraintList.size(); i++) {
-	    InstancePair pair = (InstancePair) constraintList.get(i);
-	    int linkType = pair.linkType; 
-	    int firstIdx = pair.first;
-	    int secondIdx = pair.second;
+	if (m_constraintIndex.hasConstraints(instIdx)) {   // there are constraints associated with this instance
+	  int end = m_constraintIndex.getEnd(instIdx);
+	  for (int pos = m_constraintIndex.getStart(instIdx); pos < end; pos++) {
+	    int linkType = m_constraintIndex.getLinkType(pos);
+	    int neighborIdx = m_constraintIndex.getNeighbor(pos);
+	    int firstIdx = Math.min(instIdx, neighborIdx);
+	    int secondIdx = Math.max(instIdx, neighborIdx);
 	    Instance instance1 = m_instances.instance(firstIdx);
 	    Instance instance2 = m_instances.instance(secondIdx);
-	    int otherIdx = (firstIdx == instIdx) ? m_clusterAssignments[secondIdx]
-	      : m_clusterAssignments[firstIdx];
+	    int otherIdx = m_clusterAssignments[neighborIdx];
 
 	    // check whether the constraint is violated
 	    if (otherIdx != -1) {  
 	      if (otherIdx != assignment && linkType == InstancePair.MUST_LINK) {
-		diffInstance = ((KL) m_metric).createDiffInstanceJS(instance1, instance2);
+		diffInstance = ((KL) m_metric).createDiffInstanceJS(instance1, firstIdx, instance2, secondIdx);
 		if (diffInstance instanceof SparseInstance) {
 		  for (int l = 0; l < diffInstance.numValues(); l++) {
 		    int idx = diffInstance.index(l);
@@ -115,7 +113,7 @@ public class KLGDLearner extends GDMetricLearner {
 		}
 		violatedConstraints++; 
 	      } else if (otherIdx == assignment && linkType == InstancePair.CANNOT_LINK){
-		diffInstance = ((KL) m_metric).createDiffInstanceJS(instance1, instance2);
+		diffInstance = ((KL) m_metric).createDiffInstanceJS(instance1, firstIdx, instance2, secondIdx);
 		// Cannot link component, adjusted not to double count constraints
 		if (diffInstance instanceof SparseInstance) {
 		  for (int l = 0; l < diffInstance.numValues(); l++) {
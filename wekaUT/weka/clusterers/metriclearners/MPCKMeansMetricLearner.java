@@ -27,6 +27,7 @@ import java.util.*;
 import weka.core.*;
 import weka.core.metrics.LearnableMetric;
 import weka.clusterers.MPCKMeans;
+import weka.clusterers.ConstraintIndex;
 
 
 /** 
@@ -53,6 +54,9 @@ public abstract class MPCKMeansMetricLearner extends  MetricLearner
   /** Map from instanceIdx to a list of constraints */
   protected HashMap m_instanceConstraintMap = null;
 
+  /** Compressed constraint lists of the instances */
+  protected ConstraintIndex m_constraintIndex = null;
+
   /** Term weights */
   protected double m_MLweight = 0;
   protected double m_CLweight = 0;
@@ -82,6 +86,7 @@ public abstract class MPCKMeansMetricLearner extends  MetricLearner
     m_numAttributes = m_instances.numAttributes();
     m_clusterAssignments = m_kmeans.getClusterAssignments();
     m_instanceConstraintMap = m_kmeans.getInstanceConstraintsHash();
+    m_constraintIndex = m_kmeans.getConstraintIndex();
     m_MLweight = m_kmeans.getMustLinkWeight();
     m_CLweight = m_kmeans.getCannotLinkWeight();
     m_logTermWeight = m_kmeans.getLogTermWeight();
@@ -0,0 +1,138 @@
+/*
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+/*
+ *    RCALearner.java
+ *    Relevant Component Analysis for MPCKMeans
+ *
+ */
+
+package weka.clusterers.metriclearners; 
+
+import java.util.*;
+
+import weka.core.*;
+import weka.core.metrics.*;
+import weka.clusterers.InstancePair;
+
+import Jama.Matrix; 
+
+
+/** 
+ * Learns a WeightedMahalanobis metric with RCA: the chunklets are the
+ * connected components of the must-link constraints, restricted to
+ * the instances of the cluster whose metric is trained.
+ *
+ * @version $Revision: 1.1 $ */
+
+public class RCALearner extends MPCKMeansMetricLearner {
+
+  /** if clusterIdx is -1, all instances are used
+   * (a single metric for all clusters is used) */   
+  public boolean trainMetric(int clusterIdx) throws Exception {
+    Init(clusterIdx);
+    int numInstances = m_instances.numInstances();
+
+    // union the must-linked instances of the cluster
+    int [] parents = new int[numInstances];
+    for (int instIdx = 0; instIdx < numInstances; instIdx++) {
+      parents[instIdx] = instIdx;
+    }
+    for (int instIdx = 0; instIdx < numInstances; instIdx++) {
+      if (!inCluster(instIdx, clusterIdx)) {
+	continue;
+      }
+      int end = m_constraintIndex.getEnd(instIdx);
+      for (int pos = m_constraintIndex.getStart(instIdx); pos < end; pos++) {
+	int neighborIdx = m_constraintIndex.getNeighbor(pos);
+	if (m_constraintIndex.getLinkType(pos) == InstancePair.MUST_LINK
+	    && inCluster(neighborIdx, clusterIdx)) {
+	  parents[find(parents, instIdx)] = find(parents, neighborIdx);
+	}
+      }
+    }
+
+    // number the components with more than one instance
+    int [] sizes = new int[numInstances];
+    for (int instIdx = 0; instIdx < numInstances; instIdx++) {
+      sizes[find(parents, instIdx)]++;
+    }
+    int [] chunkletIds = new int[numInstances];
+    Arrays.fill(chunkletIds, -1);
+    int [] chunklets = new int[numInstances];
+    int numChunklets = 0;
+    for (int instIdx = 0; instIdx < numInstances; instIdx++) {
+      int root = find(parents, instIdx);
+      if (sizes[root] < 2) {
+	chunklets[instIdx] = -1;
+      } else {
+	if (chunkletIds[root] < 0) {
+	  chunkletIds[root] = numChunklets++;
+	}
+	chunklets[instIdx] = chunkletIds[root];
+      }
+    }
+
+    double [][] matrix = RCA.learnMatrix(OfflineLearnableMetric.createDataMatrix(m_instances), chunklets);
+    WeightedMahalanobis metric = (WeightedMahalanobis) m_metric;
+    metric.setWeights(new Matrix(matrix));
+
+    // project all the instances for subsequent calculation of max-points for cannot-link penalties
+    for (int instIdx = 0; instIdx < numInstances; instIdx++) {
+      if (inCluster(instIdx, clusterIdx)) { 
+	metric.projectInstance(m_instances.instance(instIdx));
+      }
+    }
+    return true; 
+  }
+
+  /** Is an instance assigned to the cluster whose metric is trained? */
+  protected boolean inCluster(int instIdx, int clusterIdx) {
+    return clusterIdx < 0 || m_clusterAssignments[instIdx] == clusterIdx;
+  }
+
+  /** Find the root of an instance's component, halving the path */
+  protected static int find(int[] parents, int instIdx) {
+    while (parents[instIdx] != instIdx) {
+      parents[instIdx] = parents[parents[instIdx]];
+      instIdx = parents[instIdx];
+    }
+    return instIdx;
+  }
+
+  /**
+   * Gets the current settings of RCALearner
+   *
+   * @return an array of strings suitable for passing to setOptions()
+   */
+  public String [] getOptions() {
+
+    String [] options = new String [1];
+
+    int current = 0;
+    while (current < options.length) {
+      options[current++] = "";
+    }
+    return options;
+  }
+
+  public void setOptions(String[] options) throws Exception {
+  }
+
+  public Enumeration listOptions() {
+    return new Vector(0).elements();
+  }
+}
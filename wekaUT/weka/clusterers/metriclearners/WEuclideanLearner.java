@@ -70,18 +70,14 @@ public class WEuclideanLearner extends  MPCKMeansMetricLearner {
 	}
 
 	// check all constraints for this instance
-	Object list =  m_instanceConstraintMap.get(new Integer(instIdx));
-	if (list != null) {   // there are constraints associated with this instance
-	  ArrayList constraintList = (ArrayList) list;
-	  for (int i = 0; i < constraintList.size(); i++) {
-	    InstancePair pair = (InstancePair) constraintList.get(i);
-	    int linkType = pair.linkType;
-	    int firstIdx = pair.first;
-	    int secondIdx = pair.second;
-	    Instance instance1 = m_instances.instance(firstIdx);
-	    Instance instance2 = m_instances.instance(secondIdx);
-	    int otherIdx = (firstIdx == instIdx) ? m_clusterAssignments[secondIdx]
-	      : m_clusterAssignments[firstIdx];
+	if (m_constraintIndex.hasConstraints(instIdx)) {   // there are constraints associated with this instance
+	  int end = m_constraintIndex.getEnd(instIdx);
+	  for (int pos = m_constraintIndex.getStart(instIdx); pos < end; pos++) {
+	    int linkType = m_constraintIndex.getLinkType(pos);
+	    int neighborIdx = m_constraintIndex.getNeighbor(pos);
+	    Instance instance1 = m_instances.instance(Math.min(instIdx, neighborIdx));
+	    Instance instance2 = m_instances.instance(Math.max(instIdx, neighborIdx));
+	    int otherIdx = m_clusterAssignments[neighborIdx];
 
 	    if (otherIdx != -1) {  // check whether the constraint is violated
 	      if (otherIdx != assignment && linkType == InstancePair.MUST_LINK) {
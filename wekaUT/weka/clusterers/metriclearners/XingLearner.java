@@ -0,0 +1,138 @@
+/*
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+/*
+ *    XingLearner.java
+ *    Xing's full-matrix metric learning for MPCKMeans
+ *
+ */
+
+package weka.clusterers.metriclearners; 
+
+import java.util.*;
+
+import weka.core.*;
+import weka.core.metrics.*;
+import weka.clusterers.InstancePair;
+
+import Jama.Matrix; 
+
+
+/** 
+ * Learns a WeightedMahalanobis metric with the algorithm of Xing et
+ * al.: must-linked pairs are the similar pairs and cannot-linked pairs
+ * the dissimilar ones, restricted to pairs within the cluster whose
+ * metric is trained. <p>
+ *
+ * Valid options are:<p>
+ *
+ * -I <iterations> <br>
+ * Maximum number of projection iterations per step (default 50) <p>
+ *
+ * @version $Revision: 1.1 $ */
+
+public class XingLearner extends MPCKMeansMetricLearner {
+  /** Maximum number of projection iterations per step */
+  protected int m_maxIter = 50;
+
+  /** if clusterIdx is -1, all instances are used
+   * (a single metric for all clusters is used) */   
+  public boolean trainMetric(int clusterIdx) throws Exception {
+    Init(clusterIdx);
+    int numInstances = m_instances.numInstances();
+
+    // every constraint is stored for both of its instances
+    ArrayList simPairs = new ArrayList();
+    ArrayList diffPairs = new ArrayList();
+    for (int instIdx = 0; instIdx < numInstances; instIdx++) {
+      if (!inCluster(instIdx, clusterIdx)) {
+	continue;
+      }
+      int end = m_constraintIndex.getEnd(instIdx);
+      for (int pos = m_constraintIndex.getStart(instIdx); pos < end; pos++) {
+	int neighborIdx = m_constraintIndex.getNeighbor(pos);
+	if (neighborIdx <= instIdx || !inCluster(neighborIdx, clusterIdx)) {
+	  continue;
+	}
+	if (m_constraintIndex.getLinkType(pos) == InstancePair.MUST_LINK) {
+	  simPairs.add(new int[] {instIdx, neighborIdx});
+	} else if (m_constraintIndex.getLinkType(pos) == InstancePair.CANNOT_LINK) {
+	  diffPairs.add(new int[] {instIdx, neighborIdx});
+	}
+      }
+    }
+
+    double [][] matrix = Xing.learnMatrix(OfflineLearnableMetric.createDataMatrix(m_instances),
+					  (int[][]) simPairs.toArray(new int[simPairs.size()][]),
+					  (int[][]) diffPairs.toArray(new int[diffPairs.size()][]),
+					  m_maxIter);
+    WeightedMahalanobis metric = (WeightedMahalanobis) m_metric;
+    metric.setWeights(new Matrix(matrix));
+
+    // project all the instances for subsequent calculation of max-points for cannot-link penalties
+    for (int instIdx = 0; instIdx < numInstances; instIdx++) {
+      if (inCluster(instIdx, clusterIdx)) { 
+	metric.projectInstance(m_instances.instance(instIdx));
+      }
+    }
+    return true; 
+  }
+
+  /** Is an instance assigned to the cluster whose metric is trained? */
+  protected boolean inCluster(int instIdx, int clusterIdx) {
+    return clusterIdx < 0 || m_clusterAssignments[instIdx] == clusterIdx;
+  }
+
+  /** Get/set the maximum number of projection iterations per step */
+  public int getMaxIterations() {
+    return m_maxIter;
+  }
+  public void setMaxIterations(int maxIter) {
+    m_maxIter = maxIter;
+  }
+
+  /**
+   * Gets the current settings of XingLearner
+   *
+   * @return an array of strings suitable for passing to setOptions()
+   */
+  public String [] getOptions() {
+
+    String [] options = new String [2];
+
+    int current = 0;
+    options[current++] = "-I";
+    options[current++] = "" + m_maxIter;
+    while (current < options.length) {
+      options[current++] = "";
+    }
+    return options;
+  }
+
+  public void setOptions(String[] options) throws Exception {
+    String optionString = Utils.getOption('I', options);
+    if (optionString.length() != 0) {
+      setMaxIterations(Integer.parseInt(optionString));
+    }
+  }
+
+  public Enumeration listOptions() {
+    Vector newVector = new Vector(1);
+    newVector.addElement(new Option("\tMaximum number of projection iterations per step (default 50)",
+				    "I", 1, "-I <iterations>"));
+    return newVector.elements();
+  }
+}
@@ -0,0 +1,248 @@
+/*
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+/*
+ *    PairHeap.java
+ *    A min-heap of scored pairs of instance indices
+ *
+ */
+
+package weka.core;
+
+import java.io.Serializable;
+import java.util.Random;
+
+/**
+ * A min-heap of scored pairs of instance indices, kept in primitive
+ * arrays so that adding a pair creates no objects.  The pair with the
+ * lowest score is at the root.<p>
+ *
+ * A bounded heap keeps the pairs with the highest scores offered so
+ * far, as a top-K similarity join needs; ties are resolved in favor of
+ * pairs with smaller indices, so that the result does not depend on
+ * the order in which pairs are offered.<p>
+ *
+ * An unbounded heap grows as pairs are added and is polled for the
+ * pair with the lowest score, as agglomerative clusterers do with
+ * distances.  If it is given a random number generator, every pair
+ * gets a random number that orders it among pairs with the same score,
+ * so the closest pair is picked randomly among ties.
+ */
+public class PairHeap implements Serializable {
+  /** The scores, tie-breaking numbers and indices of the pairs; the worst pair is at the root */
+  protected double[] m_scores;
+  protected int[] m_ties;
+  protected int[] m_firsts;
+  protected int[] m_seconds;
+
+  /** The number of pairs in the heap */
+  protected int m_size = 0;
+
+  /** Does the heap grow, rather than drop its worst pairs, when it is full? */
+  protected boolean m_growable = false;
+
+  /** The generator for the tie-breaking numbers, null to break ties by index */
+  protected Random m_random = null;
+
+  /** Create a bounded heap
+   * @param capacity the number of pairs to keep
+   */
+  public PairHeap(int capacity) {
+    m_scores = new double[capacity];
+    m_ties = new int[capacity];
+    m_firsts = new int[capacity];
+    m_seconds = new int[capacity];
+  }
+
+  /** Create an unbounded heap
+   * @param random the generator used to break ties, or null to break
+   * them by index
+   * @param expectedPairs the expected number of pairs
+   */
+  public PairHeap(Random random, int expectedPairs) {
+    this(Math.max(16, expectedPairs));
+    m_growable = true;
+    m_random = random;
+  }
+
+  /** Get the number of pairs in the heap */
+  public int size() {
+    return m_size;
+  }
+
+  /** Is the heap empty? */
+  public boolean isEmpty() {
+    return m_size == 0;
+  }
+
+  /** Is the heap at capacity? */
+  public boolean isFull() {
+    return m_size == m_scores.length;
+  }
+
+  /** Get the score of the worst pair kept */
+  public double minScore() {
+    return m_scores[0];
+  }
+
+  /** Get the first instance index of the worst pair kept */
+  public int minFirst() {
+    return m_firsts[0];
+  }
+
+  /** Get the second instance index of the worst pair kept */
+  public int minSecond() {
+    return m_seconds[0];
+  }
+
+  /**
+   * Offer a pair to the heap
+   * @param score the score of the pair
+   * @param first the index of the first instance
+   * @param second the index of the second instance
+   * @return true if the pair is kept
+   */
+  public boolean offer(double score, int first, int second) {
+    if (m_size == m_scores.length && m_growable) {
+      grow();
+    }
+    if (m_scores.length == 0) {
+      return false;
+    }
+    int tie = (m_random == null) ? 0 : m_random.nextInt();
+    if (m_size < m_scores.length) {
+      set(m_size, score, tie, first, second);
+      siftUp(m_size++);
+      return true;
+    }
+    if (!isWorse(0, score, tie, first, second)) {
+      return false;
+    }
+    set(0, score, tie, first, second);
+    siftDown(0, m_size);
+    return true;
+  }
+
+  /** Remove the worst pair */
+  public void removeMin() {
+    m_size--;
+    if (m_size > 0) {
+      set(0, m_scores[m_size], m_ties[m_size], m_firsts[m_size], m_seconds[m_size]);
+      siftDown(0, m_size);
+    }
+  }
+
+  /** Sort the pairs from the best to the worst; the heap can no longer
+   * be offered pairs afterwards */
+  public void sort() {
+    for (int end = m_size - 1; end > 0; end--) {
+      swap(0, end);
+      siftDown(0, end);
+    }
+  }
+
+  /** Get the score of the i-th pair */
+  public double getScore(int i) {
+    return m_scores[i];
+  }
+
+  /** Get the first instance index of the i-th pair */
+  public int getFirst(int i) {
+    return m_firsts[i];
+  }
+
+  /** Get the second instance index of the i-th pair */
+  public int getSecond(int i) {
+    return m_seconds[i];
+  }
+
+  /** Is the pair at position i worse than the given pair? */
+  protected boolean isWorse(int i, double score, int tie, int first, int second) {
+    if (m_scores[i] != score) {
+      return m_scores[i] < score;
+    }
+    if (m_ties[i] != tie) {
+      return m_ties[i] < tie;
+    }
+    if (m_firsts[i] != first) {
+      return m_firsts[i] > first;
+    }
+    return m_seconds[i] > second;
+  }
+
+  protected void siftUp(int i) {
+    while (i > 0) {
+      int parent = (i - 1) / 2;
+      if (!isWorse(i, m_scores[parent], m_ties[parent], m_firsts[parent], m_seconds[parent])) {
+	return;
+      }
+      swap(i, parent);
+      i = parent;
+    }
+  }
+
+  protected void siftDown(int i, int size) {
+    while (true) {
+      int worst = i;
+      int left = 2 * i + 1;
+      int right = left + 1;
+      if (left < size && isWorse(left, m_scores[worst], m_ties[worst], m_firsts[worst], m_seconds[worst])) {
+	worst = left;
+      }
+      if (right < size && isWorse(right, m_scores[worst], m_ties[worst], m_firsts[worst], m_seconds[worst])) {
+	worst = right;
+      }
+      if (worst == i) {
+	return;
+      }
+      swap(i, worst);
+      i = worst;
+    }
+  }
+
+  protected void set(int i, double score, int tie, int first, int second) {
+    m_scores[i] = score;
+    m_ties[i] = tie;
+    m_firsts[i] = first;
+    m_seconds[i] = second;
+  }
+
+  protected void swap(int i, int j) {
+    double score = m_scores[i];
+    int tie = m_ties[i];
+    int first = m_firsts[i];
+    int second = m_seconds[i];
+    set(i, m_scores[j], m_ties[j], m_firsts[j], m_seconds[j]);
+    set(j, score, tie, first, second);
+  }
+
+  /** Double the capacity of the heap */
+  protected void grow() {
+    int capacity = Math.max(16, 2 * m_scores.length);
+    double[] scores = new double[capacity];
+    int[] ties = new int[capacity];
+    int[] firsts = new int[capacity];
+    int[] seconds = new int[capacity];
+    System.arraycopy(m_scores, 0, scores, 0, m_size);
+    System.arraycopy(m_ties, 0, ties, 0, m_size);
+    System.arraycopy(m_firsts, 0, firsts, 0, m_size);
+    System.arraycopy(m_seconds, 0, seconds, 0, m_size);
+    m_scores = scores;
+    m_ties = ties;
+    m_firsts = firsts;
+    m_seconds = seconds;
+  }
+}
@@ -0,0 +1,396 @@
+/*
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+/*
+ *    BinaryInstancesLoader.java
+ *    Reads a set of instances from a memory-mapped binary file
+ *
+ */
+
+package weka.core.converters;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+
+/**
+ * Reads a set of instances written by BinaryInstancesSaver.  The file
+ * is memory-mapped read-only, so nothing is parsed: the structure is
+ * available as soon as the short header is read, instances can be
+ * fetched incrementally or by index straight from the mapped values,
+ * and several JVMs reading the same file share the operating system's
+ * page cache.  Files larger than 2GB are mapped in several segments.
+ *
+ * @version $Revision: 1.1 $
+ */
+public class BinaryInstancesLoader extends AbstractLoader
+  implements BatchLoader, IncrementalLoader {
+
+  /** The file extension of binary instance files */
+  public static final String FILE_EXTENSION = ".barff";
+
+  /** The magic number at the start of every file */
+  public static final int MAGIC = 0x42415246;
+
+  /** The version of the format */
+  public static final int VERSION = 1;
+
+  /** Every segment is mapped separately; segment boundaries are 8-byte aligned */
+  protected static final int SEGMENT_SHIFT = 30;
+  protected static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+
+  /** Holds the structure (header) of the data set */
+  protected Instances m_structure = null;
+
+  /** The mapped segments of the file */
+  protected MappedByteBuffer [] m_segments = null;
+
+  /** The number of instances and attributes */
+  protected int m_numInstances = 0;
+  protected int m_numAttributes = 0;
+
+  /** Are the values stored in compressed sparse rows? */
+  protected boolean m_sparse = false;
+
+  /** The positions of the weights (-1 if all weights are 1), the values and the indices */
+  protected long m_weightsPos = -1;
+  protected long m_valuesPos = 0;
+  protected long m_offsetsPos = 0;
+  protected long m_indicesPos = 0;
+
+  /** The current index position for incremental reading */
+  protected int m_IncrementalIndex = 0;
+
+  /** Resets the Loader ready to read a new data set */
+  public void reset() {
+
+    m_structure = null;
+    m_segments = null;
+    m_IncrementalIndex = 0;
+    setRetrieval(NONE);
+  }
+
+  /**
+   * Resets the Loader object, maps the supplied file and reads its header.
+   *
+   * @param file the source file.
+   * @exception IOException if the file cannot be read or is not a
+   * binary instance file
+   */
+  public void setSource(File file) throws IOException {
+
+    reset();
+
+    if (file == null) {
+      throw new IOException("Source file object is null!");
+    }
+    if (!file.exists()) {
+      throw new IOException("File not found");
+    }
+
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    long pos;
+    boolean unitWeights;
+    try {
+      if (in.readInt() != MAGIC) {
+	throw new IOException("Not a binary instance file: " + file);
+      }
+      int version = in.readInt();
+      if (version != VERSION) {
+	throw new IOException("Unsupported binary instance file version " + version);
+      }
+      byte [] header = new byte[in.readInt()];
+      in.readFully(header);
+      m_structure = new Instances(new StringReader(new String(header, "UTF-8")), 0);
+      m_numInstances = in.readInt();
+      m_numAttributes = in.readInt();
+      int classIndex = in.readInt();
+      m_sparse = (in.readByte() != 0);
+      unitWeights = (in.readByte() != 0);
+      pos = 4 * 6 + header.length + 2;
+
+      // restore the dictionaries of the string attributes
+      for (int j = 0; j < m_numAttributes; j++) {
+	Attribute attribute = m_structure.attribute(j);
+	if (attribute.isString()) {
+	  int numValues = in.readInt();
+	  pos += 4;
+	  for (int v = 0; v < numValues; v++) {
+	    byte [] value = new byte[in.readInt()];
+	    in.readFully(value);
+	    attribute.addStringValue(new String(value, "UTF-8"));
+	    pos += 4 + value.length;
+	  }
+	}
+      }
+      m_structure.setClassIndex(classIndex);
+    } finally {
+      in.close();
+    }
+    pos = (pos + 7) / 8 * 8;
+
+    if (!unitWeights) {
+      m_weightsPos = pos;
+      pos += 8L * m_numInstances;
+    }
+    if (!m_sparse) {
+      m_valuesPos = pos;
+    } else {
+      m_offsetsPos = pos;
+      m_valuesPos = m_offsetsPos + 8L * (m_numInstances + 1);
+    }
+
+    // map the file read-only so that the pages are shared between processes
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      FileChannel channel = raf.getChannel();
+      long size = channel.size();
+      int numSegments = (int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+      m_segments = new MappedByteBuffer[numSegments];
+      for (int s = 0; s < numSegments; s++) {
+	long start = s * SEGMENT_SIZE;
+	m_segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+				    Math.min(SEGMENT_SIZE, size - start));
+      }
+    } finally {
+      raf.close();
+    }
+    if (m_sparse) {
+      m_indicesPos = m_valuesPos + 8L * getLong(m_offsetsPos + 8L * m_numInstances);
+    }
+  }
+
+  /**
+   * Determines and returns the structure (internally the header) of
+   * the data set as an empty set of instances.
+   *
+   * @return the structure of the data set as an empty set of Instances
+   * @exception IOException if no source has been specified
+   */
+  public Instances getStructure() throws IOException {
+
+    if (m_structure == null) {
+      throw new IOException("No source has been specified");
+    }
+    return new Instances(m_structure, 0);
+  }
+
+  /**
+   * Return the full data set.  Dense data is read one column at a time.
+   *
+   * @return the data set
+   * @exception IOException if there is no source
+   */
+  public Instances getDataSet() throws IOException {
+
+    if (m_structure == null) {
+      throw new IOException("No source has been specified");
+    }
+    if (getRetrieval() == INCREMENTAL) {
+      throw new IOException("Cannot mix getting Instances in both incremental and batch modes");
+    }
+    setRetrieval(BATCH);
+
+    Instances data = new Instances(m_structure, m_numInstances);
+    if (!m_sparse) {
+      double [][] rows = new double[m_numInstances][m_numAttributes];
+      double [] column = new double[m_numInstances];
+      for (int j = 0; j < m_numAttributes; j++) {
+	readDoubles(m_valuesPos + 8L * j * m_numInstances, column, m_numInstances);
+	for (int i = 0; i < m_numInstances; i++) {
+	  rows[i][j] = column[i];
+	}
+      }
+      for (int i = 0; i < m_numInstances; i++) {
+	data.add(new Instance(getWeight(i), rows[i]));
+	rows[i] = null;
+      }
+    } else {
+      for (int i = 0; i < m_numInstances; i++) {
+	data.add(instance(i));
+      }
+    }
+    return data;
+  }
+
+  /**
+   * Read the data set incrementally---get the next instance in the data
+   * set or returns null if there are no more instances to get.
+   *
+   * @return the next instance in the data set as an Instance object or null
+   * if there are no more instances to be read
+   * @exception IOException if there is no source
+   */
+  public Instance getNextInstance() throws IOException {
+
+    if (m_structure == null) {
+      throw new IOException("No source has been specified");
+    }
+    if (getRetrieval() == BATCH) {
+      throw new IOException("Cannot mix getting Instances in both incremental and batch modes");
+    }
+    setRetrieval(INCREMENTAL);
+
+    if (m_IncrementalIndex == m_numInstances) {
+      return null;
+    }
+    Instance current = instance(m_IncrementalIndex++);
+    current.setDataset(m_structure);
+    return current;
+  }
+
+  /**
+   * Get the number of instances in the file.
+   *
+   * @return the number of instances
+   */
+  public int numInstances() {
+    return m_numInstances;
+  }
+
+  /**
+   * Read an instance by its index, independently of the retrieval mode.
+   * The instance does not belong to any dataset.
+   *
+   * @param index the index of the instance
+   * @return the instance
+   * @exception IOException if there is no source
+   */
+  public Instance getInstance(int index) throws IOException {
+
+    if (m_structure == null) {
+      throw new IOException("No source has been specified");
+    }
+    return instance(index);
+  }
+
+  /**
+   * Read all values of an attribute straight from the mapped file.
+   *
+   * @param attIndex the index of the attribute
+   * @return the values of the attribute for every instance
+   * @exception IOException if there is no source
+   */
+  public double[] attributeToDoubleArray(int attIndex) throws IOException {
+
+    if (m_structure == null) {
+      throw new IOException("No source has been specified");
+    }
+    double [] values = new double[m_numInstances];
+    if (!m_sparse) {
+      readDoubles(m_valuesPos + 8L * attIndex * m_numInstances, values, m_numInstances);
+    } else {
+      for (int i = 0; i < m_numInstances; i++) {
+	values[i] = instance(i).value(attIndex);
+      }
+    }
+    return values;
+  }
+
+  /** Decode an instance */
+  protected Instance instance(int index) {
+
+    if (!m_sparse) {
+      double [] values = new double[m_numAttributes];
+      long pos = m_valuesPos + 8L * index;
+      for (int j = 0; j < m_numAttributes; j++) {
+	values[j] = getDouble(pos);
+	pos += 8L * m_numInstances;
+      }
+      return new Instance(getWeight(index), values);
+    }
+
+    long start = getLong(m_offsetsPos + 8L * index);
+    int numValues = (int) (getLong(m_offsetsPos + 8L * (index + 1)) - start);
+    double [] values = new double[numValues];
+    int [] indices = new int[numValues];
+    readDoubles(m_valuesPos + 8 * start, values, numValues);
+    for (int p = 0; p < numValues; p++) {
+      indices[p] = getInt(m_indicesPos + 4 * (start + p));
+    }
+    return new SparseInstance(getWeight(index), values, indices, m_numAttributes);
+  }
+
+  /** Get the weight of an instance */
+  protected double getWeight(int index) {
+    return (m_weightsPos < 0) ? 1 : getDouble(m_weightsPos + 8L * index);
+  }
+
+  /** Read primitives at a position in the file; they never straddle
+   * segments, since they are aligned to their size */
+  protected double getDouble(long pos) {
+    return m_segments[(int) (pos >>> SEGMENT_SHIFT)].getDouble((int) (pos & (SEGMENT_SIZE - 1)));
+  }
+  protected long getLong(long pos) {
+    return m_segments[(int) (pos >>> SEGMENT_SHIFT)].getLong((int) (pos & (SEGMENT_SIZE - 1)));
+  }
+  protected int getInt(long pos) {
+    return m_segments[(int) (pos >>> SEGMENT_SHIFT)].getInt((int) (pos & (SEGMENT_SIZE - 1)));
+  }
+
+  /** Bulk-read consecutive doubles starting at a position in the file */
+  protected void readDoubles(long pos, double[] values, int count) {
+    int done = 0;
+    while (done < count) {
+      int segment = (int) (pos >>> SEGMENT_SHIFT);
+      int offset = (int) (pos & (SEGMENT_SIZE - 1));
+      ByteBuffer buffer = m_segments[segment].duplicate();
+      buffer.position(offset);
+      int chunk = Math.min(count - done, buffer.remaining() / 8);
+      buffer.asDoubleBuffer().get(values, done, chunk);
+      done += chunk;
+      pos += 8L * chunk;
+    }
+  }
+
+  /**
+   * Main method.
+   *
+   * @param args should contain the name of an input file.
+   */
+  public static void main(String [] args) {
+
+    if (args.length > 0) {
+      try {
+	BinaryInstancesLoader lo = new BinaryInstancesLoader();
+	lo.setSource(new File(args[0]));
+	System.out.println(lo.getStructure());
+	Instance temp;
+	do {
+	  temp = lo.getNextInstance();
+	  if (temp != null) {
+	    System.out.println(temp);
+	  }
+	} while (temp != null);
+      } catch (Exception ex) {
+	ex.printStackTrace();
+      }
+    } else {
+      System.err.println("Usage:\n\tBinaryInstancesLoader <file" + FILE_EXTENSION + ">\n");
+    }
+  }
+}
@@ -0,0 +1,221 @@
+/*
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+/*
+ *    BinaryInstancesSaver.java
+ *    Writes a set of instances in the binary columnar format
+ *
+ */
+
+package weka.core.converters;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SparseInstance;
+
+/**
+ * Writes a set of instances in the binary format read by
+ * BinaryInstancesLoader.  After a small header with the ARFF
+ * declaration of the attributes and the dictionaries of the string
+ * attributes, the values are stored either column by column (dense
+ * data) or in compressed sparse rows (sparse data), so that the loader
+ * can map the file and read the values without any parsing.  Nominal
+ * and string values are stored as indices into the attribute values.
+ * The data is written sparse if its first instance is a SparseInstance.
+ * <p>
+ *
+ * The layout of the file is (all numbers are big-endian): <p>
+ * <code><pre>
+ * int      magic number, format version
+ * int      length of the header, followed by the UTF-8 ARFF header
+ * int      number of instances, number of attributes, class index
+ * byte     sparse flag, unit weights flag
+ * for every string attribute:
+ *   int    number of values, followed by the values, each as an
+ *          int length and UTF-8 bytes
+ * padding to a multiple of 8 bytes
+ * double[] instance weights, unless all weights are 1
+ * dense:   double[] values of every attribute, one column after another
+ * sparse:  long[]   offsets of the rows, number of instances + 1
+ *          double[] non-zero values of all rows
+ *          int[]    attribute indices of the non-zero values
+ * </pre></code>
+ *
+ * @version $Revision: 1.1 $
+ */
+public class BinaryInstancesSaver {
+
+  /** The file the instances are written to */
+  protected File m_File = null;
+
+  /**
+   * Sets the file the instances are written to.
+   *
+   * @param file the destination file
+   */
+  public void setFile(File file) {
+    m_File = file;
+  }
+
+  /**
+   * Gets the file the instances are written to.
+   *
+   * @return the destination file
+   */
+  public File getFile() {
+    return m_File;
+  }
+
+  /**
+   * Writes a set of instances to the destination file.
+   *
+   * @param data the instances to write
+   * @exception IOException if no destination has been set or writing fails
+   */
+  public void writeBatch(Instances data) throws IOException {
+
+    if (m_File == null) {
+      throw new IOException("No destination has been specified");
+    }
+    DataOutputStream out =
+      new DataOutputStream(new BufferedOutputStream(new FileOutputStream(m_File), 1 << 16));
+    try {
+      writeInstances(data, out);
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Writes a set of instances to a stream.
+   *
+   * @param data the instances to write
+   * @param out the stream
+   * @exception IOException if writing fails
+   */
+  protected void writeInstances(Instances data, DataOutputStream out) throws IOException {
+
+    int numInstances = data.numInstances();
+    int numAttributes = data.numAttributes();
+    boolean sparse = (numInstances > 0) && (data.instance(0) instanceof SparseInstance);
+    boolean unitWeights = true;
+    for (int i = 0; i < numInstances && unitWeights; i++) {
+      unitWeights = (data.instance(i).weight() == 1);
+    }
+
+    out.writeInt(BinaryInstancesLoader.MAGIC);
+    out.writeInt(BinaryInstancesLoader.VERSION);
+    byte [] header = new Instances(data, 0).toString().getBytes("UTF-8");
+    out.writeInt(header.length);
+    out.write(header);
+    out.writeInt(numInstances);
+    out.writeInt(numAttributes);
+    out.writeInt(data.classIndex());
+    out.writeByte(sparse ? 1 : 0);
+    out.writeByte(unitWeights ? 1 : 0);
+
+    // the dictionaries of the string attributes
+    for (int j = 0; j < numAttributes; j++) {
+      Attribute attribute = data.attribute(j);
+      if (attribute.isString()) {
+	out.writeInt(attribute.numValues());
+	for (int v = 0; v < attribute.numValues(); v++) {
+	  byte [] value = attribute.value(v).getBytes("UTF-8");
+	  out.writeInt(value.length);
+	  out.write(value);
+	}
+      }
+    }
+    while (out.size() % 8 != 0) {
+      out.writeByte(0);
+    }
+
+    if (!unitWeights) {
+      for (int i = 0; i < numInstances; i++) {
+	out.writeDouble(data.instance(i).weight());
+      }
+    }
+
+    if (!sparse) {
+      for (int j = 0; j < numAttributes; j++) {
+	for (int i = 0; i < numInstances; i++) {
+	  out.writeDouble(data.instance(i).value(j));
+	}
+      }
+    } else {
+      long offset = 0;
+      out.writeLong(offset);
+      for (int i = 0; i < numInstances; i++) {
+	offset += data.instance(i).numValues();
+	out.writeLong(offset);
+      }
+      for (int i = 0; i < numInstances; i++) {
+	Instance instance = data.instance(i);
+	for (int p = 0; p < instance.numValues(); p++) {
+	  out.writeDouble(instance.valueSparse(p));
+	}
+      }
+      for (int i = 0; i < numInstances; i++) {
+	Instance instance = data.instance(i);
+	for (int p = 0; p < instance.numValues(); p++) {
+	  out.writeInt(instance.index(p));
+	}
+      }
+    }
+  }
+
+  /**
+   * Main method; converts an ARFF file or a file of serialized
+   * instances to the binary format.
+   *
+   * @param args the input file and the output file
+   */
+  public static void main(String [] args) {
+
+    if (args.length == 2) {
+      try {
+	Instances data;
+	if (args[0].endsWith(".bsi")) {
+	  ObjectInputStream in =
+	    new ObjectInputStream(new BufferedInputStream(new FileInputStream(args[0])));
+	  data = (Instances) in.readObject();
+	  in.close();
+	} else {
+	  data = new Instances(new BufferedReader(new FileReader(args[0])));
+	}
+	BinaryInstancesSaver saver = new BinaryInstancesSaver();
+	saver.setFile(new File(args[1]));
+	saver.writeBatch(data);
+      } catch (Exception ex) {
+	ex.printStackTrace();
+      }
+    } else {
+      System.err.println("Usage:\n\tBinaryInstancesSaver <file.arff> <file"
+			 + BinaryInstancesLoader.FILE_EXTENSION + ">\n");
+    }
+  }
+}
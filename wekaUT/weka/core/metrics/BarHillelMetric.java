@@ -24,7 +24,6 @@ package weka.core.metrics;
 
 import weka.core.*;
 import java.util.*;
-import java.io.*;
 
 /**
  * Class for performing RCA according to Bar-Hillel's algorithm. <p>
@@ -49,7 +48,7 @@ public class BarHillelMetric extends OfflineLearnableMetric
   /** chunklet assignments of instances */
   int [] m_chunkletAssignments = null;
 
-  /** full matrix returned by Octave code */
+  /** full matrix learned by RCA */
   protected double [][] m_attrMatrix = null;
 
   /** We can have different ways of converting from distance to similarity  */
@@ -64,25 +63,6 @@ public class BarHillelMetric extends OfflineLearnableMetric
   /** The method of converting, by default laplacian */
   protected int m_conversionType = CONVERSION_LAPLACIAN;
 
-  /** Name of the Octave program file that computes RCA */
-  protected String m_RCAMFileToken = new String("RCAmetric.m");
-  protected String m_RCAMFile = "/var/local/" + m_RCAMFileToken;
-
-  /** A timestamp suffix for matching vectors with attributes */
-  String m_timestamp = null;
-
-  /** Name of the file where attribute names will be stored */
-  String m_rcaAttributeMatrixFilenameToken = new String("RCAattributeMatrix");
-  String m_rcaAttributeMatrixFilename = "/var/local/" + m_rcaAttributeMatrixFilenameToken;
-  
-  /** Name of the file where dataMatrix will be stored */
-  public String m_dataFilenameToken = new String("RCAdataMatrix");
-  public String m_dataFilename = "/var/local/" + m_dataFilenameToken;
-
-  /** Name of the file where chunklet assignments will be stored */
-  public String m_chunkletAssignmentFilenameToken = new String("RCAchunkletAssignment");
-  public String m_chunkletAssignmentFilename = "/var/local/" + m_chunkletAssignmentFilenameToken;
-
   
   /**
    * Create a new metric.
@@ -284,217 +264,21 @@ public class BarHillelMetric extends OfflineLearnableMetric
   }
 
 
+  /**
+   * Learn the metric matrix with RCA
+   * @param data the instances
+   * @param clusterAssignments the chunklet of every instance, -1 if none
+   */
   public void buildAttributeMatrix (Instances data, int [] clusterAssignments) throws Exception {
 
     m_chunkletAssignments = clusterAssignments;
     m_numInstances = data.numInstances();
-    m_numAttribs = data.instance(1).numAttributes();
-
-    if (m_timestamp == null) { 
-      m_timestamp = getLogTimestamp();
-    }
-      
-//      m_rcaAttributeMatrixFilename = new String(m_rcaAttributeMatrixFilenameBase + m_timestamp);
-//      m_chunkletAssignmentFilename = new String(m_chunkletAssignmentFilenameBase + m_timestamp);
+    m_numAttribs = data.numAttributes();
 
     System.out.println("About to run RCA on " + m_numInstances + " instances, each with " + m_numAttribs + " attributes");
-    dumpInstances(m_dataFilename);
-    dumpChunklets(m_chunkletAssignmentFilename);
-    prepareOctave(m_RCAMFile);
-    runOctave(m_RCAMFile, "/var/local/RCAoctave.output");
-    System.out.println("Done running Octave code ... now parsing octave output files");
-
-    m_attrMatrix = readMatrix(m_rcaAttributeMatrixFilename);
-
-    if (m_attrMatrix == null) {
-      System.out.println("WARNING!! Could not parse octave output file!!\n\n");
-    }
-    else {
-      System.out.println("Successfully parsed octave output file and learned metric");
-    }
-  }
-
-  /**
-   * Read column vectors from a text file
-   * @param name file name
-   * @return a <code>double[][]</code> value
-   * @exception Exception if an error occurs
-   * @returns double[][] array corresponding to vectors
-   */
-  public double[][] readMatrix(String name) throws Exception {
-    System.out.println("Trying to read file: " + name);
-    BufferedReader r = new BufferedReader(new FileReader(name));
-        
-    double[][] vectors = new double[m_numAttribs][m_numAttribs];
-    int i = 0, j = 0;
-    String s = null;
-
-    // initial rows till "#columns: d" -- ignore
-    do {
-      s =  r.readLine();
-    } while (!s.startsWith("# columns"));
-
-    //   System.out.println("Line: " + s);
-
-    while ((s = r.readLine()) != null) {
-      StringTokenizer tokenizer = new StringTokenizer(s);
-      while (tokenizer.hasMoreTokens()) {
-	String value = tokenizer.nextToken();
-	try { 
-	  vectors[i][j] = Double.parseDouble(value);
-	} catch (Exception e) {
-	  System.err.println("Couldn't parse " + value + " as double");
-	}
-	j++;
-	if (j > m_numAttribs) {
-	  System.err.println("Too many columns (" + j + " instead of " + m_numAttribs + ") in line: " + s);
-	}
-      }
-      if (j != m_numAttribs) {
-	System.err.println("Too few columns (" + j + " instead of " + m_numAttribs + ") in line: " + s);
-      }
-      j = 0;
-      i++;
-      if (i > m_numAttribs) {
-	System.err.println("Too many rows: " + i + ", expecting " + m_numAttribs + " attributes");
-      }
-    }
-    if (i != m_numAttribs) {
-      System.err.println("Too few rows: " + i + " expecting " + m_numAttribs + " attributes");
-    }
-    return vectors;
-  }
-
-
-  /**
-   * Dump data matrix into a file
-   */
-  private void dumpInstances(String tempFile) {
-    try { 
-      PrintWriter writer = new PrintWriter(new BufferedOutputStream(new FileOutputStream(tempFile)));
-      for (int k = 0; k < m_numInstances; k++) {
-	Instance instance = m_trainInstances.instance(k);
-	for (int j = 0; j < m_numAttribs; j++) {
-	  writer.print(instance.value(j) + " ");
-	}
-	writer.println();
-      }
-      writer.close();
-    } catch (Exception e) {
-      System.err.println("Could not create a temporary file for dumping the data matrix: " + e);
-    }
-  }
-
-  /**
-   * Dump chunklet vector into a file
-   */
-  private void dumpChunklets (String tempFile) {
-    try { 
-      PrintWriter writer = new PrintWriter(new BufferedOutputStream(new FileOutputStream(tempFile)));
-      for (int k = 0; k < m_chunkletAssignments.length; k++) {
-	writer.print(m_chunkletAssignments[k] + " ");
-      }
-      writer.println();
-      writer.close();
-    } catch (Exception e) {
-      System.err.println("Could not create a temporary file for dumping the data matrix: " + e);
-    }
-  }
-
-
-  /** Create octave m-file for ICA
-   * @param filename file where octave script is created
-   */
-  public void prepareOctave(String filename) {
-    try{
-      PrintWriter writer = new PrintWriter(new BufferedOutputStream(new FileOutputStream(filename)));
-      writer.println("fprintf(stderr,\"Before loading data file\\n\");");
-      writer.println("fflush(stderr);");
-      writer.println("load " + m_dataFilename + ";");
-      writer.println("fprintf(stderr,\"Before loading chunklet file\\n\");");
-      writer.println("fflush(stderr);");
-      writer.println("load " + m_chunkletAssignmentFilename + ";");
-      writer.println("fprintf(stderr,\"Before running RCA\\n\");");
-      writer.println("fflush(stderr);");
-      writer.println("[A] = RCA(" + m_dataFilenameToken + "," + m_chunkletAssignmentFilenameToken + ");");
-      writer.println("fprintf(stderr,\"After running RCA\\n\");");
-      writer.println("fflush(stderr);");
-      writer.println("[AnumRows, AnumCols] = size(A);");
-      writer.println("save " + m_rcaAttributeMatrixFilename + " AnumRows AnumCols A");
-      writer.close();
-    } 
-    catch (Exception e) {
-      System.err.println("Could not create octave file: " + e);
-    }
-  }
-
-  /** Run octave in command line with a given argument
-   * @param inFile file to be input to Octave
-   * @param outFile file where results are stored
-   */
-  public static void runOctave(String inFile, String outFile) {
-    // call octave to do the dirty work
-    try {
-      int exitValue;
-      String cmd = "octave  " + inFile + " > " + outFile;
-      //String cmd = "octave  " + inFile;
-      System.out.println("Starting to run octave: " + cmd);
-      Process proc = Runtime.getRuntime().exec(cmd);
-      System.out.println("Cmd set up:" + cmd);
-      System.out.println("Now waiting for process ...");
-
-      // read the error
-      if (proc != null){
-	//	proc.getErrorStream().flush();
-	BufferedReader procError  = new BufferedReader(new InputStreamReader(proc.getErrorStream()));
-	try {
-	  String line;
-	  while ((line = procError.readLine()) != null){
-	    System.out.println("ERROR:  " + line);	    
-	  }
-	} catch (Exception e) {
-	  System.err.println("Problems trapping output in debug mode:");
-	  e.printStackTrace();
-	  System.out.println(e);
-	}
-      }
-
-      // read the output
-      if (proc != null){
-	BufferedReader procOutput  = new BufferedReader(new InputStreamReader(proc.getInputStream()));
-	try {
-	  String line;
-	  while ((line = procOutput.readLine()) != null){
-	    System.out.println("OUTPUT:  " + line);
-	  }
-	} catch (Exception e) {
-	  System.err.println("Problems trapping output in debug mode:");
-	  e.printStackTrace();
-	  System.out.println(e);
-	}
-      }
-      
-
-      exitValue = proc.waitFor();
-      System.out.println("Done waiting for process!");
-
-      System.out.println("End of running octave, exitValue = " + exitValue);
-    }
-    catch (Exception e) {
-      System.err.println("Problems running octave: " + e);
-    }
-  } 
-
-  /** Get a timestamp string as a weak uniqueid
-   * @returns a timestamp string in the form "mmddhhmmssS"
-   */     
-  public static String getLogTimestamp() {
-    Calendar cal = Calendar.getInstance(TimeZone.getDefault());
-    String DATE_FORMAT = "MMddHHmmssS";
-    java.text.SimpleDateFormat sdf = new java.text.SimpleDateFormat(DATE_FORMAT);
-    
-    sdf.setTimeZone(TimeZone.getDefault());          
-    return (sdf.format(cal.getTime()));
+    double [][] matrix = RCA.learnMatrix(createDataMatrix(data), m_chunkletAssignments);
+    m_attrMatrix = expandMatrix(matrix, m_numAttribs, data.classIndex());
+    System.out.println("Successfully learned metric");
   }
 
   /**
@@ -0,0 +1,155 @@
+/*
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+/*
+ *    BatchDistanceBenchmark.java
+ *    Compares batch distances with distances computed pair by pair
+ *
+ */
+
+package weka.core.metrics;
+
+import java.io.*;
+import java.util.*;
+import weka.core.*;
+
+/**
+ * Times the distances from every instance of a dataset to k centroids,
+ * computed pair by pair with distance(Instance, Instance) and in batch
+ * with distance(InstanceBlock, InstanceBlock, double[], int), for each
+ * metric with a batch computation.  The centroids are the means of k
+ * groups of instances, shifted by 1e-6 so that KL has no zero values.
+ * Every measurement is repeated after warm-up runs; the largest
+ * difference between the two computations is reported as well.<p>
+ *
+ * Valid options are:<p>
+ * -t file <br>
+ * The ARFF file (its last attribute is taken as the class).<p>
+ * -k num <br>
+ * The number of centroids (default 10).<p>
+ * -T num <br>
+ * The number of threads of the batch computation, 0 for one per
+ * processor (default 1).<p>
+ * -r num <br>
+ * The number of timed runs (default 5).<p>
+ */
+public class BatchDistanceBenchmark {
+
+  /** Run the benchmark */
+  public static void main(String[] args) {
+    try {
+      String fileName = Utils.getOption('t', args);
+      if (fileName.length() == 0) {
+	throw new Exception("No data file given (-t)");
+      }
+      String optionString = Utils.getOption('k', args);
+      int numCentroids = (optionString.length() != 0) ? Integer.parseInt(optionString) : 10;
+      optionString = Utils.getOption('T', args);
+      int numThreads = (optionString.length() != 0) ? Integer.parseInt(optionString) : 1;
+      optionString = Utils.getOption('r', args);
+      int numRuns = (optionString.length() != 0) ? Integer.parseInt(optionString) : 5;
+
+      Instances data = new Instances(new BufferedReader(new FileReader(fileName)));
+      data.setClassIndex(data.numAttributes() - 1);
+      Instances centroids = makeCentroids(data, numCentroids);
+
+      Metric[] metrics = new Metric[] {new WeightedEuclidean(), new WeightedDotP(),
+				       new WeightedMahalanobis(), new KL()};
+      System.out.println("Data: " + data.relationName() + ", " + data.numInstances()
+			 + " instances, " + data.numAttributes() + " attributes, "
+			 + numCentroids + " centroids, " + numThreads + " threads");
+      System.out.println("metric\tpairs (ms)\tbatch (ms)\tspeedup\tmax difference");
+      for (int m = 0; m < metrics.length; m++) {
+	Metric metric = metrics[m];
+	PrintStream out = System.out;
+	System.setOut(new PrintStream(new ByteArrayOutputStream()));
+	try {
+	  metric.buildMetric(data);
+	} finally {
+	  System.setOut(out);
+	}
+	double[] pairDistances = new double[data.numInstances() * numCentroids];
+	double[] batchDistances = new double[pairDistances.length];
+
+	long pairTime = Long.MAX_VALUE, batchTime = Long.MAX_VALUE;
+	for (int run = -2; run < numRuns; run++) {  // two warm-up runs
+	  long start = System.currentTimeMillis();
+	  for (int i = 0; i < data.numInstances(); i++) {
+	    Instance instance = data.instance(i);
+	    for (int j = 0; j < numCentroids; j++) {
+	      pairDistances[i * numCentroids + j] = metric.distance(instance, centroids.instance(j));
+	    }
+	  }
+	  long time = System.currentTimeMillis() - start;
+	  if (run >= 0) {
+	    pairTime = Math.min(pairTime, time);
+	  }
+
+	  // packing the instances is part of the batch time
+	  start = System.currentTimeMillis();
+	  InstanceBlock block = new InstanceBlock(data);
+	  InstanceBlock centroidBlock = new InstanceBlock(centroids);
+	  metric.distance(block, centroidBlock, batchDistances, numThreads);
+	  time = System.currentTimeMillis() - start;
+	  if (run >= 0) {
+	    batchTime = Math.min(batchTime, time);
+	  }
+	}
+
+	double maxDifference = 0;
+	for (int i = 0; i < pairDistances.length; i++) {
+	  if (pairDistances[i] == batchDistances[i]
+	      || (Double.isNaN(pairDistances[i]) && Double.isNaN(batchDistances[i]))) {
+	    continue;
+	  }
+	  double difference = Math.abs(pairDistances[i] - batchDistances[i])
+	    / Math.max(1, Math.abs(pairDistances[i]));
+	  if (!(difference <= maxDifference)) {
+	    maxDifference = difference;
+	  }
+	}
+	System.out.println(metric.getClass().getName() + "\t" + pairTime + "\t" + batchTime
+			   + "\t" + Utils.doubleToString((double) pairTime / Math.max(batchTime, 1), 2)
+			   + "\t" + maxDifference);
+      }
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+
+  /** The means of k groups of instances (instance i goes to group i mod k),
+   * plus 1e-6, in the representation of the data */
+  protected static Instances makeCentroids(Instances data, int numCentroids) {
+    double[][] sums = new double[numCentroids][data.numAttributes()];
+    int[] counts = new int[numCentroids];
+    for (int i = 0; i < data.numInstances(); i++) {
+      Instance instance = data.instance(i);
+      for (int j = 0; j < instance.numValues(); j++) {
+	sums[i % numCentroids][instance.index(j)] += instance.valueSparse(j);
+      }
+      counts[i % numCentroids]++;
+    }
+    Instances centroids = new Instances(data, numCentroids);
+    boolean sparse = data.numInstances() > 0 && data.instance(0) instanceof SparseInstance;
+    for (int c = 0; c < numCentroids; c++) {
+      for (int j = 0; j < sums[c].length; j++) {
+	sums[c][j] = (j == data.classIndex()) ? 0 : sums[c][j] / Math.max(counts[c], 1) + 1e-6;
+      }
+      centroids.add(sparse ? new SparseInstance(1, sums[c]) : new Instance(1, sums[c]));
+    }
+    return centroids;
+  }
+}
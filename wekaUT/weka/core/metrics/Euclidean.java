@@ -62,4 +62,8 @@ public class Euclidean extends Metric{
    public boolean isDistanceBased(){
        return true;
    }
+   
+   public boolean satisfiesTriangleInequality(){
+       return true;
+   }
 }
@@ -0,0 +1,235 @@
+/*
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+/*
+ *    InstanceBlock.java
+ *    Instances packed into arrays for batch distance computations
+ *
+ */
+
+package weka.core.metrics;
+
+import java.io.Serializable;
+import weka.core.*;
+
+/**
+ * A block of instances packed for the batch distance computations of
+ * Metric.  Dense blocks hold the values of the instances as one array,
+ * row after row; sparse blocks hold the non-zero values of each row
+ * with their attribute indices (compressed sparse rows).  The value of
+ * the class attribute is left out (it is 0 in dense rows).<p>
+ *
+ * The block keeps the instances themselves, for metrics that have no
+ * batch computation, and one piece of data a metric derives from the
+ * rows (such as their norms or projections), so that it is computed
+ * once for as long as the metric does not change.
+ */
+public class InstanceBlock implements Serializable {
+
+  /** The instances of the block */
+  protected Instance[] m_instances;
+
+  /** The number of attributes and the index of the class attribute */
+  protected int m_numAttributes;
+  protected int m_classIndex;
+
+  /** Are the rows stored as sparse rows? */
+  protected boolean m_sparse;
+
+  /** The values: numInstances * numAttributes of them in a dense
+   * block, the non-zero values in a sparse one */
+  protected double[] m_values;
+
+  /** For a sparse block, the attribute index of every value, and where
+   * the values of every row start (with the total at the end) */
+  protected int[] m_indices = null;
+  protected int[] m_rowStart = null;
+
+  /** Data derived from the rows by a metric, the metric, and the state
+   * of the metric it was derived for */
+  protected transient Object m_rowData = null;
+  protected transient Object m_rowDataOwner = null;
+  protected transient Object m_rowDataKey = null;
+
+  /**
+   * Pack all instances of a dataset, in sparse rows if the dataset
+   * holds sparse instances
+   * @param data the instances
+   */
+  public InstanceBlock(Instances data) {
+    this(data, 0, data.numInstances());
+  }
+
+  /**
+   * Pack a range of instances of a dataset, in sparse rows if the
+   * dataset holds sparse instances
+   * @param data the instances
+   * @param from the index of the first instance
+   * @param to the index after the last instance
+   */
+  public InstanceBlock(Instances data, int from, int to) {
+    Instance[] instances = new Instance[to - from];
+    for (int i = from; i < to; i++) {
+      instances[i - from] = data.instance(i);
+    }
+    pack(instances, data.numAttributes(), data.classIndex(),
+	 instances.length > 0 && instances[0] instanceof SparseInstance);
+  }
+
+  /**
+   * Pack an array of instances
+   * @param instances the instances
+   * @param numAttributes the number of attributes of the instances
+   * @param classIndex the index of the class attribute, or -1
+   * @param sparse whether to store sparse rows
+   */
+  public InstanceBlock(Instance[] instances, int numAttributes, int classIndex,
+		       boolean sparse) {
+    pack(instances, numAttributes, classIndex, sparse);
+  }
+
+  /** Fill the arrays of the block */
+  protected void pack(Instance[] instances, int numAttributes, int classIndex,
+		      boolean sparse) {
+    m_instances = instances;
+    m_numAttributes = numAttributes;
+    m_classIndex = classIndex;
+    m_sparse = sparse;
+    if (!sparse) {
+      m_values = new double[instances.length * numAttributes];
+      for (int i = 0; i < instances.length; i++) {
+	Instance instance = instances[i];
+	int offset = i * numAttributes;
+	for (int j = 0; j < instance.numValues(); j++) {
+	  int attrIdx = instance.index(j);
+	  if (attrIdx != classIndex) {
+	    m_values[offset + attrIdx] = instance.valueSparse(j);
+	  }
+	}
+      }
+      return;
+    }
+
+    m_rowStart = new int[instances.length + 1];
+    for (int i = 0; i < instances.length; i++) {
+      int count = 0;
+      for (int j = 0; j < instances[i].numValues(); j++) {
+	if (instances[i].index(j) != classIndex && instances[i].valueSparse(j) != 0) {
+	  count++;
+	}
+      }
+      m_rowStart[i + 1] = m_rowStart[i] + count;
+    }
+    m_indices = new int[m_rowStart[instances.length]];
+    m_values = new double[m_indices.length];
+    int current = 0;
+    for (int i = 0; i < instances.length; i++) {
+      Instance instance = instances[i];
+      for (int j = 0; j < instance.numValues(); j++) {
+	int attrIdx = instance.index(j);
+	double value = instance.valueSparse(j);
+	if (attrIdx != classIndex && value != 0) {
+	  m_indices[current] = attrIdx;
+	  m_values[current++] = value;
+	}
+      }
+    }
+  }
+
+  /** Get the number of instances in the block */
+  public int numInstances() {
+    return m_instances.length;
+  }
+
+  /** Get an instance of the block */
+  public Instance instance(int i) {
+    return m_instances[i];
+  }
+
+  /** Get the number of attributes of the instances */
+  public int numAttributes() {
+    return m_numAttributes;
+  }
+
+  /** Get the index of the class attribute, -1 if there is none */
+  public int classIndex() {
+    return m_classIndex;
+  }
+
+  /** Are the rows stored as sparse rows? */
+  public boolean isSparse() {
+    return m_sparse;
+  }
+
+  /** Get the values: row i of a dense block starts at
+   * i * numAttributes(), row i of a sparse block at rowStart()[i] */
+  public double[] values() {
+    return m_values;
+  }
+
+  /** Get the attribute indices of the values of a sparse block */
+  public int[] indices() {
+    return m_indices;
+  }
+
+  /** Get where the values of each row of a sparse block start */
+  public int[] rowStart() {
+    return m_rowStart;
+  }
+
+  /**
+   * Get the values of a row as a dense array
+   * @param i the row
+   * @return a new array of numAttributes() values
+   */
+  public double[] denseRow(int i) {
+    double[] row = new double[m_numAttributes];
+    if (m_sparse) {
+      for (int j = m_rowStart[i]; j < m_rowStart[i + 1]; j++) {
+	row[m_indices[j]] = m_values[j];
+      }
+    } else {
+      System.arraycopy(m_values, i * m_numAttributes, row, 0, m_numAttributes);
+    }
+    return row;
+  }
+
+  /**
+   * Get the data a metric derived from the rows
+   * @param owner the metric
+   * @param key the state of the metric the data must have been derived for
+   * @return the data, or null if the metric has not stored any for this state
+   */
+  public synchronized Object getRowData(Object owner, Object key) {
+    if (m_rowDataOwner != owner || m_rowDataKey != key) {
+      return null;
+    }
+    return m_rowData;
+  }
+
+  /**
+   * Store data derived from the rows by a metric, replacing any
+   * data stored before
+   * @param owner the metric
+   * @param key the state of the metric the data was derived for
+   * @param data the data
+   */
+  public synchronized void setRowData(Object owner, Object key, Object data) {
+    m_rowDataOwner = owner;
+    m_rowDataKey = key;
+    m_rowData = data;
+  }
+}
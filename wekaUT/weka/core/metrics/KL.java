@@ -93,6 +93,15 @@ public class KL extends SmoothingMetric
 
   /** A hashmap that maps every instance to a set of instances with which JS has been computed */
   protected HashMap m_instanceConstraintMap = new HashMap();
+
+  /** A dataset whose instances are stored in advance as arrays of the
+   * indices, values and value*log(value) of their non-zero attributes,
+   * so that distances from them need no logarithms of their own values
+   * and no allocations */
+  protected transient Instances m_cachedInstances = null;
+  protected transient int[][] m_cachedIndices = null;
+  protected transient double[][] m_cachedValues = null;
+  protected transient double[][] m_cachedValueLogs = null;
   
   /**
    * Create a new metric.
@@ -423,6 +432,358 @@ public class KL extends SmoothingMetric
   };
 
 
+  /**
+   * Store a dataset in advance; distances from its instances can then
+   * be computed with distance(Instance, int, CentroidTable) and
+   * distanceJS(Instance, int, Instance, int).
+   * @param instances the dataset, or null to drop the cache
+   */
+  public void setCachedInstances(Instances instances) {
+    m_cachedIndices = null;
+    m_cachedValues = null;
+    m_cachedValueLogs = null;
+    m_cachedInstances = instances;
+    if (instances == null) {
+      return;
+    }
+    int numInstances = instances.numInstances();
+    int[][] cachedIndices = new int[numInstances][];
+    double[][] cachedValues = new double[numInstances][];
+    double[][] cachedValueLogs = new double[numInstances][];
+    for (int i = 0; i < numInstances; i++) {
+      Instance instance = instances.instance(i);
+      int numValues = 0;
+      for (int j = 0; j < instance.numValues(); j++) {
+	if (instance.index(j) != m_classIndex && instance.valueSparse(j) != 0) {
+	  numValues++;
+	}
+      }
+      cachedIndices[i] = new int[numValues];
+      cachedValues[i] = new double[numValues];
+      cachedValueLogs[i] = new double[numValues];
+      int k = 0;
+      for (int j = 0; j < instance.numValues(); j++) {
+	int attrIdx = instance.index(j);
+	double value = instance.valueSparse(j);
+	if (attrIdx != m_classIndex && value != 0) {
+	  cachedIndices[i][k] = attrIdx;
+	  cachedValues[i][k] = value;
+	  cachedValueLogs[i][k] = value * Math.log(value);
+	  k++;
+	}
+      }
+    }
+    m_cachedIndices = cachedIndices;
+    m_cachedValues = cachedValues;
+    m_cachedValueLogs = cachedValueLogs;
+  }
+
+  /** Check whether an instance is the one cached under an index */
+  protected boolean isCached(Instance instance, int instIdx) {
+    return m_cachedIndices != null && instIdx >= 0
+      && instIdx < m_cachedIndices.length
+      && m_cachedInstances.instance(instIdx) == instance;
+  }
+
+  /**
+   * A centroid stored as dense arrays of its values and their
+   * logarithms, built once per M-step with createCentroidTable()
+   */
+  public static class CentroidTable {
+    /** The centroid */
+    protected Instance m_centroid;
+
+    /** The values of the centroid */
+    protected double[] m_values;
+
+    /** The logarithms of the values, 0 for values that are not positive */
+    protected double[] m_logs;
+
+    /** The weights the table was built with, and the weighted sum of the values */
+    protected double[] m_weights;
+    protected double m_weightedSum;
+
+    /** Does the centroid have a non-positive value for some attribute? */
+    protected boolean m_hasZeros;
+
+    /** Get the centroid of the table */
+    public Instance getCentroid() {
+      return m_centroid;
+    }
+  }
+
+  /**
+   * Prepare a centroid for the distances of many instances to it.  The
+   * table has to be rebuilt when the centroid or the weights change.
+   * @param centroid the centroid
+   * @return the table of the centroid
+   */
+  public CentroidTable createCentroidTable(Instance centroid) {
+    CentroidTable table = new CentroidTable();
+    table.m_centroid = centroid;
+    table.m_values = centroid.toDoubleArray();
+    table.m_logs = new double[table.m_values.length];
+    table.m_weights = m_attrWeights;
+    for (int i = 0; i < table.m_values.length; i++) {
+      if (i != m_classIndex) {
+	double value = table.m_values[i];
+	if (value > 0) {
+	  table.m_logs[i] = Math.log(value);
+	} else {
+	  table.m_hasZeros = true;
+	}
+	if (value != 0) {
+	  table.m_weightedSum += m_attrWeights[i] * value;
+	}
+      }
+    }
+    return table;
+  }
+
+  /**
+   * Returns the distance of an instance of the cached dataset to a
+   * centroid; falls back to distance(Instance, Instance) if the instance
+   * is not cached, the weights have changed since the table was built,
+   * or the centroid has a zero value where the instance does not
+   * @param instance the instance
+   * @param instIdx the index of the instance in the cached dataset
+   * @param centroid the table of the centroid
+   * @exception Exception if distance could not be estimated.
+   */
+  public double distance(Instance instance, int instIdx, CentroidTable centroid) throws Exception {
+    if ((m_trainable && m_external && m_trained) || centroid.m_weights != m_attrWeights
+	|| !isCached(instance, instIdx)
+	|| (centroid.m_hasZeros && !(instance instanceof SparseInstance))) {
+      return distance(instance, centroid.m_centroid);
+    }
+    int[] indices = m_cachedIndices[instIdx];
+    double[] values = m_cachedValues[instIdx];
+    double[] valueLogs = m_cachedValueLogs[instIdx];
+    double[] values2 = centroid.m_values;
+    double[] logs2 = centroid.m_logs;
+    double distance = 0, idivTerm = 0;
+    for (int k = 0; k < indices.length; k++) {
+      int attrIdx = indices[k];
+      if (values2[attrIdx] <= 0) {  // infinite divergence
+	return distance(instance, centroid.m_centroid);
+      }
+      double weight = m_attrWeights[attrIdx];
+      distance += weight * (valueLogs[k] - values[k] * logs2[attrIdx]);
+      idivTerm -= weight * values[k];
+    }
+    if (m_useIDivergence) {
+      distance += idivTerm + centroid.m_weightedSum;
+    }
+    return distance;
+  }
+
+  /**
+   * Returns Jensen-Shannon distance between two instances of the cached
+   * dataset as a merge of their non-zero values; falls back to
+   * distanceJS(Instance, Instance) for instances that are not cached
+   * @param instance1 the first instance
+   * @param instIdx1 the index of the first instance in the cached dataset
+   * @param instance2 the second instance
+   * @param instIdx2 the index of the second instance in the cached dataset
+   * @exception Exception if distanceJS could not be estimated.
+   */
+  public double distanceJS(Instance instance1, int instIdx1,
+			   Instance instance2, int instIdx2) throws Exception {
+    if (!isCached(instance1, instIdx1) || !isCached(instance2, instIdx2)) {
+      return distanceJS(instance1, instance2);
+    }
+    int[] indices1 = m_cachedIndices[instIdx1];
+    double[] values1 = m_cachedValues[instIdx1];
+    double[] valueLogs1 = m_cachedValueLogs[instIdx1];
+    int[] indices2 = m_cachedIndices[instIdx2];
+    double[] values2 = m_cachedValues[instIdx2];
+    double[] valueLogs2 = m_cachedValueLogs[instIdx2];
+    double distanceJS = 0, sum1 = 0, sum2 = 0;
+    int k1 = 0, k2 = 0;
+    while (k1 < indices1.length && k2 < indices2.length) {
+      int attrIdx1 = indices1[k1];
+      int attrIdx2 = indices2[k2];
+      if (attrIdx1 < attrIdx2) {
+	sum1 += m_attrWeights[attrIdx1] * values1[k1++];
+      } else if (attrIdx2 < attrIdx1) {
+	sum2 += m_attrWeights[attrIdx2] * values2[k2++];
+      } else {
+	double sum = values1[k1] + values2[k2];
+	distanceJS += m_attrWeights[attrIdx1] * (valueLogs1[k1] + valueLogs2[k2]
+						 - sum * Math.log(sum/2.0));
+	k1++;
+	k2++;
+      }
+    }
+    for (; k1 < indices1.length; k1++) {
+      sum1 += m_attrWeights[indices1[k1]] * values1[k1];
+    }
+    for (; k2 < indices2.length; k2++) {
+      sum2 += m_attrWeights[indices2[k2]] * values2[k2];
+    }
+    return 0.5 * (sum1 + sum2 + distanceJS / LOG2);
+  }
+
+  /**
+   * Create an instance with features corresponding to JS components of
+   * two instances of the cached dataset, as a merge of their non-zero
+   * values; falls back to createDiffInstanceJS(Instance, Instance) for
+   * instances that are not cached
+   * @param instance1 the first instance
+   * @param instIdx1 the index of the first instance in the cached dataset
+   * @param instance2 the second instance
+   * @param instIdx2 the index of the second instance in the cached dataset
+   */
+  public Instance createDiffInstanceJS(Instance instance1, int instIdx1,
+				       Instance instance2, int instIdx2) {
+    if (!isCached(instance1, instIdx1) || !isCached(instance2, instIdx2)) {
+      return createDiffInstanceJS(instance1, instance2);
+    }
+    int[] indices1 = m_cachedIndices[instIdx1];
+    double[] values1 = m_cachedValues[instIdx1];
+    double[] valueLogs1 = m_cachedValueLogs[instIdx1];
+    int[] indices2 = m_cachedIndices[instIdx2];
+    double[] values2 = m_cachedValues[instIdx2];
+    double[] valueLogs2 = m_cachedValueLogs[instIdx2];
+    int maxNumValues = indices1.length + indices2.length + 1;
+    double[] attrValues = new double[maxNumValues];
+    int[] indices = new int[maxNumValues];
+    // the class agreement is stored where the first instance stores a class value
+    boolean classPending = m_classIndex >= 0 && instance1.value(m_classIndex) != 0;
+    int counter = 0, k1 = 0, k2 = 0;
+    while (k1 < indices1.length || k2 < indices2.length || classPending) {
+      int attrIdx1 = (k1 < indices1.length) ? indices1[k1] : Integer.MAX_VALUE;
+      int attrIdx2 = (k2 < indices2.length) ? indices2[k2] : Integer.MAX_VALUE;
+      if (classPending && m_classIndex < Math.min(attrIdx1, attrIdx2)) {
+	attrValues[counter] = (instance1.classValue() == instance2.classValue()) ? 1 : -1;
+	indices[counter++] = m_classIndex;
+	classPending = false;
+	continue;
+      }
+      indices[counter] = Math.min(attrIdx1, attrIdx2);
+      if (attrIdx1 < attrIdx2) {
+	attrValues[counter] = 0.5 * values1[k1++];
+      } else if (attrIdx2 < attrIdx1) {
+	attrValues[counter] = 0.5 * values2[k2++];
+      } else {
+	double sum = values1[k1] + values2[k2];
+	attrValues[counter] = 0.5 * (valueLogs1[k1] + valueLogs2[k2]
+				     - sum * Math.log(sum/2.0)) / LOG2;
+	k1++;
+	k2++;
+      }
+      counter++;
+    }
+    SparseInstance diffInstanceJS = new SparseInstance(1.0, attrValues, indices,
+						       instance1.dataset().numAttributes());
+    diffInstanceJS.setDataset(instance1.dataset());
+    return diffInstanceJS;
+  }
+
+  /** For every row, the weighted sums of p log p and of p over its values */
+  protected Object prepareRows(InstanceBlock block) {
+    int numRows = block.numInstances();
+    double[] entropyTerms = new double[numRows];
+    double[] weightedSums = new double[numRows];
+    double[] values = block.values();
+    int[] indices = block.indices();
+    int[] rowStart = block.rowStart();
+    int numWeighted = Math.min(block.numAttributes(), m_attrWeights.length);
+    for (int i = 0; i < numRows; i++) {
+      int start = block.isSparse() ? rowStart[i] : i * block.numAttributes();
+      int end = block.isSparse() ? rowStart[i + 1] : start + numWeighted;
+      for (int l = start; l < end; l++) {
+	int attrIdx = block.isSparse() ? indices[l] : l - start;
+	if (attrIdx != m_classIndex) {
+	  double weight = m_attrWeights[attrIdx];
+	  entropyTerms[i] += weight * values[l] * Math.log(values[l]);
+	  weightedSums[i] += weight * values[l];
+	}
+      }
+    }
+    return new double[][] {entropyTerms, weightedSums};
+  }
+
+  /** For every centroid, the logarithms of its values, the weighted sum
+   * of its values, and whether some value is not positive */
+  protected Object prepareCentroids(InstanceBlock centroids) {
+    int numCentroids = centroids.numInstances();
+    double[][] logs = new double[numCentroids][];
+    double[] weightedSums = new double[numCentroids];
+    boolean[] hasZeros = new boolean[numCentroids];
+    int numWeighted = Math.min(centroids.numAttributes(), m_attrWeights.length);
+    for (int j = 0; j < numCentroids; j++) {
+      logs[j] = centroids.denseRow(j);
+      for (int i = 0; i < logs[j].length; i++) {
+	double value = logs[j][i];
+	if (i == m_classIndex) {
+	  continue;
+	}
+	if (i < numWeighted) {
+	  weightedSums[j] += m_attrWeights[i] * value;
+	}
+	if (value > 0) {
+	  logs[j][i] = Math.log(value);
+	} else {
+	  logs[j][i] = Double.NaN;
+	  hasZeros[j] = true;
+	}
+      }
+    }
+    return new Object[] {logs, weightedSums, hasZeros};
+  }
+
+  /** Batch KL divergences from the rows to the centroids: the p log p
+   * terms of a row are computed once for all centroids, which leaves a
+   * dot product of the row with the logarithms of each centroid.  As in
+   * distance(), a centroid value that is not positive where the row has
+   * a value (anywhere, for dense rows) gives Double.MAX_VALUE. */
+  protected void distanceRows(InstanceBlock block, Object rowData, int from, int to,
+			      InstanceBlock centroids, Object centroidData,
+			      double[] distances, int offset) throws Exception {
+    if (usesExternalLearner() || block.classIndex() != m_classIndex
+	|| centroids.classIndex() != m_classIndex) {
+      super.distanceRows(block, rowData, from, to, centroids, centroidData, distances, offset);
+      return;
+    }
+    double[] entropyTerms = ((double[][]) rowData)[0];
+    double[] rowSums = ((double[][]) rowData)[1];
+    double[][] logs = (double[][]) ((Object[]) centroidData)[0];
+    double[] centroidSums = (double[]) ((Object[]) centroidData)[1];
+    boolean[] hasZeros = (boolean[]) ((Object[]) centroidData)[2];
+    int k = logs.length;
+    double[] values = block.values();
+    int[] indices = block.indices();
+    int[] rowStart = block.rowStart();
+    int numWeighted = Math.min(block.numAttributes(), m_attrWeights.length);
+
+    for (int i = from; i < to; i++) {
+      int start = block.isSparse() ? rowStart[i] : i * block.numAttributes();
+      int end = block.isSparse() ? rowStart[i + 1] : start + numWeighted;
+      for (int j = 0; j < k; j++) {
+	if (hasZeros[j] && !block.isSparse()) {
+	  distances[(i - offset) * k + j] = Double.MAX_VALUE;
+	  continue;
+	}
+	double[] centroidLogs = logs[j];
+	double cross = 0;
+	for (int l = start; l < end; l++) {
+	  int attrIdx = block.isSparse() ? indices[l] : l - start;
+	  if (attrIdx != m_classIndex) {
+	    cross += m_attrWeights[attrIdx] * values[l] * centroidLogs[attrIdx];
+	  }
+	}
+	double distance = entropyTerms[i] - cross;
+	if (Double.isNaN(cross) && hasZeros[j]) {  // infinite divergence
+	  distance = Double.MAX_VALUE;
+	} else if (m_useIDivergence) {
+	  distance += centroidSums[j] - rowSums[i];
+	}
+	distances[(i - offset) * k + j] = distance;
+      }
+    }
+  }
+
   /**
    * Returns Jensen-Shannon distance value between two instances. 
    * @param instance1 First instance.
@@ -978,7 +1339,6 @@ public class KL extends SmoothingMetric
 
     // if the lookup failed, compute it and hash it
     if (diffInstanceJS == null)  { 
-      System.err.println("\n\n\nThis should not happen!  Could not look up instance1 in createDiffInstanceJSSparse!\n\n\n\n");
       int numValues1 = instance1.numValues();
       int numValues2 = instance2.numValues();
       int maxNumValues = numValues1 + numValues2;  // the overall number of attributes
@@ -138,6 +138,8 @@ public abstract class LearnableMetric extends Metric {
   public void resetMetric() throws Exception {
     m_trained = false;
     if (m_attrWeights != null) { 
+      // a new array, so that data derived from the old weights is seen to be stale
+      m_attrWeights = new double[m_attrWeights.length];
       for (int i = 0; i < m_attrWeights.length; i++) {
 	m_attrWeights[i] = 1;
       }
@@ -146,6 +148,17 @@ public abstract class LearnableMetric extends Metric {
     recomputeRegularizer();
   }
 
+  /** Whether distances are computed by the external metric learner,
+   * in which case batch distances are computed pair by pair */
+  protected boolean usesExternalLearner() {
+    return m_trainable && m_external && m_trained;
+  }
+
+  /** Data derived from rows for batch distances depends on the weights */
+  protected Object getRowDataKey() {
+    return m_attrWeights;
+  }
+
   /**
    * Create an instance with features corresponding to components of the two given instances
    * @param instance1 first instance
@@ -222,6 +222,248 @@ public abstract class Metric implements Cloneable, Serializable {
    */
   public abstract boolean isDistanceBased();
 
+  /** Whether distance() is symmetric and satisfies the triangle
+   * inequality, so that metric trees such as VPTree can prune with it.
+   * Measures that are not known to be metrics return false.
+   * @returns true if distance() is a true metric
+   */
+  public boolean satisfiesTriangleInequality() {
+    return false;
+  }
+
+  /** Whether distance(a, b) always equals distance(b, a).  True metrics
+   * are symmetric; other measures have to say so.
+   * @returns true if distance() is symmetric
+   */
+  public boolean isSymmetric() {
+    return satisfiesTriangleInequality();
+  }
+
+  // ===============
+  // Batch distances
+  // ===============
+
+  /** The smallest number of rows given to one thread by the batch distances */
+  public static final int MIN_ROWS_PER_THREAD = 256;
+
+  /**
+   * Compute the distances from an instance to every instance of a block
+   * @param instance the instance
+   * @param block the block
+   * @param distances distances[i] is set to distance(instance, block.instance(i))
+   * @exception Exception if a distance could not be estimated
+   */
+  public void distance(Instance instance, InstanceBlock block,
+		       double[] distances) throws Exception {
+    distance(instance, block, 0, block.numInstances(), distances);
+  }
+
+  /**
+   * Compute the distances from an instance to a range of the instances
+   * of a block
+   * @param instance the instance
+   * @param block the block
+   * @param from the first instance of the range
+   * @param to the instance after the last one of the range
+   * @param distances distances[i - from] is set to distance(instance, block.instance(i))
+   * @exception Exception if a distance could not be estimated
+   */
+  public void distance(Instance instance, InstanceBlock block, int from, int to,
+		       double[] distances) throws Exception {
+    if (!isSymmetric()) {
+      for (int i = from; i < to; i++) {
+	distances[i - from] = distance(instance, block.instance(i));
+      }
+      return;
+    }
+    // the instance becomes the only centroid
+    InstanceBlock query = new InstanceBlock(new Instance[] {instance},
+					    block.numAttributes(), block.classIndex(), false);
+    distance(block, from, to, query, distances, 1);
+  }
+
+  /**
+   * Compute the distances from every instance of a block to every centroid
+   * @param block the instances
+   * @param centroids the centroids
+   * @param distances distances[i * k + j] is set to distance(block.instance(i),
+   * centroids.instance(j)), where k is the number of centroids
+   * @exception Exception if a distance could not be estimated
+   */
+  public void distance(InstanceBlock block, InstanceBlock centroids,
+		       double[] distances) throws Exception {
+    distance(block, 0, block.numInstances(), centroids, distances, 1);
+  }
+
+  /**
+   * Compute the distances from every instance of a block to every
+   * centroid with several threads
+   * @param block the instances
+   * @param centroids the centroids
+   * @param distances distances[i * k + j] is set to distance(block.instance(i),
+   * centroids.instance(j)), where k is the number of centroids
+   * @param numThreads the number of threads, 0 for one per processor
+   * @exception Exception if a distance could not be estimated
+   */
+  public void distance(InstanceBlock block, InstanceBlock centroids,
+		       double[] distances, int numThreads) throws Exception {
+    distance(block, 0, block.numInstances(), centroids, distances, numThreads);
+  }
+
+  /**
+   * Compute the distances from a range of the instances of a block to
+   * every centroid.  Every thread takes a contiguous part of the range;
+   * the metric must allow concurrent distance computations.
+   * @param block the instances
+   * @param from the first instance of the range
+   * @param to the instance after the last one of the range
+   * @param centroids the centroids
+   * @param distances distances[(i - from) * k + j] is set to
+   * distance(block.instance(i), centroids.instance(j)), where k is the
+   * number of centroids
+   * @param numThreads the number of threads, 0 for one per processor
+   * @exception Exception if a distance could not be estimated
+   */
+  public void distance(InstanceBlock block, int from, int to, InstanceBlock centroids,
+		       double[] distances, int numThreads) throws Exception {
+    if (distances.length < (to - from) * centroids.numInstances()) {
+      throw new Exception("The array of distances is too small for "
+			  + (to - from) + " instances and "
+			  + centroids.numInstances() + " centroids");
+    }
+    Object rowData = getRowData(block);
+    Object centroidData = prepareCentroids(centroids);
+
+    if (numThreads <= 0) {
+      numThreads = Runtime.getRuntime().availableProcessors();
+    }
+    if (numThreads > (to - from) / MIN_ROWS_PER_THREAD) {
+      numThreads = (to - from) / MIN_ROWS_PER_THREAD;
+    }
+    if (numThreads <= 1) {
+      distanceRows(block, rowData, from, to, centroids, centroidData, distances, from);
+      return;
+    }
+
+    DistanceThread[] workers = new DistanceThread[numThreads];
+    int blockSize = (to - from) / numThreads;
+    int remainder = (to - from) % numThreads;
+    int start = from;
+    for (int i = 0; i < numThreads; i++) {
+      int end = start + blockSize + ((i < remainder) ? 1 : 0);
+      workers[i] = new DistanceThread(block, rowData, start, end, centroids,
+				      centroidData, distances, from);
+      start = end;
+    }
+    // the first part is computed by the current thread
+    for (int i = 1; i < numThreads; i++) {
+      workers[i].start();
+    }
+    workers[0].run();
+    for (int i = 1; i < numThreads; i++) {
+      workers[i].join();
+    }
+    for (int i = 0; i < numThreads; i++) {
+      if (workers[i].m_error != null) {
+	throw workers[i].m_error;
+      }
+    }
+  }
+
+  /** Get the data this metric derives from the rows of a block,
+   * deriving it unless the block holds it for the current state */
+  protected Object getRowData(InstanceBlock block) throws Exception {
+    Object key = getRowDataKey();
+    if (key == null) {
+      return null;
+    }
+    Object rowData = block.getRowData(this, key);
+    if (rowData == null) {
+      rowData = prepareRows(block);
+      block.setRowData(this, key, rowData);
+    }
+    return rowData;
+  }
+
+  /** Get an object that changes whenever the data derived from rows by
+   * prepareRows() would; null if the metric derives no such data.  It is
+   * compared by reference, e.g. the current array of weights. */
+  protected Object getRowDataKey() {
+    return null;
+  }
+
+  /** Derive data from the rows of a block for distanceRows() */
+  protected Object prepareRows(InstanceBlock block) throws Exception {
+    return null;
+  }
+
+  /** Derive data from the centroids for distanceRows() */
+  protected Object prepareCentroids(InstanceBlock centroids) throws Exception {
+    return null;
+  }
+
+  /**
+   * Compute the distances from a range of the instances of a block to
+   * every centroid.  Metrics override this with computations over the
+   * packed values; here the distances are computed pair by pair.
+   * @param block the instances
+   * @param rowData the data prepareRows() derived from the block
+   * @param from the first instance of the range
+   * @param to the instance after the last one of the range
+   * @param centroids the centroids
+   * @param centroidData the data prepareCentroids() derived from the centroids
+   * @param distances the distances, distance(block.instance(i), centroids.instance(j))
+   * goes to distances[(i - offset) * k + j]
+   * @param offset the instance whose distances go first in the array
+   * @exception Exception if a distance could not be estimated
+   */
+  protected void distanceRows(InstanceBlock block, Object rowData, int from, int to,
+			      InstanceBlock centroids, Object centroidData,
+			      double[] distances, int offset) throws Exception {
+    int k = centroids.numInstances();
+    for (int i = from; i < to; i++) {
+      Instance instance = block.instance(i);
+      for (int j = 0; j < k; j++) {
+	distances[(i - offset) * k + j] = distance(instance, centroids.instance(j));
+      }
+    }
+  }
+
+  /** A worker that computes the distances of part of a block */
+  protected class DistanceThread extends Thread {
+    protected InstanceBlock m_block;
+    protected Object m_rowData;
+    protected int m_from;
+    protected int m_to;
+    protected InstanceBlock m_centroids;
+    protected Object m_centroidData;
+    protected double[] m_distances;
+    protected int m_offset;
+    protected Exception m_error = null;
+
+    public DistanceThread(InstanceBlock block, Object rowData, int from, int to,
+			  InstanceBlock centroids, Object centroidData,
+			  double[] distances, int offset) {
+      m_block = block;
+      m_rowData = rowData;
+      m_from = from;
+      m_to = to;
+      m_centroids = centroids;
+      m_centroidData = centroidData;
+      m_distances = distances;
+      m_offset = offset;
+    }
+
+    public void run() {
+      try {
+	distanceRows(m_block, m_rowData, m_from, m_to, m_centroids, m_centroidData,
+		     m_distances, m_offset);
+      } catch (Exception e) {
+	m_error = e;
+      }
+    }
+  }
+
   /** Get the norm-2 length of an instance assuming all attributes are numeric
    * @returns norm-2 length of an instance
    */
@@ -35,4 +35,48 @@ import weka.classifiers.*;
 
 public abstract class OfflineLearnableMetric extends LearnableMetric {
 
+  /**
+   * Extract the values of the non-class attributes of the instances
+   * @param data the instances
+   * @return a matrix with one row per instance
+   */
+  public static double[][] createDataMatrix(Instances data) {
+    int classIndex = data.classIndex();
+    int numAttributes = data.numAttributes();
+    int numValues = (classIndex >= 0) ? numAttributes - 1 : numAttributes;
+    double [][] dataMatrix = new double[data.numInstances()][numValues];
+    for (int i = 0; i < data.numInstances(); i++) {
+      Instance instance = data.instance(i);
+      for (int j = 0, k = 0; j < numAttributes; j++) {
+	if (j != classIndex) {
+	  dataMatrix[i][k++] = instance.value(j);
+	}
+      }
+    }
+    return dataMatrix;
+  }
+
+  /**
+   * Expand a matrix over the non-class attributes to all attributes;
+   * the row and the column of the class attribute are zero
+   * @param matrix a matrix over the non-class attributes
+   * @param numAttributes the number of attributes
+   * @param classIndex the index of the class attribute, or -1
+   * @return the expanded matrix
+   */
+  public static double[][] expandMatrix(double[][] matrix, int numAttributes, int classIndex) {
+    double [][] expanded = new double[numAttributes][numAttributes];
+    for (int i = 0, k = 0; i < numAttributes; i++) {
+      if (i == classIndex) {
+	continue;
+      }
+      for (int j = 0, l = 0; j < numAttributes; j++) {
+	if (j != classIndex) {
+	  expanded[i][j] = matrix[k][l++];
+	}
+      }
+      k++;
+    }
+    return expanded;
+  }
 }
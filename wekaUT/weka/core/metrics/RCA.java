@@ -0,0 +1,150 @@
+/*
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+/*
+ *    RCA.java
+ *    Relevant Component Analysis
+ *
+ */
+
+package weka.core.metrics;
+
+import Jama.Matrix;
+
+/**
+ * Relevant Component Analysis (Bar-Hillel, Hertz, Shental and
+ * Weinshall, 2003).  Points that are known to belong together are
+ * grouped into chunklets; every chunklet is centered on its mean, and
+ * the inverse of the covariance of the centered points is the
+ * Mahalanobis matrix that whitens the within-chunklet variability.
+ */
+public class RCA {
+  /** Condition number above which the within-chunklet covariance is regularized */
+  public static final double MAX_CONDITION = 1e12;
+
+  /** Maximum number of regularization steps */
+  public static final int MAX_REGULARIZATIONS = 1000;
+
+  /**
+   * Learn the RCA Mahalanobis matrix
+   * @param data the data matrix, one row per point
+   * @param chunklets the chunklet of every point; points with a
+   * negative chunklet do not belong to any chunklet
+   * @return the learned matrix, the identity if no chunklet has more
+   * than one point
+   */
+  public static double[][] learnMatrix(double[][] data, int[] chunklets) {
+    int numAttributes = (data.length > 0) ? data[0].length : 0;
+    int numChunklets = 0;
+    for (int i = 0; i < chunklets.length; i++) {
+      if (chunklets[i] >= numChunklets) {
+	numChunklets = chunklets[i] + 1;
+      }
+    }
+
+    // the chunklet means
+    double [][] means = new double[numChunklets][numAttributes];
+    int [] counts = new int[numChunklets];
+    for (int i = 0; i < data.length; i++) {
+      int chunklet = chunklets[i];
+      if (chunklet >= 0) {
+	counts[chunklet]++;
+	for (int j = 0; j < numAttributes; j++) {
+	  means[chunklet][j] += data[i][j];
+	}
+      }
+    }
+    for (int c = 0; c < numChunklets; c++) {
+      for (int j = 0; j < numAttributes; j++) {
+	means[c][j] /= counts[c];
+      }
+    }
+
+    // the covariance of the points centered on their chunklet means
+    double [][] covariance = new double[numAttributes][numAttributes];
+    double [] diff = new double[numAttributes];
+    int numPoints = 0;
+    for (int i = 0; i < data.length; i++) {
+      int chunklet = chunklets[i];
+      if (chunklet < 0 || counts[chunklet] < 2) {
+	continue;
+      }
+      numPoints++;
+      for (int j = 0; j < numAttributes; j++) {
+	diff[j] = data[i][j] - means[chunklet][j];
+      }
+      for (int j = 0; j < numAttributes; j++) {
+	for (int k = 0; k <= j; k++) {
+	  covariance[j][k] += diff[j] * diff[k];
+	}
+      }
+    }
+    if (numPoints == 0) {
+      return Matrix.identity(numAttributes, numAttributes).getArray();
+    }
+    for (int j = 0; j < numAttributes; j++) {
+      for (int k = 0; k <= j; k++) {
+	covariance[j][k] /= numPoints;
+	covariance[k][j] = covariance[j][k];
+      }
+    }
+
+    // make sure that the covariance matrix can be inverted
+    Matrix covarianceMatrix = new Matrix(covariance);
+    double trace = covarianceMatrix.trace();
+    if (trace <= 0) {
+      return Matrix.identity(numAttributes, numAttributes).getArray();
+    }
+    int currIteration = 0;
+    while (!(covarianceMatrix.cond() < MAX_CONDITION) && currIteration++ < MAX_REGULARIZATIONS) {
+      Matrix regularizer = Matrix.identity(numAttributes, numAttributes);
+      regularizer = regularizer.times(trace * 0.01);
+      covarianceMatrix = covarianceMatrix.plus(regularizer);
+    }
+    return covarianceMatrix.inverse().getArray();
+  }
+
+  /**
+   * Check RCA on a toy set with two chunklets.  The first chunklet is
+   * {(0,0), (2,2)}, whose points lie at (-1,-1) and (1,1) from their
+   * mean; the second is {(5,0), (5,2)}, at (0,-1) and (0,1) from theirs.
+   * The singleton chunklet and the unchunked point are ignored, so the
+   * within-chunklet covariance is [[0.5, 0.5], [0.5, 1]] and its inverse,
+   * the whitening matrix, is [[4, -2], [-2, 2]].
+   */
+  public static void main(String[] args) {
+    double [][] data = {{0, 0}, {2, 2}, {5, 0}, {5, 2}, {9, 9}, {-3, 7}};
+    int [] chunklets = {0, 0, 1, 1, 2, -1};
+    double [][] expected = {{4, -2}, {-2, 2}};
+
+    double [][] learned = learnMatrix(data, chunklets);
+    boolean ok = true;
+    for (int j = 0; j < expected.length; j++) {
+      for (int k = 0; k < expected.length; k++) {
+	System.out.print(learned[j][k] + " ");
+	if (Math.abs(learned[j][k] - expected[j][k]) > 1e-10) {
+	  ok = false;
+	}
+      }
+      System.out.println();
+    }
+    if (!ok) {
+      System.err.println("RCA differs from the hand-computed whitening matrix [[4, -2], [-2, 2]]");
+      System.exit(1);
+    }
+    System.out.println("RCA matches the hand-computed whitening matrix");
+  }
+}
@@ -0,0 +1,616 @@
+/*
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+/*
+ *    VPTree.java
+ *    Vantage-point tree over instances for any true metric
+ *
+ */
+
+package weka.core.metrics;
+
+import java.io.Serializable;
+import java.util.*;
+import weka.core.*;
+
+/**
+ * A vantage-point tree for k-nearest-neighbor search that works
+ * directly with a Metric, using nothing but its distance() and the
+ * triangle inequality.  Every internal node holds a vantage point and
+ * two subtrees, and remembers for each subtree the smallest and the
+ * largest distance of its instances to the vantage point; a subtree is
+ * skipped when those bounds prove that none of its instances can be
+ * among the neighbors.  Only metrics whose
+ * satisfiesTriangleInequality() is true may be indexed.<p>
+ *
+ * Instances can be inserted and removed after the tree is built.
+ * Insertion descends to a leaf and widens the bounds along the way;
+ * removal drops the instance from its leaf, or only marks it if it is
+ * a vantage point.  The tree is rebuilt once it has grown to twice
+ * its built size or half of the instances it holds have been removed.
+ * Every instance gets a sequence number when it is added, and the
+ * neighbors are returned in that order, so that a caller can process
+ * them in the same order as a linear scan over the data.<p>
+ *
+ * Search finds all instances whose distance is at most the distance
+ * of the k-th nearest one, ties included, or all instances within a
+ * given radius.  Instances are identified by reference.
+ */
+public class VPTree implements Serializable {
+
+  /** Relative slack for rounding errors of the distances when pruning */
+  protected static final double TOLERANCE = 1e-9;
+
+  /** The metric */
+  protected Metric m_metric;
+
+  /** The largest number of instances in a leaf */
+  protected int m_bucketSize = 32;
+
+  /** The root of the tree */
+  protected Node m_root = null;
+
+  /** Maps every instance in the tree to the node that holds it */
+  protected IdentityHashMap m_nodeMap = new IdentityHashMap();
+
+  /** The sequence number of the next instance added */
+  protected int m_nextId = 0;
+
+  /** The number of instances at the last (re)build, in the tree, and removed but still marked */
+  protected int m_numBuilt = 0;
+  protected int m_numInstances = 0;
+  protected int m_numRemoved = 0;
+
+  /** Selects the vantage points */
+  protected Random m_random = new Random(1);
+
+  /** The number of distances computed by searches, for diagnostics */
+  protected long m_numDistances = 0;
+
+  /** A node of the tree: either a leaf with a bucket of instances, or
+   * an internal node with a vantage point and two subtrees */
+  protected static class Node implements Serializable {
+    /** the vantage point and its sequence number; null in a leaf */
+    protected Instance m_vp = null;
+    protected int m_vpId;
+    protected boolean m_vpRemoved = false;
+
+    /** instances closer to the vantage point than m_split are inserted inside */
+    protected double m_split;
+    protected Node m_inside = null;
+    protected Node m_outside = null;
+
+    /** bounds on the distances of the instances of each subtree to the vantage point */
+    protected double m_insideLo = Double.POSITIVE_INFINITY;
+    protected double m_insideHi = Double.NEGATIVE_INFINITY;
+    protected double m_outsideLo = Double.POSITIVE_INFINITY;
+    protected double m_outsideHi = Double.NEGATIVE_INFINITY;
+
+    /** the bucket of a leaf and the sequence numbers of its instances */
+    protected Instance[] m_items = null;
+    protected int[] m_ids = null;
+    protected int m_count = 0;
+
+    protected boolean isLeaf() {
+      return m_vp == null;
+    }
+  }
+
+  /** The neighbors found by a search, in the order the instances were added */
+  public static class Neighbors {
+    public Instance[] instances;
+    public double[] distances;
+    /** The sequence numbers of the instances */
+    public int[] ids;
+
+    public int size() {
+      return instances.length;
+    }
+  }
+
+  /**
+   * Create an empty tree
+   * @param metric a metric whose distance satisfies the triangle inequality
+   * @exception Exception if the metric is not known to be a true metric
+   */
+  public VPTree(Metric metric) throws Exception {
+    if (!metric.isDistanceBased() || !metric.satisfiesTriangleInequality()) {
+      throw new Exception("Metric " + metric.getClass().getName()
+			  + " cannot be indexed, it does not satisfy the triangle inequality");
+    }
+    m_metric = metric;
+  }
+
+  /**
+   * Build the tree over a set of instances, replacing its contents.
+   * The instances are numbered in dataset order.
+   * @param data the instances
+   */
+  public void build(Instances data) throws Exception {
+    int n = data.numInstances();
+    Instance[] items = new Instance[n];
+    int[] ids = new int[n];
+    for (int i = 0; i < n; i++) {
+      items[i] = data.instance(i);
+      ids[i] = i;
+    }
+    m_nextId = n;
+    build(items, ids, n);
+  }
+
+  /**
+   * Build the tree over an array of instances, replacing its contents.
+   * The instances are numbered in array order.
+   * @param instances the instances
+   */
+  public void build(Instance[] instances) throws Exception {
+    int n = instances.length;
+    Instance[] items = new Instance[n];
+    int[] ids = new int[n];
+    for (int i = 0; i < n; i++) {
+      items[i] = instances[i];
+      ids[i] = i;
+    }
+    m_nextId = n;
+    build(items, ids, n);
+  }
+
+  /** Build the tree over the given instances and sequence numbers */
+  protected void build(Instance[] items, int[] ids, int n) throws Exception {
+    m_nodeMap = new IdentityHashMap();
+    m_root = new Node();
+    build(m_root, items, ids, new double[n], 0, n);
+    m_numBuilt = n;
+    m_numInstances = n;
+    m_numRemoved = 0;
+  }
+
+  /**
+   * Turn a node into the root of a subtree over a range of instances
+   * @param node the node, which is overwritten
+   * @param items the instances
+   * @param ids their sequence numbers
+   * @param dist scratch space for distances
+   * @param start the first instance of the range
+   * @param end the end of the range (exclusive)
+   */
+  protected void build(Node node, Instance[] items, int[] ids, double[] dist,
+		       int start, int end) throws Exception {
+    int n = end - start;
+    if (n <= m_bucketSize) {
+      node.m_vp = null;
+      node.m_items = new Instance[m_bucketSize + 1];
+      node.m_ids = new int[m_bucketSize + 1];
+      node.m_count = n;
+      System.arraycopy(items, start, node.m_items, 0, n);
+      System.arraycopy(ids, start, node.m_ids, 0, n);
+      for (int i = start; i < end; i++) {
+	m_nodeMap.put(items[i], node);
+      }
+      return;
+    }
+
+    // a random vantage point; the rest is split at the median distance
+    swap(items, ids, dist, start, start + m_random.nextInt(n));
+    node.m_vp = items[start];
+    node.m_vpId = ids[start];
+    node.m_vpRemoved = false;
+    node.m_items = null;
+    node.m_ids = null;
+    node.m_count = 0;
+    m_nodeMap.put(node.m_vp, node);
+    for (int i = start + 1; i < end; i++) {
+      dist[i] = m_metric.distance(items[i], node.m_vp);
+    }
+    int mid = (start + 1 + end) / 2;
+    select(items, ids, dist, start + 1, end, mid);
+    node.m_split = dist[mid];
+
+    node.m_insideLo = node.m_outsideLo = Double.POSITIVE_INFINITY;
+    node.m_insideHi = node.m_outsideHi = Double.NEGATIVE_INFINITY;
+    for (int i = start + 1; i < mid; i++) {
+      node.m_insideLo = Math.min(node.m_insideLo, dist[i]);
+      node.m_insideHi = Math.max(node.m_insideHi, dist[i]);
+    }
+    for (int i = mid; i < end; i++) {
+      node.m_outsideLo = Math.min(node.m_outsideLo, dist[i]);
+      node.m_outsideHi = Math.max(node.m_outsideHi, dist[i]);
+    }
+    node.m_inside = new Node();
+    build(node.m_inside, items, ids, dist, start + 1, mid);
+    node.m_outside = new Node();
+    build(node.m_outside, items, ids, dist, mid, end);
+  }
+
+  /** Partially sort a range by distance so that position k holds the
+   * instance it would hold if the range were sorted */
+  protected static void select(Instance[] items, int[] ids, double[] dist,
+			       int start, int end, int k) {
+    int lo = start, hi = end - 1;
+    while (lo < hi) {
+      double pivot = dist[(lo + hi) >>> 1];
+      int i = lo, j = hi;
+      while (i <= j) {
+	while (dist[i] < pivot) {
+	  i++;
+	}
+	while (dist[j] > pivot) {
+	  j--;
+	}
+	if (i <= j) {
+	  swap(items, ids, dist, i++, j--);
+	}
+      }
+      if (k <= j) {
+	hi = j;
+      } else if (k >= i) {
+	lo = i;
+      } else {
+	return;
+      }
+    }
+  }
+
+  protected static void swap(Instance[] items, int[] ids, double[] dist, int i, int j) {
+    Instance item = items[i];
+    items[i] = items[j];
+    items[j] = item;
+    int id = ids[i];
+    ids[i] = ids[j];
+    ids[j] = id;
+    double d = dist[i];
+    dist[i] = dist[j];
+    dist[j] = d;
+  }
+
+  /**
+   * Add an instance to the tree; it is numbered after all instances
+   * added before
+   * @param instance the instance
+   */
+  public void insert(Instance instance) throws Exception {
+    int id = m_nextId++;
+    if (m_root == null) {
+      m_root = new Node();
+      m_root.m_items = new Instance[m_bucketSize + 1];
+      m_root.m_ids = new int[m_bucketSize + 1];
+    }
+
+    Node node = m_root;
+    while (!node.isLeaf()) {
+      double d = m_metric.distance(instance, node.m_vp);
+      if (d < node.m_split) {
+	node.m_insideLo = Math.min(node.m_insideLo, d);
+	node.m_insideHi = Math.max(node.m_insideHi, d);
+	node = node.m_inside;
+      } else {
+	node.m_outsideLo = Math.min(node.m_outsideLo, d);
+	node.m_outsideHi = Math.max(node.m_outsideHi, d);
+	node = node.m_outside;
+      }
+    }
+    if (node.m_count == node.m_items.length) {
+      Instance[] items = new Instance[2 * node.m_count + 1];
+      int[] ids = new int[items.length];
+      System.arraycopy(node.m_items, 0, items, 0, node.m_count);
+      System.arraycopy(node.m_ids, 0, ids, 0, node.m_count);
+      node.m_items = items;
+      node.m_ids = ids;
+    }
+    node.m_items[node.m_count] = instance;
+    node.m_ids[node.m_count] = id;
+    node.m_count++;
+    m_nodeMap.put(instance, node);
+    m_numInstances++;
+
+    if (node.m_count > m_bucketSize) {
+      Instance[] items = node.m_items;
+      int[] ids = node.m_ids;
+      int n = node.m_count;
+      build(node, items, ids, new double[n], 0, n);
+    }
+    if (m_numInstances > 2 * Math.max(m_numBuilt, m_bucketSize)) {
+      rebuild();
+    }
+  }
+
+  /**
+   * Remove an instance from the tree
+   * @param instance the instance
+   * @return true if the instance was in the tree
+   */
+  public boolean remove(Instance instance) throws Exception {
+    Node node = (Node) m_nodeMap.remove(instance);
+    if (node == null) {
+      return false;
+    }
+    if (node.isLeaf()) {
+      for (int i = 0; i < node.m_count; i++) {
+	if (node.m_items[i] == instance) {
+	  node.m_count--;
+	  node.m_items[i] = node.m_items[node.m_count];
+	  node.m_ids[i] = node.m_ids[node.m_count];
+	  node.m_items[node.m_count] = null;
+	  break;
+	}
+      }
+    } else {
+      // the vantage point still guides the search
+      node.m_vpRemoved = true;
+      m_numRemoved++;
+    }
+    m_numInstances--;
+    if (m_numRemoved > m_numInstances) {
+      rebuild();
+    }
+    return true;
+  }
+
+  /** Rebuild the tree from the instances it holds, keeping their sequence numbers */
+  protected void rebuild() throws Exception {
+    Instance[] items = new Instance[m_numInstances];
+    int[] ids = new int[m_numInstances];
+    int n = collect(m_root, items, ids, 0);
+    sortById(items, ids, n);
+    build(items, ids, n);
+  }
+
+  /** Gather the instances of a subtree that have not been removed */
+  protected int collect(Node node, Instance[] items, int[] ids, int n) {
+    if (node == null) {
+      return n;
+    }
+    if (node.isLeaf()) {
+      System.arraycopy(node.m_items, 0, items, n, node.m_count);
+      System.arraycopy(node.m_ids, 0, ids, n, node.m_count);
+      return n + node.m_count;
+    }
+    if (!node.m_vpRemoved) {
+      items[n] = node.m_vp;
+      ids[n] = node.m_vpId;
+      n++;
+    }
+    n = collect(node.m_inside, items, ids, n);
+    return collect(node.m_outside, items, ids, n);
+  }
+
+  /** Sort instances by their sequence numbers */
+  protected static void sortById(Instance[] items, int[] ids, int n) {
+    int[] prefix = new int[n];
+    System.arraycopy(ids, 0, prefix, 0, n);
+    int[] order = Utils.sort(prefix);
+    Instance[] sortedItems = new Instance[n];
+    int[] sortedIds = new int[n];
+    for (int i = 0; i < n; i++) {
+      sortedItems[i] = items[order[i]];
+      sortedIds[i] = ids[order[i]];
+    }
+    System.arraycopy(sortedItems, 0, items, 0, n);
+    System.arraycopy(sortedIds, 0, ids, 0, n);
+  }
+
+  /**
+   * Find the k nearest neighbors of an instance: all instances in the
+   * tree whose distance is no larger than that of the k-th nearest.
+   * Distances are computed as metric.distance(target, instance).
+   * @param target the instance whose neighbors are wanted
+   * @param k the number of neighbors
+   * @param exclude an instance that must not be returned (as for
+   * hold-one-out), or null
+   * @return the neighbors in the order they were added to the tree
+   */
+  public Neighbors kNearestNeighbors(Instance target, int k, Instance exclude) throws Exception {
+    Candidates candidates = new Candidates(Math.max(k, 1));
+    search(m_root, target, exclude, candidates);
+    return toNeighbors(candidates);
+  }
+
+  /**
+   * Find all instances within a radius of an instance.  Distances are
+   * computed as metric.distance(target, instance).
+   * @param target the instance whose neighbors are wanted
+   * @param radius the largest distance of a neighbor
+   * @param exclude an instance that must not be returned, or null
+   * @return the neighbors in the order they were added to the tree
+   */
+  public Neighbors rangeSearch(Instance target, double radius, Instance exclude) throws Exception {
+    Candidates candidates = new RangeCandidates(radius);
+    search(m_root, target, exclude, candidates);
+    return toNeighbors(candidates);
+  }
+
+  /** Report the candidates in sequence order */
+  protected static Neighbors toNeighbors(Candidates candidates) {
+    int n = candidates.m_count;
+    int[] ids = new int[n];
+    System.arraycopy(candidates.m_ids, 0, ids, 0, n);
+    int[] order = Utils.sort(ids);
+    Neighbors neighbors = new Neighbors();
+    neighbors.instances = new Instance[n];
+    neighbors.distances = new double[n];
+    neighbors.ids = new int[n];
+    for (int i = 0; i < n; i++) {
+      neighbors.instances[i] = candidates.m_items[order[i]];
+      neighbors.distances[i] = candidates.m_distances[order[i]];
+      neighbors.ids[i] = candidates.m_ids[order[i]];
+    }
+    return neighbors;
+  }
+
+  /** Visit a subtree, pruning the parts that cannot hold neighbors */
+  protected void search(Node node, Instance target, Instance exclude,
+			Candidates candidates) throws Exception {
+    if (node == null) {
+      return;
+    }
+    if (node.isLeaf()) {
+      for (int i = 0; i < node.m_count; i++) {
+	if (node.m_items[i] != exclude) {
+	  double d = m_metric.distance(target, node.m_items[i]);
+	  m_numDistances++;
+	  candidates.offer(d, node.m_items[i], node.m_ids[i]);
+	}
+      }
+      return;
+    }
+
+    double d = m_metric.distance(target, node.m_vp);
+    m_numDistances++;
+    if (!node.m_vpRemoved && node.m_vp != exclude) {
+      candidates.offer(d, node.m_vp, node.m_vpId);
+    }
+    if (d < node.m_split) {
+      if (mayContain(d, node.m_insideLo, node.m_insideHi, candidates.radius())) {
+	search(node.m_inside, target, exclude, candidates);
+      }
+      if (mayContain(d, node.m_outsideLo, node.m_outsideHi, candidates.radius())) {
+	search(node.m_outside, target, exclude, candidates);
+      }
+    } else {
+      if (mayContain(d, node.m_outsideLo, node.m_outsideHi, candidates.radius())) {
+	search(node.m_outside, target, exclude, candidates);
+      }
+      if (mayContain(d, node.m_insideLo, node.m_insideHi, candidates.radius())) {
+	search(node.m_inside, target, exclude, candidates);
+      }
+    }
+  }
+
+  /** Whether a subtree whose distances to the vantage point lie in
+   * [lo, hi] may hold an instance within radius of a target at
+   * distance d from the vantage point */
+  protected static boolean mayContain(double d, double lo, double hi, double radius) {
+    if (lo > hi) {
+      return false;  // empty
+    }
+    double lowerBound = Math.max(lo - d, d - hi);
+    // NaN distances are never pruned
+    return !(lowerBound > radius + TOLERANCE * (1 + Math.abs(d) + radius));
+  }
+
+  /** The nearest instances found so far, sorted by distance; all
+   * instances tied with the k-th nearest are kept */
+  protected static class Candidates {
+    protected int m_k;
+    protected int m_count = 0;
+    protected double[] m_distances;
+    protected Instance[] m_items;
+    protected int[] m_ids;
+
+    protected Candidates(int k) {
+      m_k = k;
+      m_distances = new double[k + 1];
+      m_items = new Instance[k + 1];
+      m_ids = new int[k + 1];
+    }
+
+    /** The distance within which further instances are of interest */
+    protected double radius() {
+      return (m_count < m_k) ? Double.POSITIVE_INFINITY : m_distances[m_k - 1];
+    }
+
+    protected void offer(double d, Instance item, int id) {
+      if (d > radius()) {
+	return;
+      }
+      if (m_count == m_distances.length) {
+	grow();
+      }
+      int i = m_count;
+      while (i > 0 && !(m_distances[i-1] <= d)) {
+	m_distances[i] = m_distances[i-1];
+	m_items[i] = m_items[i-1];
+	m_ids[i] = m_ids[i-1];
+	i--;
+      }
+      m_distances[i] = d;
+      m_items[i] = item;
+      m_ids[i] = id;
+      m_count++;
+
+      // drop the instances beyond the k-th that are farther than it
+      double radius = radius();
+      while (m_count > m_k && m_distances[m_count-1] > radius) {
+	m_count--;
+	m_items[m_count] = null;
+      }
+    }
+
+    /** Double the capacity of the arrays */
+    protected void grow() {
+      int capacity = 2 * m_distances.length;
+      double[] distances = new double[capacity];
+      Instance[] items = new Instance[capacity];
+      int[] ids = new int[capacity];
+      System.arraycopy(m_distances, 0, distances, 0, m_count);
+      System.arraycopy(m_items, 0, items, 0, m_count);
+      System.arraycopy(m_ids, 0, ids, 0, m_count);
+      m_distances = distances;
+      m_items = items;
+      m_ids = ids;
+    }
+  }
+
+  /** All instances found so far within a fixed radius, unsorted */
+  protected static class RangeCandidates extends Candidates {
+    protected double m_radius;
+
+    protected RangeCandidates(double radius) {
+      super(16);
+      m_radius = radius;
+    }
+
+    protected double radius() {
+      return m_radius;
+    }
+
+    protected void offer(double d, Instance item, int id) {
+      if (!(d <= m_radius)) {
+	return;
+      }
+      if (m_count == m_distances.length) {
+	grow();
+      }
+      m_distances[m_count] = d;
+      m_items[m_count] = item;
+      m_ids[m_count] = id;
+      m_count++;
+    }
+  }
+
+  /** Get the number of instances in the tree */
+  public int numInstances() {
+    return m_numInstances;
+  }
+
+  /** Get the number of distances computed by searches so far */
+  public long getNumDistances() {
+    return m_numDistances;
+  }
+
+  /** Get/set the largest number of instances in a leaf */
+  public int getBucketSize() {
+    return m_bucketSize;
+  }
+  public void setBucketSize(int bucketSize) {
+    m_bucketSize = Math.max(1, bucketSize);
+  }
+
+  /** Get the metric */
+  public Metric getMetric() {
+    return m_metric;
+  }
+}
@@ -772,6 +772,108 @@ public class WeightedDotP extends LearnableMetric implements OptionHandler {
     return false;
   }
 
+  /** The dot product is symmetric unless it is computed by an external learner */
+  public boolean isSymmetric() {
+    return !usesExternalLearner();
+  }
+
+  /** The weighted lengths of the rows */
+  protected Object prepareRows(InstanceBlock block) {
+    double[] lengths = new double[block.numInstances()];
+    double[] values = block.values();
+    for (int i = 0; i < lengths.length; i++) {
+      if (block.isSparse()) {
+	int[] indices = block.indices();
+	int[] rowStart = block.rowStart();
+	for (int l = rowStart[i]; l < rowStart[i + 1]; l++) {
+	  lengths[i] += m_attrWeights[indices[l]] * values[l] * values[l];
+	}
+      } else {
+	int offset = i * block.numAttributes();
+	int numWeighted = Math.min(block.numAttributes(), m_attrWeights.length);
+	for (int l = 0; l < numWeighted; l++) {
+	  lengths[i] += m_attrWeights[l] * values[offset + l] * values[offset + l];
+	}
+      }
+      lengths[i] = Math.sqrt(lengths[i]);
+    }
+    return lengths;
+  }
+
+  /** The centroids multiplied by the weights, and their weighted lengths */
+  protected Object prepareCentroids(InstanceBlock centroids) {
+    int numCentroids = centroids.numInstances();
+    double[][] weightedValues = new double[numCentroids][];
+    double[] lengths = new double[numCentroids];
+    int numWeighted = Math.min(centroids.numAttributes(), m_attrWeights.length);
+    for (int j = 0; j < numCentroids; j++) {
+      weightedValues[j] = centroids.denseRow(j);
+      for (int i = 0; i < weightedValues[j].length; i++) {
+	if (i < numWeighted) {
+	  lengths[j] += m_attrWeights[i] * weightedValues[j][i] * weightedValues[j][i];
+	  weightedValues[j][i] *= m_attrWeights[i];
+	} else {
+	  weightedValues[j][i] = 0;
+	}
+      }
+      lengths[j] = Math.sqrt(lengths[j]);
+    }
+    return new Object[] {weightedValues, lengths};
+  }
+
+  /** Batch distances over the packed values: each is converted from the
+   * dot product of the row with the weighted centroid */
+  protected void distanceRows(InstanceBlock block, Object rowData, int from, int to,
+			      InstanceBlock centroids, Object centroidData,
+			      double[] distances, int offset) throws Exception {
+    if (usesExternalLearner() || block.classIndex() != m_classIndex
+	|| centroids.classIndex() != m_classIndex) {
+      super.distanceRows(block, rowData, from, to, centroids, centroidData, distances, offset);
+      return;
+    }
+    double[] rowLengths = (double[]) rowData;
+    double[][] weightedValues = (double[][]) ((Object[]) centroidData)[0];
+    double[] centroidLengths = (double[]) ((Object[]) centroidData)[1];
+    int k = weightedValues.length;
+    double[] values = block.values();
+    int[] indices = block.indices();
+    int[] rowStart = block.rowStart();
+    int numAttributes = block.numAttributes();
+
+    for (int i = from; i < to; i++) {
+      for (int j = 0; j < k; j++) {
+	double[] centroid = weightedValues[j];
+	double sim = 0;
+	if (block.isSparse()) {
+	  for (int l = rowStart[i]; l < rowStart[i + 1]; l++) {
+	    sim += values[l] * centroid[indices[l]];
+	  }
+	} else {
+	  int rowOffset = i * numAttributes;
+	  for (int l = 0; l < numAttributes; l++) {
+	    sim += values[rowOffset + l] * centroid[l];
+	  }
+	}
+	if (m_lengthNormalized && rowLengths[i] != 0 && centroidLengths[j] != 0) {
+	  sim /= rowLengths[i] * centroidLengths[j];
+	}
+	switch (m_conversionType) {
+	case CONVERSION_LAPLACIAN:
+	  distances[(i - offset) * k + j] = 1 / (1 + sim);
+	  break;
+	case CONVERSION_UNIT:
+	  distances[(i - offset) * k + j] = 2 * (1 - sim);
+	  break;
+	case CONVERSION_EXPONENTIAL:
+	  distances[(i - offset) * k + j] = Math.exp(-sim);
+	  break;
+	default:
+	  throw new Exception ("Unknown similarity to distance conversion method");
+	}
+      }
+    }
+  }
+
   /**
    * Given a cluster of instances, return the centroid of that cluster
    * @param instances objects belonging to a cluster
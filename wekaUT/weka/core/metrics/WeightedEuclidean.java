@@ -650,6 +650,94 @@ public class WeightedEuclidean extends  LearnableMetric implements OptionHandler
     return true;
   }
 
+  /** Weighted Euclidean distance is a metric as long as no weight is
+   * negative and it is not computed by an external learner
+   * @returns true if distance() is a true metric
+   */
+  public boolean satisfiesTriangleInequality() {
+    if ((m_trainable && m_external && m_trained) || m_attrWeights == null) {
+      return false;
+    }
+    for (int i = 0; i < m_attrWeights.length; i++) {
+      if (!(m_attrWeights[i] >= 0)) {
+	return false;
+      }
+    }
+    return true;
+  }
+
+  /** Weighted Euclidean distance is symmetric unless it is computed by
+   * an external learner */
+  public boolean isSymmetric() {
+    return !usesExternalLearner();
+  }
+
+  /** Unpack the centroids and compute their weighted squared lengths,
+   * which the distances of sparse rows start from */
+  protected Object prepareCentroids(InstanceBlock centroids) {
+    int numCentroids = centroids.numInstances();
+    double[][] values = new double[numCentroids][];
+    double[] lengths = new double[numCentroids];
+    int numAttributes = Math.min(centroids.numAttributes(), m_attrWeights.length);
+    for (int j = 0; j < numCentroids; j++) {
+      values[j] = centroids.denseRow(j);
+      for (int i = 0; i < numAttributes; i++) {
+	lengths[j] += m_attrWeights[i] * values[j][i] * values[j][i];
+      }
+    }
+    return new Object[] {values, lengths};
+  }
+
+  /** Batch distances over the packed values.  A sparse row only visits
+   * its non-zero values: its squared distance is the squared length of
+   * the centroid corrected by w * x * (x - 2 * c) for every value x. */
+  protected void distanceRows(InstanceBlock block, Object rowData, int from, int to,
+			      InstanceBlock centroids, Object centroidData,
+			      double[] distances, int offset) throws Exception {
+    if (usesExternalLearner() || block.classIndex() != m_classIndex
+	|| centroids.classIndex() != m_classIndex) {
+      super.distanceRows(block, rowData, from, to, centroids, centroidData, distances, offset);
+      return;
+    }
+    double[][] centroidValues = (double[][]) ((Object[]) centroidData)[0];
+    double[] centroidLengths = (double[]) ((Object[]) centroidData)[1];
+    int k = centroidValues.length;
+    double[] weights = m_attrWeights;
+    double[] values = block.values();
+
+    if (block.isSparse()) {
+      int[] indices = block.indices();
+      int[] rowStart = block.rowStart();
+      for (int i = from; i < to; i++) {
+	for (int j = 0; j < k; j++) {
+	  double[] centroid = centroidValues[j];
+	  double distance = centroidLengths[j];
+	  for (int l = rowStart[i]; l < rowStart[i + 1]; l++) {
+	    int attrIdx = indices[l];
+	    double value = values[l];
+	    distance += weights[attrIdx] * value * (value - 2 * centroid[attrIdx]);
+	  }
+	  distances[(i - offset) * k + j] = (distance > 0) ? Math.sqrt(distance) : 0;
+	}
+      }
+    } else {
+      int numAttributes = block.numAttributes();
+      int numWeighted = Math.min(numAttributes, weights.length);
+      for (int i = from; i < to; i++) {
+	int rowOffset = i * numAttributes;
+	for (int j = 0; j < k; j++) {
+	  double[] centroid = centroidValues[j];
+	  double distance = 0;
+	  for (int l = 0; l < numWeighted; l++) {
+	    double diff = values[rowOffset + l] - centroid[l];
+	    distance += weights[l] * diff * diff;
+	  }
+	  distances[(i - offset) * k + j] = Math.sqrt(distance);
+	}
+      }
+    }
+  }
+
   /**
    * Given a cluster of instances, return the centroid of that cluster
    * @param instances objects belonging to a cluster
@@ -47,6 +47,12 @@ public class WeightedMahalanobis extends  LearnableMetric implements OptionHandl
   /** A hash where instances are projected using the weights */
   protected HashMap m_projectedInstanceHash = null;
 
+  /** A dataset whose instances are projected in advance, so that
+   * distances to them need neither hash lookups nor allocations; the
+   * projections are recomputed every time the weights change */
+  protected transient Instances m_cachedInstances = null;
+  protected transient double[][] m_projectedInstances = null;
+
   /** Max instance storage (max is in the space of projected instances, values are in **ORIGINAL** space)
    *  Currently somewhat convoluted, TODO:  re-write the max value code in MPCKMeans */
   protected double [][] m_maxPoints = null;
@@ -102,6 +108,7 @@ public class WeightedMahalanobis extends  LearnableMetric implements OptionHandl
 	m_weightsMatrixSquare[i][i] = 1; 
       }
     }
+    projectCachedInstances();
     recomputeNormalizer();
     recomputeRegularizer();
   }
@@ -170,27 +177,7 @@ public class WeightedMahalanobis extends  LearnableMetric implements OptionHandl
   public double distance(Instance instance1, Instance instance2) throws Exception {
     double distance = 0; 
     if (m_weightsMatrixSquare != null) {
-      double [] projValues1;
-      double [] projValues2;
-      if (m_projectedInstanceHash.containsKey(instance1)) {
-	projValues1 = (double []) m_projectedInstanceHash.get(instance1);
-      } else {
-	projValues1 = projectInstance(instance1); 
-      }
-
-      if (m_projectedInstanceHash.containsKey(instance2)) {
-	projValues2 = (double []) m_projectedInstanceHash.get(instance2);
-      } else {
-	projValues2 = projectInstance(instance2); 
-      }
-
-      double diff = 0;
-      for (int i = 0; i < projValues1.length; i++) {
-	if (i != m_classIndex) {
-	  diff = projValues1[i] - projValues2[i];
-	  distance += diff * diff;
-	}
-      }
+      return distance(getProjection(instance1), getProjection(instance2));
     } else {  // do the full matrix computation
       //      System.out.println("full matrix");
       double[] diffValues = new double[m_weightsMatrix.length];
@@ -198,21 +185,88 @@ public class WeightedMahalanobis extends  LearnableMetric implements OptionHandl
 	diffValues[i] = instance1.value(i) - instance2.value(i);
       }
 
-      double [] xyM = new double[m_weightsMatrix.length];
       for (int i = 0; i < m_weightsMatrix.length; i++) {
+	double xyM = 0;
 	for (int j = 0; j < m_weightsMatrix.length; j++) {
-	  xyM[i] += diffValues[j] * m_weightsMatrix[j][i];
+	  xyM += diffValues[j] * m_weightsMatrix[j][i];
 	}
+	distance += xyM * diffValues[i];
       }
+    }
+    distance = Math.sqrt(distance);
+    return distance;
+  }
 
-      for (int i = 0; i < m_weightsMatrix.length; i++) {
-	distance += xyM[i] * diffValues[i];
+  /**
+   * Returns the distance between two projected instances
+   * @param projValues1 projection of the first instance
+   * @param projValues2 projection of the second instance
+   */
+  public double distance(double[] projValues1, double[] projValues2) {
+    double distance = 0; 
+    double diff = 0;
+    for (int i = 0; i < projValues1.length; i++) {
+      if (i != m_classIndex) {
+	diff = projValues1[i] - projValues2[i];
+	distance += diff * diff;
       }
     }
     distance = Math.sqrt(distance);
     return distance;
   }
 
+  /** Get the projection of an instance from the cache or the hash,
+   * projecting it if necessary; safe to call from several threads */
+  protected double[] getProjection(Instance instance) {
+    synchronized (m_projectedInstanceHash) {
+      double [] projValues = (double []) m_projectedInstanceHash.get(instance);
+      if (projValues == null) {
+	projValues = projectInstance(instance); 
+      }
+      return projValues;
+    }
+  }
+
+  /**
+   * Project a dataset in advance every time the weights change.  Its
+   * projections can then be retrieved with getCachedProjection().
+   * @param instances the dataset, or null to drop the cache
+   */
+  public void setCachedInstances(Instances instances) {
+    m_cachedInstances = instances;
+    projectCachedInstances();
+  }
+
+  /** Recompute the projections of the cached dataset */
+  protected void projectCachedInstances() {
+    m_projectedInstances = null;
+    if (m_cachedInstances == null || m_weightsMatrixSquare == null) {
+      return;
+    }
+    double[][] projectedInstances = new double[m_cachedInstances.numInstances()][];
+    for (int i = 0; i < projectedInstances.length; i++) {
+      projectedInstances[i] = projectValues(m_cachedInstances.instance(i));
+    }
+    m_projectedInstances = projectedInstances;
+  }
+
+  /**
+   * Get the projection of an instance of the cached dataset
+   * @param instance the instance
+   * @param instIdx the index of the instance in the dataset
+   * @return the projection, or null if the instance is not the one
+   * cached under this index or the full matrix has to be used
+   */
+  public double[] getCachedProjection(Instance instance, int instIdx) {
+    double[][] projectedInstances = m_projectedInstances;
+    if (projectedInstances == null || m_weightsMatrixSquare == null
+	|| instIdx >= projectedInstances.length
+	|| m_cachedInstances.instance(instIdx) != instance) {
+      return null;
+    }
+    return projectedInstances[instIdx];
+  }
+
   /** Return the penalty contribution - distance*distance */
   public double penalty(Instance instance1,
 			Instance instance2) throws Exception {
@@ -230,11 +284,8 @@ public class WeightedMahalanobis extends  LearnableMetric implements OptionHandl
 
   /** given an instance, project it using the weights matrix and store it in the hash */
   public double[] projectInstance(Instance instance) {
-    int numValues = instance.numValues();
-    double[] values = instance.toDoubleArray();
-    double[] projValues = new double[numValues];
-
-    if (m_weightsMatrixSquare == null) {
+    double[] projValues = projectValues(instance);
+    if (projValues == null) {
       return null; 
     } 
 
@@ -247,10 +298,6 @@ public class WeightedMahalanobis extends  LearnableMetric implements OptionHandl
     
     for (int i = 0; i < m_weightsMatrix.length; i++) {
       if (i != m_classIndex) {
-	for (int j = 0; j < m_weightsMatrix.length; j++) {
-	  projValues[i] += values[j] * m_weightsMatrixSquare[j][i];
-	}
-
 	// update the enclosing maxPoints
 	if (projValues[i] < m_maxProjPoints[0][i]) {
 	  m_maxProjPoints[0][i] = projValues[i];
@@ -258,11 +305,30 @@ public class WeightedMahalanobis extends  LearnableMetric implements OptionHandl
 	if (projValues[i] > m_maxProjPoints[1][i]) {
 	  m_maxProjPoints[1][i] = projValues[i];
 	} 
+      }
+    }
+    m_projectedInstanceHash.put(instance, projValues);
+    return projValues;
+  }
+
+  /** given an instance, project it using the weights matrix without
+   * storing it anywhere; returns null if the full matrix has to be used */
+  public double[] projectValues(Instance instance) {
+    if (m_weightsMatrixSquare == null) {
+      return null; 
+    } 
+
+    double[] values = instance.toDoubleArray();
+    double[] projValues = new double[values.length];
+    for (int i = 0; i < m_weightsMatrix.length; i++) {
+      if (i != m_classIndex) {
+	for (int j = 0; j < m_weightsMatrix.length; j++) {
+	  projValues[i] += values[j] * m_weightsMatrixSquare[j][i];
+	}
       } else { // class attribute
 	projValues[i] = values[i];
       } 
     }
-    m_projectedInstanceHash.put(instance, projValues);
     return projValues;
   }
 
@@ -305,6 +371,7 @@ public class WeightedMahalanobis extends  LearnableMetric implements OptionHandl
 //        }
       if (m_weightsMatrixSquare != null) { 
 	m_weightsMatrixSquare = null;
+	m_projectedInstances = null;
 	System.out.println("recursing");
 	return getMaxPoints(constraintMap, instances);
       } else {
@@ -538,6 +605,7 @@ public class WeightedMahalanobis extends  LearnableMetric implements OptionHandl
     m_projectedInstanceHash = new HashMap();
     m_maxPoints = null;
     m_maxProjPoints = null;
+    projectCachedInstances();
 
     recomputeNormalizer();
     recomputeRegularizer();
@@ -650,6 +718,103 @@ public class WeightedMahalanobis extends  LearnableMetric implements OptionHandl
     return true;
   }
 
+  /** The distance is Euclidean between projections as long as the
+   * weight matrix has a square root; otherwise it is not known to be a metric
+   * @returns true if distance() is a true metric
+   */
+  public boolean satisfiesTriangleInequality() {
+    return m_weightsMatrixSquare != null;
+  }
+
+  /** (x - y)' * W * (x - y) is symmetric with any weight matrix */
+  public boolean isSymmetric() {
+    return true;
+  }
+
+  /** Projections of rows depend on the square root of the weights */
+  protected Object getRowDataKey() {
+    return m_weightsMatrixSquare;
+  }
+
+  /** The projections of the rows */
+  protected Object prepareRows(InstanceBlock block) {
+    double[][] projections = new double[block.numInstances()][];
+    for (int i = 0; i < projections.length; i++) {
+      projections[i] = projectRow(block, i);
+    }
+    return projections;
+  }
+
+  /** The projections of the centroids */
+  protected Object prepareCentroids(InstanceBlock centroids) {
+    if (m_weightsMatrixSquare == null) {
+      return null;
+    }
+    return prepareRows(centroids);
+  }
+
+  /** Project a row of a block as projectValues() projects an instance,
+   * visiting only the non-zero values of a sparse row */
+  protected double[] projectRow(InstanceBlock block, int i) {
+    double[][] weightsSquare = m_weightsMatrixSquare;
+    int numWeighted = Math.min(block.numAttributes(), weightsSquare.length);
+    double[] projValues = new double[numWeighted];
+    double[] values = block.values();
+    if (block.isSparse()) {
+      int[] indices = block.indices();
+      int[] rowStart = block.rowStart();
+      for (int l = rowStart[i]; l < rowStart[i + 1]; l++) {
+	if (indices[l] < numWeighted) {
+	  double[] weightsRow = weightsSquare[indices[l]];
+	  for (int j = 0; j < numWeighted; j++) {
+	    projValues[j] += values[l] * weightsRow[j];
+	  }
+	}
+      }
+    } else {
+      int offset = i * block.numAttributes();
+      for (int l = 0; l < numWeighted; l++) {
+	double value = values[offset + l];
+	if (value != 0) {
+	  double[] weightsRow = weightsSquare[l];
+	  for (int j = 0; j < numWeighted; j++) {
+	    projValues[j] += value * weightsRow[j];
+	  }
+	}
+      }
+    }
+    return projValues;
+  }
+
+  /** Batch distances between projections; without a square root of the
+   * weight matrix they are computed pair by pair */
+  protected void distanceRows(InstanceBlock block, Object rowData, int from, int to,
+			      InstanceBlock centroids, Object centroidData,
+			      double[] distances, int offset) throws Exception {
+    if (rowData == null || centroidData == null || block.classIndex() != m_classIndex
+	|| centroids.classIndex() != m_classIndex) {
+      super.distanceRows(block, rowData, from, to, centroids, centroidData, distances, offset);
+      return;
+    }
+    double[][] projections = (double[][]) rowData;
+    double[][] centroidProjections = (double[][]) centroidData;
+    int k = centroidProjections.length;
+    for (int i = from; i < to; i++) {
+      double[] projValues = projections[i];
+      for (int j = 0; j < k; j++) {
+	double[] centroid = centroidProjections[j];
+	double distance = 0;
+	for (int l = 0; l < projValues.length; l++) {
+	  if (l != m_classIndex) {
+	    double diff = projValues[l] - centroid[l];
+	    distance += diff * diff;
+	  }
+	}
+	distances[(i - offset) * k + j] = Math.sqrt(distance);
+      }
+    }
+  }
+
   /**
    * Given a cluster of instances, return the centroid of that cluster
    * @param instances objects belonging to a cluster
@@ -755,6 +920,8 @@ public class WeightedMahalanobis extends  LearnableMetric implements OptionHandl
   public Object clone() {
     WeightedMahalanobis m = null; 
     m = (WeightedMahalanobis) super.clone();
+    m.m_cachedInstances = null;
+    m.m_projectedInstances = null;
     
     return m;
   }
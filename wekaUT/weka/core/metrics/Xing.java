@@ -0,0 +1,261 @@
+/*
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+/*
+ *    Xing.java
+ *    Full-matrix metric learning with side information
+ *
+ */
+
+package weka.core.metrics;
+
+import Jama.Matrix;
+import Jama.EigenvalueDecomposition;
+
+/**
+ * Full-matrix Mahalanobis metric learning of Xing, Ng, Jordan and
+ * Russell (2003).  The learned matrix A maximizes log sum_D ||x_i -
+ * x_j||_A over the dissimilar pairs D, subject to sum_S ||x_i -
+ * x_j||_A^2 <= t over the similar pairs S and A being positive
+ * semi-definite.  Gradient ascent steps are followed by iterated
+ * projections onto the two constraint sets, with the step size grown
+ * after improving steps and halved otherwise, as in the authors'
+ * opt.m.
+ */
+public class Xing {
+  /** Initial step size */
+  public static final double LEARNING_RATE = 0.1;
+
+  /** Relative change of A below which the ascent stops */
+  public static final double THRESHOLD = 0.01;
+
+  /** Relative violation of the similarity constraint tolerated by the projections */
+  public static final double EPSILON = 0.01;
+
+  /** Maximum number of ascent steps */
+  public static final int MAX_COUNT = 100;
+
+  /**
+   * Learn the matrix
+   * @param data the data matrix, one row per point
+   * @param similarPairs indices of similar pairs, one {i, j} per row
+   * @param dissimilarPairs indices of dissimilar pairs, one {i, j} per row
+   * @param maxIter maximum number of projection iterations per step
+   * @return the learned matrix, the identity if there are no dissimilar pairs
+   */
+  public static double[][] learnMatrix(double[][] data, int[][] similarPairs,
+				       int[][] dissimilarPairs, int maxIter) {
+    int numAttributes = (data.length > 0) ? data[0].length : 0;
+    if (dissimilarPairs.length == 0) {
+      return Matrix.identity(numAttributes, numAttributes).getArray();
+    }
+    double [][] similarDiffs = createDiffs(data, similarPairs);
+    double [][] dissimilarDiffs = createDiffs(data, dissimilarPairs);
+
+    // the similarity constraint is <W, A> <= t
+    Matrix W = new Matrix(numAttributes, numAttributes);
+    for (int p = 0; p < similarDiffs.length; p++) {
+      addOuterProduct(W, similarDiffs[p], 1.0);
+    }
+    Matrix A = Matrix.identity(numAttributes, numAttributes).times(0.1);
+    double wNorm2 = innerProduct(W, W);
+    double t = innerProduct(W, A) / 100;
+
+    Matrix grad1 = W;
+    Matrix grad2 = dissimilarGradient(dissimilarDiffs, A);
+    Matrix M = projectGradient(grad1, grad2);
+    Matrix lastA = A;
+    double learningRate = LEARNING_RATE;
+
+    for (int cycle = 0; cycle < MAX_COUNT; cycle++) {
+      // alternate projections onto the similarity constraint and the PSD cone
+      boolean satisfied = false;
+      for (int iter = 0; iter < maxIter && !satisfied; iter++) {
+	double wA = innerProduct(W, A);
+	if (wA > t) {
+	  A = A.plus(W.times((t - wA) / wNorm2));
+	}
+	A = projectPSD(A);
+	satisfied = (wNorm2 == 0) || (innerProduct(W, A) - t) / t <= EPSILON;
+      }
+
+      double lastObjective = dissimilarObjective(dissimilarDiffs, lastA);
+      double objective = dissimilarObjective(dissimilarDiffs, A);
+      if ((objective > lastObjective || cycle == 0) && satisfied) {
+	learningRate *= 1.05;
+	lastA = A;
+	grad2 = dissimilarGradient(dissimilarDiffs, A);
+	M = projectGradient(grad1, grad2);
+	A = A.plus(M.times(learningRate));
+      } else {
+	learningRate /= 2;
+	A = lastA.plus(M.times(learningRate));
+      }
+
+      double lastNorm = lastA.normF();
+      if (lastNorm == 0 || M.normF() * learningRate / lastNorm < THRESHOLD) {
+	break;
+      }
+    }
+    return lastA.getArray();
+  }
+
+  /** Compute the differences of the pairs of points */
+  protected static double[][] createDiffs(double[][] data, int[][] pairs) {
+    double [][] diffs = new double[pairs.length][];
+    for (int p = 0; p < pairs.length; p++) {
+      double [] values1 = data[pairs[p][0]];
+      double [] values2 = data[pairs[p][1]];
+      diffs[p] = new double[values1.length];
+      for (int j = 0; j < values1.length; j++) {
+	diffs[p][j] = values1[j] - values2[j];
+      }
+    }
+    return diffs;
+  }
+
+  /** Add a scaled outer product diff * diff' to a matrix */
+  protected static void addOuterProduct(Matrix matrix, double[] diff, double scale) {
+    double [][] values = matrix.getArray();
+    for (int j = 0; j < diff.length; j++) {
+      for (int k = 0; k < diff.length; k++) {
+	values[j][k] += scale * diff[j] * diff[k];
+      }
+    }
+  }
+
+  /** Compute the Frobenius inner product of two matrices */
+  protected static double innerProduct(Matrix a, Matrix b) {
+    double [][] aValues = a.getArray();
+    double [][] bValues = b.getArray();
+    double product = 0;
+    for (int j = 0; j < aValues.length; j++) {
+      for (int k = 0; k < aValues[j].length; k++) {
+	product += aValues[j][k] * bValues[j][k];
+      }
+    }
+    return product;
+  }
+
+  /** Compute the distance diff' * A * diff */
+  protected static double quadraticForm(Matrix A, double[] diff) {
+    double [][] values = A.getArray();
+    double distance = 0;
+    for (int j = 0; j < diff.length; j++) {
+      double innerProduct = 0;
+      for (int k = 0; k < diff.length; k++) {
+	innerProduct += values[j][k] * diff[k];
+      }
+      distance += diff[j] * innerProduct;
+    }
+    return distance;
+  }
+
+  /** The objective: the log of the summed distances of the dissimilar pairs */
+  protected static double dissimilarObjective(double[][] diffs, Matrix A) {
+    double sum = 0;
+    for (int p = 0; p < diffs.length; p++) {
+      sum += Math.sqrt(Math.max(quadraticForm(A, diffs[p]), 0));
+    }
+    return Math.log(sum);
+  }
+
+  /** The gradient of the objective with respect to A */
+  protected static Matrix dissimilarGradient(double[][] diffs, Matrix A) {
+    int numAttributes = A.getRowDimension();
+    Matrix gradient = new Matrix(numAttributes, numAttributes);
+    double sum = 0;
+    for (int p = 0; p < diffs.length; p++) {
+      double distance = Math.sqrt(Math.max(quadraticForm(A, diffs[p]), 0));
+      sum += distance;
+      if (distance > 0) {
+	addOuterProduct(gradient, diffs[p], 0.5 / distance);
+      }
+    }
+    if (sum > 0) {
+      gradient = gradient.times(1.0 / sum);
+    }
+    return gradient;
+  }
+
+  /** Project grad2 onto the orthogonal complement of grad1 and normalize it */
+  protected static Matrix projectGradient(Matrix grad1, Matrix grad2) {
+    double norm2 = grad2.normF();
+    if (norm2 == 0) {
+      return grad2;
+    }
+    Matrix projection = grad2.times(1.0 / norm2);
+    double norm1 = grad1.normF();
+    if (norm1 > 0) {
+      Matrix unit1 = grad1.times(1.0 / norm1);
+      projection = projection.minus(unit1.times(innerProduct(unit1, projection)));
+    }
+    double norm = projection.normF();
+    return (norm > 0) ? projection.times(1.0 / norm) : projection;
+  }
+
+  /** Project a matrix onto the cone of symmetric positive semi-definite matrices */
+  protected static Matrix projectPSD(Matrix A) {
+    A = A.plus(A.transpose()).times(0.5);
+    EigenvalueDecomposition ed = A.eig();
+    Matrix V = ed.getV();
+    double [] evalues = ed.getRealEigenvalues();
+    Matrix D = new Matrix(evalues.length, evalues.length);
+    for (int i = 0; i < evalues.length; i++) {
+      D.set(i, i, Math.max(evalues[i], 0));
+    }
+    return V.times(D).times(V.transpose());
+  }
+
+  /**
+   * Check Xing on a toy set of the corners of a 4x3 rectangle, where the
+   * similar pairs differ by 4 in x and the dissimilar pairs by 3 in y.
+   * W is then [[32, 0], [0, 0]] and t = <W, 0.1*I>/100 = 0.032, so the
+   * first projection sets A_xx to t/32 = 0.001, and no later step can
+   * change it, since the dissimilar pairs only move A_yy.  A_xy stays 0
+   * and the ascent grows A_yy from 0.1.  Two runs must give the same
+   * matrix.
+   */
+  public static void main(String[] args) {
+    double [][] data = {{0, 0}, {4, 0}, {0, 3}, {4, 3}};
+    int [][] similarPairs = {{0, 1}, {2, 3}};
+    int [][] dissimilarPairs = {{0, 2}, {1, 3}};
+
+    double [][] learned = learnMatrix(data, similarPairs, dissimilarPairs, 100);
+    double [][] again = learnMatrix(data, similarPairs, dissimilarPairs, 100);
+    boolean ok = true;
+    for (int j = 0; j < learned.length; j++) {
+      for (int k = 0; k < learned.length; k++) {
+	System.out.print(learned[j][k] + " ");
+	if (learned[j][k] != again[j][k]) {
+	  ok = false;
+	}
+      }
+      System.out.println();
+    }
+    if (!ok) {
+      System.err.println("Xing is not deterministic");
+      System.exit(1);
+    }
+    if (Math.abs(learned[0][0] - 0.001) > 0.001 * EPSILON
+	|| Math.abs(learned[0][1]) > 1e-10 || Math.abs(learned[1][0]) > 1e-10
+	|| !(learned[1][1] > 0.1)) {
+      System.err.println("Xing differs from A_xx = 0.001, A_xy = 0, A_yy > 0.1");
+      System.exit(1);
+    }
+    System.out.println("Xing matches the hand-computed constraints");
+  }
+}
@@ -25,10 +25,10 @@ package weka.core.metrics;
 import weka.core.*;
 import weka.clusterers.InstancePair;
 import java.util.*;
-import java.io.*;
 
 /**
- * Class for performing RCA according to Bar-Hillel's algorithm. <p>
+ * Class for learning a full Mahalanobis matrix from pairwise
+ * constraints with the algorithm of Xing et al. <p>
  *
  *
  * @author Sugato Basu
@@ -47,13 +47,7 @@ public class XingMetric extends OfflineLearnableMetric
   /** instances used to train metric */
   Instances m_trainInstances = null;
 
-  /** similarity constraints (pairwise-similarity matrix: m_simConstraints[i][j] = 1 if i annd j are similar) */
-  int [][] m_simConstraints = null;
-
-  /** disimilarity constraints (pairwise-disimilarity matrix: m_diffConstraints[i][j] = 1 if i and j are different) */
-  int [][] m_diffConstraints = null;
-
-  /** full matrix returned by Octave code */
+  /** full matrix learned by Xing's algorithm */
   protected double [][] m_attrMatrix = null;
 
   /** max number of iterations */
@@ -71,29 +65,6 @@ public class XingMetric extends OfflineLearnableMetric
   /** The method of converting, by default laplacian */
   protected int m_conversionType = CONVERSION_LAPLACIAN;
 
-  /** Name of the Octave program file that computes XING */
-  protected String m_XINGMFileToken = new String("XINGmetric.m");
-  protected String m_XINGMFile = "/var/local/" + m_XINGMFileToken;
-
-  /** A timestamp suffix for matching vectors with attributes */
-  String m_timestamp = null;
-
-  /** Name of the file where attribute names will be stored */
-  String m_xingAttributeMatrixFilenameToken = new String("XINGattributeMatrix");
-  String m_xingAttributeMatrixFilename = "/var/local/" + m_xingAttributeMatrixFilenameToken;
-  
-  /** Name of the file where dataMatrix will be stored */
-  public String m_dataFilenameToken = new String("XINGdataMatrix");
-  public String m_dataFilename = "/var/local/" + m_dataFilenameToken;
-  
-  /** Name of the file where simConstaints will be stored */
-  public String m_simConstraintsFilenameToken = new String("XINGsimConstraints");
-  public String m_simConstraintsFilename = "/var/local/" + m_simConstraintsFilenameToken;
-
-  /** Name of the file where diffConstaints will be stored */
-  public String m_diffConstraintsFilenameToken = new String("XINGdiffConstraints");
-  public String m_diffConstraintsFilename = "/var/local/" + m_diffConstraintsFilenameToken;
-  
   /**
    * Create a new metric.
    * @param numAttributes the number of attributes that the metric will work on
@@ -291,224 +262,38 @@ public class XingMetric extends OfflineLearnableMetric
   }
 
 
+  /**
+   * Learn the metric matrix with Xing's algorithm
+   * @param data the instances
+   * @param constraintsHash ([InstancePair] -> [link type]) mapping
+   */
   public void buildAttributeMatrix (Instances data, HashMap constraintsHash) throws Exception {
-
-    m_simConstraints = new int[m_numInstances][m_numInstances];
-    m_diffConstraints = new int[m_numInstances][m_numInstances];
-
-    for (int i=0; i<m_numInstances; i++) {
-      for (int j=0; j<m_numInstances; j++) {
-	m_simConstraints[i][j] = 0;
-	m_diffConstraints[i][j] = 0;
-      }
-    }
-
-    Iterator iter = ((Set) constraintsHash.keySet()).iterator();; 
+    ArrayList simPairs = new ArrayList();
+    ArrayList diffPairs = new ArrayList();
+    Iterator iter = constraintsHash.entrySet().iterator();
     while (iter.hasNext()) {
-      InstancePair pair = (InstancePair) iter.next();
-      int first = pair.first;
-      int second = pair.second;
-      int linkType = ((Integer) constraintsHash.get(pair)).intValue();
+      Map.Entry entry = (Map.Entry) iter.next();
+      InstancePair pair = (InstancePair) entry.getKey();
+      int linkType = ((Integer) entry.getValue()).intValue();
       if (linkType == InstancePair.MUST_LINK) {
-	m_simConstraints[first][second] = 1;
-	m_simConstraints[second][first] = 1;
+	simPairs.add(new int[] {pair.first, pair.second});
       } else if (linkType == InstancePair.CANNOT_LINK) {
-	m_diffConstraints[first][second] = 1;
-	m_diffConstraints[second][first] = 1;
+	diffPairs.add(new int[] {pair.first, pair.second});
       } else {
 	System.err.println("\n\nERROR!! Wrong constraint type!!\n\n");
       }
     }
 
     m_numInstances = data.numInstances();
-    m_numAttribs = data.instance(1).numAttributes();
+    m_numAttribs = data.numAttributes();
 
-    if (m_timestamp == null) { 
-      m_timestamp = getLogTimestamp();
-    }
-    
     System.out.println("About to run XING on " + m_numInstances + " instances, each with " + m_numAttribs + " attributes");
-    dumpInstances(m_dataFilename);
-    dumpConstraints(m_simConstraintsFilename, m_diffConstraintsFilename);
-    prepareOctave(m_XINGMFile);
-    runOctave(m_XINGMFile, "/var/local/XINGoctave.output");
-    System.out.println("Done running Octave code ... now parsing octave output files");
-
-    m_attrMatrix = readMatrix(m_xingAttributeMatrixFilename);
-
-    if (m_attrMatrix == null) {
-      System.out.println("WARNING!! Could not parse octave output file!!\n\n");
-    }
-    else {
-      System.out.println("Successfully parsed octave output file and learned metric");
-    }
-  }
-
-  /**
-   * Read column vectors from a text file
-   * @param name file name
-   * @return a <code>double[][]</code> value
-   * @exception Exception if an error occurs
-   * @returns double[][] array corresponding to vectors
-   */
-  public double[][] readMatrix(String name) throws Exception {
-    System.out.println("Trying to read file: " + name);
-    BufferedReader r = new BufferedReader(new FileReader(name));
-        
-    double[][] vectors = new double[m_numAttribs][m_numAttribs];
-    int i = 0, j = 0;
-    String s = null;
-
-    // initial rows till "#columns: d" -- ignore
-    do {
-      s =  r.readLine();
-    } while (!s.startsWith("# columns"));
-
-    //    System.out.println("Line: " + s);
-
-    while ((s = r.readLine()) != null) {
-      StringTokenizer tokenizer = new StringTokenizer(s);
-      while (tokenizer.hasMoreTokens()) {
-	String value = tokenizer.nextToken();
-	try { 
-	  vectors[i][j] = Double.parseDouble(value);
-	} catch (Exception e) {
-	  System.err.println("Couldn't parse " + value + " as double");
-	}
-	j++;
-	if (j > m_numAttribs) {
-	  System.err.println("Too many columns (" + j + " instead of " + m_numAttribs + ") in line: " + s);
-	}
-      }
-      if (j != m_numAttribs) {
-	System.err.println("Too few columns (" + j + " instead of " + m_numAttribs + ") in line: " + s);
-      }
-      j = 0;
-      i++;
-      if (i > m_numAttribs) {
-	System.err.println("Too many rows: " + i + ", expecting " + m_numAttribs + " attributes");
-      }
-    }
-    if (i != m_numAttribs) {
-      System.err.println("Too few rows: " + i + " expecting " + m_numAttribs + " attributes");
-    }
-    return vectors;
-  }
-
-
-  /**
-   * Dump data matrix into a file
-   */
-  private void dumpInstances(String tempFile) {
-    try { 
-      PrintWriter writer = new PrintWriter(new BufferedOutputStream(new FileOutputStream(tempFile)));
-      for (int k = 0; k < m_numInstances; k++) {
-	Instance instance = m_trainInstances.instance(k);
-	for (int j = 0; j < m_numAttribs; j++) {
-	  writer.print(instance.value(j) + " ");
-	}
-	writer.println();
-      }
-      writer.close();
-    } catch (Exception e) {
-      System.err.println("Could not create a temporary file for dumping the data matrix: " + e);
-    }
-  }
-
-  /**
-   * Dump constraints into a file
-   */
-  private void dumpConstraints (String simFile, String diffFile) {
-    try { 
-      PrintWriter writer = new PrintWriter(new BufferedOutputStream(new FileOutputStream(simFile)));
-      for (int k = 0; k < m_numInstances; k++) {
-	for (int j = 0; j < m_numInstances; j++) {
-	  writer.print(m_simConstraints[k][j] + " ");
-	}
-	writer.println();
-      }
-      writer.close();
-
-      writer = new PrintWriter(new BufferedOutputStream(new FileOutputStream(diffFile)));
-      for (int k = 0; k < m_numInstances; k++) {
-	for (int j = 0; j < m_numInstances; j++) {
-	  writer.print(m_diffConstraints[k][j] + " ");
-	}
-	writer.println();
-      }
-      writer.close();
-
-    } catch (Exception e) {
-      System.err.println("Could not create a temporary file for dumping the data matrix: " + e);
-    }
-  }
-
-
-  /** Create octave m-file for ICA
-   * @param filename file where octave script is created
-   */
-  public void prepareOctave(String filename) {
-    try{
-      PrintWriter writer = new PrintWriter(new BufferedOutputStream(new FileOutputStream(filename)));
-      writer.println("load " + m_dataFilename + ";");
-      writer.println("load " + m_simConstraintsFilename + ";");
-      writer.println("load " + m_diffConstraintsFilename + ";");
-      writer.println("[A] = opt(" + m_dataFilenameToken + "," + m_simConstraintsFilenameToken + "," + m_diffConstraintsFilenameToken + "," + m_maxIter + ")");
-      writer.println("[AnumRows, AnumCols] = size(A);");
-      writer.println("save " + m_xingAttributeMatrixFilename + " AnumRows AnumCols A");
-      writer.close();
-    } 
-    catch (Exception e) {
-      System.err.println("Could not create octave file: " + e);
-    }
-  }
-
-
-  /** Run octave in command line with a given argument
-   * @param inFile file to be input to Octave
-   * @param outFile file where results are stored
-   */
-  public static void runOctave(String inFile, String outFile) {
-    // call octave to do the dirty work
-    try {
-      int exitValue;
-      String cmd = "octave " + inFile + " > " + outFile;
-      System.out.println("Starting to run octave: " + cmd);
-      Process proc = Runtime.getRuntime().exec(cmd);
-      exitValue = proc.waitFor();
-
-      // read the training output
-      if (proc != null){
-	BufferedReader procOutput  = new BufferedReader(new InputStreamReader(proc.getErrorStream()));
-	try {
-	  String line;
-	  while ((line = procOutput.readLine()) != null){
-	    System.out.println("OCTAVE:  " + line);
-	  }
-	} catch (Exception e) {
-	  System.err.println("Problems trapping output in debug mode:");
-	  e.printStackTrace();
-	  System.out.println(e);
-	}
-      }
-      
-      System.out.println("End of running octave, exitValue = " + exitValue);
-    }
-    catch (Exception e) {
-      System.err.println("Problems running octave: " + e);
-    }
-  } 
-
-  /** Get a timestamp string as a weak uniqueid
-   * @returns a timestamp string in the form "mmddhhmmssS"
-   */     
-  public static String getLogTimestamp() {
-    Calendar cal = Calendar.getInstance(TimeZone.getDefault());
-    String DATE_FORMAT = "MMddHHmmssS";
-    java.text.SimpleDateFormat sdf = new java.text.SimpleDateFormat(DATE_FORMAT);
-    
-    sdf.setTimeZone(TimeZone.getDefault());          
-    return (sdf.format(cal.getTime()));
+    double [][] matrix = Xing.learnMatrix(createDataMatrix(data),
+					  (int[][]) simPairs.toArray(new int[simPairs.size()][]),
+					  (int[][]) diffPairs.toArray(new int[diffPairs.size()][]),
+					  m_maxIter);
+    m_attrMatrix = expandMatrix(matrix, m_numAttribs, data.classIndex());
+    System.out.println("Successfully learned metric");
   }
 
   /**
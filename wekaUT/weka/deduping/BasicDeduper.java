@@ -30,6 +30,9 @@ import java.io.Serializable;
 import java.util.*;
 
 import weka.clusterers.Cluster;
+import weka.clusterers.DistanceMatrix;
+import weka.clusterers.DenseDistanceMatrix;
+import weka.clusterers.SparseDistanceMatrix;
 
 /** A basic deduper class that takes a set of objects and
  * identifies disjoint subsets of duplicates
@@ -45,8 +48,9 @@ public class BasicDeduper extends Deduper implements OptionHandler, Serializable
   /** The proportion of the training fold that should be used for training*/
   protected double  m_trainProportion = 1.0;
   
-  /** distance matrix containing the distance between each pair */
-  protected double[][] m_distanceMatrix = null;
+  /** distance matrix containing the distance between each pair; sparse
+   * with Double.MAX_VALUE for the pairs not selected if blocking is on */
+  protected DistanceMatrix m_distanceMatrix = null;
   
   /** instance hash, where each Integer index is hashed to an instance */
   protected HashMap m_instancesHash = null;
@@ -69,11 +73,31 @@ public class BasicDeduper extends Deduper implements OptionHandler, Serializable
   /** holds the clusters */
   protected ArrayList m_clusters = null;
 
+  /** Agglomeration state with a sparse distance matrix, indexed by the
+   * representative (first instance) of every cluster: the cluster and
+   * the position in the list of active representatives; and the stored
+   * pairs, closest first */
+  protected Cluster [] m_repClusters = null;
+  protected int [] m_activeReps = null;
+  protected int [] m_activePositions = null;
+  protected int m_numActive = 0;
+  protected PairHeap m_mergeHeap = null;
+
+  /** The class counts of every cluster of more than one instance,
+   * indexed by the representative; Integer class -> int[1] count */
+  protected HashMap [] m_repClassCounts = null;
+
+  /** Class counts of a cluster, all zero between merges */
+  protected int[] m_classCounts = null;
+
   /** A set of instances to dedupe */
   protected Instances m_testInstances = null;
 
   /** Use blocking ? */
   protected boolean m_useBlocking = false; 
+
+  /** The blocker that selects the pairs to compare if blocking is on */
+  protected Blocking m_blocker = new Blocking();
   
   /**
    * temporary variable holding cluster assignments
@@ -160,11 +184,15 @@ public class BasicDeduper extends Deduper implements OptionHandler, Serializable
 			 "actual clusters; " + numObjects + " true objects desired");
     }
     // merge clusters until desired number of clusters is reached
-    while (m_numCurrentObjects > numObjects) {
-      if (m_debug) {
-	System.out.println("Merging with " + (m_numCurrentObjects) + " clusters left");
+    if (m_distanceMatrix instanceof SparseDistanceMatrix) {
+      agglomerateStored(numObjects);
+    } else {
+      while (m_numCurrentObjects > numObjects) {
+	if (m_debug) {
+	  System.out.println("Merging with " + (m_numCurrentObjects) + " clusters left");
+	}
+	mergeStep();
       }
-      mergeStep();
     }
     System.out.println("Done deduping with " + m_clusters.size() + " clusters");
   }
@@ -261,7 +289,7 @@ public class BasicDeduper extends Deduper implements OptionHandler, Serializable
 	
     int i1 = ((Integer) cluster1.get(0)).intValue();
     int i2 = ((Integer) cluster2.get(0)).intValue();
-    return m_distanceMatrix[i1][i2];
+    return m_distanceMatrix.get(i1, i2);
   }
 
      boolean fuckedUp = false;
@@ -285,27 +313,20 @@ public class BasicDeduper extends Deduper implements OptionHandler, Serializable
 	Cluster currentCluster = (Cluster) m_clusters.get(i);
 	int currClusterFirstIdx = ((Integer) currentCluster.get(0)).intValue();
 
-	if (m_distanceMatrix[cluster1FirstIdx][currClusterFirstIdx] <=
-	    m_distanceMatrix[cluster2FirstIdx][currClusterFirstIdx]) {
+	if (m_distanceMatrix.get(cluster1FirstIdx, currClusterFirstIdx) <=
+	    m_distanceMatrix.get(cluster2FirstIdx, currClusterFirstIdx)) {
 	  // first cluster is closer, no need to update
-	  // but just in case:
-//  	  m_distanceMatrix[cluster2FirstIdx][currClusterFirstIdx] =
-//  	    m_distanceMatrix[currClusterFirstIdx][cluster2FirstIdx] =
-//  	    m_distanceMatrix[cluster1FirstIdx][currClusterFirstIdx];
 	} else {
 	  // second cluster is closer, must update distance between the first representative
-	  m_distanceMatrix[cluster1FirstIdx][currClusterFirstIdx] =
-	    m_distanceMatrix[currClusterFirstIdx][cluster1FirstIdx] =
-	    m_distanceMatrix[cluster2FirstIdx][currClusterFirstIdx];
+	  m_distanceMatrix.set(cluster1FirstIdx, currClusterFirstIdx,
+			       m_distanceMatrix.get(cluster2FirstIdx, currClusterFirstIdx));
 	}
 	// check for infinity links
-	if (m_distanceMatrix[cluster2FirstIdx][currClusterFirstIdx] == Double.POSITIVE_INFINITY) {
-	  m_distanceMatrix[cluster1FirstIdx][currClusterFirstIdx] =
-	    m_distanceMatrix[currClusterFirstIdx][cluster1FirstIdx] = Double.POSITIVE_INFINITY;
+	if (m_distanceMatrix.get(cluster2FirstIdx, currClusterFirstIdx) == Double.POSITIVE_INFINITY) {
+	  m_distanceMatrix.set(cluster1FirstIdx, currClusterFirstIdx, Double.POSITIVE_INFINITY);
 	}
-	if (m_distanceMatrix[cluster1FirstIdx][currClusterFirstIdx] == Double.POSITIVE_INFINITY) {
-	  m_distanceMatrix[cluster2FirstIdx][currClusterFirstIdx] =
-	    m_distanceMatrix[currClusterFirstIdx][cluster2FirstIdx] = Double.POSITIVE_INFINITY;
+	if (m_distanceMatrix.get(cluster1FirstIdx, currClusterFirstIdx) == Double.POSITIVE_INFINITY) {
+	  m_distanceMatrix.set(cluster2FirstIdx, currClusterFirstIdx, Double.POSITIVE_INFINITY);
 	}
       }
     }
@@ -318,6 +339,209 @@ public class BasicDeduper extends Deduper implements OptionHandler, Serializable
 
     return newCluster;
   }
+
+  /**
+   * Merge clusters until the desired number of clusters is reached,
+   * picking the merges from a heap of the pairs stored in a sparse
+   * distance matrix instead of comparing all pairs of clusters.  A
+   * merge only visits the stored pairs of the merged clusters, and the
+   * smaller cluster is added to the larger one, whose representative
+   * represents the merged cluster.  Once
+   * no stored pair is left, all remaining distances are tied at the
+   * default, and clusters are merged at random as mergeStep does.
+   * Ties between equally close pairs are broken randomly.
+   * @param numObjects the number of clusters to stop at
+   */
+  protected void agglomerateStored(int numObjects) throws Exception {
+    SparseDistanceMatrix matrix = (SparseDistanceMatrix) m_distanceMatrix;
+    double defaultValue = matrix.getDefaultValue();
+    Random random = new Random();
+    int n = m_clusters.size();
+    m_repClusters = new Cluster[n];
+    m_activeReps = new int[n];
+    m_activePositions = new int[n];
+    m_numActive = 0;
+    m_repClassCounts = new HashMap[n];
+    int [] creationOrder = new int[n];
+    int numCreated = 0;
+    for (int i = 0; i < n; i++) {
+      Cluster cluster = (Cluster) m_clusters.get(i);
+      int rep = ((Integer) cluster.get(0)).intValue();
+      m_repClusters[rep] = cluster;
+      m_activePositions[rep] = m_numActive;
+      m_activeReps[m_numActive++] = rep;
+      creationOrder[rep] = numCreated++;
+    }
+    m_mergeHeap = new PairHeap(random, (int) Math.min(matrix.numStored(), Integer.MAX_VALUE));
+    for (int i = 0; i < n; i++) {
+      for (int k = 0; k < matrix.numNeighbors(i); k++) {
+	int j = matrix.neighbor(i, k);
+	double distance = matrix.get(i, j);
+	if (j > i && distance < defaultValue) {
+	  m_mergeHeap.offer(distance, i, j);
+	}
+      }
+    }
+
+    while (m_numCurrentObjects > numObjects) {
+      int rep1 = -1, rep2 = -1;
+      double distance = defaultValue;
+      // skip the entries of merged clusters and of changed distances
+      while (rep1 < 0 && !m_mergeHeap.isEmpty()) {
+	int first = m_mergeHeap.minFirst();
+	int second = m_mergeHeap.minSecond();
+	double heapDistance = m_mergeHeap.minScore();
+	m_mergeHeap.removeMin();
+	if (m_repClusters[first] != null && m_repClusters[second] != null
+	    && matrix.get(first, second) == heapDistance) {
+	  rep1 = first;
+	  rep2 = second;
+	  distance = heapDistance;
+	}
+      }
+      if (rep1 < 0) {
+	// pick a random pair among those at the default distance
+	for (int attempt = 0; attempt < 100 && rep1 < 0; attempt++) {
+	  int first = m_activeReps[random.nextInt(m_numActive)];
+	  int second = m_activeReps[random.nextInt(m_numActive)];
+	  if (first != second && matrix.get(first, second) == defaultValue) {
+	    rep1 = first;
+	    rep2 = second;
+	  }
+	}
+	for (int i = 0; i < m_numActive && rep1 < 0; i++) {
+	  for (int j = i+1; j < m_numActive && rep1 < 0; j++) {
+	    if (matrix.get(m_activeReps[i], m_activeReps[j]) == defaultValue) {
+	      rep1 = m_activeReps[i];
+	      rep2 = m_activeReps[j];
+	    }
+	  }
+	}
+	// only infinite distances are left
+	if (rep1 < 0) {
+	  break;
+	}
+      }
+
+      if (m_debug) {
+	Instance in1 = m_testInstances.instance(rep1);
+	Instance in2 = m_testInstances.instance(rep2);
+	System.out.println("\nMerging clusters " + rep1 + " and " + rep2 + ";  distance=" + distance);
+	if (in1.classValue() == in2.classValue()) {
+	  System.out.println("good: " + distance + "\t" + in1 + "\tand" + in2);
+	} else {
+	  System.out.println("BAD:  " + distance + "\t" + in1 + "\tand" + in2);
+	} 
+      }
+      creationOrder[mergeStoredClusters(rep1, rep2)] = numCreated++;
+      m_numCurrentObjects--;
+    }
+
+    // list the remaining clusters in the order they were created
+    long [] keys = new long[m_numActive];
+    for (int i = 0; i < m_numActive; i++) {
+      keys[i] = ((long) creationOrder[m_activeReps[i]] << 32) | m_activeReps[i];
+    }
+    Arrays.sort(keys);
+    m_clusters = new ArrayList();
+    for (int i = 0; i < keys.length; i++) {
+      m_clusters.add(m_repClusters[(int) (keys[i] & 0xffffffffL)]);
+    }
+    m_repClusters = null;
+    m_activeReps = null;
+    m_activePositions = null;
+    m_mergeHeap = null;
+    m_repClassCounts = null;
+  }
+
+  /** Merge two clusters of agglomerateStored and update the stored
+   * distances and the pair statistics; the smaller cluster is added to
+   * the larger one
+   * @param rep1 the representative of the first cluster
+   * @param rep2 the representative of the second cluster
+   * @return the representative of the merged cluster
+   */
+  protected int mergeStoredClusters(int rep1, int rep2) throws Exception {
+    SparseDistanceMatrix matrix = (SparseDistanceMatrix) m_distanceMatrix;
+    if (m_repClusters[rep1].size() < m_repClusters[rep2].size()) {
+      int rep = rep1;
+      rep1 = rep2;
+      rep2 = rep;
+    }
+    Cluster cluster1 = m_repClusters[rep1];
+    Cluster cluster2 = m_repClusters[rep2];
+
+    // update pair statistics
+    m_numTotalPairs += cluster1.size() * cluster2.size();
+    HashMap classCounts1 = classCounts(rep1);
+    HashMap classCounts2 = classCounts(rep2);
+    Iterator iterator = classCounts2.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry entry = (Map.Entry) iterator.next();
+      int count2 = ((int[]) entry.getValue())[0];
+      int[] count1 = (int[]) classCounts1.get(entry.getKey());
+      if (count1 == null) {
+	classCounts1.put(entry.getKey(), new int[] {count2});
+      } else {
+	m_numGoodPairs += count1[0] * count2;
+	count1[0] += count2;
+      }
+    }
+    m_repClassCounts[rep2] = null;
+    cluster1.copyElements(cluster2);
+
+    // the second cluster is no longer active
+    int lastRep = m_activeReps[--m_numActive];
+    m_activeReps[m_activePositions[rep2]] = lastRep;
+    m_activePositions[lastRep] = m_activePositions[rep2];
+    m_repClusters[rep2] = null;
+
+    // only clusters with a stored distance to the second cluster can
+    // come closer; infinite links are kept as in mergeClusters
+    for (int k = 0; k < matrix.numNeighbors(rep2); k++) {
+      int rep = matrix.neighbor(rep2, k);
+      if (m_repClusters[rep] == null || rep == rep1) {
+	continue;
+      }
+      double distance1 = matrix.get(rep1, rep);
+      double distance2 = matrix.get(rep2, rep);
+      double distance = (distance1 == Double.POSITIVE_INFINITY || distance2 == Double.POSITIVE_INFINITY) ?
+	Double.POSITIVE_INFINITY : Math.min(distance1, distance2);
+      if (distance != distance1) {
+	matrix.set(rep1, rep, distance);
+	if (distance < matrix.getDefaultValue()) {
+	  m_mergeHeap.offer(distance, rep1, rep);
+	}
+      }
+    }
+
+    accumulateStatistics();
+    return rep1;
+  }
+
+  /** Get the class counts of a cluster of agglomerateStored, creating
+   * them for a singleton
+   * @param rep the representative of the cluster
+   * @return a map from Integer class values to int[1] counts
+   */
+  protected HashMap classCounts(int rep) {
+    HashMap classCounts = m_repClassCounts[rep];
+    if (classCounts == null) {
+      classCounts = new HashMap();
+      Cluster cluster = m_repClusters[rep];
+      for (int i = 0; i < cluster.size(); i++) {
+	Integer classValue = new Integer((int) m_classValues[((Integer) cluster.get(i)).intValue()]);
+	int[] count = (int[]) classCounts.get(classValue);
+	if (count == null) {
+	  classCounts.put(classValue, new int[] {1});
+	} else {
+	  count[0]++;
+	}
+      }
+      m_repClassCounts[rep] = classCounts;
+    }
+    return classCounts;
+  }
   
   /**
    * Create the hashtable from given Instances;
@@ -335,7 +559,7 @@ public class BasicDeduper extends Deduper implements OptionHandler, Serializable
     for (int i = 0; i < data.numInstances(); i++) {
       Instance instance = data.instance(i);
       m_classValues[i] = instance.classValue();
-      if (!m_instancesHash.containsValue(instance)) {
+      if (!m_reverseInstancesHash.containsKey(instance)) {
 	Integer idx = new Integer(i);
 	m_instancesHash.put(idx, instance);
 	m_reverseInstancesHash.put(instance, idx);
@@ -352,33 +576,25 @@ public class BasicDeduper extends Deduper implements OptionHandler, Serializable
    */
   protected void createDistanceMatrix () throws Exception {
     int n = m_instancesHash.size();
-    double sim;
-	
-    m_distanceMatrix = new double[n][n];
 
     if (m_useBlocking) {
-      for (int i = 0; i < n; i++) {
-	Arrays.fill(m_distanceMatrix[i], Double.MAX_VALUE);
-      }
-      
-      Blocking blocker = new Blocking();
-      blocker.buildIndex(m_testInstances);
-      InstancePair[] pairs = blocker.getMostSimilarPairs(m_testInstances.numClasses() * 50);
+      // only the candidate pairs selected by the blocker are compared
+      m_blocker.buildIndex(m_testInstances);
+      InstancePair[] pairs = m_blocker.getMostSimilarPairs(m_testInstances.numClasses() * 50);
+      m_distanceMatrix = new SparseDistanceMatrix(n, Double.MAX_VALUE, pairs.length);
       for (int i = 0; i < pairs.length && pairs[i] != null; i++) {
 	int idx1 = ((Integer) m_reverseInstancesHash.get(pairs[i].instance1)).intValue();
 	int idx2 = ((Integer) m_reverseInstancesHash.get(pairs[i].instance2)).intValue();
-	m_distanceMatrix[idx1][idx2] = m_distanceMatrix[idx1][idx2] = pairs[i].value;
+	m_distanceMatrix.set(idx1, idx2,
+			     m_metric.distance(m_testInstances.instance(Math.min(idx1, idx2)),
+					       m_testInstances.instance(Math.max(idx1, idx2))));
       }
-    }
-    
-    for (int i = 0; i < n; i++) {
-      for (int j = i+1; j < n; j++) {
-	if (!m_useBlocking || m_distanceMatrix[i][j] != Double.MAX_VALUE) {
-	  m_distanceMatrix[i][j] = m_distanceMatrix[j][i] =
-	    m_metric.distance((Instance) m_instancesHash.get(new Integer(i)),
-			      (Instance) m_instancesHash.get(new Integer(j)));
-	  Instance i1 = (Instance) m_instancesHash.get(new Integer(i));
-	  Instance j1 = (Instance) m_instancesHash.get(new Integer(j));
+    } else {
+      m_distanceMatrix = new DenseDistanceMatrix(n);
+      for (int i = 0; i < n; i++) {
+	Instance instance1 = m_testInstances.instance(i);
+	for (int j = i+1; j < n; j++) {
+	  m_distanceMatrix.set(i, j, m_metric.distance(instance1, m_testInstances.instance(j)));
 	}
       }
     }
@@ -499,23 +715,24 @@ public class BasicDeduper extends Deduper implements OptionHandler, Serializable
    */
   protected int numCrossClusterTruePairs(Cluster cluster1, Cluster cluster2) {
     int numCCTruePairs = 0;
-    int[] classCounts1 = new int[m_numObjects];
+    // count the classes of the first cluster in a reused array, so that
+    // a merge costs the size of the clusters rather than the number of objects
+    if (m_classCounts == null || m_classCounts.length < m_numObjects) {
+      m_classCounts = new int[m_numObjects];
+    }
     for (int i = 0; i < cluster1.size(); i++) {
       Integer instanceIdx = (Integer) cluster1.get(i);
-      classCounts1[(int)m_classValues[instanceIdx.intValue()]]++;
+      m_classCounts[(int)m_classValues[instanceIdx.intValue()]]++;
     }
 
-    int[] classCounts2 = new int[m_numObjects];
     for (int i = 0; i < cluster2.size(); i++) {
       Integer instanceIdx = (Integer) cluster2.get(i);
-      classCounts2[(int)m_classValues[instanceIdx.intValue()]]++;
+      numCCTruePairs += m_classCounts[(int)m_classValues[instanceIdx.intValue()]];
     }
 
-    for (int i = 0; i < m_numObjects; i++) {
-      numCCTruePairs += classCounts1[i] * classCounts2[i];
-      if (classCounts1[i] != 0 || classCounts2[i] != 0) { 
-//  	System.out.println(i + "\t" + classCounts1[i] + "\t" + classCounts2[i]);
-      }
+    for (int i = 0; i < cluster1.size(); i++) {
+      Integer instanceIdx = (Integer) cluster1.get(i);
+      m_classCounts[(int)m_classValues[instanceIdx.intValue()]] = 0;
     }
     return numCCTruePairs;
   } 
@@ -613,6 +830,20 @@ public class BasicDeduper extends Deduper implements OptionHandler, Serializable
     return m_useBlocking;
   }
 
+  /** Set the blocker used to select the pairs to compare
+   * @param blocker the blocker
+   */
+  public void setBlocker(Blocking blocker) {
+    m_blocker = blocker;
+  }
+
+  /** Get the blocker used to select the pairs to compare
+   * @returns the blocker
+   */
+  public Blocking getBlocker() {
+    return m_blocker;
+  }
+
   
     /**
    * Returns an enumeration describing the available options
@@ -623,6 +854,8 @@ public class BasicDeduper extends Deduper implements OptionHandler, Serializable
     Vector newVector = new Vector(2);
     newVector.addElement(new Option("\tMetric.\n"
 				    +"\t(default=ClassifierInstanceMetric)", "M", 1,"-M metric_name metric_options"));
+    newVector.addElement(new Option("\tUse blocking with the given options.\n"
+				    +"\t(default: no blocking)", "B", 1,"-B blocking_options"));
     return newVector.elements();
   }
 
@@ -634,6 +867,9 @@ public class BasicDeduper extends Deduper implements OptionHandler, Serializable
    * -M metric options <p>
    * InstanceMetric used <p>
    *
+   * -B blocking options <p>
+   * Turn blocking on and configure the blocker <p>
+   *
    * @param options the list of options as an array of strings
    * @exception Exception if an option is not supported
    *
@@ -649,6 +885,12 @@ public class BasicDeduper extends Deduper implements OptionHandler, Serializable
       System.out.println("Metric name: " + metricName + "\nMetric parameters: " + concatStringArray(metricSpec));
       setMetric(InstanceMetric.forName(metricName, metricSpec));
     }
+
+    String blockingString = Utils.getOption('B', options);
+    if (blockingString.length() != 0) {
+      setUseBlocking(true);
+      m_blocker.setOptions(Utils.splitOptions(blockingString));
+    }
   }
 
 
@@ -663,6 +905,9 @@ public class BasicDeduper extends Deduper implements OptionHandler, Serializable
 
     if (m_useBlocking == false) { 
       options[current++] = "-NB"; 
+    } else {
+      options[current++] = "-B";
+      options[current++] = Utils.joinOptions(m_blocker.getOptions());
     }
 
     options[current++] = "-T";
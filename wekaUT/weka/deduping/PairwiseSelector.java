@@ -62,6 +62,16 @@ public class PairwiseSelector implements OptionHandler, Serializable {
   /** Output debugging information */
   protected boolean m_debug = false;
 
+  /** Number of threads computing the metric values of pairs; 0 means one per processor */
+  protected int m_numThreads = 1;
+
+  /** Number of pairs whose metric values are computed together by the threads */
+  protected int m_pairBatchSize = 256;
+
+  /** Maps each record to the values of its used fields, so that they
+   * are looked up once per record rather than once per pair */
+  protected transient IdentityHashMap m_fieldValueMap = null;
+
   /** The record pair selection method */
 
   // positives
@@ -190,6 +200,7 @@ public class PairwiseSelector implements OptionHandler, Serializable {
     if (m_posPairList == null || m_negPairList == null) {
       throw new Exception("Called PairwiseSelector.getInstances before initalization via initSelector!");
     }
+    m_fieldValueMap = new IdentityHashMap();
 
     /*** Create the Instances dataset ***/
     // first, create all the numeric attributes
@@ -240,9 +251,10 @@ public class PairwiseSelector implements OptionHandler, Serializable {
       // randomize the indeces of positive examples and select the desired number
       numMisfires = 0; 
       int [] posPairIdxs = randomSubset(m_numPotentialPositives, m_numPotentialPositives);
+      PairInstanceBuilder posBuilder = new PairInstanceBuilder(m_posPairList, posPairIdxs,
+							       attrIdxs, stringMetrics);
       for (int i = 0; i < posPairIdxs.length && numActualPositives < numPosPairs && numMisfires < 500; i++) {
-	Instance posInstance = createInstance((InstancePair) m_posPairList.get(posPairIdxs[i]),
-					      attrIdxs, stringMetrics);
+	Instance posInstance = posBuilder.next();
 	if (posInstance != null && isUniqueInstance(posInstance, checksumMap, checksumCoeffs)) {
 	  instances.add(posInstance);
 	  numActualPositives++;
@@ -256,10 +268,16 @@ public class PairwiseSelector implements OptionHandler, Serializable {
       Blocking blocker = new Blocking();
       blocker.buildIndex(m_instances);
       InstancePair[] pairs = blocker.getMostSimilarPairs(numPosPairs*2);
+      int numPairs = 0;
+      while (numPairs < pairs.length && pairs[numPairs] != null) {
+	numPairs++;
+      }
+      PairInstanceBuilder activeBuilder = new PairInstanceBuilder(Arrays.asList(pairs).subList(0, numPairs),
+								  null, attrIdxs, stringMetrics);
       numMisfires = 0; 
       for (int i = 0;
 	   (numActualPositives + numActualNegatives) < numPosPairs && i < pairs.length && pairs[i] != null && numMisfires < 500; i++) {
-	Instance trainInstance = createInstance(pairs[i], attrIdxs, stringMetrics);
+	Instance trainInstance = activeBuilder.next();
 	if (trainInstance != null && isUniqueInstance(trainInstance, checksumMap, checksumCoeffs)) {
 	  if (pairs[i].positive == true) { 
 	    instances.add(trainInstance);
@@ -313,9 +331,10 @@ public class PairwiseSelector implements OptionHandler, Serializable {
       numMisfires = 0;
       int numUniqueNegatives = 0; 
       int [] negPairIdxs = randomSubset(m_numPotentialNegatives, m_numPotentialNegatives);
+      PairInstanceBuilder negBuilder = new PairInstanceBuilder(m_negPairList, negPairIdxs,
+							       attrIdxs, stringMetrics);
       for (int i = 0; i < negPairIdxs.length && numUniqueNegatives < numNegPairs && numMisfires < 1000; i++) {
-	Instance negInstance = createInstance((InstancePair) m_negPairList.get(negPairIdxs[i]),
-					      attrIdxs, stringMetrics);
+	Instance negInstance = negBuilder.next();
 	if (negInstance != null && isUniqueInstance(negInstance, checksumMap, checksumCoeffs)) {
 	  instances.add(negInstance);
 	  numActualNegatives++;
@@ -430,28 +449,35 @@ public class PairwiseSelector implements OptionHandler, Serializable {
    */
   protected Instance createInstance (InstancePair pair, int[] attrIdxs, StringMetric[][] metrics ) throws Exception {
     int numAttributes = metrics.length * metrics[0].length + 1;
-    int numNonNegativeValues = 0;
-    int numValues = 0;
     double[] values = new double[numAttributes];  
+    String[] fields1 = getFieldValues(pair.instance1, attrIdxs);
+    String[] fields2 = getFieldValues(pair.instance2, attrIdxs);
 
+    int numValues = 0;
     for (int i = 0; i < attrIdxs.length; i++) {
-      String val1 = pair.instance1.stringValue(attrIdxs[i]);
-      String val2 = pair.instance2.stringValue(attrIdxs[i]);
-
       for (int j = 0; j < metrics.length; j++) { 
-	if (metrics[j][i].isDistanceBased()) { 
-	  values[numValues] = metrics[j][i].distance(val1, val2);
-	} else {
-	  values[numValues] = metrics[j][i].similarity(val1, val2);
-	}
-	if (values[numValues] != 0) {
-	  numNonNegativeValues++;
-	}
-	numValues++;
+	values[numValues++] = metricValue(metrics[j][i], fields1[i], fields2[i]);
+      }
+    }
+    return createInstance(values, pair.positive);
+  }
+
+  /**
+   * Create a diffInstance from metric values that have already been computed
+   * @param values the metric values; the last element is overwritten with the class
+   * @param positive true if the pair is a same-class pair
+   * @return a newly created diffInstance, or null if all diff-values are 0
+   */
+  protected Instance createInstance (double[] values, boolean positive) {
+    int numAttributes = values.length;
+    int numNonNegativeValues = 0;
+    for (int i = 0; i < numAttributes-1; i++) {
+      if (values[i] != 0) {
+	numNonNegativeValues++;
       }
     }
     
-    if (pair.positive) {
+    if (positive) {
       values[numAttributes-1] = 0;
     } else {
       values[numAttributes-1] = 1;
@@ -465,6 +491,231 @@ public class PairwiseSelector implements OptionHandler, Serializable {
     }
   }
 
+  /** Compute the distance or the similarity between two strings,
+   * whichever the metric is based on
+   * @param metric the string metric
+   * @param s1 first string
+   * @param s2 second string
+   * @return the value of the metric
+   */
+  protected static double metricValue(StringMetric metric, String s1, String s2) throws Exception {
+    if (metric.isDistanceBased()) { 
+      return metric.distance(s1, s2);
+    } else {
+      return metric.similarity(s1, s2);
+    }
+  }
+
+  /** Get the values of the used fields of a record, looking them up
+   * the first time the record is seen
+   * @param instance a record
+   * @param attrIdxs indeces of fields that should be utilized
+   * @return the string values of the fields
+   */
+  protected String[] getFieldValues(Instance instance, int[] attrIdxs) {
+    if (m_fieldValueMap == null) {
+      m_fieldValueMap = new IdentityHashMap();
+    }
+    String[] fields = (String[]) m_fieldValueMap.get(instance);
+    if (fields == null) {
+      fields = new String[attrIdxs.length];
+      for (int i = 0; i < attrIdxs.length; i++) {
+	fields[i] = instance.stringValue(attrIdxs[i]);
+      }
+      m_fieldValueMap.put(instance, fields);
+    }
+    return fields;
+  }
+
+
+  /**
+   * Creates the diffInstances for a fixed sequence of pairs, one at a
+   * time in the order of the sequence.  The metric values are computed
+   * ahead for a batch of upcoming pairs by m_numThreads threads.  A
+   * single metric object is only ever used by one thread, which
+   * computes its values for all pairs of the batch, so the metrics need
+   * not be thread-safe.  The checks that decide which instances are
+   * kept stay with the caller, so the resulting dataset is the same as
+   * when the pairs are processed one by one; at most one batch of pairs
+   * is computed in vain at the end.
+   */
+  protected class PairInstanceBuilder {
+    /** The pairs and the order in which they are taken; null for the list order */
+    protected List m_pairs;
+    protected int[] m_order;
+
+    /** The fields and the metrics that make up the diffInstances */
+    protected int[] m_attrIdxs;
+    protected StringMetric[][] m_metrics;
+
+    /** Units of work: each holds the metric cells (field * numMetrics + metric)
+     * that share a metric object */
+    protected int[][] m_units;
+
+    /** The number of threads and the number of pairs in a batch */
+    protected int m_threads;
+    protected int m_batchSize;
+
+    /** The current batch: its position in the sequence, and per pair
+     * the field values, the metric values and the class */
+    protected int m_batchStart = 0;
+    protected int m_batchEnd = 0;
+    protected String[][] m_fields1;
+    protected String[][] m_fields2;
+    protected double[][] m_values;
+    protected boolean[] m_positive;
+
+    /** The position of the next pair in the sequence */
+    protected int m_next = 0;
+
+    /** The next unit of work handed out to a thread */
+    protected int m_nextUnit = 0;
+
+    /**
+     * Create a builder for a sequence of pairs
+     * @param pairs a list of InstancePair's
+     * @param order positions in the list in the order the pairs are
+     * taken, or null to take them in list order
+     * @param attrIdxs indeces of fields that should be utilized
+     * @param metrics the string metrics that are used to create the training instances
+     */
+    public PairInstanceBuilder(List pairs, int[] order, int[] attrIdxs, StringMetric[][] metrics) {
+      m_pairs = pairs;
+      m_order = order;
+      m_attrIdxs = attrIdxs;
+      m_metrics = metrics;
+
+      // group the cells by metric object
+      IdentityHashMap unitMap = new IdentityHashMap();
+      ArrayList unitList = new ArrayList();
+      for (int i = 0; i < attrIdxs.length; i++) {
+	for (int j = 0; j < metrics.length; j++) {
+	  ArrayList cells = (ArrayList) unitMap.get(metrics[j][i]);
+	  if (cells == null) {
+	    cells = new ArrayList();
+	    unitMap.put(metrics[j][i], cells);
+	    unitList.add(cells);
+	  }
+	  cells.add(new Integer(i * metrics.length + j));
+	}
+      }
+      m_units = new int[unitList.size()][];
+      for (int u = 0; u < m_units.length; u++) {
+	ArrayList cells = (ArrayList) unitList.get(u);
+	m_units[u] = new int[cells.size()];
+	for (int c = 0; c < cells.size(); c++) {
+	  m_units[u][c] = ((Integer) cells.get(c)).intValue();
+	}
+      }
+
+      m_threads = m_numThreads;
+      if (m_threads <= 0) {
+	m_threads = Runtime.getRuntime().availableProcessors();
+      }
+      m_threads = Math.max(1, Math.min(m_threads, m_units.length));
+      // a single thread gains nothing from computing ahead
+      m_batchSize = (m_threads > 1) ? Math.max(1, m_pairBatchSize) : 1;
+      m_fields1 = new String[m_batchSize][];
+      m_fields2 = new String[m_batchSize][];
+      m_values = new double[m_batchSize][];
+      m_positive = new boolean[m_batchSize];
+    }
+
+    /** The number of pairs in the sequence */
+    public int numPairs() {
+      return (m_order == null) ? m_pairs.size() : m_order.length;
+    }
+
+    /**
+     * Create the diffInstance for the next pair of the sequence
+     * @return a newly created diffInstance, or null if all diff-values are 0
+     */
+    public Instance next() throws Exception {
+      if (m_next >= numPairs()) {
+	throw new NoSuchElementException("No more pairs");
+      }
+      if (m_next == m_batchEnd) {
+	computeBatch();
+      }
+      int p = m_next++ - m_batchStart;
+      Instance instance = createInstance(m_values[p], m_positive[p]);
+      m_values[p] = null;
+      return instance;
+    }
+
+    /** Compute the metric values of the pairs of the next batch */
+    protected void computeBatch() throws Exception {
+      m_batchStart = m_next;
+      m_batchEnd = Math.min(numPairs(), m_batchStart + m_batchSize);
+      int numAttributes = m_metrics.length * m_attrIdxs.length + 1;
+      for (int p = 0; p < m_batchEnd - m_batchStart; p++) {
+	int idx = (m_order == null) ? m_batchStart + p : m_order[m_batchStart + p];
+	InstancePair pair = (InstancePair) m_pairs.get(idx);
+	m_fields1[p] = getFieldValues(pair.instance1, m_attrIdxs);
+	m_fields2[p] = getFieldValues(pair.instance2, m_attrIdxs);
+	m_values[p] = new double[numAttributes];
+	m_positive[p] = pair.positive;
+      }
+
+      // the first worker runs in the current thread
+      m_nextUnit = 0;
+      int numThreads = (m_batchEnd - m_batchStart > 1) ? m_threads : 1;
+      MetricThread [] workers = new MetricThread[numThreads];
+      for (int t = 0; t < numThreads; t++) {
+	workers[t] = new MetricThread();
+      }
+      for (int t = 1; t < numThreads; t++) {
+	workers[t].start();
+      }
+      workers[0].run();
+      for (int t = 1; t < numThreads; t++) {
+	workers[t].join();
+      }
+      for (int t = 0; t < numThreads; t++) {
+	if (workers[t].m_error != null) {
+	  throw workers[t].m_error;
+	}
+      }
+    }
+
+    /** Hand out the next unit of work
+     * @return the index of the unit, or -1 if all units are taken
+     */
+    protected synchronized int nextUnit() {
+      return (m_nextUnit < m_units.length) ? m_nextUnit++ : -1;
+    }
+
+    /** Compute the values of the metric cells of a unit for all pairs of the batch
+     * @param unit the index of the unit
+     */
+    protected void computeUnit(int unit) throws Exception {
+      int numPairs = m_batchEnd - m_batchStart;
+      for (int c = 0; c < m_units[unit].length; c++) {
+	int cell = m_units[unit][c];
+	int i = cell / m_metrics.length;
+	int j = cell % m_metrics.length;
+	StringMetric metric = m_metrics[j][i];
+	for (int p = 0; p < numPairs; p++) {
+	  m_values[p][cell] = metricValue(metric, m_fields1[p][i], m_fields2[p][i]);
+	}
+      }
+    }
+
+    /** A worker that computes units of work until none are left */
+    protected class MetricThread extends Thread {
+      protected Exception m_error = null;
+
+      public void run() {
+	try {
+	  for (int u = nextUnit(); u >= 0; u = nextUnit()) {
+	    computeUnit(u);
+	  }
+	} catch (Exception e) {
+	  m_error = e;
+	}
+      }
+    }
+  }
 
 
   /** Check whether an instance is unique
@@ -949,6 +1200,35 @@ public class PairwiseSelector implements OptionHandler, Serializable {
 
   
   
+  /** Set the number of threads computing the metric values of pairs
+   * @param numThreads the number of threads; 0 uses one per processor
+   */
+  public void setNumThreads(int numThreads) {
+    m_numThreads = numThreads;
+  }
+
+  /** Get the number of threads computing the metric values of pairs
+   * @return the number of threads; 0 uses one per processor
+   */
+  public int getNumThreads() {
+    return m_numThreads;
+  }
+
+  /** Set the number of pairs whose metric values are computed together
+   * @param pairBatchSize the number of pairs in a batch
+   */
+  public void setPairBatchSize(int pairBatchSize) {
+    m_pairBatchSize = pairBatchSize;
+  }
+
+  /** Get the number of pairs whose metric values are computed together
+   * @return the number of pairs in a batch
+   */
+  public int getPairBatchSize() {
+    return m_pairBatchSize;
+  }
+
+  
   /** Turn debugging output on/off
    * @param debug if true, debugging info will be printed
    */
@@ -1059,7 +1339,7 @@ public class PairwiseSelector implements OptionHandler, Serializable {
    * @return an array of strings suitable for passing to setOptions()
    */
   public String [] getOptions() {
-    String [] options = new String [10];
+    String [] options = new String [12];
     int current = 0;
 
     switch(m_positivesMode) {
@@ -1118,6 +1398,11 @@ public class PairwiseSelector implements OptionHandler, Serializable {
       options[current++] = "-SNe";
       break;
     }
+
+    if (m_numThreads != 1) {
+      options[current++] = "-T";
+      options[current++] = "" + m_numThreads;
+    }
     
     while (current < options.length) {
       options[current++] = "";
@@ -1128,8 +1413,14 @@ public class PairwiseSelector implements OptionHandler, Serializable {
   /**
    * Parses a given list of options. Valid options are:<p>
    *
+   * -T <number of threads> <br>
+   * Number of threads computing the metric values of pairs, 0 for one per processor <p>
    */
   public void setOptions(String[] options) throws Exception {
+    String optionString = Utils.getOption('T', options);
+    if (optionString.length() != 0) {
+      setNumThreads(Integer.parseInt(optionString));
+    }
   }
 
   /**
@@ -1138,8 +1429,10 @@ public class PairwiseSelector implements OptionHandler, Serializable {
    * @return an enumeration of all the available options.
    */
   public Enumeration listOptions() {
-    Vector newVector = new Vector(0);
-
+    Vector newVector = new Vector(1);
+    newVector.addElement(new Option("\tNumber of threads computing the metric values of pairs\n"
+				    + "\t(default 1, 0 = one per processor)",
+				    "T", 1, "-T <num>"));
     return newVector.elements();
   }
 }
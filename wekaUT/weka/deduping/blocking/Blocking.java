@@ -37,6 +37,22 @@ import weka.deduping.*;
  * can return the pairs of strings that are most alike.  Largely
  * borrowed from VectorSpaceMetric.
  *
+ * In the top-K mode the pairs are not enumerated: tokens are interned
+ * into integer ids, and getMostSimilarPairs(k) runs a similarity join
+ * that only indexes the part of every record that can still bring a
+ * pair into the current top k (prefix filtering), keeping the best
+ * pairs in a bounded heap.  Tokens that occur in too many records can
+ * be excluded from candidate generation.
+ *
+ * Valid options are:<p>
+ *
+ * -K <br>
+ * Use the top-K similarity join instead of enumerating all pairs <p>
+ *
+ * -F <fraction> <br>
+ * Tokens occurring in more than this fraction of the records do not
+ * generate candidate pairs in the top-K mode <p>
+ *
  * @author Mikhail Bilenko
  */
 public class Blocking implements OptionHandler, Serializable {
@@ -106,6 +122,38 @@ public class Blocking implements OptionHandler, Serializable {
   /** Should IDF weighting be used? */
   protected boolean m_useIDF = true;
 
+  /** Blocking methods */
+  public static final int MODE_ALL_PAIRS = 1;
+  public static final int MODE_TOP_K = 2;
+  public static final Tag[] TAGS_MODE = {
+    new Tag(MODE_ALL_PAIRS, "All pairs with common tokens"),
+    new Tag(MODE_TOP_K, "Top-K similarity join")
+  };
+  protected int m_mode = MODE_ALL_PAIRS;
+
+  /** Tokens occurring in more than this fraction of the instances do
+   * not generate candidate pairs in the top-K mode */
+  protected double m_maxDocFrequency = 1.0;
+
+  /** Relative slack that guards the prefix bounds against rounding errors */
+  protected static final double EPSILON = 1e-10;
+
+  /** Interned token ids of every instance in increasing order; ids
+   * are assigned in order of decreasing document frequency */
+  protected int[][] m_instanceTokens = null;
+
+  /** Normalized weights of the tokens of every instance */
+  protected double[][] m_instanceWeights = null;
+
+  /** The number of instances every token id occurs in */
+  protected int[] m_tokenDFs = null;
+
+  /** The largest normalized weight of every token id */
+  protected double[] m_maxTokenWeights = null;
+
+  /** Pairs found by the last top-K join, most similar first */
+  protected InstancePair[] m_topPairs = null;
+
   /** Construct a vector space from a given set of examples
    * @param strings a list of strings from which the inverted index is
    * to be constructed
@@ -122,18 +170,21 @@ public class Blocking implements OptionHandler, Serializable {
     m_instances = instances; 
     m_instanceRefHash = new HashMap();
     m_tokenHash = new HashMap();
-    int classIndex = instances.classIndex();
+    m_instanceRefs = new ArrayList();
+    m_pairSet = new TreeSet(new InstancePairComparator());
+    m_topPairs = null;
+
+    if (m_mode == MODE_TOP_K) {
+      buildTokenIdIndex(instances);
+      System.out.println(getTimestamp() + " Indexed " +  instances.numInstances() + " documents with "
+			 + m_tokenDFs.length + " unique terms.");
+      return;
+    }
 
     for (int i = 0; i < instances.numInstances(); i++) { 
       Instance instance = instances.instance(i);
-      StringBuffer buffer = new StringBuffer();
-      for (int j = 0; j < instance.numAttributes(); j++) {
-	if (j != classIndex) {
-	  buffer.append(instance.stringValue(j)).append(" ");
-	} 
-      }
       // Create a document vector for this document
-      String string = buffer.toString();
+      String string = getInstanceString(instance);
       HashMapVector vector = m_tokenizer.tokenize(string);
       vector.initLength();
       indexInstance(instance, i, string, vector);
@@ -146,6 +197,18 @@ public class Blocking implements OptionHandler, Serializable {
     System.out.println(getTimestamp() + " Created a set with " + m_pairSet.size() + " pairs");
   }
 
+  /** Amalgamate the values of all attributes except for the class into a single string */
+  protected String getInstanceString(Instance instance) {
+    int classIndex = instance.classIndex();
+    StringBuffer buffer = new StringBuffer();
+    for (int j = 0; j < instance.numAttributes(); j++) {
+      if (j != classIndex) {
+	buffer.append(instance.stringValue(j)).append(" ");
+      } 
+    }
+    return buffer.toString();
+  }
+
   /** Index a given Instance using its corresponding vector */
   protected void indexInstance(Instance instance, int idx, String string, HashMapVector vector) {
     // Create a new reference
@@ -277,7 +340,7 @@ public class Blocking implements OptionHandler, Serializable {
    */
   public double similarity(InstanceReference iRef1, InstanceReference iRef2) {
     double length1 = iRef1.length;
-    double length2 = iRef1.length;
+    double length2 = iRef2.length;
     HashMapVector v1 = iRef1.vector;
     HashMapVector v2 = iRef2.vector;
     double similarity = 0;
@@ -310,9 +373,236 @@ public class Blocking implements OptionHandler, Serializable {
     return similarity;
   }
 
+  /** Build the representation used by the top-K join: every instance
+   * becomes an array of interned token ids with the corresponding
+   * normalized weights.  Token strings are only kept while interning.
+   */
+  protected void buildTokenIdIndex(Instances instances) throws Exception {
+    int numInstances = instances.numInstances();
+    HashMap tokenIdHash = new HashMap();
+    int[] dfs = new int[1024];
+    int[][] tokens = new int[numInstances][];
+    double[][] counts = new double[numInstances][];
+
+    for (int i = 0; i < numInstances; i++) {
+      HashMapVector vector = m_tokenizer.tokenize(getInstanceString(instances.instance(i)));
+      tokens[i] = new int[vector.size()];
+      counts[i] = new double[vector.size()];
+      Iterator mapEntries = vector.iterator();
+      for (int j = 0; mapEntries.hasNext(); j++) {
+	Map.Entry entry = (Map.Entry)mapEntries.next();
+	Integer id = (Integer) tokenIdHash.get(entry.getKey());
+	if (id == null) {
+	  id = new Integer(tokenIdHash.size());
+	  tokenIdHash.put(entry.getKey(), id);
+	  if (id.intValue() == dfs.length) {
+	    int[] newDFs = new int[2 * dfs.length];
+	    System.arraycopy(dfs, 0, newDFs, 0, dfs.length);
+	    dfs = newDFs;
+	  }
+	}
+	tokens[i][j] = id.intValue();
+	counts[i][j] = ((Weight)entry.getValue()).getValue();
+	dfs[tokens[i][j]]++;
+      }
+    }
+    int numTokens = tokenIdHash.size();
+    tokenIdHash = null;
+
+    // renumber the tokens in order of decreasing document frequency
+    long[] keys = new long[numTokens];
+    for (int id = 0; id < numTokens; id++) {
+      keys[id] = ((long) (numInstances - dfs[id]) << 32) | id;
+    }
+    Arrays.sort(keys);
+    int[] newIds = new int[numTokens];
+    m_tokenDFs = new int[numTokens];
+    for (int rank = 0; rank < numTokens; rank++) {
+      int id = (int) (keys[rank] & 0xffffffffL);
+      newIds[id] = rank;
+      m_tokenDFs[rank] = dfs[id];
+    }
+    keys = null;
+
+    // compute the normalized weights; tokens occurring in every instance have idf=0 and are dropped
+    m_instanceTokens = new int[numInstances][];
+    m_instanceWeights = new double[numInstances][];
+    m_maxTokenWeights = new double[numTokens];
+    double[] rankCounts = new double[numTokens];
+    for (int i = 0; i < numInstances; i++) {
+      int numKept = 0;
+      for (int j = 0; j < tokens[i].length; j++) {
+	int rank = newIds[tokens[i][j]];
+	if (m_tokenDFs[rank] < numInstances) {
+	  tokens[i][numKept++] = rank;
+	  rankCounts[rank] = counts[i][j];
+	}
+      }
+      int[] instanceTokens = new int[numKept];
+      System.arraycopy(tokens[i], 0, instanceTokens, 0, numKept);
+      Arrays.sort(instanceTokens);
+
+      double[] instanceWeights = new double[numKept];
+      double length = 0;
+      for (int j = 0; j < numKept; j++) {
+	int rank = instanceTokens[j];
+	instanceWeights[j] = rankCounts[rank];
+	if (m_useIDF) {
+	  instanceWeights[j] *= Math.log(((double) numInstances) / m_tokenDFs[rank]);
+	}
+	length += instanceWeights[j] * instanceWeights[j];
+	rankCounts[rank] = 0;
+      }
+      length = Math.sqrt(length);
+      for (int j = 0; j < numKept; j++) {
+	instanceWeights[j] /= length;
+	if (instanceWeights[j] > m_maxTokenWeights[instanceTokens[j]]) {
+	  m_maxTokenWeights[instanceTokens[j]] = instanceWeights[j];
+	}
+      }
+      m_instanceTokens[i] = instanceTokens;
+      m_instanceWeights[i] = instanceWeights;
+      tokens[i] = null;
+      counts[i] = null;
+    }
+  }
+
+  /** Find the most similar pairs of instances with a top-K similarity
+   * join.  Instances are processed in order; every instance is first
+   * matched against the inverted index of the preceding ones and then
+   * added to it.  Only the suffix of an instance whose tokens could
+   * still make up the current threshold (the score of the worst pair
+   * in the heap) is indexed, so frequent tokens rarely get posting
+   * lists.  A candidate is verified only if its partial score plus
+   * the bound on its unindexed prefix reaches the threshold.
+   * @param numPairs the number of pairs to find
+   * @return the pairs, most similar first
+   */
+  protected InstancePair[] findTopPairs(int numPairs) {
+    if (numPairs <= 0) {
+      return new InstancePair[0];
+    }
+    int numInstances = m_instanceTokens.length;
+    int maxDF = (int) Math.floor(m_maxDocFrequency * numInstances);
+    PairHeap heap = new PairHeap(numPairs);
+
+    // postings of the indexed tokens; a token never has more postings than its document frequency
+    int[][] postingInstances = new int[m_tokenDFs.length][];
+    double[][] postingWeights = new double[m_tokenDFs.length][];
+    int[] postingSizes = new int[m_tokenDFs.length];
+
+    // bound on the similarity contributed by the unindexed tokens of every instance
+    double[] prefixBounds = new double[numInstances];
+
+    // partial scores of the candidates of the current instance
+    double[] scores = new double[numInstances];
+    int[] candidates = new int[numInstances];
+    int[] candidateMarks = new int[numInstances];
+    Arrays.fill(candidateMarks, -1);
+
+    for (int i = 0; i < numInstances; i++) {
+      int[] tokens = m_instanceTokens[i];
+      double[] weights = m_instanceWeights[i];
+
+      // accumulate partial scores over the postings
+      int numCandidates = 0;
+      for (int j = 0; j < tokens.length; j++) {
+	int token = tokens[j];
+	int[] instanceIdxs = postingInstances[token];
+	double[] instanceWeights = postingWeights[token];
+	for (int p = 0; p < postingSizes[token]; p++) {
+	  int candidate = instanceIdxs[p];
+	  if (candidateMarks[candidate] != i) {
+	    candidateMarks[candidate] = i;
+	    candidates[numCandidates++] = candidate;
+	    scores[candidate] = 0;
+	  }
+	  scores[candidate] += weights[j] * instanceWeights[p];
+	}
+      }
+
+      // verify the candidates that can still enter the heap
+      for (int c = 0; c < numCandidates; c++) {
+	int candidate = candidates[c];
+	if (heap.isFull()
+	    && (scores[candidate] + prefixBounds[candidate]) * (1 + EPSILON) < heap.minScore()) {
+	  continue;
+	}
+	heap.offer(similarity(candidate, i), candidate, i);
+      }
+
+      // index the suffix of the instance that can reach the threshold
+      double threshold = heap.isFull() ? heap.minScore() : 0;
+      double bound = 0;
+      boolean indexing = false;
+      for (int j = 0; j < tokens.length; j++) {
+	int token = tokens[j];
+	double contribution = weights[j] * m_maxTokenWeights[token];
+	if (!indexing && (bound + contribution) * (1 + EPSILON) >= threshold) {
+	  indexing = true;
+	}
+	if (!indexing || m_tokenDFs[token] > maxDF) {
+	  bound += contribution;
+	  continue;
+	}
+	if (postingInstances[token] == null) {
+	  postingInstances[token] = new int[m_tokenDFs[token]];
+	  postingWeights[token] = new double[m_tokenDFs[token]];
+	}
+	postingInstances[token][postingSizes[token]] = i;
+	postingWeights[token][postingSizes[token]] = weights[j];
+	postingSizes[token]++;
+      }
+      prefixBounds[i] = bound;
+    }
+
+    heap.sort();
+    InstancePair[] pairs = new InstancePair[heap.size()];
+    for (int i = 0; i < pairs.length; i++) {
+      Instance instance1 = m_instances.instance(heap.getFirst(i));
+      Instance instance2 = m_instances.instance(heap.getSecond(i));
+      pairs[i] = new InstancePair(instance1, instance2,
+				  (instance1.classValue() == instance2.classValue()),
+				  heap.getScore(i));
+    }
+    return pairs;
+  }
+
+  /** Compute the cosine similarity of two instances in the top-K
+   * representation by merging their sorted token ids
+   */
+  protected double similarity(int idx1, int idx2) {
+    int[] tokens1 = m_instanceTokens[idx1];
+    int[] tokens2 = m_instanceTokens[idx2];
+    double[] weights1 = m_instanceWeights[idx1];
+    double[] weights2 = m_instanceWeights[idx2];
+    double similarity = 0;
+    int i = 0, j = 0;
+    while (i < tokens1.length && j < tokens2.length) {
+      if (tokens1[i] == tokens2[j]) {
+	similarity += weights1[i++] * weights2[j++];
+      } else if (tokens1[i] < tokens2[j]) {
+	i++;
+      } else {
+	j++;
+      }
+    }
+    return similarity;
+  }
+
   /** Return n most similar pairs
    */
   public InstancePair[] getMostSimilarPairs(int numPairs) {
+    if (m_mode == MODE_TOP_K) {
+      if (m_topPairs == null || m_topPairs.length < numPairs) {
+	m_topPairs = findTopPairs(numPairs);
+	System.out.println(getTimestamp() + " Found the top " + m_topPairs.length + " pairs");
+      }
+      InstancePair [] pairs = new InstancePair[numPairs];
+      System.arraycopy(m_topPairs, 0, pairs, 0, Math.min(numPairs, m_topPairs.length));
+      return pairs;
+    }
+    
     Iterator iterator = m_pairSet.iterator();
     int i = 0;
     InstancePair [] pairs = new InstancePair[numPairs]; 
@@ -360,15 +650,53 @@ public class Blocking implements OptionHandler, Serializable {
     return m_useIDF;
   } 
 
+  /** Set the blocking method
+   * @param mode one of TAGS_MODE
+   */
+  public void setMode(SelectedTag mode) {
+    if (mode.getTags() == TAGS_MODE) {
+      m_mode = mode.getSelectedTag().getID();
+    }
+  }
+
+  /** Get the blocking method
+   * @return the blocking method
+   */
+  public SelectedTag getMode() {
+    return new SelectedTag(m_mode, TAGS_MODE);
+  }
+
+  /** Set the largest fraction of instances a token can occur in and
+   * still generate candidate pairs in the top-K mode
+   * @param maxDocFrequency a fraction between 0 and 1
+   */
+  public void setMaxDocFrequency(double maxDocFrequency) {
+    m_maxDocFrequency = maxDocFrequency;
+  }
+
+  /** Get the largest fraction of instances a token can occur in and
+   * still generate candidate pairs in the top-K mode
+   * @return a fraction between 0 and 1
+   */
+  public double getMaxDocFrequency() {
+    return m_maxDocFrequency;
+  }
+
   /**
    * Gets the current settings of Blocking
    *
    * @return an array of strings suitable for passing to setOptions()
    */
   public String [] getOptions() {
-    String [] options = new String [1];
+    String [] options = new String [3];
     int current = 0;
 
+    if (m_mode == MODE_TOP_K) {
+      options[current++] = "-K";
+    }
+    options[current++] = "-F";
+    options[current++] = "" + m_maxDocFrequency;
+
     while (current < options.length) {
       options[current++] = "";
     }
@@ -388,8 +716,24 @@ public class Blocking implements OptionHandler, Serializable {
 
   /**
    * Parses a given list of options. Valid options are:<p>
+   *
+   * -K <br>
+   * Use the top-K similarity join <p>
+   *
+   * -F fraction <br>
+   * Maximum document frequency of tokens generating candidates in the top-K mode <p>
    */
   public void setOptions(String[] options) throws Exception {
+    if (Utils.getFlag('K', options)) {
+      setMode(new SelectedTag(MODE_TOP_K, TAGS_MODE));
+    } else {
+      setMode(new SelectedTag(MODE_ALL_PAIRS, TAGS_MODE));
+    }
+
+    String optionString = Utils.getOption('F', options);
+    if (optionString.length() != 0) {
+      setMaxDocFrequency(Double.parseDouble(optionString));
+    }
   }
 
   /**
@@ -398,7 +742,12 @@ public class Blocking implements OptionHandler, Serializable {
    * @return an enumeration of all the available options.
    */
   public Enumeration listOptions() {
-    Vector newVector = new Vector(0);
+    Vector newVector = new Vector(2);
+    newVector.addElement(new Option("\tUse the top-K similarity join instead of enumerating all pairs",
+				    "K", 0, "-K"));
+    newVector.addElement(new Option("\tMaximum fraction of records a token can occur in and still\n"
+				    + "\tgenerate candidate pairs in the top-K mode (default 1.0)",
+				    "F", 1, "-F <fraction>"));
     return newVector.elements();
   }
 } 
@@ -0,0 +1,54 @@
+/*
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+/*
+ *    AlignmentBuffers.java
+ *    Per-thread scratch rows for the alignment-based string metrics
+ *
+ */
+
+package weka.deduping.metrics;
+
+/**
+ * Scratch rows for the dynamic programs of the edit distance metrics.
+ * Every thread gets its own rows, which only grow, so that once they
+ * fit the longest strings seen, computing a distance allocates no
+ * memory.  A caller may use the rows until it asks for them again.
+ */
+public class AlignmentBuffers {
+
+  /** The rows of each thread */
+  protected static ThreadLocal s_rows = new ThreadLocal();
+
+  /**
+   * Get the scratch rows of the current thread
+   * @param numRows the number of rows needed
+   * @param length the number of cells needed in each row
+   * @return an array of at least numRows rows of at least length cells
+   */
+  public static double[][] getRows(int numRows, int length) {
+    double[][] rows = (double[][]) s_rows.get();
+    if (rows == null || rows.length < numRows || rows[0].length < length) {
+      if (rows != null) {
+	numRows = Math.max(numRows, rows.length);
+	length = Math.max(length, 2 * rows[0].length);
+      }
+      rows = new double[numRows][length];
+      s_rows.set(rows);
+    }
+    return rows;
+  }
+}
@@ -109,6 +109,21 @@ public abstract class InstanceMetric  {
    */
   public abstract double distance(Instance instance1, Instance instance2) throws Exception;
 
+  /**
+   * Returns a distance value between two instances for a caller that only
+   * cares about distances up to a cutoff; by default the exact distance
+   * is computed.
+   * @param instance1 First instance.
+   * @param instance2 Second instance.
+   * @param cutoff the largest distance of interest
+   * @return the distance, or any value greater than the cutoff if the
+   * distance exceeds it
+   * @exception Exception if distance could not be estimated.
+   */
+  public double distance(Instance instance1, Instance instance2, double cutoff) throws Exception {
+    return distance(instance1, instance2);
+  }
+
 
   /**
    * Returns a similarity estimate between two instances. 
@@ -80,6 +80,10 @@ public class LearnableTokenEDAffine extends StringMetric implements LearnableStr
    training sets are small to prevent zero probabilities. */
   protected double m_clampProb = 1e-5;
 
+  /** Width of the band around the diagonal of the alignment matrices that
+   is computed by the additive model (Ukkonen); 0 computes the whole matrices */
+  protected int m_bandWidth = 0;
+
   /** We can have different ways of converting from distance to similarity  */
   public static final int CONVERSION_LAPLACIAN = 1;
   public static final int CONVERSION_UNIT = 2;
@@ -626,26 +630,27 @@ public class LearnableTokenEDAffine extends StringMetric implements LearnableStr
    * @return a value of this distance between these two strings
    */
   public double distance (String s1, String s2) {
+    return distance(s1, s2, Double.MAX_VALUE);
+  }
+
+  /** 
+   * Get the distance between two strings for a caller that only cares
+   * about distances up to a cutoff.  The cutoff is only used by the
+   * additive model.
+   * @param s1 first string
+   * @param s2 second string
+   * @param cutoff the largest distance of interest
+   * @return a value of this distance between these two strings, or a value
+   * greater than the cutoff if the distance exceeds it
+   */
+  public double distance (String s1, String s2, double cutoff) {
     if (m_useGenerativeModel) {
 
       // retrieve the tokenstring's
-      TokenString ts1;
-      if (m_stringTokenStringMap.containsKey(s1)) {
-	ts1 = ((TokenString)m_stringTokenStringMap.get(s1));
-      } else {
-	ts1 = m_tokenizer.getTokenString(s1);
-	m_stringTokenStringMap.put(s1, ts1);
-      }
-      
-      TokenString ts2;
-      if (m_stringTokenStringMap.containsKey(s2)) {
-	ts2 = ((TokenString)m_stringTokenStringMap.get(s2));
-      } else {
-	ts2 = m_tokenizer.getTokenString(s2);
-	m_stringTokenStringMap.put(s2, ts2);
-      }
+      TokenString ts1 = getTokenString(s1);
+      TokenString ts2 = getTokenString(s2);
     
-      double d = backward(ts1,ts2)[0][0][0];
+      double d = backwardLogProb(ts1,ts2);
       if (m_normalized) {
 	//	for (int i = 0; i < (s1.length() + s2.length()); i++) 
 	  // TODO:  fix the posteriors; don't care for now - we always use the additive model
@@ -659,8 +664,72 @@ public class LearnableTokenEDAffine extends StringMetric implements LearnableStr
       }
       return -d;
     } else {
-      return costDistance(s1, s2);
+      return costDistance(s1, s2, cutoff);
+    }
+  }
+
+  /**
+   * Get the TokenString representation of a string, tokenizing it the
+   * first time it is seen
+   * @param s a string
+   * @return the tokens of the string
+   */
+  protected TokenString getTokenString(String s) {
+    TokenString ts = (TokenString)m_stringTokenStringMap.get(s);
+    if (ts == null) {
+      ts = m_tokenizer.getTokenString(s);
+      m_stringTokenStringMap.put(s, ts);
+    }
+    return ts;
+  }
+
+  /**
+   * Calculate the log-probability of the two token strings given by the
+   * backward matrices (the value of matrix[0][0][0] of backward()),
+   * keeping only two rows of the matrices in per-thread buffers
+   * @param ts1 first token string
+   * @param ts2 second token string
+   * @return the log-probability of generating the two token strings
+   */
+  protected double backwardLogProb (TokenString ts1, TokenString ts2) {
+    int [] s1 = ts1.tokenIDs;
+    int [] s2 = ts2.tokenIDs;
+    int l1 = s1.length, l2 = s2.length;
+    double[][] rows = AlignmentBuffers.getRows(6, l2 + 1);
+    double [] next0 = rows[0], next1 = rows[1], next2 = rows[2];  // row i+1
+    double [] curr0 = rows[3], curr1 = rows[4], curr2 = rows[5];  // row i
+    double [] tmp;
+    double sub_pairProb, tmpLog;
+
+    // the last row
+    next0[l2] = m_endAtSubLogProb;
+    next1[l2] = next2[l2] = m_endAtGapLogProb;
+    for (int j = l2-1; j >= 0; j--) {
+      next0[j] = m_gapTokenLogProb + m_gapStartLogProb + next2[j+1];
+      next1[j] = Double.NEGATIVE_INFINITY;
+      next2[j] = m_gapTokenLogProb + m_gapExtendLogProb + next2[j+1];
+    }
+
+    // the rest of the rows, bottom to top
+    for (int i = l1-1; i >= 0; i--) {
+      curr0[l2] = m_gapTokenLogProb + m_gapStartLogProb + next1[l2];
+      curr1[l2] = m_gapTokenLogProb + m_gapExtendLogProb + next1[l2];
+      curr2[l2] = Double.NEGATIVE_INFINITY;
+      for (int j = l2-1; j >= 0; j--) {
+	sub_pairProb = (s1[i] == s2[j]) ? m_matchLogProb : m_nonMatchLogProb;
+	curr1[j] = logSum(m_gapTokenLogProb + m_gapExtendLogProb + next1[j],
+			  sub_pairProb + m_gapEndLogProb + next0[j+1]);
+	curr2[j] = logSum(m_gapTokenLogProb + m_gapExtendLogProb + curr2[j+1],
+			  sub_pairProb + m_gapEndLogProb + next0[j+1]);
+	tmpLog = logSum(m_gapTokenLogProb + next1[j], m_gapTokenLogProb + curr2[j+1]);
+	curr0[j] = logSum(sub_pairProb + m_subLogProb + next0[j+1],
+			  m_gapStartLogProb + tmpLog);
+      }
+      tmp = next0; next0 = curr0; curr0 = tmp;
+      tmp = next1; next1 = curr1; curr1 = tmp;
+      tmp = next2; next2 = curr2; curr2 = tmp;
     }
+    return next0[0];
   }
 
 
@@ -761,94 +830,113 @@ public class LearnableTokenEDAffine extends StringMetric implements LearnableStr
    * to transform s1 into s2 (or vice versa)
    */
   public double costDistance(String string1, String string2) {
-    TokenString ts1;
-    if (m_stringTokenStringMap.containsKey(string1)) {
-      ts1 = ((TokenString)m_stringTokenStringMap.get(string1));
-    } else {
-      ts1 = m_tokenizer.getTokenString(string1);
-      m_stringTokenStringMap.put(string1, ts1);
-    }
+    return costDistance(string1, string2, Double.MAX_VALUE);
+  }
 
-    TokenString ts2;
-    if (m_stringTokenStringMap.containsKey(string2)) {
-      ts2 = ((TokenString)m_stringTokenStringMap.get(string2));
-    } else {
-      ts2 = m_tokenizer.getTokenString(string2);
-      m_stringTokenStringMap.put(string2, ts2);
-    }
+  /**
+   * Calculate affine gapped distance using learned costs.  Only two rows
+   * of the T, D and I matrices are kept, in per-thread buffers.  If a band
+   * width is set, only the cells within that distance of the diagonal are
+   * computed.  Since all costs are negative log-probabilities, no value in
+   * the matrices is smaller than the smallest value in an earlier row, so
+   * the computation stops as soon as that value exceeds the cutoff.
+   * @param s1 first string
+   * @param s2 second string
+   * @param cutoff the largest distance of interest
+   * @return minimum number of deletions/insertions/substitutions to be performed
+   * to transform s1 into s2 (or vice versa), or a lower bound on it that is
+   * greater than the cutoff
+   */
+  public double costDistance(String string1, String string2, double cutoff) {
+    TokenString ts1 = getTokenString(string1);
+    TokenString ts2 = getTokenString(string2);
     
     int [] s1 = ts1.tokenIDs; 
     int [] s2 = ts2.tokenIDs;
     int l1 = s1.length, l2 = s2.length;
-    double T[][] = new double[l1+1][l2+1];
-    double I[][] = new double[l1+1][l2+1];
-    double D[][] = new double[l1+1][l2+1];
-    double subCost = 0, subTokenCost = 0, ret;
+    double subTokenCost = 0, ret;
     int i, j;
 
     if (l1==0 || l2==0) {
       return m_gapStartCost + (l1+l2-1) * m_gapExtendCost;
     }
-    for (j = 0; j < l2+1; j++) {
-      I[0][j] = Double.MAX_VALUE;
-      D[0][j] = Double.MAX_VALUE;
-    }
-    for (j = 0; j < l1+1; j++) {
-      I[j][0] = Double.MAX_VALUE;
-      D[j][0] = Double.MAX_VALUE;
-    }
-    T[0][0] = 0;
-    T[0][1] = m_gapStartCost;
-    T[1][0] = m_gapStartCost;
-    for (j = 2; j < l2+1; j++) {
-      T[0][j] = T[0][j-1] + m_gapExtendCost;
+    double norm = m_normalized ? 4*(l1 + l2) : 1;
+    int band = (m_bandWidth > 0) ? Math.max(m_bandWidth, Math.abs(l1 - l2)) : Math.max(l1, l2);
+    double[][] rows = AlignmentBuffers.getRows(6, l2 + 1);
+    double [] prevT = rows[0], prevD = rows[1], prevI = rows[2];  // row i-1
+    double [] T = rows[3], D = rows[4], I = rows[5];              // row i
+    double [] tmp;
+
+    // the first row
+    int hi = Math.min(l2, band);
+    prevT[0] = 0;
+    prevT[1] = m_gapStartCost;
+    for (j = 2; j <= hi; j++) {
+      prevT[j] = prevT[j-1] + m_gapExtendCost;
     }
-    for (j = 2; j < l1+1; j++) {
-      T[j][0] = T[j-1][0] + m_gapExtendCost;
+    for (j = 0; j <= hi; j++) {
+      prevD[j] = prevI[j] = Double.MAX_VALUE;
     }
+
     for (i = 1; i < l1+1; i++) {
-      for (j = 1; j < l2+1; j++) {
+      int lo = Math.max(1, i - band);
+      hi = Math.min(l2, i + band);
+      if (i + band <= l2) {   // the previous row ends left of this one
+	prevT[hi] = prevD[hi] = prevI[hi] = Double.MAX_VALUE;
+      }
+      if (lo == 1) {
+	T[0] = (i == 1) ? m_gapStartCost : prevT[0] + m_gapExtendCost;
+      } else {
+	T[lo-1] = Double.MAX_VALUE;
+      }
+      D[lo-1] = I[lo-1] = Double.MAX_VALUE;
+      double rowMin = T[lo-1];
+
+      for (j = lo; j <= hi; j++) {
 	int t1 = s1[i-1];
 	int t2 = s2[j-1];
 	subTokenCost = (t1 == t2) ? m_matchCost : m_nonMatchCost;  // TODO:  experiment with 0 matchCost
 
-	if (D[i-1][j]+m_gapExtendCost > T[i-1][j]+m_gapStartCost) {
-	  D[i][j] = T[i-1][j]+m_gapStartCost;
+	if (prevD[j]+m_gapExtendCost > prevT[j]+m_gapStartCost) {
+	  D[j] = prevT[j]+m_gapStartCost;
 	} else {
-	  D[i][j] = D[i-1][j]+m_gapExtendCost;
+	  D[j] = prevD[j]+m_gapExtendCost;
 	}
 		
-	if (I[i][j-1]+m_gapExtendCost > T[i][j-1]+m_gapStartCost) {
-	  I[i][j] = T[i][j-1] + m_gapStartCost;
+	if (I[j-1]+m_gapExtendCost > T[j-1]+m_gapStartCost) {
+	  I[j] = T[j-1] + m_gapStartCost;
 	} else {
-	  I[i][j] = I[i][j-1] + m_gapExtendCost;
+	  I[j] = I[j-1] + m_gapExtendCost;
 	}
 		
-	//	subCost = m_subCost + sub_charCost;
-//  	subCost =((c1 == c2) ? 0 : (m_subCost + m_gapEndCost));
-//  	subCost = subCost + sub_charCost;
-//    	subCost = (c1 == c2) ? 0 : m_subCost;
-	//	subCost = m_subCost;
-		
-	if  ((T[i-1][j-1] + m_subCost < D[i-1][j-1] + m_gapEndCost) &&    /// d[i][j] or d[i-1][j-1]??
-	     (T[i-1][j-1] + m_subCost < I[i-1][j-1] + m_gapEndCost )) {
-	  T[i][j] = T[i-1][j-1] + m_subCost + subTokenCost;   // ?? do we add subCharCost?
+	if  ((prevT[j-1] + m_subCost < prevD[j-1] + m_gapEndCost) &&    /// d[i][j] or d[i-1][j-1]??
+	     (prevT[j-1] + m_subCost < prevI[j-1] + m_gapEndCost )) {
+	  T[j] = prevT[j-1] + m_subCost + subTokenCost;   // ?? do we add subCharCost?
 	} else {
-	  if (D[i-1][j-1] < I[i-1][j-1]) {
-	    T[i][j] = D[i-1][j-1] + m_gapEndCost + subTokenCost;
+	  if (prevD[j-1] < prevI[j-1]) {
+	    T[j] = prevD[j-1] + m_gapEndCost + subTokenCost;
 	  } else {
-	    T[i][j] = I[i-1][j-1] + m_gapEndCost + subTokenCost;
+	    T[j] = prevI[j-1] + m_gapEndCost + subTokenCost;
 	  }
 	}
+	if (T[j] < rowMin) rowMin = T[j];
+	if (D[j] < rowMin) rowMin = D[j];
+	if (I[j] < rowMin) rowMin = I[j];
+      }
+      if (rowMin / norm > cutoff) {
+	return rowMin / norm;
       }
+      tmp = prevT; prevT = T; T = tmp;
+      tmp = prevD; prevD = D; D = tmp;
+      tmp = prevI; prevI = I; I = tmp;
     }
 	
-    if (T[l1][l2] < D[l1][l2] && T[l1][l2] < I[l1][l2]) {
-      ret = T[l1][l2];
-    } else if (D[l1][l2] < I[l1][l2]) {
-      ret = D[l1][l2];
+    if (prevT[l2] < prevD[l2] && prevT[l2] < prevI[l2]) {
+      ret = prevT[l2];
+    } else if (prevD[l2] < prevI[l2]) {
+      ret = prevD[l2];
     } else {
-      ret = I[l1][l2];
+      ret = prevI[l2];
     }
     if (m_normalized) {
 //        // get the normalization factor as P(x,y)=P(x)P(y)
@@ -937,6 +1025,23 @@ public class LearnableTokenEDAffine extends StringMetric implements LearnableStr
   } 
 
 
+  /** Set the width of the band around the diagonal of the alignment matrices
+   * that is computed by the additive model
+   * @param bandWidth the maximum difference between the positions of aligned
+   * tokens; 0 computes the whole matrices
+   */
+  public void setBandWidth(int bandWidth) {
+    m_bandWidth = bandWidth;
+  } 
+
+  /** Get the width of the band around the diagonal of the alignment matrices
+   * @return the width of the band; 0 if the whole matrices are computed
+   */
+  public int getBandWidth() {
+    return m_bandWidth;
+  } 
+
+
   /** Create a copy of this metric
    * @return another AffineMetric with the same exact parameters as this  metric
    */
@@ -948,6 +1053,7 @@ public class LearnableTokenEDAffine extends StringMetric implements LearnableStr
     metric.setUseGenerativeModel(m_useGenerativeModel);
     metric.setClampProb(m_clampProb);
     metric.setNumIterations(m_numIterations);
+    metric.setBandWidth(m_bandWidth);
     return metric;
   }
 
@@ -975,6 +1081,11 @@ public class LearnableTokenEDAffine extends StringMetric implements LearnableStr
     options[current++] = "-c";
     options[current++] = "" + m_clampProb;
 
+    if (m_bandWidth > 0) {
+      options[current++] = "-B";
+      options[current++] = "" + m_bandWidth;
+    }
+
     options[current++] = "-T";
     options[current++] = Utils.removeSubstring(m_tokenizer.getClass().getName(), "weka.deduping.metrics.");
     if (m_tokenizer instanceof OptionHandler) {
@@ -999,10 +1110,16 @@ public class LearnableTokenEDAffine extends StringMetric implements LearnableStr
    * -s subCost
    * -g gapStartCost
    * -e gapExtendCost   
+   * -B width of the band around the diagonal
    */
   public void setOptions(String[] options) throws Exception {
     setNormalized(Utils.getFlag('N', options));
 
+    String bandString = Utils.getOption('B', options);
+    if (bandString.length() != 0) {
+      setBandWidth(Integer.parseInt(bandString));
+    }
+
     System.out.println("Setting options - BZZZZ!");
   }
 
@@ -1017,6 +1134,8 @@ public class LearnableTokenEDAffine extends StringMetric implements LearnableStr
 
     newVector.addElement(new Option("\tNormalize by lengths\n",
 				    "N", 0, "-N"));
+    newVector.addElement(new Option("\tWidth of the band around the diagonal (default 0 = no band)\n",
+				    "B", 1, "-B <width>"));
 
     
     return newVector.elements();
@@ -40,6 +40,20 @@ public abstract class StringMetric implements Cloneable {
    */
   public abstract double distance(String s1, String s2) throws Exception;
 
+  /** Compute a measure of distance between two strings for a caller that
+   * only cares about distances up to a cutoff.  Metrics can stop as soon
+   * as the distance is known to exceed the cutoff; by default the exact
+   * distance is computed.
+   * @param s1 first string
+   * @param s2 second string
+   * @param cutoff the largest distance of interest
+   * @returns distance between two strings, or any value greater than
+   * the cutoff if the distance exceeds it
+   */
+  public double distance(String s1, String s2, double cutoff) throws Exception {
+    return distance(s1, s2);
+  }
+
   /** Compute a measure of similarity between two strings
    * @param s1 first string
    * @param s2 second string
@@ -182,6 +182,31 @@ public class SumInstanceMetric extends InstanceMetric implements OptionHandler,
     return distance;
   } 
 
+  /**
+   * Returns distance between two instances without using the weights,
+   * giving up once the sum of the field distances exceeds the cutoff.
+   * Each field metric is only asked for distances up to the part of the
+   * cutoff that is left.
+   * @param instance1 First instance.
+   * @param instance2 Second instance.
+   * @param cutoff the largest distance of interest
+   * @exception Exception if distance could not be estimated.
+   */
+  public double distance(Instance instance1, Instance instance2, double cutoff) throws Exception {
+    double distance = 0;
+    for (int i = 0; i < m_stringMetrics.length && distance <= cutoff; i++) {
+      String str1 = instance1.stringValue(m_attrIdxs[i]);
+      String str2 = instance2.stringValue(m_attrIdxs[i]);
+
+      if (m_minCommonTokens > 0 && numCommonTokens(str1, str2) < m_minCommonTokens) {
+	distance = Double.MAX_VALUE;
+      } else {
+	distance += m_stringMetrics[i].distance(str1, str2, cutoff - distance);
+      }
+    }
+    return distance;
+  } 
+
   /**
    * Returns similarity between two instances without using the weights.
    * @param instance1 First instance.
@@ -45,7 +45,7 @@ import weka.classifiers.rules.ZeroR;
  * @author Len Trigg (trigg@cs.waikato.ac.nz)
  * @version $Revision: 1.1.1.1 $
  */
-public class ClassifierSplitEvaluator implements SplitEvaluator, 
+public class ClassifierSplitEvaluator implements UpdateableSplitEvaluator, 
   OptionHandler, AdditionalMeasureProducer {
   
   /** The classifier used for evaluation */
@@ -85,6 +85,9 @@ public class ClassifierSplitEvaluator implements SplitEvaluator,
   /** Class index for information retrieval statistics (default 0) */
   private int m_IRclass = 0;
 
+  /** The time spent training the current model so far, in milliseconds */
+  protected long m_trainTime = 0;
+
   /**
    * No args constructor.
    */
@@ -493,6 +496,61 @@ public class ClassifierSplitEvaluator implements SplitEvaluator,
     if (m_Classifier == null) {
       throw new Exception("No classifier has been specified");
     }
+    Evaluation eval = new Evaluation(train);
+    long trainTimeStart = System.currentTimeMillis();
+    m_Classifier.buildClassifier(train);
+    m_trainTime = System.currentTimeMillis() - trainTimeStart;
+    return evaluateModel(eval, test, m_trainTime);
+  }
+
+  /**
+   * Whether the classifier can be trained incrementally.
+   *
+   * @return true if the classifier is an UpdateableClassifier
+   */
+  public boolean isUpdateable() {
+    return m_Classifier instanceof UpdateableClassifier;
+  }
+
+  /**
+   * Continues training the classifier of the last result with the
+   * instances of the training set from numOld on, and gets the results
+   * of the updated classifier on the test set. The training time
+   * reported is the total time spent training the classifier.
+   *
+   * @param train all instances the classifier is to have seen afterwards
+   * @param numOld the number of instances the classifier has already seen
+   * @param test the test set
+   * @return the results of the updated classifier
+   * @exception Exception if the classifier cannot be updated
+   */
+  public Object [] getUpdatedResult(Instances train, int numOld, Instances test)
+    throws Exception {
+
+    if (!isUpdateable()) {
+      throw new Exception("Classifier " + m_Classifier.getClass().getName()
+			  + " is not updateable");
+    }
+    Evaluation eval = new Evaluation(train);
+    long trainTimeStart = System.currentTimeMillis();
+    for (int i = numOld; i < train.numInstances(); i++) {
+      ((UpdateableClassifier)m_Classifier).updateClassifier(train.instance(i));
+    }
+    m_trainTime += System.currentTimeMillis() - trainTimeStart;
+    return evaluateModel(eval, test, m_trainTime);
+  }
+
+  /**
+   * Gets the results of the trained classifier on the test set.
+   *
+   * @param eval an evaluation with the priors of the training set
+   * @param test the test set
+   * @param trainTimeElapsed the time spent training, in milliseconds
+   * @return the results
+   * @exception Exception if a problem occurs while evaluating
+   */
+  protected Object [] evaluateModel(Evaluation eval, Instances test,
+				    long trainTimeElapsed) throws Exception {
     int addm = (m_AdditionalMeasures != null) 
       ? m_AdditionalMeasures.length 
       : 0;
@@ -500,10 +558,6 @@ public class ClassifierSplitEvaluator implements SplitEvaluator,
     overall_length += NUM_IR_STATISTICS;
 
     Object [] result = new Object[overall_length];
-    Evaluation eval = new Evaluation(train);
-    long trainTimeStart = System.currentTimeMillis();
-    m_Classifier.buildClassifier(train);
-    long trainTimeElapsed = System.currentTimeMillis() - trainTimeStart;
     long testTimeStart = System.currentTimeMillis();
     eval.evaluateModel(m_Classifier, test);
     long testTimeElapsed = System.currentTimeMillis() - testTimeStart;
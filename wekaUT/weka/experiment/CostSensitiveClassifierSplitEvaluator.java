@@ -273,6 +273,16 @@ public class CostSensitiveClassifierSplitEvaluator
     return resultNames;
   }
 
+  /**
+   * Models are always trained from scratch, since getUpdatedResult
+   * does not compute the cost-sensitive results.
+   *
+   * @return false
+   */
+  public boolean isUpdateable() {
+    return false;
+  }
+
   /**
    * Gets the results for the supplied train and test datasets.
    *
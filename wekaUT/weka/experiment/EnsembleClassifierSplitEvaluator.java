@@ -329,6 +329,16 @@ public class EnsembleClassifierSplitEvaluator
     return result;
   }
 
+  /**
+   * Models are always trained from scratch, since getUpdatedResult
+   * does not compute the ensemble results.
+   *
+   * @return false
+   */
+  public boolean isUpdateable() {
+    return false;
+  }
+
   /**
    * Gets the results for the supplied train and test datasets.
    *
@@ -29,6 +29,7 @@ import weka.core.Option;
 import weka.core.Instances;
 import weka.core.FastVector;
 import weka.core.AdditionalMeasureProducer;
+import weka.core.converters.BinaryInstancesLoader;
 
 import java.io.Serializable;
 import java.io.File;
@@ -434,8 +435,15 @@ public class Experiment implements Serializable, OptionHandler {
     
     if (m_CurrentInstances == null) {
       File currentFile = (File) getDatasets().elementAt(m_DatasetNumber);
-      Reader reader = new FileReader(currentFile);
-      Instances data = new Instances(new BufferedReader(reader));
+      Instances data;
+      if (currentFile.getName().endsWith(BinaryInstancesLoader.FILE_EXTENSION)) {
+	BinaryInstancesLoader loader = new BinaryInstancesLoader();
+	loader.setSource(currentFile);
+	data = loader.getDataSet();
+      } else {
+	Reader reader = new FileReader(currentFile);
+	data = new Instances(new BufferedReader(reader));
+      }
       if (m_ClassFirst) {
 	data.setClassIndex(0);
       } else {
@@ -286,7 +286,17 @@ public class FeatureCostSensitiveClassifierSplitEvaluator
     public void setFeatureCosts(double []featureCosts){
 	m_FeatureCosts = featureCosts;
     }
-    
+
+  /**
+   * Models are always trained from scratch, since getUpdatedResult
+   * does not compute the feature-cost results.
+   *
+   * @return false
+   */
+  public boolean isUpdateable() {
+    return false;
+  }
+
     /**
    * Gets the results for the supplied train and test datasets.
    *
@@ -27,6 +27,7 @@ package weka.experiment;
 import java.util.*;
 import java.io.*;
 import weka.core.Instances;
+import weka.core.SerializedObject;
 import weka.core.OptionHandler;
 import weka.core.Option;
 import weka.core.Utils;
@@ -40,7 +41,15 @@ import weka.core.AdditionalMeasureProducer;
  * the N fold but always using the same N-fold test set for testing.
  * This gives much more reliable results than LearningRateResultProducer
  * which performs N-fold cross validation on very small subsets of data
- * that produces highly variable results.
+ * that produces highly variable results.<p>
+ *
+ * With the incremental option, a SplitEvaluator that can update its
+ * model (such as ClassifierSplitEvaluator with an UpdateableClassifier)
+ * trains one model per fold and feeds it the training set in the order
+ * of the plot points, evaluating it at each point, so a whole curve
+ * costs about one training; other schemes are retrained at every point.
+ * Folds can be run by several threads, each with its own copy of the
+ * SplitEvaluator; results are still reported in fold order.
  *
  * @author Raymond J. Mooney (mooney@cs.utexas.edu)
  */
@@ -116,6 +125,12 @@ public class LearningCurveCrossValidationResultProducer
 
     /* Indicates whether fractions or actual number of instances have been specified */
     protected boolean m_IsFraction = false;
+
+    /** Whether updateable schemes are trained incrementally along the curve */
+    protected boolean m_Incremental = false;
+
+    /** The number of threads running folds; 0 means one per processor */
+    protected int m_NumThreads = 1;
     
     /**
      * Returns a string describing this result producer
@@ -355,70 +370,249 @@ public class LearningCurveCrossValidationResultProducer
 	if (runInstances.classAttribute().isNominal()) {
 	    runInstances.stratify(m_NumFolds);
 	}
-	for (int fold = 0; fold < m_NumFolds; fold++) {
-	    Instances train = runInstances.trainCV(m_NumFolds, fold);
-
-	    // Randomly shuffle stratified training set for fold: added by Sugato
-	    train.randomize(new Random(fold));	    
 
-	    Instances test = runInstances.testCV(m_NumFolds, fold);
-	    int pointNum = 0;
-	    // For each subsample size
-	    if (m_PlotPoints != null) {
-		m_CurrentSize = plotPoint(0);
-	    }
-	    else if (m_LowerSize == 0) {
-		m_CurrentSize = m_StepSize;
-	    } else {
-		m_CurrentSize = m_LowerSize;
-	    }
-	    while (m_CurrentSize <= maxTrainSize()) {
+	// find the points of each fold that the listener still needs
+	int [] sizes = curveSizes();
+	FoldResults [] folds = new FoldResults[m_NumFolds];
+	for (int fold = 0; fold < m_NumFolds; fold++) {
+	    folds[fold] = new FoldResults(fold, sizes.length);
+	    for (int pointNum = 0; pointNum < sizes.length; pointNum++) {
 		// Add in some fields to the key like run and fold number, dataset name
 		Object [] seKey = m_SplitEvaluator.getKey();
 		Object [] key = new Object [seKey.length + numExtraKeys];
 		key[0] = Utils.backQuoteChars(m_Instances.relationName());
 		key[1] = "" + run;
 		key[2] = "" + (fold + 1);
-		key[3] = "" + m_CurrentSize;
+		key[3] = "" + sizes[pointNum];
 		if(m_IsFraction) key[4] = "" + m_PlotPoints[pointNum];
 		System.arraycopy(seKey, 0, key, numExtraKeys, seKey.length);
 		if (m_ResultListener.isResultRequired(this, key)) {
-		    try {
-			if(m_IsFraction)
-			    System.out.println("Run:" + run + " Fold:" + fold + " Size:" + m_CurrentSize + " Fraction:" + m_PlotPoints[pointNum]);
-			else
-			    System.out.println("Run:" + run + " Fold:" + fold + " Size:" + m_CurrentSize);
-			Instances trainSubset = new Instances(train, 0, m_CurrentSize);
-			Object [] seResults = m_SplitEvaluator.getResult(trainSubset, test);
-			Object [] results = new Object [seResults.length + 1];
-			results[0] = getTimestamp();
-			System.arraycopy(seResults, 0, results, 1,
-					 seResults.length);
-			if (m_debugOutput) {
-			    String resultName = (""+run+"."+(fold+1)+"."+ m_CurrentSize + "." 
-						 + Utils.backQuoteChars(runInstances.relationName())
-						 +"."
-						 +m_SplitEvaluator.toString()).replace(' ','_');
-			    resultName = Utils.removeSubstring(resultName, 
-							       "weka.classifiers.");
-			    resultName = Utils.removeSubstring(resultName, 
-							       "weka.filters.");
-			    resultName = Utils.removeSubstring(resultName, 
-							       "weka.attributeSelection.");
-			    m_ZipDest.zipit(m_SplitEvaluator.getRawResultOutput(), resultName);
-			}
-			m_ResultListener.acceptResult(this, key, results);
-		    } catch (Exception ex) {
-			// Save the train and test datasets for debugging purposes?
-			throw ex;
-		    }
+		    folds[fold].m_Keys[pointNum] = key;
+		    folds[fold].m_NumRequired++;
 		}
-		if (m_PlotPoints != null) {
-		    pointNum ++;
-		    m_CurrentSize = plotPoint(pointNum);
+	    }
+	}
+
+	int numThreads = m_NumThreads;
+	if (numThreads <= 0) {
+	    numThreads = Runtime.getRuntime().availableProcessors();
+	}
+	numThreads = Math.max(1, Math.min(numThreads, m_NumFolds));
+	if (numThreads == 1) {
+	    for (int fold = 0; fold < m_NumFolds; fold++) {
+		runFold(m_SplitEvaluator, runInstances, run, sizes, folds[fold]);
+		reportFold(runInstances, run, sizes, folds[fold]);
+	    }
+	} else {
+	    // each thread runs whole folds with its own copy of the split evaluator
+	    m_NextFold = 0;
+	    FoldThread [] workers = new FoldThread[numThreads];
+	    for (int i = 0; i < numThreads; i++) {
+		SplitEvaluator evaluator = (SplitEvaluator)
+		    new SerializedObject(m_SplitEvaluator).getObject();
+		workers[i] = new FoldThread(evaluator, runInstances, run, sizes, folds);
+		workers[i].start();
+	    }
+	    for (int i = 0; i < numThreads; i++) {
+		workers[i].join();
+	    }
+	    for (int fold = 0; fold < m_NumFolds; fold++) {
+		if (folds[fold].m_Error != null) {
+		    throw folds[fold].m_Error;
 		}
-		else {
-		    m_CurrentSize += m_StepSize;
+		reportFold(runInstances, run, sizes, folds[fold]);
+	    }
+	}
+    }
+
+    /**
+     * Gets the training set sizes of the points on the curve.
+     *
+     * @return the sizes, in the order of the curve
+     */
+    protected int [] curveSizes() {
+	Vector sizes = new Vector();
+	int pointNum = 0;
+	if (m_PlotPoints != null) {
+	    m_CurrentSize = plotPoint(0);
+	}
+	else if (m_LowerSize == 0) {
+	    m_CurrentSize = m_StepSize;
+	} else {
+	    m_CurrentSize = m_LowerSize;
+	}
+	while (m_CurrentSize <= maxTrainSize()) {
+	    sizes.addElement(new Integer(m_CurrentSize));
+	    if (m_PlotPoints != null) {
+		pointNum ++;
+		m_CurrentSize = plotPoint(pointNum);
+	    }
+	    else {
+		m_CurrentSize += m_StepSize;
+	    }
+	}
+	int [] result = new int[sizes.size()];
+	for (int i = 0; i < result.length; i++) {
+	    result[i] = ((Integer) sizes.elementAt(i)).intValue();
+	}
+	return result;
+    }
+
+    /**
+     * Gets the results of the required points of one fold. With the
+     * incremental option and an updateable scheme, one model is trained
+     * along the curve; otherwise a model is trained at every point.
+     *
+     * @param evaluator the split evaluator to use
+     * @param runInstances the randomized and stratified data of the run
+     * @param run the run number
+     * @param sizes the training set sizes of the points
+     * @param results where the results are stored
+     * @exception Exception if a problem occurs while getting the results
+     */
+    protected void runFold(SplitEvaluator evaluator, Instances runInstances,
+			   int run, int [] sizes, FoldResults results) throws Exception {
+	if (results.m_NumRequired == 0) {
+	    return;
+	}
+	int fold = results.m_Fold;
+	Instances train = runInstances.trainCV(m_NumFolds, fold);
+
+	// Randomly shuffle stratified training set for fold: added by Sugato
+	train.randomize(new Random(fold));	    
+
+	Instances test = runInstances.testCV(m_NumFolds, fold);
+	boolean incremental = m_Incremental
+	    && (evaluator instanceof UpdateableSplitEvaluator)
+	    && ((UpdateableSplitEvaluator) evaluator).isUpdateable();
+
+	// the number of instances the current model has seen, 0 if none
+	int numSeen = 0;
+	for (int pointNum = 0; pointNum < sizes.length; pointNum++) {
+	    // points that are not needed still feed the incremental model
+	    // when a later point is evaluated
+	    if (results.m_Keys[pointNum] == null) {
+		continue;
+	    }
+	    if(m_IsFraction)
+		System.out.println("Run:" + run + " Fold:" + fold + " Size:" + sizes[pointNum] + " Fraction:" + m_PlotPoints[pointNum]);
+	    else
+		System.out.println("Run:" + run + " Fold:" + fold + " Size:" + sizes[pointNum]);
+	    Instances trainSubset = new Instances(train, 0, sizes[pointNum]);
+	    if (incremental && numSeen > 0 && numSeen <= sizes[pointNum]) {
+		results.m_Results[pointNum] = ((UpdateableSplitEvaluator) evaluator)
+		    .getUpdatedResult(trainSubset, numSeen, test);
+	    } else {
+		results.m_Results[pointNum] = evaluator.getResult(trainSubset, test);
+	    }
+	    numSeen = sizes[pointNum];
+	    if (m_debugOutput) {
+		results.m_RawOutputs[pointNum] = evaluator.getRawResultOutput();
+		results.m_Names[pointNum] = evaluator.toString();
+	    }
+	}
+    }
+
+    /**
+     * Sends the results of one fold to the result listener.
+     *
+     * @param runInstances the data of the run
+     * @param run the run number
+     * @param sizes the training set sizes of the points
+     * @param results the results of the fold
+     * @exception Exception if the listener fails
+     */
+    protected void reportFold(Instances runInstances, int run, int [] sizes,
+			      FoldResults results) throws Exception {
+	for (int pointNum = 0; pointNum < sizes.length; pointNum++) {
+	    if (results.m_Keys[pointNum] == null) {
+		continue;
+	    }
+	    Object [] seResults = results.m_Results[pointNum];
+	    Object [] result = new Object [seResults.length + 1];
+	    result[0] = getTimestamp();
+	    System.arraycopy(seResults, 0, result, 1,
+			     seResults.length);
+	    if (m_debugOutput) {
+		String resultName = (""+run+"."+(results.m_Fold+1)+"."+ sizes[pointNum] + "." 
+				     + Utils.backQuoteChars(runInstances.relationName())
+				     +"."
+				     +results.m_Names[pointNum]).replace(' ','_');
+		resultName = Utils.removeSubstring(resultName, 
+						   "weka.classifiers.");
+		resultName = Utils.removeSubstring(resultName, 
+						   "weka.filters.");
+		resultName = Utils.removeSubstring(resultName, 
+						   "weka.attributeSelection.");
+		m_ZipDest.zipit(results.m_RawOutputs[pointNum], resultName);
+	    }
+	    m_ResultListener.acceptResult(this, results.m_Keys[pointNum], result);
+	}
+    }
+
+    /** The results of the points of one fold */
+    protected static class FoldResults {
+	/** The fold */
+	protected int m_Fold;
+
+	/** The keys of the points, null for points that are not required */
+	protected Object [][] m_Keys;
+
+	/** The number of required points */
+	protected int m_NumRequired = 0;
+
+	/** The results of the split evaluator at each point */
+	protected Object [][] m_Results;
+
+	/** The raw output and the description of the split evaluator at each point */
+	protected String [] m_RawOutputs;
+	protected String [] m_Names;
+
+	/** An exception thrown while running the fold */
+	protected Exception m_Error = null;
+
+	protected FoldResults(int fold, int numPoints) {
+	    m_Fold = fold;
+	    m_Keys = new Object[numPoints][];
+	    m_Results = new Object[numPoints][];
+	    m_RawOutputs = new String[numPoints];
+	    m_Names = new String[numPoints];
+	}
+    }
+
+    /** The next fold handed out to a thread */
+    protected int m_NextFold = 0;
+
+    /** Hands out the next fold to a thread
+     * @return the fold, or -1 if all folds are taken
+     */
+    protected synchronized int nextFold() {
+	return (m_NextFold < m_NumFolds) ? m_NextFold++ : -1;
+    }
+
+    /** A thread that runs folds until none are left */
+    protected class FoldThread extends Thread {
+	protected SplitEvaluator m_Evaluator;
+	protected Instances m_RunInstances;
+	protected int m_Run;
+	protected int [] m_Sizes;
+	protected FoldResults [] m_Folds;
+
+	public FoldThread(SplitEvaluator evaluator, Instances runInstances, int run,
+			  int [] sizes, FoldResults [] folds) {
+	    m_Evaluator = evaluator;
+	    m_RunInstances = runInstances;
+	    m_Run = run;
+	    m_Sizes = sizes;
+	    m_Folds = folds;
+	}
+
+	public void run() {
+	    for (int fold = nextFold(); fold >= 0; fold = nextFold()) {
+		try {
+		    runFold(m_Evaluator, m_RunInstances, m_Run, m_Sizes, m_Folds[fold]);
+		} catch (Exception ex) {
+		    m_Folds[fold].m_Error = ex;
 		}
 	    }
 	}
@@ -809,6 +1003,63 @@ public class LearningCurveCrossValidationResultProducer
 	m_debugOutput = d;
     }
 
+    /**
+     * Returns the tip text for this property
+     * @return tip text for this property suitable for
+     * displaying in the explorer/experimenter gui
+     */
+    public String incrementalTipText() {
+	return "Train one model per fold along the curve when the scheme is "
+	    +"updateable, instead of training a new model at every point.";
+    }
+
+    /**
+     * Get whether updateable schemes are trained incrementally.
+     *
+     * @return true if one model is trained per fold when possible
+     */
+    public boolean getIncremental() {
+	return m_Incremental;
+    }
+
+    /**
+     * Set whether updateable schemes are trained incrementally.
+     *
+     * @param incremental true if one model should be trained per fold
+     * when possible
+     */
+    public void setIncremental(boolean incremental) {
+	m_Incremental = incremental;
+    }
+
+    /**
+     * Returns the tip text for this property
+     * @return tip text for this property suitable for
+     * displaying in the explorer/experimenter gui
+     */
+    public String numThreadsTipText() {
+	return "The number of folds run at the same time, each with its own "
+	    +"copy of the split evaluator (0 = one per processor).";
+    }
+
+    /**
+     * Get the number of threads running folds.
+     *
+     * @return the number of threads; 0 means one per processor
+     */
+    public int getNumThreads() {
+	return m_NumThreads;
+    }
+
+    /**
+     * Set the number of threads running folds.
+     *
+     * @param numThreads the number of threads; 0 means one per processor
+     */
+    public void setNumThreads(int numThreads) {
+	m_NumThreads = numThreads;
+    }
+
     /**
      * Returns the tip text for this property
      * @return tip text for this property suitable for
@@ -847,7 +1098,7 @@ public class LearningCurveCrossValidationResultProducer
      */
     public Enumeration listOptions() {
 
-	Vector newVector = new Vector(8);
+	Vector newVector = new Vector(10);
 
 	newVector.addElement(new Option(
 					"\tThe number of folds to use for the cross-validation.\n"
@@ -883,6 +1134,18 @@ public class LearningCurveCrossValidationResultProducer
  					"P", 1, 
 	 				"-P <point list>"));
 
+	newVector.addElement(new Option(
+					"\tTrain one model per fold along the curve when the\n"
+					+"\tscheme is updateable.",
+					"I", 0, 
+					"-I"));
+
+	newVector.addElement(new Option(
+					"\tThe number of folds run at the same time.\n"
+					+"\t(default 1, 0 = one per processor)",
+					"T", 1, 
+					"-T <number of threads>"));
+
 	newVector.addElement(new Option(
 					"Save raw split evaluator output.",
 					"D",0,"-D"));
@@ -922,6 +1185,14 @@ public class LearningCurveCrossValidationResultProducer
      * -X num_folds <br>
      * The number of folds to use for the cross-validation. <p>
      *
+     * -I <br>
+     * Train one model per fold along the curve when the scheme is
+     * updateable. <p>
+     *
+     * -T num_threads <br>
+     * The number of folds run at the same time (default 1, 0 = one per
+     * processor). <p>
+     *
      * -D <br>
      * Specify that raw split evaluator output is to be saved. <p>
      *
@@ -942,6 +1213,14 @@ public class LearningCurveCrossValidationResultProducer
     public void setOptions(String[] options) throws Exception {
     
 	setRawOutput(Utils.getFlag('D', options));
+	setIncremental(Utils.getFlag('I', options));
+
+	String numThreads = Utils.getOption('T', options);
+	if (numThreads.length() != 0) {
+	    setNumThreads(Integer.parseInt(numThreads));
+	} else {
+	    setNumThreads(1);
+	}
 
 	String fName = Utils.getOption('O', options);
 	if (fName.length() != 0) {
@@ -1014,7 +1293,7 @@ public class LearningCurveCrossValidationResultProducer
 	    seOptions = ((OptionHandler)m_SplitEvaluator).getOptions();
 	}
     
-	String [] options = new String [seOptions.length + 16];
+	String [] options = new String [seOptions.length + 19];
 	int current = 0;
 
 	options[current++] = "-X"; options[current++] = "" + getNumFolds();
@@ -1022,6 +1301,10 @@ public class LearningCurveCrossValidationResultProducer
 	if (getRawOutput()) {
 	    options[current++] = "-D";
 	}
+	if (getIncremental()) {
+	    options[current++] = "-I";
+	}
+	options[current++] = "-T"; options[current++] = "" + getNumThreads();
 
 	options[current++] = "-O"; 
 	options[current++] = getOutputFile().getName();
@@ -0,0 +1,60 @@
+/*
+ *    This program is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 2 of the License, or
+ *    (at your option) any later version.
+ *
+ *    This program is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with this program; if not, write to the Free Software
+ *    Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA.
+ */
+
+/*
+ *    UpdateableSplitEvaluator.java
+ *    SplitEvaluators whose models can be trained incrementally
+ *
+ */
+
+
+package weka.experiment;
+
+import weka.core.Instances;
+
+/**
+ * Interface to SplitEvaluators that can continue training the model
+ * of their last result on more instances, instead of training a new
+ * model. Learning curves use this to evaluate one model at every point
+ * of the curve.
+ *
+ * @version $Revision: 1.1 $
+ */
+public interface UpdateableSplitEvaluator extends SplitEvaluator {
+
+  /**
+   * Whether the model of the current scheme can be trained
+   * incrementally.
+   *
+   * @return true if getUpdatedResult can be used
+   */
+  boolean isUpdateable();
+
+  /**
+   * Continues training the model of the last call to getResult or
+   * getUpdatedResult with the instances of the training set from
+   * numOld on, and gets the results of the model on the test set. The
+   * first numOld instances must be the ones the model has already seen.
+   *
+   * @param train all instances the model is to have seen afterwards
+   * @param numOld the number of instances the model has already seen
+   * @param test the test set
+   * @return the results of the updated model, as for getResult
+   * @exception Exception if a problem occurs while getting the results
+   */
+  Object [] getUpdatedResult(Instances train, int numOld, Instances test)
+    throws Exception;
+}